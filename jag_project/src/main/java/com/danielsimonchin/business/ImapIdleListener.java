@@ -0,0 +1,227 @@
+package com.danielsimonchin.business;
+
+import com.danielsimonchin.exceptions.InvalidRecipientImapURLException;
+import com.danielsimonchin.exceptions.RecipientInvalidFormatException;
+import com.danielsimonchin.persistence.EmailDAO;
+import com.danielsimonchin.properties.MailConfigBean;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.mail.Folder;
+import javax.mail.FolderClosedException;
+import javax.mail.MessagingException;
+import javax.mail.StoreClosedException;
+import jodd.mail.MailException;
+import jodd.mail.ReceiveMailSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps one IMAP session open per account on a background thread and saves
+ * new messages of the INBOX as soon as the server reports them. The session
+ * waits with the IMAP IDLE command when the server supports it, otherwise it
+ * checks for new mail every imapPollInterval seconds with a NOOP. Each time,
+ * the InboxSyncPipeline receives the messages above the last saved UID. A lost
+ * connection is opened again after a delay that doubles with every failed
+ * attempt.
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public class ImapIdleListener {
+
+    private final static Logger LOG = LoggerFactory.getLogger(ImapIdleListener.class);
+
+    //One listener per account so the application never holds two sessions on the same INBOX
+    private final static Map<String, ImapIdleListener> LISTENERS = new ConcurrentHashMap<>();
+
+    private final static long MIN_RECONNECT_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(1);
+    private final static long MAX_RECONNECT_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final MailConfigBean mailConfigBean;
+    private final InboxSyncPipeline inboxSync;
+    private final InboxSyncPipeline.ProgressListener listener;
+    private final long pollIntervalMillis;
+
+    private volatile boolean running = false;
+    private volatile Folder openInbox;
+    private Thread thread;
+
+    /**
+     * Starts listening to the INBOX of the account, unless a listener for it
+     * is already running.
+     *
+     * @param mailConfigBean The account to listen to
+     * @param emailDAO The DAO used to save the received emails
+     * @param listener Called after every batch of received emails is saved,
+     * from the listening thread
+     * @return the listener of the account
+     */
+    public static ImapIdleListener start(MailConfigBean mailConfigBean, EmailDAO emailDAO, InboxSyncPipeline.ProgressListener listener) {
+        ImapIdleListener idleListener = LISTENERS.computeIfAbsent(mailConfigBean.getUserEmailAddress(), k -> new ImapIdleListener(mailConfigBean, emailDAO, listener));
+        idleListener.start();
+        return idleListener;
+    }
+
+    /**
+     * Stop every listener that was started. Called when the application stops.
+     */
+    public static void stopAll() {
+        LISTENERS.values().forEach(ImapIdleListener::stop);
+        LISTENERS.clear();
+    }
+
+    private ImapIdleListener(MailConfigBean mailConfigBean, EmailDAO emailDAO, InboxSyncPipeline.ProgressListener listener) {
+        this.mailConfigBean = mailConfigBean;
+        this.inboxSync = new InboxSyncPipeline(mailConfigBean, emailDAO);
+        this.listener = listener;
+        this.pollIntervalMillis = TimeUnit.SECONDS.toMillis(Math.max(1, mailConfigBean.getImapPollInterval()));
+    }
+
+    /**
+     * Starts the listening thread if it is not running.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::listen, "jag-imap-idle-" + mailConfigBean.getUserEmailAddress());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the listening thread and closes its session.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        thread.interrupt();
+        //Closing the folder ends a running IDLE command
+        closeFolder(openInbox);
+    }
+
+    /**
+     * @return true while the listening thread is running
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Opens the session, receives what arrived while it was closed, then waits
+     * for new mail until the listener is stopped, opening the session again
+     * when the connection is lost.
+     */
+    private void listen() {
+        long reconnectDelay = MIN_RECONNECT_DELAY_MILLIS;
+        while (running) {
+            try ( ReceiveMailSession session = new SendAndReceive(mailConfigBean).openImapSession(mailConfigBean)) {
+                Folder inbox = session.getService().getFolder("INBOX");
+                inbox.open(Folder.READ_ONLY);
+                openInbox = inbox;
+                try {
+                    inboxSync.sync(inbox, listener);
+                    //The connection works, the next failure starts over with the shortest delay
+                    reconnectDelay = MIN_RECONNECT_DELAY_MILLIS;
+                    Method idle = findIdleMethod(inbox);
+                    while (running) {
+                        idle = waitForNewMail(inbox, idle);
+                        inboxSync.sync(inbox, listener);
+                    }
+                } finally {
+                    openInbox = null;
+                    closeFolder(inbox);
+                }
+            } catch (InvalidRecipientImapURLException | RecipientInvalidFormatException ex) {
+                //Reconnecting cannot fix the account settings
+                LOG.error("The INBOX of " + mailConfigBean.getUserEmailAddress() + " cannot be listened to", ex);
+                running = false;
+                return;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (MessagingException | SQLException | IOException | RuntimeException ex) {
+                if (!running) {
+                    return;
+                }
+                LOG.info("Lost the IMAP session of " + mailConfigBean.getUserEmailAddress() + ", reconnecting in " + reconnectDelay + "ms", ex);
+            }
+            try {
+                Thread.sleep(reconnectDelay);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            reconnectDelay = Math.min(reconnectDelay * 2, MAX_RECONNECT_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * Returns once the server may have new mail for the INBOX. Uses IDLE when
+     * available and falls back to polling with a NOOP.
+     *
+     * @param inbox The open INBOX
+     * @param idle The IDLE method of the folder, null to poll
+     * @return the IDLE method to use next time, null once the server has
+     * refused IDLE
+     * @throws MessagingException if the connection was lost
+     * @throws InterruptedException
+     */
+    private Method waitForNewMail(Folder inbox, Method idle) throws MessagingException, InterruptedException {
+        if (idle != null) {
+            try {
+                //Returns after the first response from the server
+                idle.invoke(inbox, true);
+                return idle;
+            } catch (InvocationTargetException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof FolderClosedException || cause instanceof StoreClosedException) {
+                    throw (MessagingException) cause;
+                }
+                if (!(cause instanceof MessagingException)) {
+                    throw new MailException("IDLE failed on the INBOX", cause);
+                }
+                LOG.info("The IMAP server refused IDLE, checking for new mail every " + pollIntervalMillis + "ms");
+            } catch (IllegalAccessException ex) {
+                LOG.info("IDLE is not available, checking for new mail every " + pollIntervalMillis + "ms");
+            }
+        }
+        Thread.sleep(pollIntervalMillis);
+        //An IMAP folder sends a NOOP to refresh its message count
+        inbox.getMessageCount();
+        return null;
+    }
+
+    /**
+     * IDLE is only offered by the IMAP provider's own folder class, which is
+     * not part of the javax.mail API, so it is looked up at runtime.
+     *
+     * @param inbox
+     * @return the idle(boolean) method of the folder, null if it has none
+     */
+    private static Method findIdleMethod(Folder inbox) {
+        try {
+            return inbox.getClass().getMethod("idle", boolean.class);
+        } catch (NoSuchMethodException ex) {
+            return null;
+        }
+    }
+
+    private static void closeFolder(Folder folder) {
+        try {
+            if (folder != null && folder.isOpen()) {
+                folder.close(false);
+            }
+        } catch (MessagingException | RuntimeException ex) {
+            LOG.debug("Could not close the INBOX", ex);
+        }
+    }
+}
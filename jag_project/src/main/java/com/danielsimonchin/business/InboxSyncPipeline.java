@@ -0,0 +1,523 @@
+package com.danielsimonchin.business;
+
+import com.danielsimonchin.exceptions.InvalidRecipientImapURLException;
+import com.danielsimonchin.exceptions.RecipientInvalidFormatException;
+import com.danielsimonchin.persistence.AttachmentFiles;
+import com.danielsimonchin.persistence.AttachmentSpool;
+import com.danielsimonchin.persistence.EmailDAO;
+import com.danielsimonchin.properties.EmailBean;
+import com.danielsimonchin.properties.MailConfigBean;
+import com.danielsimonchin.properties.SyncStateBean;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.mail.FetchProfile;
+import javax.mail.Flags;
+import javax.mail.Folder;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.UIDFolder;
+import javax.mail.internet.MimeMessage;
+import javax.mail.search.FlagTerm;
+import jodd.mail.MailException;
+import jodd.mail.ReceiveMailSession;
+import jodd.mail.ReceivedEmail;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receives the new messages of the INBOX and saves them in the database in
+ * three stages running at the same time: fetching the messages from the IMAP
+ * server, converting them into EmailBeans and writing them to the database in
+ * batches, one transaction per batch. The stages are connected by bounded
+ * queues, a stage that gets ahead waits for the next one.
+ *
+ * The highest UID received is saved with the UIDVALIDITY of the folder in the
+ * SyncState table, in the same transaction as each batch, and the next sync
+ * only asks the server for the messages above it. Messages are received
+ * whether or not another client has read them and their flags are left
+ * unchanged. The first sync of a folder only receives the unseen messages,
+ * the ones received before were marked as seen. After the server changed the
+ * UIDVALIDITY of the folder every message is fetched again, read or not, and
+ * the ones already saved are recognized by their Message-ID and skipped.
+ *
+ * When receiveHeadersFirst is set only the envelope of each message is read
+ * and the emails are saved without their body, which the MessageBodyFetcher
+ * downloads when the email is opened or in the background. Otherwise the
+ * attachments are written to spool files as the message is read and streamed
+ * from them into the attachment store, so the heap used by a sync does not
+ * grow with the size of the attachments.
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public class InboxSyncPipeline {
+
+    private final static Logger LOG = LoggerFactory.getLogger(InboxSyncPipeline.class);
+
+    //Number of messages whose headers are requested from the server at once
+    private final static int FETCH_CHUNK_SIZE = 100;
+
+    //How often a waiting stage checks whether another stage has failed
+    private final static long POLL_MILLIS = 200;
+
+    //Put at the end of a queue once a stage has passed on every message
+    private final static Message END_OF_MESSAGES = new MimeMessage((Session) null);
+    private final static ReceivedMessage END_OF_EMAILS = new ReceivedMessage(null, 0, null);
+
+    private final static String INBOX = "INBOX";
+
+    private final MailConfigBean mailConfigBean;
+    private final EmailDAO emailDAO;
+    private final int batchSize;
+    private final int queueCapacity;
+    private final boolean headersFirst;
+
+    //The first error of the running sync, the other stages stop when it is set
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /**
+     * Reports how many of the new messages have been received so far,
+     * counting the ones skipped because they were already saved.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+
+        public void progress(int receivedCount, int totalCount);
+    }
+
+    /**
+     * @param mailConfigBean The account to receive emails for, with the batch
+     * size and queue capacity of the sync
+     * @param emailDAO The DAO used to save the received emails
+     */
+    public InboxSyncPipeline(MailConfigBean mailConfigBean, EmailDAO emailDAO) {
+        this.mailConfigBean = mailConfigBean;
+        this.emailDAO = emailDAO;
+        this.batchSize = Math.max(1, mailConfigBean.getReceiveBatchSize());
+        this.queueCapacity = Math.max(1, mailConfigBean.getReceiveQueueCapacity());
+        this.headersFirst = mailConfigBean.isReceiveHeadersFirst();
+    }
+
+    /**
+     * Receives the new messages of the INBOX into the INBOX folder of the
+     * database.
+     *
+     * @param listener Called after every committed batch, from the thread
+     * writing to the database
+     * @return the number of emails saved
+     * @throws InvalidRecipientImapURLException
+     * @throws RecipientInvalidFormatException
+     * @throws SQLException
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public int sync(ProgressListener listener) throws InvalidRecipientImapURLException, RecipientInvalidFormatException, SQLException, IOException, InterruptedException {
+        try ( ReceiveMailSession session = new SendAndReceive(mailConfigBean).openImapSession(mailConfigBean)) {
+            Folder inbox = null;
+            try {
+                inbox = session.getService().getFolder(INBOX);
+                //Flags are never changed by the sync
+                inbox.open(Folder.READ_ONLY);
+                return sync(inbox, listener);
+            } catch (MessagingException ex) {
+                throw new MailException("Could not read the INBOX", ex);
+            } finally {
+                closeFolder(inbox);
+            }
+        }
+    }
+
+    /**
+     * Finds the messages received since the last sync and saves them. Used
+     * directly by the ImapIdleListener, which keeps its INBOX open between
+     * syncs.
+     *
+     * @param inbox The open INBOX folder
+     * @param listener Called after every committed batch
+     * @return the number of emails saved
+     * @throws MessagingException
+     * @throws SQLException
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    synchronized int sync(Folder inbox, ProgressListener listener) throws MessagingException, SQLException, IOException, InterruptedException {
+        failure.set(null);
+        //IMAP folders always support UIDs
+        UIDFolder uidFolder = (UIDFolder) inbox;
+        String account = mailConfigBean.getUserEmailAddress();
+        long uidValidity = uidFolder.getUIDValidity();
+        //Messages arriving after this point are left for the next sync
+        long highestUid = findHighestUid(inbox, uidFolder);
+        SyncStateBean savedState = emailDAO.findSyncState(account, INBOX);
+        long lastUid = 0;
+        Message[] newMessages;
+        if (savedState == null) {
+            //The emails received before the sync state existed were marked as seen when they were received
+            LOG.info("No sync state for the " + INBOX + ", receiving the unseen messages not saved yet");
+            newMessages = inbox.search(new FlagTerm(new Flags(Flags.Flag.SEEN), false));
+        } else if (savedState.getUidValidity() != uidValidity) {
+            //Every message may have a new UID, the ones already saved are skipped by their Message-ID
+            LOG.info("The UIDVALIDITY of the " + INBOX + " changed to " + uidValidity + ", receiving the messages not saved yet");
+            newMessages = highestUid > 0 ? uidFolder.getMessagesByUID(1, highestUid) : new Message[0];
+        } else {
+            lastUid = savedState.getLastUid();
+            newMessages = highestUid > lastUid ? uidFolder.getMessagesByUID(lastUid + 1, highestUid) : new Message[0];
+        }
+        int total = newMessages.length;
+        LOG.info(total + " new message(s) to receive");
+        listener.progress(0, total);
+        int persisted = 0;
+        if (total > 0) {
+            persisted = runStages(inbox, uidFolder, newMessages, highestUid, total, listener);
+        }
+        //Every message up to the highest UID has been received or was already read
+        SyncStateBean syncState = new SyncStateBean(account, INBOX, uidValidity, Math.max(lastUid, highestUid));
+        if (!syncState.equals(savedState)) {
+            emailDAO.saveSyncState(syncState);
+        }
+        return persisted;
+    }
+
+    /**
+     * @param inbox
+     * @param uidFolder
+     * @return the UID of the last message of the folder, 0 if it is empty
+     * @throws MessagingException
+     */
+    private long findHighestUid(Folder inbox, UIDFolder uidFolder) throws MessagingException {
+        int messageCount = inbox.getMessageCount();
+        return messageCount == 0 ? 0 : uidFolder.getUID(inbox.getMessage(messageCount));
+    }
+
+    /**
+     * Runs the conversion and write stages on their own threads while this
+     * thread fetches the messages.
+     *
+     * @param inbox
+     * @param uidFolder
+     * @param newMessages The messages to receive, in UID order
+     * @param highestUid Messages with a higher UID are skipped
+     * @param total
+     * @param listener
+     * @return the number of emails saved
+     * @throws SQLException
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private int runStages(Folder inbox, UIDFolder uidFolder, Message[] newMessages, long highestUid, int total, ProgressListener listener) throws SQLException, IOException, InterruptedException {
+        BlockingQueue<Message> fetched = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<ReceivedMessage> converted = new ArrayBlockingQueue<>(queueCapacity);
+        ExecutorService convertStage = Executors.newSingleThreadExecutor(stageThreadFactory("jag-inbox-sync-convert"));
+        ExecutorService writeStage = Executors.newSingleThreadExecutor(stageThreadFactory("jag-inbox-sync-write"));
+        SyncStateBean syncState = new SyncStateBean();
+        int persisted = 0;
+        Path spoolDirectory = null;
+        try {
+            if (!headersFirst) {
+                File spoolRoot = AttachmentSpool.getDirectory(mailConfigBean);
+                Files.createDirectories(spoolRoot.toPath());
+                spoolDirectory = Files.createTempDirectory(spoolRoot.toPath(), "sync");
+            }
+            Path syncSpool = spoolDirectory;
+            syncState.setAccount(mailConfigBean.getUserEmailAddress());
+            syncState.setMailbox(INBOX);
+            syncState.setUidValidity(uidFolder.getUIDValidity());
+            convertStage.submit(() -> runStage(() -> {
+                convert(uidFolder, fetched, converted, syncSpool);
+                return null;
+            }));
+            Future<Integer> written = writeStage.submit(() -> runStage(() -> write(converted, syncState, total, listener)));
+            runStage(() -> {
+                fetch(inbox, uidFolder, newMessages, highestUid, fetched);
+                return null;
+            });
+            persisted = written.get();
+        } catch (ExecutionException | CancellationException ex) {
+            //The failing stage has recorded its error
+        } catch (Exception ex) {
+            failure.compareAndSet(null, ex);
+        } finally {
+            convertStage.shutdownNow();
+            writeStage.shutdownNow();
+            //Spools of messages that were not saved are left behind when a stage fails
+            if (spoolDirectory != null) {
+                deleteSpool(spoolDirectory);
+            }
+        }
+        rethrowFailure();
+        return persisted;
+    }
+
+    /**
+     * @param name
+     * @return a factory of daemon threads with the name of a stage
+     */
+    private static ThreadFactory stageThreadFactory(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Passes the new messages to the conversion stage, asking the server for
+     * their headers and UIDs a chunk at a time.
+     *
+     * @param inbox
+     * @param uidFolder
+     * @param newMessages
+     * @param highestUid
+     * @param fetched
+     * @throws MessagingException
+     * @throws InterruptedException
+     */
+    private void fetch(Folder inbox, UIDFolder uidFolder, Message[] newMessages, long highestUid, BlockingQueue<Message> fetched) throws MessagingException, InterruptedException {
+        FetchProfile profile = new FetchProfile();
+        profile.add(FetchProfile.Item.ENVELOPE);
+        profile.add(FetchProfile.Item.CONTENT_INFO);
+        profile.add(UIDFolder.FetchProfileItem.UID);
+        for (int start = 0; start < newMessages.length; start += FETCH_CHUNK_SIZE) {
+            Message[] chunk = Arrays.copyOfRange(newMessages, start, Math.min(start + FETCH_CHUNK_SIZE, newMessages.length));
+            inbox.fetch(chunk, profile);
+            for (Message message : chunk) {
+                if (uidFolder.getUID(message) <= highestUid) {
+                    put(fetched, message);
+                }
+            }
+        }
+        put(fetched, END_OF_MESSAGES);
+    }
+
+    /**
+     * Reads every fetched message into an EmailBean of the INBOX folder, only
+     * its envelope in headers first mode. The attachments of each message are
+     * spooled into their own directory, since jodd names the files after the
+     * Message-ID which may be missing.
+     *
+     * @param uidFolder
+     * @param fetched
+     * @param converted
+     * @param spoolDirectory The directory of this sync's spooled attachments
+     * @throws MessagingException
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void convert(UIDFolder uidFolder, BlockingQueue<Message> fetched, BlockingQueue<ReceivedMessage> converted, Path spoolDirectory) throws MessagingException, IOException, InterruptedException {
+        Message message = take(fetched);
+        while (message != END_OF_MESSAGES) {
+            //Attachments are written to files as they are read from the server instead of into byte arrays
+            Path messageSpool = headersFirst ? null : Files.createTempDirectory(spoolDirectory, "message");
+            //The email id will be set when it is saved, the key for inbox is 1.
+            EmailBean emailBean = new EmailBean(-1, 1, new ReceivedEmail(message, headersFirst, messageSpool == null ? null : messageSpool.toFile()));
+            long uid = uidFolder.getUID(message);
+            emailBean.setImapUid(uid);
+            emailBean.setImapUidValidity(uidFolder.getUIDValidity());
+            emailBean.setBodyLoaded(!headersFirst);
+            //Saving a message twice is avoided by its Message-ID, the UIDs change with the UIDVALIDITY
+            if (message instanceof MimeMessage) {
+                emailBean.setMessageId(((MimeMessage) message).getMessageID());
+            }
+            put(converted, new ReceivedMessage(emailBean, uid, messageSpool));
+            message = take(fetched);
+        }
+        put(converted, END_OF_EMAILS);
+    }
+
+    /**
+     * Saves the converted emails, each batch holds the emails waiting in the
+     * queue up to the batch size and is committed in one transaction with the
+     * highest UID it contains.
+     *
+     * @param converted
+     * @param syncState The account, mailbox and UIDVALIDITY of the sync
+     * @param total
+     * @param listener
+     * @return the number of emails saved
+     * @throws SQLException
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private int write(BlockingQueue<ReceivedMessage> converted, SyncStateBean syncState, int total, ProgressListener listener) throws SQLException, IOException, InterruptedException {
+        int persisted = 0;
+        //Includes the messages skipped because they were already saved
+        int received = 0;
+        boolean endReached = false;
+        while (!endReached) {
+            List<EmailBean> batch = new ArrayList<>(batchSize);
+            List<Path> spools = new ArrayList<>(batchSize);
+            ReceivedMessage next = take(converted);
+            while (next != null) {
+                if (next == END_OF_EMAILS) {
+                    endReached = true;
+                    break;
+                }
+                batch.add(next.emailBean);
+                if (next.spoolDirectory != null) {
+                    spools.add(next.spoolDirectory);
+                }
+                //Messages arrive in UID order
+                syncState.setLastUid(next.uid);
+                next = batch.size() < batchSize ? converted.poll() : null;
+            }
+            if (!batch.isEmpty()) {
+                try {
+                    persisted += emailDAO.createEmailRecords(batch, syncState);
+                    received += batch.size();
+                } finally {
+                    //The attachments have been copied to the attachment store
+                    for (Path spool : spools) {
+                        AttachmentFiles.deleteDirectory(spool);
+                    }
+                }
+                LOG.debug(received + " of " + total + " new messages received, " + persisted + " saved");
+                listener.progress(received, total);
+            }
+        }
+        return persisted;
+    }
+
+    /**
+     * Runs a stage, recording its error so the other stages stop waiting.
+     *
+     * @param stage
+     * @return the result of the stage
+     * @throws Exception
+     */
+    private <T> T runStage(Stage<T> stage) throws Exception {
+        try {
+            return stage.run();
+        } catch (CancellationException ex) {
+            throw ex;
+        } catch (Exception | Error ex) {
+            failure.compareAndSet(null, ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Waits for room in the queue, giving up if another stage has failed.
+     *
+     * @param queue
+     * @param item
+     * @throws InterruptedException
+     */
+    private <T> void put(BlockingQueue<T> queue, T item) throws InterruptedException {
+        while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            checkNotFailed();
+        }
+    }
+
+    /**
+     * Waits for an item in the queue, giving up if another stage has failed.
+     *
+     * @param queue
+     * @return the head of the queue
+     * @throws InterruptedException
+     */
+    private <T> T take(BlockingQueue<T> queue) throws InterruptedException {
+        T item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        while (item == null) {
+            checkNotFailed();
+            item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return item;
+    }
+
+    private void checkNotFailed() {
+        if (failure.get() != null) {
+            throw new CancellationException("Another stage of the inbox sync has failed");
+        }
+    }
+
+    /**
+     * Throws the error of the stage that failed first, if any.
+     *
+     * @throws SQLException
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void rethrowFailure() throws SQLException, IOException, InterruptedException {
+        Throwable error = failure.get();
+        if (error == null) {
+            return;
+        }
+        if (error instanceof SQLException) {
+            throw (SQLException) error;
+        }
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        }
+        if (error instanceof InterruptedException) {
+            throw (InterruptedException) error;
+        }
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        if (error instanceof Error) {
+            throw (Error) error;
+        }
+        throw new MailException("Could not receive the emails", error);
+    }
+
+    private void deleteSpool(Path spoolDirectory) {
+        try {
+            AttachmentFiles.deleteDirectory(spoolDirectory);
+        } catch (IOException ex) {
+            LOG.info("Could not delete the spooled attachments in " + spoolDirectory, ex);
+        }
+    }
+
+    private void closeFolder(Folder folder) {
+        try {
+            if (folder != null && folder.isOpen()) {
+                folder.close(false);
+            }
+        } catch (MessagingException ex) {
+            LOG.info("Could not close the INBOX", ex);
+        }
+    }
+
+    /**
+     * The body of one stage of the pipeline.
+     */
+    @FunctionalInterface
+    private interface Stage<T> {
+
+        T run() throws Exception;
+    }
+
+    /**
+     * A converted email with the UID of the message it was read from.
+     */
+    private static class ReceivedMessage {
+
+        private final EmailBean emailBean;
+        private final long uid;
+        //Where the attachments of the message were written, null in headers first mode
+        private final Path spoolDirectory;
+
+        ReceivedMessage(EmailBean emailBean, long uid, Path spoolDirectory) {
+            this.emailBean = emailBean;
+            this.uid = uid;
+            this.spoolDirectory = spoolDirectory;
+        }
+    }
+}
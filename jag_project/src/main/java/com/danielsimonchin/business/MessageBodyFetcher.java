@@ -0,0 +1,376 @@
+package com.danielsimonchin.business;
+
+import com.danielsimonchin.exceptions.InvalidRecipientImapURLException;
+import com.danielsimonchin.exceptions.RecipientInvalidFormatException;
+import com.danielsimonchin.persistence.EmailDAO;
+import com.danielsimonchin.properties.AttachmentBean;
+import com.danielsimonchin.properties.EmailBean;
+import com.danielsimonchin.properties.MailConfigBean;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import javax.mail.Folder;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.Part;
+import javax.mail.UIDFolder;
+import javax.mail.internet.MimePart;
+import jodd.mail.Email;
+import jodd.mail.EmailAttachment;
+import jodd.mail.MailException;
+import jodd.mail.ReceiveMailSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Second phase of receiving in headers first mode. The InboxSyncPipeline only
+ * saves the envelope of each message, this class downloads the body of an
+ * email from the IMAP server when it is opened, or ahead of time on a low
+ * priority background thread. Attachments larger than attachmentPrefetchLimit
+ * are left on the server and are only downloaded when they are asked for.
+ *
+ * The parts of a message are numbered like IMAP body sections: "1", "2.1"...
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public class MessageBodyFetcher {
+
+    private final static Logger LOG = LoggerFactory.getLogger(MessageBodyFetcher.class);
+
+    //Number of bodies downloaded in one IMAP session by the prefetcher
+    private final static int PREFETCH_BATCH_SIZE = 20;
+
+    private final static String INBOX = "INBOX";
+
+    private final MailConfigBean mailConfigBean;
+    private final EmailDAO emailDAO;
+    private final long prefetchLimit;
+
+    //Bodies asked for by the user
+    private final ExecutorService loader;
+    //Bodies downloaded ahead of time, never competes with the loader
+    private final ExecutorService prefetcher;
+    private final AtomicBoolean prefetchScheduled = new AtomicBoolean();
+
+    /**
+     * @param mailConfigBean The account the emails were received for
+     * @param emailDAO The DAO the bodies are saved with
+     */
+    public MessageBodyFetcher(MailConfigBean mailConfigBean, EmailDAO emailDAO) {
+        this.mailConfigBean = mailConfigBean;
+        this.emailDAO = emailDAO;
+        this.prefetchLimit = mailConfigBean.getAttachmentPrefetchLimit();
+        this.loader = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jag-body-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.prefetcher = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jag-body-prefetch");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Downloads and saves the body of an email whose headers only were
+     * received.
+     *
+     * @param emailBean
+     * @return the email read back from the database with its body, the same
+     * email if its body was already loaded
+     * @throws InvalidRecipientImapURLException
+     * @throws RecipientInvalidFormatException
+     * @throws SQLException
+     * @throws IOException
+     */
+    public EmailBean loadBody(EmailBean emailBean) throws InvalidRecipientImapURLException, RecipientInvalidFormatException, SQLException, IOException {
+        if (emailBean.isBodyLoaded()) {
+            return emailBean;
+        }
+        try ( ReceiveMailSession session = new SendAndReceive(mailConfigBean).openImapSession(mailConfigBean)) {
+            Folder inbox = null;
+            try {
+                inbox = openInbox(session);
+                return loadBody(inbox, emailBean);
+            } catch (MessagingException ex) {
+                throw new MailException("Could not download the body of the email #" + emailBean.getId(), ex);
+            } finally {
+                closeFolder(inbox);
+            }
+        }
+    }
+
+    /**
+     * Downloads the body of an email on a background thread.
+     *
+     * @param emailBean
+     * @param onLoaded Called from the background thread with the email and
+     * its body once it is saved
+     */
+    public void loadBodyAsync(EmailBean emailBean, Consumer<EmailBean> onLoaded) {
+        loader.submit(() -> {
+            try {
+                onLoaded.accept(loadBody(emailBean));
+            } catch (InvalidRecipientImapURLException | RecipientInvalidFormatException | SQLException | IOException | RuntimeException ex) {
+                LOG.error("Could not load the body of the email #" + emailBean.getId(), ex);
+            }
+        });
+    }
+
+    /**
+     * Downloads an attachment that was left on the IMAP server and stores it
+     * like any other attachment.
+     *
+     * @param attachment A deferred attachment
+     * @return The cached file holding the attachment's content
+     * @throws InvalidRecipientImapURLException
+     * @throws RecipientInvalidFormatException
+     * @throws SQLException
+     * @throws IOException
+     */
+    public File fetchAttachment(AttachmentBean attachment) throws InvalidRecipientImapURLException, RecipientInvalidFormatException, SQLException, IOException {
+        if (!attachment.isDeferred()) {
+            return emailDAO.loadAttachment(attachment);
+        }
+        EmailBean emailBean = emailDAO.findID(attachment.getEmailId());
+        try ( ReceiveMailSession session = new SendAndReceive(mailConfigBean).openImapSession(mailConfigBean)) {
+            Folder inbox = null;
+            try {
+                inbox = openInbox(session);
+                Part part = findPart(findMessage(inbox, emailBean), attachment.getImapPart());
+                //Streamed to the attachment store, large attachments never sit in the heap
+                try ( InputStream in = part.getInputStream()) {
+                    emailDAO.storeAttachmentContent(attachment, in);
+                }
+                LOG.info("Downloaded the attachment " + attachment.getFileName() + " of the email #" + emailBean.getId());
+            } catch (MessagingException ex) {
+                throw new MailException("Could not download the attachment " + attachment.getFileName(), ex);
+            } finally {
+                closeFolder(inbox);
+            }
+        }
+        return emailDAO.loadAttachment(attachment);
+    }
+
+    /**
+     * Starts downloading the bodies that were not loaded yet in the
+     * background, newest first. Does nothing if the prefetcher is already
+     * running.
+     */
+    public void schedulePrefetch() {
+        if (!mailConfigBean.isReceiveHeadersFirst() || !prefetchScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        prefetcher.submit(() -> {
+            try {
+                prefetch();
+            } catch (InvalidRecipientImapURLException | RecipientInvalidFormatException | SQLException | IOException | RuntimeException ex) {
+                LOG.info("Stopped prefetching email bodies", ex);
+            } finally {
+                prefetchScheduled.set(false);
+            }
+        });
+    }
+
+    /**
+     * Loads the missing bodies a batch at a time, one IMAP session per batch,
+     * newest first until every body was tried once. The emails whose message
+     * is no longer on the server are marked so they are not tried again.
+     */
+    private void prefetch() throws InvalidRecipientImapURLException, RecipientInvalidFormatException, SQLException, IOException {
+        List<Integer> emailIds = emailDAO.findEmailIdsWithoutBody(Integer.MAX_VALUE, PREFETCH_BATCH_SIZE);
+        while (!emailIds.isEmpty()) {
+            int loaded = 0;
+            try ( ReceiveMailSession session = new SendAndReceive(mailConfigBean).openImapSession(mailConfigBean)) {
+                Folder inbox = null;
+                try {
+                    inbox = openInbox(session);
+                    for (int emailId : emailIds) {
+                        try {
+                            loadBody(inbox, emailDAO.findID(emailId));
+                            loaded++;
+                        } catch (MessageNotOnServerException ex) {
+                            emailDAO.markBodyUnavailable(emailId);
+                            LOG.info(ex.getMessage() + ", it will not be prefetched again");
+                        } catch (MessagingException | MailException ex) {
+                            if (!inbox.isOpen()) {
+                                throw ex;
+                            }
+                            LOG.info("Skipped prefetching the email #" + emailId, ex);
+                        }
+                    }
+                } catch (MessagingException ex) {
+                    throw new MailException("Could not prefetch email bodies", ex);
+                } finally {
+                    closeFolder(inbox);
+                }
+            }
+            LOG.debug("Prefetched " + loaded + " email bodies");
+            //The emails that failed are below the next page, they are tried again by the next run
+            emailIds = emailDAO.findEmailIdsWithoutBody(emailIds.get(emailIds.size() - 1), PREFETCH_BATCH_SIZE);
+        }
+    }
+
+    /**
+     * @param inbox The open INBOX
+     * @param emailBean
+     * @return the email read back from the database with its body
+     */
+    private EmailBean loadBody(Folder inbox, EmailBean emailBean) throws MessagingException, SQLException, IOException {
+        Message message = findMessage(inbox, emailBean);
+        Email body = Email.create();
+        List<AttachmentBean> deferred = new ArrayList<>();
+        readParts(message, "", emailBean.getId(), body, deferred);
+        emailDAO.saveEmailBody(emailBean.getId(), body, deferred);
+        return emailDAO.findID(emailBean.getId());
+    }
+
+    /**
+     * Adds the text of a part to the body and its attachments either to the
+     * body or, when they are too large, to the deferred attachments.
+     *
+     * @param part
+     * @param path The section number of the part, empty for the message
+     * @param emailId
+     * @param body
+     * @param deferred
+     */
+    private void readParts(Part part, String path, int emailId, Email body, List<AttachmentBean> deferred) throws MessagingException, IOException {
+        if (part.isMimeType("multipart/*")) {
+            Multipart multipart = (Multipart) part.getContent();
+            for (int i = 0; i < multipart.getCount(); i++) {
+                String childPath = path.isEmpty() ? String.valueOf(i + 1) : path + "." + (i + 1);
+                readParts(multipart.getBodyPart(i), childPath, emailId, body, deferred);
+            }
+            return;
+        }
+        //A message that is not multipart has a single section
+        String partPath = path.isEmpty() ? "1" : path;
+        boolean attached = Part.ATTACHMENT.equalsIgnoreCase(part.getDisposition()) || part.getFileName() != null;
+        if (!attached && part.isMimeType("text/plain")) {
+            body.textMessage((String) part.getContent());
+            return;
+        }
+        if (!attached && part.isMimeType("text/html")) {
+            body.htmlMessage((String) part.getContent());
+            return;
+        }
+        String fileName = part.getFileName() != null ? part.getFileName() : "attachment-" + partPath;
+        String contentId = findContentId(part);
+        boolean embedded = contentId != null && !Part.ATTACHMENT.equalsIgnoreCase(part.getDisposition());
+        int size = part.getSize();
+        if (size > prefetchLimit) {
+            AttachmentBean attachment = new AttachmentBean(0, emailId, fileName, contentId, embedded, size, null);
+            attachment.setImapPart(partPath);
+            deferred.add(attachment);
+            return;
+        }
+        byte[] content;
+        try ( InputStream in = part.getInputStream()) {
+            content = in.readAllBytes();
+        }
+        EmailAttachment<?> attachment = EmailAttachment.with()
+                .name(fileName)
+                .contentId(contentId)
+                .inline(embedded)
+                .content(content, part.getContentType().split(";")[0].trim())
+                .buildByteArrayDataSource();
+        if (embedded) {
+            body.embeddedAttachment(attachment);
+        } else {
+            body.attachment(attachment);
+        }
+    }
+
+    /**
+     * @param part
+     * @return the Content-ID of the part without its angle brackets, null if
+     * it has none
+     */
+    private String findContentId(Part part) throws MessagingException {
+        if (!(part instanceof MimePart)) {
+            return null;
+        }
+        String contentId = ((MimePart) part).getContentID();
+        if (contentId == null) {
+            return null;
+        }
+        return contentId.replaceAll("^<|>$", "");
+    }
+
+    /**
+     * @param message
+     * @param path The section number of the part
+     * @return the part of the message with the section number
+     */
+    private Part findPart(Message message, String path) throws MessagingException, IOException {
+        Part part = message;
+        for (String index : path.split("\\.")) {
+            if (part.isMimeType("multipart/*")) {
+                part = ((Multipart) part.getContent()).getBodyPart(Integer.parseInt(index) - 1);
+            } else if (!"1".equals(index)) {
+                throw new MessagingException("The message has no part " + path);
+            }
+        }
+        return part;
+    }
+
+    /**
+     * @param inbox
+     * @param emailBean
+     * @return the message the email was received from
+     * @throws MessageNotOnServerException if the message is no longer on the
+     * server
+     * @throws MessagingException
+     */
+    private Message findMessage(Folder inbox, EmailBean emailBean) throws MessagingException {
+        UIDFolder uidFolder = (UIDFolder) inbox;
+        if (emailBean.getImapUid() == 0 || uidFolder.getUIDValidity() != emailBean.getImapUidValidity()) {
+            throw new MessageNotOnServerException("The email #" + emailBean.getId() + " can no longer be found on the server");
+        }
+        Message message = uidFolder.getMessageByUID(emailBean.getImapUid());
+        if (message == null) {
+            throw new MessageNotOnServerException("The email #" + emailBean.getId() + " was deleted from the server");
+        }
+        return message;
+    }
+
+    private Folder openInbox(ReceiveMailSession session) throws MessagingException {
+        Folder inbox = session.getService().getFolder(INBOX);
+        //Reading a body must not mark the message as seen for other clients
+        inbox.open(Folder.READ_ONLY);
+        return inbox;
+    }
+
+    private void closeFolder(Folder folder) {
+        try {
+            if (folder != null && folder.isOpen()) {
+                folder.close(false);
+            }
+        } catch (MessagingException ex) {
+            LOG.info("Could not close the INBOX", ex);
+        }
+    }
+
+    /**
+     * Thrown when the message of an email was deleted from the server or its
+     * UID no longer identifies it, downloading its body cannot succeed later.
+     */
+    private static class MessageNotOnServerException extends MessagingException {
+
+        MessageNotOnServerException(String message) {
+            super(message);
+        }
+    }
+}
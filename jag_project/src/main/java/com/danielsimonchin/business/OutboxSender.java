@@ -0,0 +1,333 @@
+package com.danielsimonchin.business;
+
+import com.danielsimonchin.exceptions.InvalidMailConfigBeanUsernameException;
+import com.danielsimonchin.exceptions.NotEnoughEmailRecipientsException;
+import com.danielsimonchin.exceptions.RecipientEmailAddressNullException;
+import com.danielsimonchin.exceptions.RecipientInvalidFormatException;
+import com.danielsimonchin.exceptions.RecipientListNullException;
+import com.danielsimonchin.persistence.EmailDAO;
+import com.danielsimonchin.properties.EmailBean;
+import com.danielsimonchin.properties.MailConfigBean;
+import com.danielsimonchin.properties.OutboxBean;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import jodd.mail.MailException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends the emails queued in the Outbox table on background threads, so that
+ * sending an email from the UI only waits for it to be saved. A dispatcher
+ * thread claims the emails that are due and hands them to at most
+ * outboxWorkers send threads. An email that could not be sent is tried again
+ * after a delay that doubles with every attempt, and is marked as failed after
+ * outboxMaxAttempts. The emails sent to one SMTP server are limited to
+ * smtpRateLimit per minute.
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public class OutboxSender {
+
+    private final static Logger LOG = LoggerFactory.getLogger(OutboxSender.class);
+
+    //One sender per account so an email is never claimed by two dispatchers of the same application
+    private final static Map<String, OutboxSender> SENDERS = new ConcurrentHashMap<>();
+    //Shared by every account sending through the same SMTP server
+    private final static Map<String, RateLimiter> RATE_LIMITERS = new ConcurrentHashMap<>();
+
+    private final static long MIN_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    private final static long MAX_RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    //The dispatcher checks for due retries at least this often
+    private final static long DISPATCH_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    /**
+     * Notified from the send threads each time an email of the outbox was
+     * sent, will be tried again or has failed.
+     */
+    public interface StatusListener {
+
+        void statusChanged(OutboxBean entry);
+    }
+
+    private final MailConfigBean mailConfigBean;
+    private final EmailDAO emailDAO;
+    private final StatusListener listener;
+    private final int workerCount;
+    private final int maxAttempts;
+    private final RateLimiter rateLimiter;
+
+    private final Semaphore freeWorkers;
+    private final Object wakeUpLock = new Object();
+    private boolean wakeUpRequested = false;
+    private volatile boolean running = false;
+    private ExecutorService workers;
+    private Thread dispatcher;
+
+    /**
+     * Starts sending the outbox of the account, unless a sender for it is
+     * already running.
+     *
+     * @param mailConfigBean The account that sends the emails
+     * @param emailDAO The DAO holding the outbox
+     * @param listener Called after every send attempt, from a send thread
+     * @return the sender of the account
+     */
+    public static OutboxSender start(MailConfigBean mailConfigBean, EmailDAO emailDAO, StatusListener listener) {
+        OutboxSender sender = SENDERS.computeIfAbsent(mailConfigBean.getUserEmailAddress(), k -> new OutboxSender(mailConfigBean, emailDAO, listener));
+        sender.start();
+        return sender;
+    }
+
+    /**
+     * Asks every running sender to check the outbox now instead of waiting
+     * for its next check. Called after an email was queued.
+     */
+    public static void wakeUpAll() {
+        SENDERS.values().forEach(OutboxSender::wakeUp);
+    }
+
+    /**
+     * Stop every sender that was started. Called when the application stops.
+     */
+    public static void stopAll() {
+        SENDERS.values().forEach(OutboxSender::stop);
+        SENDERS.clear();
+    }
+
+    private OutboxSender(MailConfigBean mailConfigBean, EmailDAO emailDAO, StatusListener listener) {
+        this.mailConfigBean = mailConfigBean;
+        this.emailDAO = emailDAO;
+        this.listener = listener;
+        this.workerCount = Math.max(1, mailConfigBean.getOutboxWorkers());
+        this.maxAttempts = Math.max(1, mailConfigBean.getOutboxMaxAttempts());
+        this.freeWorkers = new Semaphore(workerCount);
+        this.rateLimiter = RATE_LIMITERS.computeIfAbsent(mailConfigBean.getSmtpUrl(), k -> new RateLimiter(mailConfigBean.getSmtpRateLimit()));
+    }
+
+    /**
+     * Starts the dispatcher and the send threads if they are not running.
+     * Emails left SENDING by an application that stopped are queued again.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        try {
+            int released = emailDAO.releaseOutboxEntries();
+            if (released > 0) {
+                LOG.info(released + " email(s) of the outbox were being sent when the application stopped, sending them again");
+            }
+        } catch (SQLException ex) {
+            LOG.error("Could not release the emails of the outbox", ex);
+        }
+        running = true;
+        AtomicInteger threadNumber = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "jag-outbox-worker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        dispatcher = new Thread(this::dispatch, "jag-outbox-dispatcher-" + mailConfigBean.getUserEmailAddress());
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Stops the dispatcher and the send threads. Emails being sent are left
+     * SENDING and are queued again the next time the sender starts.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        dispatcher.interrupt();
+        workers.shutdownNow();
+    }
+
+    /**
+     * Check the outbox now instead of waiting for the next check.
+     */
+    public void wakeUp() {
+        synchronized (wakeUpLock) {
+            wakeUpRequested = true;
+            wakeUpLock.notifyAll();
+        }
+    }
+
+    /**
+     * @return true while the dispatcher is running
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Claims as many due emails as there are idle send threads and hands them
+     * over, then waits to be woken up or for the next check.
+     */
+    private void dispatch() {
+        while (running) {
+            try {
+                freeWorkers.acquire();
+                int available = 1 + freeWorkers.drainPermits();
+                List<OutboxBean> entries;
+                try {
+                    entries = emailDAO.claimOutboxEntries(available);
+                } catch (SQLException | RuntimeException ex) {
+                    freeWorkers.release(available);
+                    throw ex;
+                }
+                freeWorkers.release(available - entries.size());
+                for (OutboxBean entry : entries) {
+                    workers.execute(() -> {
+                        try {
+                            send(entry);
+                        } finally {
+                            freeWorkers.release();
+                        }
+                    });
+                }
+                //Every worker is busy, claim more as soon as one is done
+                if (!entries.isEmpty() && entries.size() == available) {
+                    continue;
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (SQLException | RuntimeException ex) {
+                if (!running) {
+                    return;
+                }
+                LOG.error("Could not claim the emails of the outbox", ex);
+            }
+            try {
+                waitForWakeUp();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void waitForWakeUp() throws InterruptedException {
+        synchronized (wakeUpLock) {
+            if (!wakeUpRequested) {
+                wakeUpLock.wait(DISPATCH_INTERVAL_MILLIS);
+            }
+            wakeUpRequested = false;
+        }
+    }
+
+    /**
+     * Sends one claimed email and records the outcome in the outbox.
+     *
+     * @param entry
+     */
+    private void send(OutboxBean entry) {
+        try {
+            EmailBean emailBean = emailDAO.findID(entry.getEmailId());
+            if (emailBean.getId() <= 0) {
+                //The email was deleted along with its outbox row
+                return;
+            }
+            rateLimiter.acquire();
+            new SendAndReceive(mailConfigBean).sendEmails(List.of(emailBean.email));
+            emailBean.email.currentSentDate();
+            emailDAO.markOutboxSent(entry, emailBean);
+            LOG.info("The email #" + entry.getEmailId() + " of the outbox was sent");
+        } catch (NotEnoughEmailRecipientsException | InvalidMailConfigBeanUsernameException | RecipientListNullException | RecipientEmailAddressNullException | RecipientInvalidFormatException ex) {
+            //Sending again cannot fix the recipients
+            fail(entry, ex, false);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (MailException | SQLException | IOException ex) {
+            fail(entry, ex, running);
+        }
+        notifyListener(entry);
+    }
+
+    /**
+     * Records a failed attempt, scheduling the next one unless the email has
+     * been tried too many times.
+     *
+     * @param entry
+     * @param ex The cause of the failure
+     * @param retry false if sending the email again cannot succeed
+     */
+    private void fail(OutboxBean entry, Exception ex, boolean retry) {
+        int attempts = entry.getAttempts() + 1;
+        entry.setAttempts(attempts);
+        entry.setLastError(ex.getClass().getSimpleName() + ": " + ex.getMessage());
+        if (retry && attempts < maxAttempts) {
+            long delay = Math.min(MIN_RETRY_DELAY_MILLIS << Math.min(attempts - 1, 20), MAX_RETRY_DELAY_MILLIS);
+            entry.setNextAttempt(new Timestamp(System.currentTimeMillis() + delay));
+            LOG.info("Could not send the email #" + entry.getEmailId() + ", trying again in " + delay + "ms", ex);
+        } else {
+            entry.setNextAttempt(null);
+            LOG.error("Could not send the email #" + entry.getEmailId() + " after " + attempts + " attempt(s)", ex);
+        }
+        try {
+            emailDAO.markOutboxFailed(entry);
+        } catch (SQLException sqlEx) {
+            //The entry stays SENDING and is queued again when the sender restarts
+            LOG.error("Could not record the failed attempt of the email #" + entry.getEmailId(), sqlEx);
+        }
+    }
+
+    private void notifyListener(OutboxBean entry) {
+        if (listener != null) {
+            try {
+                listener.statusChanged(entry);
+            } catch (RuntimeException ex) {
+                LOG.error("The outbox status listener failed", ex);
+            }
+        }
+    }
+
+    /**
+     * Spaces the emails sent to one SMTP server so that no more than the given
+     * number are sent per minute.
+     */
+    private static class RateLimiter {
+
+        private final long intervalNanos;
+        private long nextSend = System.nanoTime();
+
+        RateLimiter(int messagesPerMinute) {
+            this.intervalNanos = messagesPerMinute > 0 ? TimeUnit.MINUTES.toNanos(1) / messagesPerMinute : 0;
+        }
+
+        /**
+         * Waits until the next email may be sent.
+         *
+         * @throws InterruptedException
+         */
+        void acquire() throws InterruptedException {
+            if (intervalNanos == 0) {
+                return;
+            }
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long sendAt = Math.max(nextSend, now);
+                nextSend = sendAt + intervalNanos;
+                wait = sendAt - now;
+            }
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
+}
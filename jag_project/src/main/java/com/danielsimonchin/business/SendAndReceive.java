@@ -8,18 +8,18 @@ import com.danielsimonchin.exceptions.RecipientInvalidFormatException;
 import com.danielsimonchin.exceptions.RecipientListNullException;
 import com.danielsimonchin.properties.MailConfigBean;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 import javax.mail.Flags;
 import jodd.mail.EmailFilter;
 import jodd.mail.Email;
+import jodd.mail.EmailAddress;
 import jodd.mail.EmailAttachment;
 import jodd.mail.ImapServer;
 import jodd.mail.MailServer;
 import jodd.mail.RFC2822AddressParser;
 import jodd.mail.ReceiveMailSession;
 import jodd.mail.ReceivedEmail;
-import jodd.mail.SendMailSession;
-import jodd.mail.SmtpServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,6 +34,10 @@ import org.slf4j.LoggerFactory;
 public class SendAndReceive {
 
     private final static Logger LOG = LoggerFactory.getLogger(SendAndReceive.class);
+
+    //The JavaMail property that makes fetching a message leave its Seen flag unchanged
+    public final static String IMAP_PEEK_PROPERTY = "mail.imap.peek";
+
     private MailConfigBean mailConfigBean;
 
     public SendAndReceive(MailConfigBean mailConfigBean) {
@@ -67,27 +71,13 @@ public class SendAndReceive {
         //Call a helper method to check if the email address is properly formatted.
         if (checkEmail(this.mailConfigBean.getUserEmailAddress())) {
             if (hasMinimumOneAddress(toList, ccList, bccList) && verifyEmailList(toList) && verifyEmailList(ccList) && verifyEmailList(bccList)) {
-                // Create am SMTP server object
-                SmtpServer smtpServer = MailServer.create()
-                        .ssl(true)
-                        .host(this.mailConfigBean.getSmtpUrl())
-                        .auth(this.mailConfigBean.getUserEmailAddress(), this.mailConfigBean.getPassword())
-                        .buildSmtpMailServer();
-
                 //Create an email with the needed parameters
                 email = createEmail(toList, ccList, bccList, subject, textMsg, htmlMsg, regularAttachments, embeddedAttachments);
-                //A session to the server should only be created if an Email object is created and set with the proper information.
+                //A session to the server should only be used if an Email object is created and set with the proper information.
                 if (email != null) {
-                    // Like a file we open the session, send the message and close the
-                    // session
-                    try ( // A session is the object responsible for communicating with the server
-                             SendMailSession session = smtpServer.createSession()) {
-                        // Like a file we open the session, send the message and close the
-                        // session
-                        session.open();
-                        session.sendMail(email);
-                        LOG.info("Email sent");
-                    }
+                    //The pool reuses an authenticated session of this account when one is open
+                    SmtpSessionPool.getPool(this.mailConfigBean).send(email);
+                    LOG.info("Email sent");
                 }
             }
         } else {
@@ -97,6 +87,65 @@ public class SendAndReceive {
         return email;
     }
 
+    /**
+     * Sends several emails over one authenticated SMTP session. Every email is
+     * validated before the first one is sent.
+     *
+     * @param emails The emails to send, their from address must be the
+     * MailConfigBean's user
+     * @return The emails that were sent
+     * @throws NotEnoughEmailRecipientsException
+     * @throws InvalidMailConfigBeanUsernameException
+     * @throws RecipientListNullException
+     * @throws RecipientEmailAddressNullException
+     * @throws RecipientInvalidFormatException
+     */
+    public List<Email> sendEmails(List<Email> emails) throws NotEnoughEmailRecipientsException, InvalidMailConfigBeanUsernameException, RecipientListNullException, RecipientEmailAddressNullException, RecipientInvalidFormatException {
+        for (Email email : emails) {
+            validateEmail(email);
+        }
+        if (!emails.isEmpty()) {
+            SmtpSessionPool.getPool(this.mailConfigBean).sendAll(emails);
+        }
+        return emails;
+    }
+
+    /**
+     * Checks that an email can be sent without contacting the server: the
+     * user's address is valid and there is at least one valid recipient.
+     *
+     * @param email
+     * @throws NotEnoughEmailRecipientsException
+     * @throws InvalidMailConfigBeanUsernameException
+     * @throws RecipientListNullException
+     * @throws RecipientEmailAddressNullException
+     * @throws RecipientInvalidFormatException
+     */
+    public void validateEmail(Email email) throws NotEnoughEmailRecipientsException, InvalidMailConfigBeanUsernameException, RecipientListNullException, RecipientEmailAddressNullException, RecipientInvalidFormatException {
+        if (!checkEmail(this.mailConfigBean.getUserEmailAddress())) {
+            throw new InvalidMailConfigBeanUsernameException("The MailConfigBean's user email address \"" + this.mailConfigBean.getUserEmailAddress() + "\" has an invalid format.");
+        }
+        List<String> toList = getAddressList(email.to());
+        List<String> ccList = getAddressList(email.cc());
+        List<String> bccList = getAddressList(email.bcc());
+        hasMinimumOneAddress(toList, ccList, bccList);
+        verifyEmailList(toList);
+        verifyEmailList(ccList);
+        verifyEmailList(bccList);
+    }
+
+    /**
+     * @param addresses
+     * @return The email addresses as strings
+     */
+    private List<String> getAddressList(EmailAddress[] addresses) {
+        List<String> addressList = new ArrayList<>(addresses.length);
+        for (EmailAddress address : addresses) {
+            addressList.add(address.getEmail());
+        }
+        return addressList;
+    }
+
     /**
      * Helper method that returns a boolean depending on if the combined total
      * of email addresses is at least 1. An email must have one recipient at
@@ -157,10 +206,10 @@ public class SendAndReceive {
             email.bcc(emailAddress);
         });
         regularAttachments.forEach(attachment -> {
-            email.attachment(EmailAttachment.with().content(attachment.getName()));
+            email.attachment(EmailAttachment.with().content(attachment));
         });
         embeddedAttachments.forEach(attachment -> {
-            email.embeddedAttachment(EmailAttachment.with().content(new File(attachment.getName())));
+            email.embeddedAttachment(EmailAttachment.with().content(attachment));
         });
 
         return email;
@@ -208,28 +257,55 @@ public class SendAndReceive {
      * @throws RecipientInvalidFormatException
      */
     public ReceivedEmail[] receiveEmail(MailConfigBean mailConfigBean) throws InvalidRecipientImapURLException, RecipientInvalidFormatException {
-        ReceivedEmail[] receivedEmails = new ReceivedEmail[]{};
+        try ( ReceiveMailSession session = openImapSession(mailConfigBean)) {
+            return session.receiveEmailAndMarkSeen(EmailFilter.filter().flag(Flags.Flag.SEEN, false));
+        }
+    }
+
+    /**
+     * Validates the recipient mailConfigBean and opens an authenticated IMAP
+     * session for it. Reading messages through the session leaves their flags
+     * unchanged. The caller must close the session.
+     *
+     * @param mailConfigBean The recipient that will be authenticated to
+     * retrieve its emails.
+     * @return An open ReceiveMailSession
+     * @throws InvalidRecipientImapURLException
+     * @throws RecipientInvalidFormatException
+     */
+    public ReceiveMailSession openImapSession(MailConfigBean mailConfigBean) throws InvalidRecipientImapURLException, RecipientInvalidFormatException {
+        ReceiveMailSession session = createImapSession(mailConfigBean);
+        session.open();
+        return session;
+    }
+
+    /**
+     * Validates the recipient mailConfigBean and creates its IMAP session
+     * without connecting it. Reading messages through the session leaves their
+     * flags unchanged.
+     *
+     * @param mailConfigBean The recipient that will be authenticated to
+     * retrieve its emails.
+     * @return A ReceiveMailSession that is not open yet
+     * @throws InvalidRecipientImapURLException
+     * @throws RecipientInvalidFormatException
+     */
+    public ReceiveMailSession createImapSession(MailConfigBean mailConfigBean) throws InvalidRecipientImapURLException, RecipientInvalidFormatException {
         //First ensure that the recipient mailConfigBean has a valid address, if not then throw a custom exception
-        if (checkEmail(mailConfigBean.getUserEmailAddress())) {
-            if (this.mailConfigBean.getImapUrl().equals(mailConfigBean.getImapUrl())) {
-                ImapServer imapServer = MailServer.create()
-                        .host(mailConfigBean.getImapUrl())
-                        .ssl(true)
-                        .auth(mailConfigBean.getUserEmailAddress(), mailConfigBean.getPassword())
-                        .buildImapMailServer();
-
-                try ( ReceiveMailSession session = imapServer.createSession()) {
-                    session.open();
-
-                    receivedEmails = session.receiveEmailAndMarkSeen(EmailFilter.filter().flag(Flags.Flag.SEEN, false));
-                }
-            } else {
-                throw new InvalidRecipientImapURLException("The recipient's imap url must be imap.gmail.com");
-            }
-        } else {
+        if (!checkEmail(mailConfigBean.getUserEmailAddress())) {
             throw new RecipientInvalidFormatException("The MailConfigBean's username is not properly formatted");
         }
-        return receivedEmails;
+        if (!this.mailConfigBean.getImapUrl().equals(mailConfigBean.getImapUrl())) {
+            throw new InvalidRecipientImapURLException("The recipient's imap url must be imap.gmail.com");
+        }
+        ImapServer imapServer = MailServer.create()
+                .host(mailConfigBean.getImapUrl())
+                .ssl(true)
+                .auth(mailConfigBean.getUserEmailAddress(), mailConfigBean.getPassword())
+                //Reading a message does not mark it as seen. jodd keeps the "imap" protocol over SSL, so JavaMail reads mail.imap.peek
+                .property(IMAP_PEEK_PROPERTY, "true")
+                .buildImapMailServer();
+        return imapServer.createSession();
     }
 
     /**
@@ -0,0 +1,323 @@
+package com.danielsimonchin.business;
+
+import com.danielsimonchin.properties.MailConfigBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import jodd.mail.Email;
+import jodd.mail.MailException;
+import jodd.mail.MailServer;
+import jodd.mail.SendMailSession;
+import jodd.mail.SmtpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool of authenticated SMTP sessions shared by every SendAndReceive
+ * of the same account, so sending does not pay for a TLS handshake and AUTH
+ * per message. Before a session sends another message it is checked with an
+ * RSET, which also clears what the previous message left on the server. A
+ * session the server has closed, or that sat idle for longer than
+ * smtpIdleTimeout, is replaced with a new one.
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public class SmtpSessionPool {
+
+    private final static Logger LOG = LoggerFactory.getLogger(SmtpSessionPool.class);
+
+    //One pool per smtp host/user/password so every sender shares the same sessions
+    private final static Map<String, SmtpSessionPool> POOLS = new ConcurrentHashMap<>();
+
+    private final String host;
+    private final SmtpServer smtpServer;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<IdleSession> idleSessions = new LinkedBlockingDeque<>();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed = false;
+
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong openedCount = new AtomicLong();
+    private final AtomicLong reconnectCount = new AtomicLong();
+
+    /**
+     * Returns the pool for the SMTP account described by the MailConfigBean,
+     * creating it the first time the account sends.
+     *
+     * @param mailConfigBean
+     * @return the shared SmtpSessionPool for this account
+     */
+    public static SmtpSessionPool getPool(MailConfigBean mailConfigBean) {
+        String key = mailConfigBean.getSmtpUrl() + "|" + mailConfigBean.getUserEmailAddress() + "|" + mailConfigBean.getPassword();
+        return POOLS.computeIfAbsent(key, k -> new SmtpSessionPool(mailConfigBean));
+    }
+
+    /**
+     * Close every pool that was created. Called when the application stops.
+     */
+    public static void shutdownAll() {
+        POOLS.values().forEach(SmtpSessionPool::shutdown);
+        POOLS.clear();
+    }
+
+    private SmtpSessionPool(MailConfigBean mailConfigBean) {
+        this.host = mailConfigBean.getSmtpUrl();
+        this.smtpServer = MailServer.create()
+                .ssl(true)
+                .host(mailConfigBean.getSmtpUrl())
+                .auth(mailConfigBean.getUserEmailAddress(), mailConfigBean.getPassword())
+                //Checking whether the session is still connected sends RSET instead of NOOP
+                .property("mail.smtp.userset", "true")
+                .buildSmtpMailServer();
+        this.maxSize = Math.max(1, mailConfigBean.getSmtpPoolSize());
+        this.idleTimeoutMillis = TimeUnit.SECONDS.toMillis(mailConfigBean.getSmtpIdleTimeout());
+        this.permits = new Semaphore(maxSize, true);
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jag-smtp-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long evictionPeriod = Math.max(1000, idleTimeoutMillis / 2);
+        this.evictor.scheduleWithFixedDelay(this::evictIdleSessions, evictionPeriod, evictionPeriod, TimeUnit.MILLISECONDS);
+        LOG.info("SMTP session pool created for " + host + " with a maximum of " + maxSize + " sessions");
+    }
+
+    /**
+     * Sends one email over a pooled session.
+     *
+     * @param email
+     * @return the Message-ID of the sent email
+     */
+    public String send(Email email) {
+        List<String> messageIds = sendAll(List.of(email));
+        return messageIds.get(0);
+    }
+
+    /**
+     * Sends the emails one after the other over a single pooled session. A
+     * session dropped by the server in the middle of the batch is replaced and
+     * the email that failed is sent again once.
+     *
+     * @param emails
+     * @return the Message-ID of every email, in the order of the list
+     * @throws MailException if an email could not be sent, the emails before
+     * it have been sent
+     */
+    public List<String> sendAll(List<Email> emails) {
+        List<String> messageIds = new ArrayList<>(emails.size());
+        SendMailSession session = borrow();
+        try {
+            for (Email email : emails) {
+                //The previous message may have left the session in a state the server rejects
+                if (!messageIds.isEmpty() && !session.isConnected()) {
+                    session = reconnect(session);
+                }
+                String messageId;
+                try {
+                    messageId = session.sendMail(email);
+                } catch (MailException ex) {
+                    if (session.isConnected()) {
+                        throw ex;
+                    }
+                    LOG.info("The SMTP session to " + host + " was closed by the server, sending again", ex);
+                    session = reconnect(session);
+                    messageId = session.sendMail(email);
+                }
+                messageIds.add(messageId);
+                sentCount.incrementAndGet();
+            }
+        } catch (RuntimeException ex) {
+            discard(session);
+            session = null;
+            throw ex;
+        } finally {
+            if (session != null) {
+                release(session);
+            }
+        }
+        LOG.info(messageIds.size() + " email(s) sent through " + host);
+        return messageIds;
+    }
+
+    /**
+     * Borrow a session from the pool, waiting while every session is in use.
+     *
+     * @return an open session
+     */
+    private SendMailSession borrow() {
+        if (closed) {
+            throw new MailException("The SMTP session pool for " + host + " has been shut down.");
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new MailException("Interrupted while waiting for an SMTP session.", ex);
+        }
+        try {
+            SendMailSession session = takeIdleSession();
+            return session != null ? session : open();
+        } catch (RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Takes the most recently used idle session that the server has not
+     * closed. Sessions idle for longer than the idle timeout are closed
+     * without being checked since most servers drop them.
+     *
+     * @return an open session or null if none are idle
+     */
+    private SendMailSession takeIdleSession() {
+        IdleSession idle;
+        while ((idle = idleSessions.pollFirst()) != null) {
+            if (System.currentTimeMillis() - idle.lastUsed <= idleTimeoutMillis && idle.session.isConnected()) {
+                return idle.session;
+            }
+            LOG.debug("Discarding an idle SMTP session to " + host);
+            closeQuietly(idle.session);
+        }
+        return null;
+    }
+
+    private SendMailSession open() {
+        SendMailSession session = smtpServer.createSession();
+        session.open();
+        openedCount.incrementAndGet();
+        return session;
+    }
+
+    private SendMailSession reconnect(SendMailSession session) {
+        closeQuietly(session);
+        reconnectCount.incrementAndGet();
+        return open();
+    }
+
+    private void release(SendMailSession session) {
+        if (closed) {
+            closeQuietly(session);
+        } else {
+            idleSessions.offerFirst(new IdleSession(session));
+        }
+        permits.release();
+    }
+
+    private void discard(SendMailSession session) {
+        if (session != null) {
+            closeQuietly(session);
+        }
+        permits.release();
+    }
+
+    /**
+     * Closes the idle sessions that have not been used within the idle
+     * timeout. Runs periodically on the evictor thread.
+     */
+    private void evictIdleSessions() {
+        long now = System.currentTimeMillis();
+        idleSessions.removeIf(idle -> {
+            if (now - idle.lastUsed > idleTimeoutMillis) {
+                closeQuietly(idle.session);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Stop the evictor and close every idle session. Sessions that are
+     * currently borrowed are closed when they are returned.
+     */
+    public void shutdown() {
+        closed = true;
+        evictor.shutdownNow();
+        IdleSession idle;
+        while ((idle = idleSessions.pollFirst()) != null) {
+            closeQuietly(idle.session);
+        }
+        LOG.info("SMTP session pool for " + host + " shut down. " + toString());
+    }
+
+    private void closeQuietly(SendMailSession session) {
+        try {
+            session.close();
+        } catch (MailException ex) {
+            LOG.debug("Error closing an SMTP session", ex);
+        }
+    }
+
+    /**
+     * @return the number of open sessions waiting in the pool
+     */
+    public int getIdleCount() {
+        return idleSessions.size();
+    }
+
+    /**
+     * @return the maximum number of sessions the pool will open
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return how many emails were sent through the pool
+     */
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    /**
+     * @return how many sessions were opened to the server
+     */
+    public long getOpenedCount() {
+        return openedCount.get();
+    }
+
+    /**
+     * @return how many sessions were replaced in the middle of a batch
+     */
+    public long getReconnectCount() {
+        return reconnectCount.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("SmtpSessionPool{idle=").append(getIdleCount());
+        sb.append(", maxSize=").append(maxSize);
+        sb.append(", sent=").append(getSentCount());
+        sb.append(", opened=").append(getOpenedCount());
+        sb.append(", reconnects=").append(getReconnectCount());
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /**
+     * An open session sitting in the pool along with the time it was returned.
+     */
+    private static class IdleSession {
+
+        private final SendMailSession session;
+        private final long lastUsed;
+
+        IdleSession(SendMailSession session) {
+            this.session = session;
+            this.lastUsed = System.currentTimeMillis();
+        }
+    }
+}
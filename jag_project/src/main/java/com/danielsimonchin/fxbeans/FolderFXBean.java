@@ -15,16 +15,29 @@ public class FolderFXBean {
 
     private IntegerProperty folderId;
     private StringProperty folderName;
+    private IntegerProperty emailCount;
 
     /**
      * Constructor which sets the input parameters to the associated FXBean.
      *
      * @param folderId
      * @param folderName
+     * @param emailCount The number of emails in the folder
      */
-    public FolderFXBean(int folderId, String folderName) {
+    public FolderFXBean(int folderId, String folderName, int emailCount) {
         this.folderId = new SimpleIntegerProperty(folderId);
         this.folderName = new SimpleStringProperty(folderName);
+        this.emailCount = new SimpleIntegerProperty(emailCount);
+    }
+
+    /**
+     * Constructor for a folder whose emails have not been counted.
+     *
+     * @param folderId
+     * @param folderName
+     */
+    public FolderFXBean(int folderId, String folderName) {
+        this(folderId, folderName, 0);
     }
 
     /**
@@ -76,4 +89,25 @@ public class FolderFXBean {
     public StringProperty getFolderNameProperty() {
         return folderName;
     }
+
+    /**
+     * @return the number of emails in the folder
+     */
+    public int getEmailCount() {
+        return this.emailCount.get();
+    }
+
+    /**
+     * @param emailCount
+     */
+    public void setEmailCount(int emailCount) {
+        this.emailCount.set(emailCount);
+    }
+
+    /**
+     * @return the emailCount IntegerProperty
+     */
+    public IntegerProperty getEmailCountProperty() {
+        return emailCount;
+    }
 }
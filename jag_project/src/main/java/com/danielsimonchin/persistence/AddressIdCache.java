@@ -0,0 +1,153 @@
+package com.danielsimonchin.persistence;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of email address to ADDRESSID. The Addresses table is only
+ * ever appended to and its EMAILADDRESS column is unique, so an id never
+ * changes once it is known. When the cache is full the least recently used
+ * address is dropped. Addresses are compared ignoring case, like the column.
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public class AddressIdCache {
+
+    private final int maxSize;
+    private final LinkedHashMap<String, Integer> entries;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * @param maxSize The most addresses kept in the cache
+     */
+    public AddressIdCache(int maxSize) {
+        this.maxSize = Math.max(1, maxSize);
+        //Access order makes the eldest entry the least recently used one
+        this.entries = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                if (size() > AddressIdCache.this.maxSize) {
+                    evictionCount.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param address
+     * @return the ADDRESSID of the address, null if it is not cached
+     */
+    public Integer get(String address) {
+        Integer addressId;
+        synchronized (entries) {
+            addressId = entries.get(key(address));
+        }
+        if (addressId == null) {
+            missCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
+        }
+        return addressId;
+    }
+
+    /**
+     * Only ids of committed rows may be cached.
+     *
+     * @param address
+     * @param addressId
+     */
+    public void put(String address, int addressId) {
+        synchronized (entries) {
+            entries.put(key(address), addressId);
+        }
+    }
+
+    /**
+     * @param addressIds ADDRESSIDs of committed rows keyed by address
+     */
+    public void putAll(Map<String, Integer> addressIds) {
+        synchronized (entries) {
+            addressIds.forEach((address, addressId) -> entries.put(key(address), addressId));
+        }
+    }
+
+    /**
+     * Drop every cached address.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * @return the number of cached addresses
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the most addresses kept in the cache
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return how many lookups found the address
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return how many lookups did not find the address
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return how many addresses were dropped to make room
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * @return the fraction of lookups that found the address, 0 before the
+     * first lookup
+     */
+    public double getHitRate() {
+        long lookups = hitCount.get() + missCount.get();
+        return lookups == 0 ? 0 : hitCount.get() / (double) lookups;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("AddressIdCache{size=").append(size());
+        sb.append(", maxSize=").append(maxSize);
+        sb.append(", hits=").append(getHitCount());
+        sb.append(", misses=").append(getMissCount());
+        sb.append(", evictions=").append(getEvictionCount());
+        sb.append(", hitRate=").append(String.format("%.3f", getHitRate()));
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private static String key(String address) {
+        return address.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,170 @@
+package com.danielsimonchin.persistence;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the calls to an EmailDAO on background threads so the UI never waits
+ * for the database. Every call returns a CompletableFuture that is completed
+ * through the result executor, which is Platform::runLater in the application
+ * so the result can update the UI right away.
+ *
+ * A call submitted with a key supersedes the previous call with the same key,
+ * for example loading a folder when the user already clicked on another one.
+ * The superseded call is cancelled: it is skipped if it has not started and
+ * its result is dropped otherwise.
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public class AsyncEmailDAO {
+
+    private final static Logger LOG = LoggerFactory.getLogger(AsyncEmailDAO.class);
+
+    //Every facade created, so their threads can be stopped with the application
+    private final static Set<AsyncEmailDAO> INSTANCES = ConcurrentHashMap.newKeySet();
+
+    /**
+     * One call to the EmailDAO, made on a background thread.
+     *
+     * @param <T> The type of the result
+     */
+    @FunctionalInterface
+    public interface DAOCall<T> {
+
+        T call(EmailDAO emailDAO) throws Exception;
+    }
+
+    private final EmailDAO emailDAO;
+    private final Executor resultExecutor;
+    private final ExecutorService executor;
+    //The last call submitted for each key
+    private final Map<String, CompletableFuture<?>> latestCalls = new ConcurrentHashMap<>();
+
+    /**
+     * @param emailDAO The DAO the calls are made to
+     * @param threads The number of background threads, at most the size of
+     * the connection pool is useful
+     * @param resultExecutor Completes the futures, Platform::runLater to get
+     * the results on the JavaFX thread
+     */
+    public AsyncEmailDAO(EmailDAO emailDAO, int threads, Executor resultExecutor) {
+        this.emailDAO = emailDAO;
+        this.resultExecutor = resultExecutor;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "jag-dao-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        INSTANCES.add(this);
+    }
+
+    /**
+     * Stop the threads of every facade that was created. Called when the
+     * application stops.
+     */
+    public static void shutdownAll() {
+        INSTANCES.forEach(AsyncEmailDAO::shutdown);
+    }
+
+    /**
+     * Runs a call on a background thread.
+     *
+     * @param <T>
+     * @param call
+     * @return the result of the call, completed through the result executor
+     */
+    public <T> CompletableFuture<T> submit(DAOCall<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        execute(future, call);
+        return future;
+    }
+
+    /**
+     * Runs a call on a background thread, cancelling the previous call
+     * submitted with the same key. Calls that supersede each other must be
+     * submitted from the thread the results are completed on, so a result
+     * already on its way is dropped as well.
+     *
+     * @param <T>
+     * @param key What the call is for, such as the table of emails
+     * @param call
+     * @return the result of the call, cancelled if another call with the same
+     * key is submitted before it completes
+     */
+    public <T> CompletableFuture<T> submitLatest(String key, DAOCall<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        CompletableFuture<?> previous = latestCalls.put(key, future);
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        future.whenComplete((result, ex) -> latestCalls.remove(key, future));
+        execute(future, call);
+        return future;
+    }
+
+    private <T> void execute(CompletableFuture<T> future, DAOCall<T> call) {
+        try {
+            executor.execute(() -> {
+                //A call cancelled before it started is not made
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    T result = call.call(emailDAO);
+                    resultExecutor.execute(() -> future.complete(result));
+                } catch (Exception ex) {
+                    resultExecutor.execute(() -> future.completeExceptionally(ex));
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            future.completeExceptionally(ex);
+        }
+    }
+
+    /**
+     * Hands the result of a call to one of two handlers. A cancelled call
+     * calls neither, the call that superseded it has its own handlers.
+     *
+     * @param <T>
+     * @param future
+     * @param onResult Called with the result of the call
+     * @param onError Called with the exception thrown by the call
+     */
+    public static <T> void whenDone(CompletableFuture<T> future, Consumer<T> onResult, Consumer<Throwable> onError) {
+        future.whenComplete((result, ex) -> {
+            if (ex instanceof CompletionException && ex.getCause() != null) {
+                ex = ex.getCause();
+            }
+            if (ex instanceof CancellationException) {
+                LOG.debug("A database call was superseded");
+            } else if (ex != null) {
+                onError.accept(ex);
+            } else {
+                onResult.accept(result);
+            }
+        });
+    }
+
+    /**
+     * Stops the background threads, calls that have not started are not
+     * made.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        INSTANCES.remove(this);
+    }
+}
@@ -0,0 +1,134 @@
+package com.danielsimonchin.persistence;
+
+import com.danielsimonchin.properties.AttachmentBean;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A directory holding the contents of attachments that were already read from
+ * the attachment store. Contents are kept under a sub directory named after
+ * their SHA-256 hash, one file per file name, so that a cached file keeps the
+ * original file name and every attachment sharing a content reuses it.
+ * Attachments without content are kept under their ATTACHMENTID.
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public class AttachmentCache {
+
+    private final Path directory;
+
+    /**
+     * @param directory The directory managed by this cache, created when the
+     * first attachment is stored
+     */
+    public AttachmentCache(File directory) {
+        this.directory = directory.toPath().toAbsolutePath();
+    }
+
+    /**
+     * The file an attachment is cached in. The file only exists once the
+     * attachment was stored.
+     *
+     * @param attachment
+     * @return the cache file of the attachment
+     */
+    public File getFile(AttachmentBean attachment) {
+        return getEntryDirectory(attachment).resolve(new File(attachment.getFileName()).getName()).toFile();
+    }
+
+    /**
+     * @param attachment
+     * @return true if the attachment's content is in the cache
+     */
+    public boolean isCached(AttachmentBean attachment) {
+        File file = getFile(attachment);
+        return file.isFile() && file.length() == attachment.getSize();
+    }
+
+    /**
+     * Copies the content of an attachment into the cache. The content is
+     * written to a temporary file first and moved in place, so a reader never
+     * sees a partially written attachment.
+     *
+     * @param attachment
+     * @param content The stream of the attachment's bytes
+     * @return the cache file of the attachment
+     * @throws IOException
+     */
+    public File store(AttachmentBean attachment, InputStream content) throws IOException {
+        Path entryDirectory = getEntryDirectory(attachment);
+        Files.createDirectories(entryDirectory);
+        Path target = getFile(attachment).toPath();
+        Path temp = Files.createTempFile(entryDirectory, "download", ".tmp");
+        try {
+            Files.copy(content, temp, StandardCopyOption.REPLACE_EXISTING);
+            AttachmentFiles.moveIntoPlace(temp, target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return target.toFile();
+    }
+
+    /**
+     * Copies the content of an attachment into the cache from a file, using
+     * FileChannel.transferTo.
+     *
+     * @param attachment
+     * @param source The file holding the attachment's bytes
+     * @return the cache file of the attachment
+     * @throws IOException
+     */
+    public File store(AttachmentBean attachment, Path source) throws IOException {
+        Path entryDirectory = getEntryDirectory(attachment);
+        Files.createDirectories(entryDirectory);
+        Path target = getFile(attachment).toPath();
+        Path temp = Files.createTempFile(entryDirectory, "download", ".tmp");
+        try {
+            AttachmentFiles.copy(source, temp);
+            AttachmentFiles.moveIntoPlace(temp, target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return target.toFile();
+    }
+
+    /**
+     * Creates the cache file of an attachment from a file that holds the same
+     * content under another name, without going back to the attachment store.
+     *
+     * @param attachment
+     * @return the cache file of the attachment, null if the content is not
+     * cached under any name
+     * @throws IOException
+     */
+    public File copyCachedContent(AttachmentBean attachment) throws IOException {
+        Path entryDirectory = getEntryDirectory(attachment);
+        if (attachment.getContentHash() == null || !Files.isDirectory(entryDirectory)) {
+            return null;
+        }
+        File[] cachedFiles = entryDirectory.toFile().listFiles(file -> file.isFile() && file.length() == attachment.getSize() && !file.getName().endsWith(".tmp"));
+        if (cachedFiles == null || cachedFiles.length == 0) {
+            return null;
+        }
+        return store(attachment, cachedFiles[0].toPath());
+    }
+
+    /**
+     * @return the directory managed by this cache
+     */
+    public File getDirectory() {
+        return directory.toFile();
+    }
+
+    private Path getEntryDirectory(AttachmentBean attachment) {
+        if (attachment.getContentHash() == null) {
+            return directory.resolve("id-" + attachment.getAttachmentId());
+        }
+        return directory.resolve(attachment.getContentHash());
+    }
+}
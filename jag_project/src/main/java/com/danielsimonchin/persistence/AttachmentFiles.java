@@ -0,0 +1,83 @@
+package com.danielsimonchin.persistence;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * File operations shared by the attachment cache, the file system attachment
+ * store and the screens that save attachments.
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public final class AttachmentFiles {
+
+    private AttachmentFiles() {
+    }
+
+    /**
+     * Copies a file with FileChannel.transferTo, letting the operating system
+     * move the bytes without passing them through the Java heap. The target is
+     * replaced if it exists.
+     *
+     * @param source
+     * @param target
+     * @return the number of bytes copied
+     * @throws IOException
+     */
+    public static long copy(Path source, Path target) throws IOException {
+        try ( FileChannel in = FileChannel.open(source, StandardOpenOption.READ);  FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            return position;
+        }
+    }
+
+    /**
+     * Moves a fully written temporary file over its target, atomically when
+     * the file system supports it, so a reader never sees a partial file.
+     *
+     * @param temp
+     * @param target
+     * @throws IOException
+     */
+    public static void moveIntoPlace(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Deletes a directory and everything in it. Does nothing if it does not
+     * exist.
+     *
+     * @param directory
+     * @throws IOException
+     */
+    public static void deleteDirectory(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try ( Stream<Path> paths = Files.walk(directory)) {
+            //Children come after their parent, delete them first
+            List<Path> ordered = paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+            for (Path path : ordered) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
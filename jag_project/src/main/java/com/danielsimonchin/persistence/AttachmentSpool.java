@@ -0,0 +1,157 @@
+package com.danielsimonchin.persistence;
+
+import com.danielsimonchin.properties.MailConfigBean;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The content of an attachment in a file, with its SHA-256 hash and size.
+ * The content is read once with a fixed size buffer to compute the hash, so
+ * it can be handed to the attachment store as a stream whatever its size. A
+ * content copied from a stream lives in a temporary file deleted when the
+ * spool is closed, an existing file is left where it is.
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public final class AttachmentSpool implements AutoCloseable {
+
+    private final static int BUFFER_SIZE = 64 * 1024;
+
+    private final Path file;
+    private final boolean temporary;
+    private final String contentHash;
+    private final long size;
+
+    private AttachmentSpool(Path file, boolean temporary, String contentHash, long size) {
+        this.file = file;
+        this.temporary = temporary;
+        this.contentHash = contentHash;
+        this.size = size;
+    }
+
+    /**
+     * @param mailConfigBean
+     * @return the directory receiving spools attachments into, inside the
+     * attachment cache directory
+     */
+    public static File getDirectory(MailConfigBean mailConfigBean) {
+        return new File(mailConfigBean.getAttachmentCacheDirectory(), "spool");
+    }
+
+    /**
+     * Copies a stream into a temporary file of the directory, hashing it on
+     * the way. The stream is not closed.
+     *
+     * @param content
+     * @param directory Created if it does not exist
+     * @return the spooled content
+     * @throws IOException
+     */
+    public static AttachmentSpool spool(InputStream content, File directory) throws IOException {
+        Files.createDirectories(directory.toPath());
+        Path temp = Files.createTempFile(directory.toPath(), "attachment", ".tmp");
+        try {
+            MessageDigest digest = newDigest();
+            long size = 0;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try ( OutputStream out = Files.newOutputStream(temp)) {
+                int count;
+                while ((count = content.read(buffer)) != -1) {
+                    digest.update(buffer, 0, count);
+                    out.write(buffer, 0, count);
+                    size += count;
+                }
+            }
+            return new AttachmentSpool(temp, true, toHex(digest.digest()), size);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(temp);
+            throw ex;
+        }
+    }
+
+    /**
+     * Hashes an existing file without copying it.
+     *
+     * @param file
+     * @return the content of the file
+     * @throws IOException
+     */
+    public static AttachmentSpool of(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        long size = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try ( InputStream in = Files.newInputStream(file)) {
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, count);
+                size += count;
+            }
+        }
+        return new AttachmentSpool(file, false, toHex(digest.digest()), size);
+    }
+
+    /**
+     * @return a new stream over the content
+     * @throws IOException
+     */
+    public InputStream openStream() throws IOException {
+        return Files.newInputStream(file);
+    }
+
+    /**
+     * @return the lower case hex SHA-256 hash of the content
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * @return the number of bytes of the content
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the file holding the content
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Deletes the temporary file of a content copied from a stream.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (temporary) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            //Every Java platform is required to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String toHex(byte[] digest) {
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
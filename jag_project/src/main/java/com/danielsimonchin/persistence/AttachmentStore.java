@@ -0,0 +1,50 @@
+package com.danielsimonchin.persistence;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Where the bytes of attachments are kept. Contents are addressed by their
+ * SHA-256 hash, the EmailDAO keeps one ATTACHMENTCONTENT row per hash with its
+ * size and reference count, and only asks the store to write a content the
+ * first time it is referenced and to delete it once the transaction removing
+ * its last reference has committed, so a rolled back delete never loses the
+ * bytes. The connection passed in is the one the DAO uses for the surrounding
+ * statements.
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public interface AttachmentStore {
+
+    public void write(Connection connection, String contentHash, byte[] content) throws SQLException, IOException;
+
+    /**
+     * Writes a content from a stream, without holding the whole content in
+     * the heap.
+     *
+     * @param connection
+     * @param contentHash
+     * @param content Read to its end, not closed
+     * @param size The number of bytes of the content
+     * @throws SQLException
+     * @throws IOException
+     */
+    public void write(Connection connection, String contentHash, InputStream content, long size) throws SQLException, IOException;
+
+    public InputStream read(Connection connection, String contentHash) throws SQLException, IOException;
+
+    public void delete(Connection connection, String contentHash) throws SQLException;
+
+    /**
+     * @param contentHash
+     * @return the file holding the content when the store keeps contents as
+     * files, null otherwise
+     */
+    public default Path getContentFile(String contentHash) {
+        return null;
+    }
+}
@@ -0,0 +1,153 @@
+package com.danielsimonchin.persistence;
+
+import com.danielsimonchin.fxbeans.MailConfigFXBean;
+import com.danielsimonchin.properties.MailConfigBean;
+import com.danielsimonchin.propertiesmanager.PropertiesManager;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Moves the attachment contents still stored in the ATTACHMENTCONTENT table
+ * into the file system attachment store. Each content is written to its file
+ * before its CONTENT column is cleared, so the migration can be stopped and
+ * run again at any time. Run it with the directory of MailConfig.properties as
+ * the only argument, or from that directory without arguments.
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public class AttachmentStoreMigration {
+
+    private final static Logger LOG = LoggerFactory.getLogger(AttachmentStoreMigration.class);
+
+    //Number of contents looked up per query while migrating
+    private final static int MIGRATION_BATCH_SIZE = 100;
+
+    private final ConnectionPool connectionPool;
+    private final FileSystemAttachmentStore fileSystemStore;
+
+    /**
+     * @param mailConfigBean The database to migrate and the directory of the
+     * file system store
+     */
+    public AttachmentStoreMigration(MailConfigBean mailConfigBean) {
+        this.connectionPool = ConnectionPool.getPool(mailConfigBean);
+        this.fileSystemStore = new FileSystemAttachmentStore(new File(mailConfigBean.getAttachmentStoreDirectory()));
+    }
+
+    /**
+     * Moves every content still in the database to the file system store.
+     *
+     * @return the number of contents moved
+     * @throws SQLException
+     * @throws IOException
+     */
+    public int migrate() throws SQLException, IOException {
+        int migrated = 0;
+        String lastHash = "";
+        List<String> batch;
+        do {
+            batch = findContentsInDatabase(lastHash);
+            for (String contentHash : batch) {
+                if (migrateContent(contentHash)) {
+                    migrated++;
+                }
+                lastHash = contentHash;
+            }
+            LOG.info(migrated + " attachment contents moved to " + fileSystemStore.getDirectory());
+        } while (batch.size() == MIGRATION_BATCH_SIZE);
+        return migrated;
+    }
+
+    /**
+     * @param afterHash Only hashes greater than this one are returned
+     * @return the next hashes whose content is still in the database
+     * @throws SQLException
+     */
+    private List<String> findContentsInDatabase(String afterHash) throws SQLException {
+        List<String> contentHashes = new ArrayList<>();
+        String findContentsQuery = "SELECT CONTENTHASH FROM ATTACHMENTCONTENT WHERE CONTENT IS NOT NULL AND CONTENTHASH > ? ORDER BY CONTENTHASH LIMIT ?";
+        try ( Connection connection = connectionPool.getConnection();  PreparedStatement ps = connection.prepareStatement(findContentsQuery);) {
+            ps.setString(1, afterHash);
+            ps.setInt(2, MIGRATION_BATCH_SIZE);
+            try ( ResultSet resultSet = ps.executeQuery();) {
+                while (resultSet.next()) {
+                    contentHashes.add(resultSet.getString("CONTENTHASH"));
+                }
+            }
+        }
+        return contentHashes;
+    }
+
+    /**
+     * Writes one content to the file system store and clears it from the
+     * database. A content whose size does not match its row is left alone.
+     *
+     * @param contentHash
+     * @return true if the content was moved
+     * @throws SQLException
+     * @throws IOException
+     */
+    private boolean migrateContent(String contentHash) throws SQLException, IOException {
+        String readContentQuery = "SELECT CONTENT, CONTENTSIZE FROM ATTACHMENTCONTENT WHERE CONTENTHASH = ?";
+        String clearContentQuery = "UPDATE ATTACHMENTCONTENT SET CONTENT = NULL WHERE CONTENTHASH = ?";
+        try ( Connection connection = connectionPool.getConnection();) {
+            byte[] content;
+            try ( PreparedStatement ps = connection.prepareStatement(readContentQuery);) {
+                ps.setString(1, contentHash);
+                try ( ResultSet resultSet = ps.executeQuery();) {
+                    if (!resultSet.next()) {
+                        //Deleted since the batch was read
+                        return false;
+                    }
+                    content = resultSet.getBytes("CONTENT");
+                    if (content == null || content.length != resultSet.getLong("CONTENTSIZE")) {
+                        LOG.info("Skipping the attachment content " + contentHash + ", its size does not match");
+                        return false;
+                    }
+                }
+            }
+            fileSystemStore.write(connection, contentHash, content);
+            try ( PreparedStatement ps = connection.prepareStatement(clearContentQuery);) {
+                ps.setString(1, contentHash);
+                ps.executeUpdate();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the database settings and the attachment store directory from
+     * MailConfig.properties and runs the migration.
+     *
+     * @param args The directory of MailConfig.properties, optional
+     * @throws SQLException
+     * @throws IOException
+     */
+    public static void main(String[] args) throws SQLException, IOException {
+        String path = args.length > 0 ? args[0] : "";
+        PropertiesManager propertiesManager = new PropertiesManager();
+        MailConfigFXBean propertyBean = new MailConfigFXBean();
+        if (!propertiesManager.loadTextProperties(propertyBean, path, "MailConfig")) {
+            LOG.error("MailConfig.properties was not found in \"" + path + "\"");
+            return;
+        }
+        String databaseUrl = "jdbc:mysql://" + propertyBean.getmysqlURL() + ":" + propertyBean.getmysqlPort() + "/" + propertyBean.getmysqlDatabase();
+        MailConfigBean mailConfigBean = new MailConfigBean(propertyBean.getUserName(), propertyBean.getEmailAddress(), propertyBean.getEmailPassword(), propertyBean.getImapURL(), propertyBean.getSmtpURL(), propertyBean.getImapPort(), propertyBean.getSmtpPort(), databaseUrl, propertyBean.getmysqlDatabase(), propertyBean.getmysqlPort(), propertyBean.getmysqlUsername(), propertyBean.getmysqlPassword());
+        propertiesManager.loadTuningProperties(mailConfigBean, path, "MailConfig");
+        try {
+            int migrated = new AttachmentStoreMigration(mailConfigBean).migrate();
+            LOG.info("Migration done, " + migrated + " attachment contents moved. Set attachmentStore=" + MailConfigBean.FILESYSTEM_ATTACHMENT_STORE + " in MailConfig.properties to use them.");
+        } finally {
+            ConnectionPool.shutdownAll();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.danielsimonchin.persistence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the message bodies stored in the HTMLBODY column. An encoded
+ * body starts with the version of its format, so the format can change
+ * without converting the bodies already stored:
+ *
+ * version 1: the version byte, the length of the UTF-8 text as 4 bytes then
+ * the text compressed with DEFLATE in the zlib format.
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public final class BodyCodec {
+
+    //The first byte of a body encoded with DEFLATE
+    public final static byte DEFLATE_V1 = 1;
+
+    private final static int HEADER_BYTES = 5;
+    private final static int BUFFER_SIZE = 8192;
+
+    private BodyCodec() {
+    }
+
+    /**
+     * Compresses a body if it is long enough and compressing makes it
+     * smaller.
+     *
+     * @param text
+     * @param minLength The fewest characters a body must have to be
+     * compressed, 0 never compresses
+     * @return the encoded body, null if the body should be stored as text
+     */
+    public static byte[] compress(String text, int minLength) {
+        if (text == null || minLength <= 0 || text.length() < minLength) {
+            return null;
+        }
+        byte[] encoded = encode(text);
+        return encoded.length < text.getBytes(StandardCharsets.UTF_8).length ? encoded : null;
+    }
+
+    /**
+     * @param text
+     * @return the text in the latest format
+     */
+    public static byte[] encode(String text) {
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(utf8);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER_BYTES + utf8.length / 4);
+            out.write(DEFLATE_V1);
+            out.writeBytes(ByteBuffer.allocate(4).putInt(utf8.length).array());
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @param body A body encoded in any of the formats
+     * @return the text of the body
+     * @throws IOException if the format is unknown or the body is corrupted
+     */
+    public static String decode(byte[] body) throws IOException {
+        if (body.length < HEADER_BYTES || body[0] != DEFLATE_V1) {
+            throw new IOException("Unknown message body format " + (body.length > 0 ? body[0] : -1));
+        }
+        int length = ByteBuffer.wrap(body, 1, 4).getInt();
+        byte[] utf8 = new byte[length];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(body, HEADER_BYTES, body.length - HEADER_BYTES);
+            int read = 0;
+            while (read < length) {
+                int inflated = inflater.inflate(utf8, read, length - read);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                read += inflated;
+            }
+            if (read != length) {
+                throw new IOException("The message body is truncated");
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("The message body is corrupted", ex);
+        } finally {
+            inflater.end();
+        }
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param body An encoded body
+     * @return the length of its text in UTF-8 bytes, read from the header
+     */
+    public static int decodedLength(byte[] body) {
+        return body.length < HEADER_BYTES ? 0 : ByteBuffer.wrap(body, 1, 4).getInt();
+    }
+}
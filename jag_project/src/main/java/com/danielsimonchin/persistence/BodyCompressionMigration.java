@@ -0,0 +1,149 @@
+package com.danielsimonchin.persistence;
+
+import com.danielsimonchin.properties.MailConfigBean;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compresses the HTML messages stored as text before bodies were compressed,
+ * or while compression was disabled. The emails are converted in batches,
+ * each in its own transaction, so the migration can be stopped and run again
+ * at any time. The text of a message does not change, so the emails cached by
+ * the EmailDAO stay valid.
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public class BodyCompressionMigration {
+
+    private final static Logger LOG = LoggerFactory.getLogger(BodyCompressionMigration.class);
+
+    //Number of emails converted per transaction
+    private final static int MIGRATION_BATCH_SIZE = 100;
+
+    private final ConnectionPool connectionPool;
+    private final int minLength;
+
+    /**
+     * @param mailConfigBean The database to migrate and the shortest HTML
+     * message that is compressed
+     */
+    public BodyCompressionMigration(MailConfigBean mailConfigBean) {
+        this.connectionPool = ConnectionPool.getPool(mailConfigBean);
+        this.minLength = mailConfigBean.getBodyCompressionMinLength();
+    }
+
+    /**
+     * Compresses every HTML message long enough to be compressed. Stops
+     * between two batches if the thread is interrupted.
+     *
+     * @return the number of messages compressed
+     * @throws SQLException
+     */
+    public int migrate() throws SQLException {
+        if (minLength <= 0) {
+            return 0;
+        }
+        int compressed = 0;
+        int lastEmailId = 0;
+        List<Integer> batch;
+        do {
+            batch = findTextBodies(lastEmailId);
+            if (!batch.isEmpty()) {
+                compressed += compressBodies(batch);
+                lastEmailId = batch.get(batch.size() - 1);
+            }
+        } while (batch.size() == MIGRATION_BATCH_SIZE && !Thread.currentThread().isInterrupted());
+        if (compressed > 0) {
+            LOG.info(compressed + " HTML messages have been compressed");
+        }
+        return compressed;
+    }
+
+    /**
+     * Runs the migration on a daemon thread, failures are logged.
+     *
+     * @return the thread, interrupt it to stop the migration
+     */
+    public Thread migrateInBackground() {
+        Thread thread = new Thread(() -> {
+            try {
+                migrate();
+            } catch (SQLException ex) {
+                LOG.error("Could not compress the HTML messages", ex);
+            }
+        }, "jag-body-compression");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * @param afterEmailId Only emails with a greater id are returned
+     * @return the ids of the next emails whose HTML message is long enough to
+     * be compressed but is stored as text
+     * @throws SQLException
+     */
+    private List<Integer> findTextBodies(int afterEmailId) throws SQLException {
+        List<Integer> emailIds = new ArrayList<>();
+        String findTextBodiesQuery = "SELECT EMAILID FROM EMAIL WHERE EMAILID > ? AND HTMLBODY IS NULL AND CHAR_LENGTH(HTMLMESSAGE) >= ? ORDER BY EMAILID LIMIT ?";
+        try ( Connection connection = connectionPool.getConnection();  PreparedStatement ps = connection.prepareStatement(findTextBodiesQuery);) {
+            ps.setInt(1, afterEmailId);
+            ps.setInt(2, minLength);
+            ps.setInt(3, MIGRATION_BATCH_SIZE);
+            try ( ResultSet resultSet = ps.executeQuery();) {
+                while (resultSet.next()) {
+                    emailIds.add(resultSet.getInt("EMAILID"));
+                }
+            }
+        }
+        return emailIds;
+    }
+
+    /**
+     * Compresses the HTML messages of a batch of emails in one transaction.
+     * The rows are read again under a lock so a message changed since the
+     * batch was found is compressed as it is now.
+     *
+     * @param emailIds
+     * @return the number of messages compressed
+     * @throws SQLException
+     */
+    private int compressBodies(List<Integer> emailIds) throws SQLException {
+        String readBodyQuery = "SELECT HTMLMESSAGE FROM EMAIL WHERE EMAILID = ? AND HTMLBODY IS NULL FOR UPDATE";
+        String compressQuery = "UPDATE EMAIL SET HTMLMESSAGE = NULL, HTMLBODY = ? WHERE EMAILID = ?";
+        int compressed = 0;
+        try ( Connection connection = connectionPool.getConnection();) {
+            connection.setAutoCommit(false);
+            try ( PreparedStatement read = connection.prepareStatement(readBodyQuery);  PreparedStatement compress = connection.prepareStatement(compressQuery);) {
+                for (int emailId : emailIds) {
+                    read.setInt(1, emailId);
+                    try ( ResultSet resultSet = read.executeQuery();) {
+                        //A message that was deleted, compressed meanwhile or does not get smaller is left alone
+                        byte[] htmlBody = resultSet.next() ? BodyCodec.compress(resultSet.getString("HTMLMESSAGE"), minLength) : null;
+                        if (htmlBody != null) {
+                            compress.setBytes(1, htmlBody);
+                            compress.setInt(2, emailId);
+                            compress.addBatch();
+                            compressed++;
+                        }
+                    }
+                }
+                if (compressed > 0) {
+                    compress.executeBatch();
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            }
+        }
+        return compressed;
+    }
+}
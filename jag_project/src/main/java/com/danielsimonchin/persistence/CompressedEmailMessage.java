@@ -0,0 +1,55 @@
+package com.danielsimonchin.persistence;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import jodd.mail.EmailMessage;
+
+/**
+ * An HTML message loaded by the EmailDAO from the HTMLBODY column. It keeps
+ * the compressed body and inflates it every time its content is read, which
+ * only happens when the message is displayed, sent or copied. An email kept
+ * in the email cache therefore only holds the compressed bytes.
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public class CompressedEmailMessage extends EmailMessage {
+
+    private final byte[] body;
+
+    /**
+     * @param body The HTML encoded by the BodyCodec
+     */
+    public CompressedEmailMessage(byte[] body) {
+        super("", "text/html", StandardCharsets.UTF_8.name());
+        this.body = body;
+    }
+
+    /**
+     * @return the HTML of the message, inflated from the compressed body
+     * @throws UncheckedIOException if the body is corrupted
+     */
+    @Override
+    public String getContent() {
+        try {
+            return BodyCodec.decode(body);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * @return the size of the compressed body in bytes
+     */
+    public int getCompressedSize() {
+        return body.length;
+    }
+
+    /**
+     * @return the size of the HTML in UTF-8 bytes, without inflating it
+     */
+    public int getContentLength() {
+        return BodyCodec.decodedLength(body);
+    }
+}
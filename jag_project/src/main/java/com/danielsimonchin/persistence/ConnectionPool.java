@@ -0,0 +1,379 @@
+package com.danielsimonchin.persistence;
+
+import com.danielsimonchin.properties.MailConfigBean;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool of JDBC connections shared by every EmailDAOImpl that uses the
+ * same database credentials. Borrowed connections are handed out as proxies so
+ * that the existing try-with-resources blocks return the connection to the
+ * pool instead of closing the socket to MySQL.
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public class ConnectionPool {
+
+    private final static Logger LOG = LoggerFactory.getLogger(ConnectionPool.class);
+
+    //Connections idle for longer than this are pinged before being handed out again
+    private final static long VALIDATE_AFTER_IDLE_MILLIS = 5000;
+
+    //One pool per database url/user/password so every DAO shares the same connections
+    private final static Map<String, ConnectionPool> POOLS = new ConcurrentHashMap<>();
+
+    private final String databaseUrl;
+    private final Properties connectionProperties = new Properties();
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final int validationTimeoutSeconds;
+    private final long idleTimeoutMillis;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<IdleConnection> idleConnections = new LinkedBlockingDeque<>();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed = false;
+
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong totalBorrowWaitNanos = new AtomicLong();
+    private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+
+    /**
+     * Returns the pool for the database described by the MailConfigBean,
+     * creating it the first time those credentials are used.
+     *
+     * @param mailConfigBean
+     * @return the shared ConnectionPool for this database
+     */
+    public static ConnectionPool getPool(MailConfigBean mailConfigBean) {
+        String key = mailConfigBean.getDatabaseUrl() + "|" + mailConfigBean.getDatabaseUserName() + "|" + mailConfigBean.getDatabasePassword();
+        return POOLS.computeIfAbsent(key, k -> new ConnectionPool(mailConfigBean));
+    }
+
+    /**
+     * Close every pool that was created. Called when the application stops.
+     */
+    public static void shutdownAll() {
+        POOLS.values().forEach(ConnectionPool::shutdown);
+        POOLS.clear();
+    }
+
+    /**
+     * Takes the database credentials and the pool settings from the
+     * MailConfigBean and starts the idle eviction thread.
+     *
+     * @param mailConfigBean
+     */
+    private ConnectionPool(MailConfigBean mailConfigBean) {
+        this.databaseUrl = mailConfigBean.getDatabaseUrl();
+        this.connectionProperties.setProperty("user", mailConfigBean.getDatabaseUserName());
+        this.connectionProperties.setProperty("password", mailConfigBean.getDatabasePassword());
+        //Lets the driver send a JDBC batch as multi-row statements in one round trip
+        this.connectionProperties.setProperty("rewriteBatchedStatements", "true");
+        this.maxSize = Math.max(1, mailConfigBean.getDatabasePoolSize());
+        this.borrowTimeoutMillis = TimeUnit.SECONDS.toMillis(mailConfigBean.getDatabasePoolBorrowTimeout());
+        this.validationTimeoutSeconds = mailConfigBean.getDatabasePoolValidationTimeout();
+        this.idleTimeoutMillis = TimeUnit.SECONDS.toMillis(mailConfigBean.getDatabasePoolIdleTimeout());
+        this.permits = new Semaphore(maxSize, true);
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jag-connection-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long evictionPeriod = Math.max(1000, Math.min(idleTimeoutMillis / 2, 60000));
+        this.evictor.scheduleWithFixedDelay(this::evictIdleConnections, evictionPeriod, evictionPeriod, TimeUnit.MILLISECONDS);
+        LOG.info("Connection pool created for " + databaseUrl + " with a maximum of " + maxSize + " connections");
+    }
+
+    /**
+     * Borrow a connection from the pool. Waits up to the borrow timeout when
+     * every connection is in use. Closing the returned connection gives it back
+     * to the pool.
+     *
+     * @return a pooled Connection
+     * @throws SQLException if the pool is closed, the wait timed out or a new
+     * connection could not be opened
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("The connection pool for " + databaseUrl + " has been shut down.");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out after " + borrowTimeoutMillis + "ms waiting for a database connection.");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection.", ex);
+        }
+        try {
+            Connection physical = takeIdleConnection();
+            if (physical == null) {
+                physical = DriverManager.getConnection(databaseUrl, connectionProperties);
+                createdCount.incrementAndGet();
+            }
+            recordBorrow(System.nanoTime() - start);
+            activeCount.incrementAndGet();
+            return wrap(physical);
+        } catch (SQLException | RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Takes the most recently used idle connection, validating it if it has
+     * been sitting idle for a while. Dead connections are discarded.
+     *
+     * @return a usable physical connection or null if none are idle
+     */
+    private Connection takeIdleConnection() {
+        IdleConnection idle;
+        while ((idle = idleConnections.pollFirst()) != null) {
+            long idleMillis = System.currentTimeMillis() - idle.lastUsed;
+            try {
+                if (idleMillis < VALIDATE_AFTER_IDLE_MILLIS || idle.connection.isValid(validationTimeoutSeconds)) {
+                    return idle.connection;
+                }
+                LOG.info("Discarding a pooled connection that failed validation");
+            } catch (SQLException ex) {
+                LOG.info("Discarding a pooled connection that could not be validated");
+            }
+            closeQuietly(idle.connection);
+        }
+        return null;
+    }
+
+    /**
+     * Called by the connection proxy when the DAO closes it. The connection is
+     * reset to auto-commit and placed back at the head of the idle queue.
+     *
+     * @param physical
+     */
+    private void release(Connection physical) {
+        activeCount.decrementAndGet();
+        try {
+            if (closed || physical.isClosed()) {
+                closeQuietly(physical);
+                return;
+            }
+            if (!physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            idleConnections.offerFirst(new IdleConnection(physical));
+        } catch (SQLException ex) {
+            LOG.info("Discarding a pooled connection that could not be reset");
+            closeQuietly(physical);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes the idle connections that have not been used within the idle
+     * timeout. Runs periodically on the evictor thread.
+     */
+    private void evictIdleConnections() {
+        long now = System.currentTimeMillis();
+        idleConnections.removeIf(idle -> {
+            if (now - idle.lastUsed > idleTimeoutMillis) {
+                closeQuietly(idle.connection);
+                evictedCount.incrementAndGet();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Stop the evictor and close every idle connection. Connections that are
+     * currently borrowed are closed when they are returned.
+     */
+    public void shutdown() {
+        closed = true;
+        evictor.shutdownNow();
+        IdleConnection idle;
+        while ((idle = idleConnections.pollFirst()) != null) {
+            closeQuietly(idle.connection);
+        }
+        LOG.info("Connection pool for " + databaseUrl + " shut down. " + toString());
+    }
+
+    private void recordBorrow(long waitNanos) {
+        borrowCount.incrementAndGet();
+        totalBorrowWaitNanos.addAndGet(waitNanos);
+        maxBorrowWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    private void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException ex) {
+            LOG.debug("Error closing a pooled connection", ex);
+        }
+    }
+
+    /**
+     * Wrap the physical connection so that close() returns it to the pool.
+     *
+     * @param physical
+     * @return a proxy implementing Connection
+     */
+    private Connection wrap(Connection physical) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, new PooledConnectionHandler(physical));
+    }
+
+    /**
+     * @return the number of connections currently borrowed
+     */
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    /**
+     * @return the number of open connections waiting in the pool
+     */
+    public int getIdleCount() {
+        return idleConnections.size();
+    }
+
+    /**
+     * @return the maximum number of connections the pool will open
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return how many times a connection was borrowed
+     */
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    /**
+     * @return how many physical connections were opened to the database
+     */
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    /**
+     * @return how many idle connections were closed by the evictor
+     */
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    /**
+     * @return the average time spent waiting for a connection in milliseconds
+     */
+    public double getAverageBorrowWaitMillis() {
+        long borrows = borrowCount.get();
+        return borrows == 0 ? 0 : totalBorrowWaitNanos.get() / (double) borrows / 1_000_000;
+    }
+
+    /**
+     * @return the longest time spent waiting for a connection in milliseconds
+     */
+    public double getMaxBorrowWaitMillis() {
+        return maxBorrowWaitNanos.get() / 1_000_000.0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("ConnectionPool{active=").append(getActiveCount());
+        sb.append(", idle=").append(getIdleCount());
+        sb.append(", maxSize=").append(maxSize);
+        sb.append(", borrows=").append(getBorrowCount());
+        sb.append(", created=").append(getCreatedCount());
+        sb.append(", evicted=").append(getEvictedCount());
+        sb.append(", avgWaitMs=").append(String.format("%.3f", getAverageBorrowWaitMillis()));
+        sb.append(", maxWaitMs=").append(String.format("%.3f", getMaxBorrowWaitMillis()));
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /**
+     * A physical connection sitting in the pool along with the time it was
+     * returned.
+     */
+    private static class IdleConnection {
+
+        private final Connection connection;
+        private final long lastUsed;
+
+        IdleConnection(Connection connection) {
+            this.connection = connection;
+            this.lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Forwards every call to the physical connection except close(), which
+     * hands the connection back to the pool exactly once.
+     */
+    private class PooledConnectionHandler implements InvocationHandler {
+
+        private final Connection physical;
+        private boolean released = false;
+
+        PooledConnectionHandler(Connection physical) {
+            this.physical = physical;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!released) {
+                        released = true;
+                        release(physical);
+                    }
+                    return null;
+                case "isClosed":
+                    return released || physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + physical.toString();
+                default:
+                    if (released) {
+                        throw new SQLException("The connection has already been returned to the pool.");
+                    }
+                    try {
+                        return method.invoke(physical, args);
+                    } catch (InvocationTargetException ex) {
+                        throw ex.getCause();
+                    }
+            }
+        }
+    }
+}
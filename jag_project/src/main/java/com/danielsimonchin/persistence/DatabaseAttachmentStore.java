@@ -0,0 +1,90 @@
+package com.danielsimonchin.persistence;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Keeps the bytes of attachments in the CONTENT column of the
+ * ATTACHMENTCONTENT table, next to their hash and reference count.
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public class DatabaseAttachmentStore implements AttachmentStore {
+
+    /**
+     * Sets the content of a row the DAO has just created for a new hash.
+     *
+     * @param connection
+     * @param contentHash
+     * @param content
+     * @throws SQLException
+     */
+    @Override
+    public void write(Connection connection, String contentHash, byte[] content) throws SQLException {
+        String writeContentQuery = "UPDATE ATTACHMENTCONTENT SET CONTENT = ? WHERE CONTENTHASH = ?";
+        try ( PreparedStatement ps = connection.prepareStatement(writeContentQuery);) {
+            ps.setBytes(1, content);
+            ps.setString(2, contentHash);
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Sets the content of a new row from a stream, the driver sends it to the
+     * server as it reads it.
+     *
+     * @param connection
+     * @param contentHash
+     * @param content
+     * @param size
+     * @throws SQLException
+     */
+    @Override
+    public void write(Connection connection, String contentHash, InputStream content, long size) throws SQLException {
+        String writeContentQuery = "UPDATE ATTACHMENTCONTENT SET CONTENT = ? WHERE CONTENTHASH = ?";
+        try ( PreparedStatement ps = connection.prepareStatement(writeContentQuery);) {
+            ps.setBinaryStream(1, content, size);
+            ps.setString(2, contentHash);
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * @param connection
+     * @param contentHash
+     * @return a stream over the stored bytes, empty if the row has no content
+     * @throws SQLException
+     * @throws FileNotFoundException if no content has this hash
+     */
+    @Override
+    public InputStream read(Connection connection, String contentHash) throws SQLException, FileNotFoundException {
+        String readContentQuery = "SELECT CONTENT FROM ATTACHMENTCONTENT WHERE CONTENTHASH = ?";
+        try ( PreparedStatement ps = connection.prepareStatement(readContentQuery);) {
+            ps.setString(1, contentHash);
+            try ( ResultSet resultSet = ps.executeQuery();) {
+                if (!resultSet.next()) {
+                    throw new FileNotFoundException("No attachment content has the hash " + contentHash);
+                }
+                byte[] content = resultSet.getBytes("CONTENT");
+                return new ByteArrayInputStream(content == null ? new byte[0] : content);
+            }
+        }
+    }
+
+    /**
+     * Nothing to do, the bytes go away with the ATTACHMENTCONTENT row the DAO
+     * deletes.
+     *
+     * @param connection
+     * @param contentHash
+     */
+    @Override
+    public void delete(Connection connection, String contentHash) {
+    }
+}
@@ -0,0 +1,194 @@
+package com.danielsimonchin.persistence;
+
+import com.danielsimonchin.properties.EmailBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Saves the drafts being edited in the background. The first edit of a draft
+ * schedules a save after the autosave delay, the edits made until then only
+ * replace the draft to save, so a draft is written at most once per delay
+ * however fast it is edited. The EmailDAO only writes the recipients and
+ * attachments that changed since the draft was last saved.
+ *
+ * Every save is made by a single writer thread, so the drafts are written in
+ * the order they were saved and a draft saved right away is never overwritten
+ * by an older autosave.
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public class DraftAutosaver {
+
+    private final static Logger LOG = LoggerFactory.getLogger(DraftAutosaver.class);
+
+    //Every autosaver created, so their pending drafts can be saved when the application stops
+    private final static Set<DraftAutosaver> INSTANCES = ConcurrentHashMap.newKeySet();
+
+    //How long the application waits for the pending drafts when it stops
+    private final static long SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+    private final EmailDAO emailDAO;
+    private final long delayMillis;
+    private final Executor resultExecutor;
+    private final Consumer<EmailBean> onSaved;
+    private final ScheduledExecutorService writer;
+
+    //The latest edit of each draft waiting for its save, keyed by EMAILID
+    private final Map<Integer, EmailBean> pendingDrafts = new HashMap<>();
+    private final Map<Integer, ScheduledFuture<?>> scheduledSaves = new HashMap<>();
+
+    /**
+     * @param emailDAO The DAO the drafts are saved with
+     * @param delayMillis How long the edits of a draft are collected before it
+     * is saved
+     * @param resultExecutor Runs onSaved and completes the futures,
+     * Platform::runLater to get them on the JavaFX thread
+     * @param onSaved Called with every draft that was autosaved
+     */
+    public DraftAutosaver(EmailDAO emailDAO, long delayMillis, Executor resultExecutor, Consumer<EmailBean> onSaved) {
+        this.emailDAO = emailDAO;
+        this.delayMillis = Math.max(0, delayMillis);
+        this.resultExecutor = resultExecutor;
+        this.onSaved = onSaved;
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jag-draft-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        INSTANCES.add(this);
+    }
+
+    /**
+     * Saves the pending drafts of every autosaver then stops them. Called when
+     * the application stops, before the database connections are closed.
+     */
+    public static void shutdownAll() {
+        INSTANCES.forEach(DraftAutosaver::shutdown);
+    }
+
+    /**
+     * Schedules the save of an edited draft. The draft replaces the one
+     * already waiting to be saved, if any.
+     *
+     * @param draft A draft already in the database
+     */
+    public synchronized void schedule(EmailBean draft) {
+        int emailId = draft.getId();
+        pendingDrafts.put(emailId, draft);
+        if (!scheduledSaves.containsKey(emailId)) {
+            try {
+                scheduledSaves.put(emailId, writer.schedule(() -> savePending(emailId), delayMillis, TimeUnit.MILLISECONDS));
+            } catch (RejectedExecutionException ex) {
+                pendingDrafts.remove(emailId);
+                LOG.warn("The draft #" + emailId + " was edited after the autosaver stopped");
+            }
+        }
+    }
+
+    /**
+     * Saves a draft without waiting for the delay, replacing its pending
+     * autosave. Used when the user saves or sends the draft.
+     *
+     * @param draft A draft already in the database
+     * @return the result of EmailDAO.updateDraft, completed through the result
+     * executor
+     */
+    public CompletableFuture<Integer> saveNow(EmailBean draft) {
+        cancel(draft.getId());
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        try {
+            writer.execute(() -> {
+                try {
+                    int result = emailDAO.updateDraft(draft);
+                    resultExecutor.execute(() -> future.complete(result));
+                } catch (Exception ex) {
+                    resultExecutor.execute(() -> future.completeExceptionally(ex));
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    /**
+     * Drops the pending autosave of a draft, used when the draft is deleted.
+     * A save already being written is not stopped.
+     *
+     * @param emailId
+     */
+    public synchronized void cancel(int emailId) {
+        pendingDrafts.remove(emailId);
+        ScheduledFuture<?> scheduled = scheduledSaves.remove(emailId);
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+    }
+
+    /**
+     * @return the number of drafts waiting to be autosaved
+     */
+    public synchronized int getPendingCount() {
+        return pendingDrafts.size();
+    }
+
+    /**
+     * Saves the pending drafts right away and waits for them to be written,
+     * then stops the writer thread.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            scheduledSaves.values().forEach(scheduled -> scheduled.cancel(false));
+            scheduledSaves.clear();
+            for (int emailId : pendingDrafts.keySet()) {
+                writer.execute(() -> savePending(emailId));
+            }
+        }
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOG.warn("Some drafts could not be saved before the application stopped");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        INSTANCES.remove(this);
+    }
+
+    /**
+     * Writes the latest edit of a draft, runs on the writer thread. The edits
+     * made while the draft is written schedule another save.
+     *
+     * @param emailId
+     */
+    private void savePending(int emailId) {
+        EmailBean draft;
+        synchronized (this) {
+            scheduledSaves.remove(emailId);
+            draft = pendingDrafts.remove(emailId);
+        }
+        if (draft == null) {
+            return;
+        }
+        try {
+            emailDAO.updateDraft(draft);
+            LOG.debug("Autosaved the draft #" + emailId);
+            resultExecutor.execute(() -> onSaved.accept(draft));
+        } catch (Exception ex) {
+            LOG.error("Could not autosave the draft #" + emailId, ex);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.danielsimonchin.persistence;
+
+import com.danielsimonchin.properties.EmailBean;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.activation.DataSource;
+import jodd.mail.EmailAddress;
+import jodd.mail.EmailAttachment;
+import jodd.mail.EmailMessage;
+
+/**
+ * A bounded cache of the EmailBeans loaded by findID, keyed by EMAILID. The
+ * cache is bounded by the estimated memory used by the emails rather than
+ * their number, so a few large emails do not push out many small ones. When
+ * the cache is full the least recently used emails are dropped.
+ *
+ * The EmailDAO invalidates an email whenever it changes it. A bean read from
+ * the database while an email was invalidated is not cached, so a change made
+ * during a read is never hidden by the cache.
+ *
+ * Every caller gets its own copy of the bean and of its Email, so it may set
+ * their fields, such as the folder or the sent date, while the email is
+ * cached. The messages and attachments in the Email are shared with the cache
+ * and must not be changed.
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public class EmailBeanCache {
+
+    //What an email costs besides its text, the beans, the Email and their headers
+    private final static long EMAIL_OVERHEAD_BYTES = 1024;
+    private final static long ADDRESS_OVERHEAD_BYTES = 64;
+    private final static long ATTACHMENT_OVERHEAD_BYTES = 256;
+
+    private final long maxBytes;
+    private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weightBytes = 0;
+    //Incremented by every invalidation, a read started before one is not cached
+    private long version = 0;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * @param maxBytes The most memory used by the cached emails, 0 disables
+     * the cache
+     */
+    public EmailBeanCache(long maxBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+    }
+
+    /**
+     * @param emailId
+     * @return a copy of the cached email, null if it is not cached
+     */
+    public EmailBean get(int emailId) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(emailId);
+        }
+        if (entry == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return copyOf(entry.emailBean);
+    }
+
+    /**
+     * @return the version to pass to put once the email has been read from
+     * the database
+     */
+    public long getVersion() {
+        synchronized (entries) {
+            return version;
+        }
+    }
+
+    /**
+     * Caches an email read from the database, unless an email was invalidated
+     * since the read started. Emails larger than the cache are not cached.
+     *
+     * @param emailBean
+     * @param readVersion The version returned by getVersion before the read
+     */
+    public void put(EmailBean emailBean, long readVersion) {
+        if (emailBean.getId() <= 0) {
+            return;
+        }
+        long weight = estimateBytes(emailBean);
+        if (weight > maxBytes) {
+            return;
+        }
+        synchronized (entries) {
+            if (readVersion != version) {
+                return;
+            }
+            Entry previous = entries.put(emailBean.getId(), new Entry(copyOf(emailBean), weight));
+            if (previous != null) {
+                weightBytes -= previous.weight;
+            }
+            weightBytes += weight;
+            //Access order makes the first entries the least recently used ones
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (weightBytes > maxBytes && eldest.hasNext()) {
+                weightBytes -= eldest.next().weight;
+                eldest.remove();
+                evictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drops an email that changed or was deleted.
+     *
+     * @param emailId
+     */
+    public void invalidate(int emailId) {
+        synchronized (entries) {
+            version++;
+            Entry removed = entries.remove(emailId);
+            if (removed != null) {
+                weightBytes -= removed.weight;
+            }
+        }
+    }
+
+    /**
+     * Drop every cached email.
+     */
+    public void clear() {
+        synchronized (entries) {
+            version++;
+            entries.clear();
+            weightBytes = 0;
+        }
+    }
+
+    /**
+     * @return the number of cached emails
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the estimated memory used by the cached emails
+     */
+    public long getWeightBytes() {
+        synchronized (entries) {
+            return weightBytes;
+        }
+    }
+
+    /**
+     * @return the most memory used by the cached emails
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return how many lookups found the email
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return how many lookups did not find the email
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return how many emails were dropped to make room
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * @return the fraction of lookups that found the email, 0 before the first
+     * lookup
+     */
+    public double getHitRate() {
+        long lookups = hitCount.get() + missCount.get();
+        return lookups == 0 ? 0 : hitCount.get() / (double) lookups;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("EmailBeanCache{size=").append(size());
+        sb.append(", weightBytes=").append(getWeightBytes());
+        sb.append(", maxBytes=").append(maxBytes);
+        sb.append(", hits=").append(getHitCount());
+        sb.append(", misses=").append(getMissCount());
+        sb.append(", evictions=").append(getEvictionCount());
+        sb.append(", hitRate=").append(String.format("%.3f", getHitRate()));
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /**
+     * The callers may change the fields of the bean they get and of its Email,
+     * such as its folder or sent date, so each gets its own. Cloning the Email
+     * only copies its header fields, its messages and attachments are shared.
+     *
+     * @param emailBean
+     * @return a bean with the same fields and a copy of its Email
+     */
+    private static EmailBean copyOf(EmailBean emailBean) {
+        EmailBean copy = new EmailBean(emailBean.getId(), emailBean.getFolderKey(), emailBean.getReceivedDate(), emailBean.email.clone());
+        copy.setImapUid(emailBean.getImapUid());
+        copy.setImapUidValidity(emailBean.getImapUidValidity());
+        copy.setBodyLoaded(emailBean.isBodyLoaded());
+        return copy;
+    }
+
+    /**
+     * Estimates the memory used by an email from the length of its text, or
+     * the size of its compressed HTML. Attachments are read from the
+     * attachment cache when they are opened, so only their descriptors count.
+     *
+     * @param emailBean
+     * @return the estimated size of the email in bytes
+     */
+    private static long estimateBytes(EmailBean emailBean) {
+        long bytes = EMAIL_OVERHEAD_BYTES + textBytes(emailBean.email.subject());
+        for (EmailMessage message : emailBean.email.messages()) {
+            //A compressed message only holds its compressed bytes
+            bytes += message instanceof CompressedEmailMessage ? ((CompressedEmailMessage) message).getCompressedSize() : textBytes(message.getContent());
+        }
+        bytes += addressBytes(emailBean.email.from());
+        for (EmailAddress[] recipients : new EmailAddress[][]{emailBean.email.to(), emailBean.email.cc(), emailBean.email.bcc()}) {
+            for (EmailAddress recipient : recipients) {
+                bytes += addressBytes(recipient);
+            }
+        }
+        for (EmailAttachment<? extends DataSource> attachment : emailBean.email.attachments()) {
+            bytes += ATTACHMENT_OVERHEAD_BYTES + textBytes(attachment.getName()) + textBytes(attachment.getContentId());
+        }
+        return bytes;
+    }
+
+    private static long addressBytes(EmailAddress address) {
+        if (address == null) {
+            return 0;
+        }
+        return ADDRESS_OVERHEAD_BYTES + textBytes(address.getEmail()) + textBytes(address.getPersonalName());
+    }
+
+    private static long textBytes(String text) {
+        //A String holds up to two bytes per character
+        return text == null ? 0 : 2L * text.length();
+    }
+
+    /**
+     * A cached email with its estimated size.
+     */
+    private static class Entry {
+
+        private final EmailBean emailBean;
+        private final long weight;
+
+        Entry(EmailBean emailBean, long weight) {
+            this.emailBean = emailBean;
+            this.weight = weight;
+        }
+    }
+}
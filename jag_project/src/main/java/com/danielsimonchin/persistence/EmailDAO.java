@@ -11,12 +11,20 @@ import com.danielsimonchin.exceptions.RecipientEmailAddressNullException;
 import com.danielsimonchin.exceptions.RecipientInvalidFormatException;
 import com.danielsimonchin.exceptions.RecipientListNullException;
 import com.danielsimonchin.fxbeans.FolderFXBean;
+import com.danielsimonchin.properties.AttachmentBean;
 import com.danielsimonchin.properties.EmailBean;
+import com.danielsimonchin.properties.EmailHeaderBean;
+import com.danielsimonchin.properties.OutboxBean;
+import com.danielsimonchin.properties.SyncStateBean;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.List;
 import javafx.collections.ObservableList;
+import jodd.mail.Email;
 
 /**
  * Interface for CRUD Methods relating to an Email object and to the database.
@@ -24,14 +32,39 @@ import javafx.collections.ObservableList;
  * @author Daniel
  */
 public interface EmailDAO {
+
+    /**
+     * Reports how many of the emails of a folder being deleted have been
+     * deleted so far.
+     */
+    @FunctionalInterface
+    public interface DeleteProgressListener {
+
+        public void progress(int deletedCount, int totalCount);
+    }
+
     public int createEmailRecord(EmailBean emailBean) throws SQLException, IOException;
 
+    public int createEmailRecords(List<EmailBean> emailBeans) throws SQLException, IOException;
+
+    public int createEmailRecords(List<EmailBean> emailBeans, SyncStateBean syncState) throws SQLException, IOException;
+
+    public SyncStateBean findSyncState(String account, String mailbox) throws SQLException;
+
+    public void saveSyncState(SyncStateBean syncState) throws SQLException;
+
     public ObservableList<EmailBean> findAll() throws SQLException, FileNotFoundException,IOException;
 
     public EmailBean findID(int id) throws SQLException, FileNotFoundException,IOException;
     
     public ObservableList<EmailBean> findAllInFolder(String folderName) throws SQLException,FileNotFoundException,IOException;
     
+    public ObservableList<EmailHeaderBean> findHeadersInFolder(String folderName) throws SQLException;
+    
+    public List<EmailHeaderBean> findHeadersAfter(String folderName, EmailHeaderBean after, int pageSize) throws SQLException;
+    
+    public List<EmailHeaderBean> findHeadersBefore(String folderName, EmailHeaderBean before, int pageSize) throws SQLException;
+    
     public List<EmailBean> findEmailsByRecipient(String recipientEmailAddress) throws SQLException, FileNotFoundException, IOException;
             
     public List<EmailBean> findEmailsBySubject(String subject) throws SQLException,FileNotFoundException,IOException;
@@ -43,10 +76,16 @@ public interface EmailDAO {
     public int updateFolderName(String currentName, String newName) throws SQLException, CannotRenameFolderException;
 
     public int deleteEmail(int emailId) throws SQLException;
+
+    public int moveEmails(int[] emailIds, int folderId) throws SQLException, CannotMoveToDraftsException;
+
+    public int deleteEmails(int[] emailIds) throws SQLException;
     
     public int createFolder(String folderName) throws SQLException,FolderAlreadyExistsException;
     
     public int deleteFolder(String foldername)throws SQLException,CannotDeleteFolderException;
+
+    public int deleteFolder(String foldername, DeleteProgressListener listener) throws SQLException, CannotDeleteFolderException;
     
     public ObservableList<FolderFXBean> getAllFolders() throws SQLException;
     
@@ -55,4 +94,34 @@ public interface EmailDAO {
     public int getFolderID(String folderName) throws SQLException;
     
     public void saveBlobToDisk(int emailID) throws SQLException;
+    
+    public List<AttachmentBean> findAttachments(int emailId) throws SQLException;
+    
+    public File loadAttachment(AttachmentBean attachment) throws SQLException, IOException;
+
+    public int saveEmailBody(int emailId, Email body, List<AttachmentBean> deferred) throws SQLException, IOException;
+
+    public void storeAttachmentContent(AttachmentBean attachment, byte[] content) throws SQLException, IOException;
+
+    public void storeAttachmentContent(AttachmentBean attachment, InputStream content) throws SQLException, IOException;
+
+    public List<Integer> findEmailIdsWithoutBody(int limit) throws SQLException;
+
+    public List<Integer> findEmailIdsWithoutBody(int beforeEmailId, int limit) throws SQLException;
+
+    public int markBodyUnavailable(int emailId) throws SQLException;
+
+    public int enqueueEmail(EmailBean emailBean) throws SQLException, IOException;
+
+    public List<OutboxBean> claimOutboxEntries(int limit) throws SQLException;
+
+    public void markOutboxSent(OutboxBean entry, EmailBean emailBean) throws SQLException;
+
+    public void markOutboxFailed(OutboxBean entry) throws SQLException;
+
+    public int releaseOutboxEntries() throws SQLException;
+
+    public List<OutboxBean> findOutboxEntries() throws SQLException;
+
+    public List<EmailHeaderBean> search(String query, String folderName, Timestamp from, Timestamp to, int limit) throws SQLException;
 }
@@ -13,29 +13,50 @@ import com.danielsimonchin.exceptions.RecipientEmailAddressNullException;
 import com.danielsimonchin.exceptions.RecipientInvalidFormatException;
 import com.danielsimonchin.exceptions.RecipientListNullException;
 import com.danielsimonchin.fxbeans.FolderFXBean;
+import com.danielsimonchin.properties.AttachmentBean;
 import com.danielsimonchin.properties.EmailBean;
+import com.danielsimonchin.properties.EmailHeaderBean;
 import com.danielsimonchin.properties.MailConfigBean;
+import com.danielsimonchin.properties.OutboxBean;
+import com.danielsimonchin.properties.SyncStateBean;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
 import java.sql.Statement;
+import java.sql.Types;
 import java.util.List;
 import jodd.mail.Email;
 import jodd.mail.EmailMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.sql.Timestamp;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javax.activation.DataSource;
+import javax.activation.FileDataSource;
+import javax.mail.util.ByteArrayDataSource;
 import jodd.mail.EmailAddress;
 import jodd.mail.EmailAttachment;
 
@@ -50,17 +71,92 @@ public class EmailDAOImpl implements EmailDAO {
 
     private MailConfigBean mailConfigBean;
 
+    private final ConnectionPool connectionPool;
+
+    private final AttachmentCache attachmentCache;
+
+    private final AttachmentStore attachmentStore;
+
+    private final AddressIdCache addressIdCache;
+
+    //The emails loaded by findID, invalidated by every method changing an email
+    private final EmailBeanCache emailCache;
+
+    //The folders with their email counts, kept up to date by every method changing a folder or its emails
+    private final FolderRegistry folderRegistry;
+
+    //Set once the address id cache has been loaded with the most frequent correspondents
+    private final AtomicBoolean addressCacheWarmedUp = new AtomicBoolean();
+
+    //The most email ids placed in a single IN (...) list when loading recipients and attachments
+    private final static int IN_BATCH_SIZE = 500;
+    //Emails moved or deleted by one statement, well below MySQL's limit of 65535 placeholders
+    private final static int BULK_BATCH_SIZE = 10000;
+
     private final static Logger LOG = LoggerFactory.getLogger(EmailDAOImpl.class);
 
+    //innodb_ft_min_token_size and the default InnoDB stopword list, words the FULLTEXT indexes do not contain
+    private final static int FULLTEXT_MIN_TOKEN_SIZE = 3;
+    private final static Set<String> FULLTEXT_STOPWORDS = Set.of("a", "about", "an", "are", "as", "at", "be", "by", "com", "de", "en", "for", "from", "how", "i", "in", "is", "it", "la", "of", "on", "or", "that", "the", "this", "to", "was", "what", "when", "where", "who", "will", "with", "und", "www");
+
     /**
-     * Set the mailConfigBean param as a field to be used when creating a
-     * database Connection.
+     * Set the mailConfigBean param as a field and retrieve the connection pool
+     * for its database. Every DAO using the same credentials shares one pool.
      *
      * @param mailConfigBean The mailConfigBean which will be used to access the
-     * databaseURL, username and password.
+     * databaseURL, username, password, pool settings and attachment cache.
      */
     public EmailDAOImpl(MailConfigBean mailConfigBean) {
         this.mailConfigBean = mailConfigBean;
+        this.connectionPool = ConnectionPool.getPool(mailConfigBean);
+        this.attachmentCache = new AttachmentCache(new File(mailConfigBean.getAttachmentCacheDirectory()));
+        this.attachmentStore = createAttachmentStore(mailConfigBean);
+        this.addressIdCache = new AddressIdCache(mailConfigBean.getAddressCacheSize());
+        this.emailCache = new EmailBeanCache(mailConfigBean.getEmailCacheMaxBytes());
+        this.folderRegistry = new FolderRegistry(connectionPool);
+    }
+
+    /**
+     * The attachment contents are kept in the database unless the properties
+     * file selects the file system store.
+     *
+     * @param mailConfigBean
+     * @return the AttachmentStore selected in the MailConfigBean
+     */
+    private static AttachmentStore createAttachmentStore(MailConfigBean mailConfigBean) {
+        if (MailConfigBean.FILESYSTEM_ATTACHMENT_STORE.equalsIgnoreCase(mailConfigBean.getAttachmentStoreType())) {
+            return new FileSystemAttachmentStore(new File(mailConfigBean.getAttachmentStoreDirectory()));
+        }
+        return new DatabaseAttachmentStore();
+    }
+
+    /**
+     * @return the connection pool used by this DAO, exposes the pool metrics
+     */
+    public ConnectionPool getConnectionPool() {
+        return this.connectionPool;
+    }
+
+    /**
+     * @return the address id cache used by this DAO, exposes the cache metrics
+     */
+    public AddressIdCache getAddressIdCache() {
+        return this.addressIdCache;
+    }
+
+    /**
+     * @return the cache of the emails loaded by findID, exposes the cache
+     * metrics
+     */
+    public EmailBeanCache getEmailCache() {
+        return this.emailCache;
+    }
+
+    /**
+     * @return the folders with the number of emails in each
+     */
+    public FolderRegistry getFolderRegistry() {
+        return this.folderRegistry;
     }
 
     /**
@@ -79,17 +175,183 @@ public class EmailDAOImpl implements EmailDAO {
      */
     @Override
     public int createEmailRecord(EmailBean emailBean) throws SQLException, IOException {
+        int result = createEmailRecords(Collections.singletonList(emailBean));
+        LOG.info("# of records created : " + result);
+        return result;
+    }
+
+    /**
+     * Adds several emails to the database in a single transaction, either all
+     * of them are created or none are. Used to persist received emails in
+     * batches instead of committing once per email.
+     *
+     * @param emailBeans The emails to insert, their ids are set by this method
+     * @return The number of rows inserted into the email table
+     * @throws SQLException
+     * @throws IOException
+     */
+    @Override
+    public int createEmailRecords(List<EmailBean> emailBeans) throws SQLException, IOException {
+        return createEmailRecords(emailBeans, null);
+    }
+
+    /**
+     * Adds several received emails to the database and records how far their
+     * folder has been received in the same transaction, so the sync state
+     * never gets ahead of or behind the saved emails. An email whose
+     * Message-ID is already saved is skipped, its id is left unchanged.
+     *
+     * @param emailBeans The emails to insert, their ids are set by this method
+     * @param syncState The sync state to save with the emails, null to leave
+     * it unchanged
+     * @return The number of rows inserted into the email table
+     * @throws SQLException
+     * @throws IOException
+     */
+    @Override
+    public int createEmailRecords(List<EmailBean> emailBeans, SyncStateBean syncState) throws SQLException, IOException {
+        int result = 0;
+        Map<String, Integer> addressIds = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        List<EmailBean> inserted = new ArrayList<>();
+        //Loaded before the emails are added so they are only counted once
+        folderRegistry.load();
+        // The whole batch is written in one transaction on one pooled connection
+        try ( Connection connection = connectionPool.getConnection();) {
+            connection.setAutoCommit(false);
+            try {
+                Set<String> savedMessageIds = findSavedMessageIds(connection, emailBeans);
+                for (EmailBean emailBean : emailBeans) {
+                    //A message received again after its folder's sync state was reset is only saved once
+                    if (emailBean.getMessageId() != null && !savedMessageIds.add(emailBean.getMessageId())) {
+                        LOG.info("The message " + emailBean.getMessageId() + " was already received, skipping it");
+                        continue;
+                    }
+                    result += insertEmailRecord(connection, emailBean, addressIds);
+                    inserted.add(emailBean);
+                }
+                if (syncState != null) {
+                    upsertSyncState(connection, syncState);
+                }
+                connection.commit();
+                //Only ids of committed rows are cached
+                addressIdCache.putAll(addressIds);
+            } catch (SQLException | IOException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            }
+        }
+        for (EmailBean emailBean : inserted) {
+            folderRegistry.emailsAdded(emailBean.getFolderKey(), 1);
+        }
+        return result;
+    }
+
+    /**
+     * @param connection The connection of the surrounding transaction
+     * @param emailBeans
+     * @return the Message-IDs of the emails that are already saved, ignoring
+     * case like the MESSAGEID column
+     * @throws SQLException
+     */
+    private Set<String> findSavedMessageIds(Connection connection, List<EmailBean> emailBeans) throws SQLException {
+        Set<String> savedMessageIds = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        List<String> messageIds = new ArrayList<>();
+        for (EmailBean emailBean : emailBeans) {
+            if (emailBean.getMessageId() != null) {
+                messageIds.add(emailBean.getMessageId());
+            }
+        }
+        if (messageIds.isEmpty()) {
+            return savedMessageIds;
+        }
+        String findMessageIdsQuery = "SELECT MESSAGEID FROM EMAIL WHERE MESSAGEID IN (" + String.join(",", Collections.nCopies(messageIds.size(), "?")) + ")";
+        try ( PreparedStatement ps = connection.prepareStatement(findMessageIdsQuery);) {
+            for (int i = 0; i < messageIds.size(); i++) {
+                ps.setString(i + 1, messageIds.get(i));
+            }
+            try ( ResultSet rs = ps.executeQuery();) {
+                while (rs.next()) {
+                    savedMessageIds.add(rs.getString("MESSAGEID"));
+                }
+            }
+        }
+        return savedMessageIds;
+    }
+
+    /**
+     * @param account The email address of the account
+     * @param mailbox The name of the folder on the IMAP server
+     * @return How far the folder has been received, null if it never was
+     * @throws SQLException
+     */
+    @Override
+    public SyncStateBean findSyncState(String account, String mailbox) throws SQLException {
+        String findSyncStateQuery = "SELECT UIDVALIDITY, LASTUID FROM SYNCSTATE WHERE ACCOUNT = ? AND MAILBOX = ?";
+        try ( Connection connection = connectionPool.getConnection();  PreparedStatement ps = connection.prepareStatement(findSyncStateQuery);) {
+            ps.setString(1, account);
+            ps.setString(2, mailbox);
+            try ( ResultSet rs = ps.executeQuery();) {
+                if (rs.next()) {
+                    return new SyncStateBean(account, mailbox, rs.getLong("UIDVALIDITY"), rs.getLong("LASTUID"));
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Saves how far a folder has been received without adding any email.
+     *
+     * @param syncState
+     * @throws SQLException
+     */
+    @Override
+    public void saveSyncState(SyncStateBean syncState) throws SQLException {
+        try ( Connection connection = connectionPool.getConnection();) {
+            upsertSyncState(connection, syncState);
+        }
+    }
+
+    /**
+     * @param connection
+     * @param syncState The row to insert or replace
+     * @throws SQLException
+     */
+    private void upsertSyncState(Connection connection, SyncStateBean syncState) throws SQLException {
+        String upsertSyncStateQuery = "INSERT INTO SYNCSTATE (ACCOUNT,MAILBOX,UIDVALIDITY,LASTUID) VALUES (?,?,?,?) ON DUPLICATE KEY UPDATE UIDVALIDITY = ?, LASTUID = ?";
+        try ( PreparedStatement ps = connection.prepareStatement(upsertSyncStateQuery);) {
+            ps.setString(1, syncState.getAccount());
+            ps.setString(2, syncState.getMailbox());
+            ps.setLong(3, syncState.getUidValidity());
+            ps.setLong(4, syncState.getLastUid());
+            ps.setLong(5, syncState.getUidValidity());
+            ps.setLong(6, syncState.getLastUid());
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Inserts the Email row of one email and its rows in the connecting
+     * tables: EmailToAddresses, Attachments.
+     *
+     * @param connection The connection of the surrounding transaction
+     * @param emailBean The emailBean to insert, its id is set by this method
+     * @param addressIds Receives the AddressID of every recipient
+     * @return The number of rows inserted into the email table
+     * @throws SQLException
+     * @throws IOException
+     */
+    private int insertEmailRecord(Connection connection, EmailBean emailBean, Map<String, Integer> addressIds) throws SQLException, IOException {
         int result;
         String insertEmailQuery;
         //If the email is a draft, execute the query that does not involve sentDate and receiveDate.
         if (emailBean.getFolderKey() == 3) {
-            insertEmailQuery = "INSERT INTO EMAIL (FROMADDRESS,SUBJECT,TEXTMESSAGE,HTMLMESSAGE,FOLDERID) VALUES (?,?,?,?,?)";
+            insertEmailQuery = "INSERT INTO EMAIL (FROMADDRESS,SUBJECT,TEXTMESSAGE,HTMLMESSAGE,FOLDERID,HTMLBODY,SEARCHTEXT) VALUES (?,?,?,?,?,?,?)";
         } else {
             //Regular query for sent and received emails
-            insertEmailQuery = "INSERT INTO Email (FROMADDRESS,SUBJECT,TEXTMESSAGE,HTMLMESSAGE,SENTDATE,RECEIVEDATE,FOLDERID) VALUES (?,?,?,?,?,?,?)";
+            insertEmailQuery = "INSERT INTO Email (FROMADDRESS,SUBJECT,TEXTMESSAGE,HTMLMESSAGE,SENTDATE,RECEIVEDATE,FOLDERID,IMAPUID,IMAPUIDVALIDITY,BODYLOADED,HTMLBODY,MESSAGEID,SEARCHTEXT) VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?)";
         }
-        // Connection is only open for the operation and then immediately closed
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(insertEmailQuery, Statement.RETURN_GENERATED_KEYS);) {
+        try ( PreparedStatement ps = connection.prepareStatement(insertEmailQuery, Statement.RETURN_GENERATED_KEYS);) {
             if (emailBean.getFolderKey() == 3) {
                 fillPreparedStatementDraftEmail(ps, emailBean);
             } else if (emailBean.getFolderKey() == 1 || emailBean.getFolderKey() == 2) {
@@ -106,164 +368,163 @@ public class EmailDAOImpl implements EmailDAO {
                     emailBean.setId(recordNum);
                 }
                 LOG.debug("New record ID is " + recordNum);
-                //Call this helper method to check if a recipient has been added yet in the Addresses table.
-                insertUnknownAddresses(emailBean.email);
-                //Call this helper method to create a row insert in EmailToAddress
-                insertEmailToAddress(emailBean);
-                //Call this helper method to insert all attachments related to the Email object
-                insertAttachments(emailBean);
             }
         }
-        LOG.info("# of records created : " + result);
+        //Add the recipients that are not in the Addresses table yet and get the id of every recipient
+        Map<String, Integer> emailAddressIds = upsertAddresses(connection, emailBean.email);
+        addressIds.putAll(emailAddressIds);
+        //Create the rows in EmailToAddress
+        insertEmailToAddress(connection, emailBean, emailAddressIds);
+        //Insert all attachments related to the Email object
+        insertAttachments(connection, emailBean);
         return result;
     }
 
     /**
-     * Helper method that loops through all the recipients and checks if the
-     * email address is in the Addresses table
+     * Looks up the id of every recipient in the address id cache first. The
+     * recipients that are not cached are added to the Addresses table if
+     * needed with a single multi-row insert, then their ids are read back with
+     * a single query. The caller caches the ids once its transaction commits.
      *
+     * @param connection The connection of the surrounding transaction
      * @param email The email object which we will loop through its recipients
+     * @return The AddressID of every recipient keyed by email address,
+     * ignoring case like the EMAILADDRESS column
      * @throws SQLException
      */
-    private void insertUnknownAddresses(Email email) throws SQLException {
-        EmailAddress[] toList = email.to();
-        EmailAddress[] ccList = email.cc();
-        EmailAddress[] bccList = email.bcc();
-        for (EmailAddress toListMember : toList) {
-            checkAddressInTable(toListMember.getEmail());
-        }
-        for (EmailAddress ccListMember : ccList) {
-            checkAddressInTable(ccListMember.getEmail());
+    private Map<String, Integer> upsertAddresses(Connection connection, Email email) throws SQLException {
+        Map<String, Integer> addressIds = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        Set<String> recipients = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        for (EmailAddress[] recipientList : new EmailAddress[][]{email.to(), email.cc(), email.bcc()}) {
+            for (EmailAddress recipient : recipientList) {
+                recipients.add(recipient.getEmail());
+            }
         }
-        for (EmailAddress bccListMember : bccList) {
-            checkAddressInTable(bccListMember.getEmail());
+        if (recipients.isEmpty()) {
+            return addressIds;
         }
-    }
-
-    /**
-     * Query to return the rows which contain this email address. If no results
-     * are found, call a helper to insert the new email address.
-     *
-     * @param emailAddress An email address which will be searched in the
-     * Addresses table
-     * @throws SQLException
-     */
-    private void checkAddressInTable(String emailAddress) throws SQLException {
-        String queryFindAddress = "SELECT ADDRESSID FROM ADDRESSES WHERE EMAILADDRESS = ?";
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(queryFindAddress);) {
-            ps.setString(1, emailAddress);
-            ResultSet queryResults = ps.executeQuery();
-            //If the address is not in the table, insert it using the helper method insertNewAddress
-            if (!queryResults.next()) {
-                LOG.info("The email address \"" + emailAddress + "\" is not currently in the Addresses table.");
-                insertNewAddress(emailAddress);
+        warmUpAddressCache(connection);
+        List<String> addresses = new ArrayList<>();
+        for (String recipient : recipients) {
+            Integer addressId = addressIdCache.get(recipient);
+            if (addressId == null) {
+                addresses.add(recipient);
+            } else {
+                addressIds.put(recipient, addressId);
             }
         }
-    }
-
-    /**
-     * Execute a query to insert a new email address in the Addresses table.
-     *
-     * @param emailAddress The new email address to be added
-     * @throws SQLException
-     */
-    private void insertNewAddress(String emailAddress) throws SQLException {
-        String insertAddressQuery = "INSERT INTO ADDRESSES (EMAILADDRESS) VALUES (?)";
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(insertAddressQuery);) {
-            ps.setString(1, emailAddress);
-            //The amount if row(s) inserted
+        if (addresses.isEmpty()) {
+            return addressIds;
+        }
+        StringBuilder insertAddressesQuery = new StringBuilder("INSERT INTO ADDRESSES (EMAILADDRESS) VALUES ");
+        for (int i = 0; i < addresses.size(); i++) {
+            insertAddressesQuery.append(i == 0 ? "(?)" : ",(?)");
+        }
+        //Existing addresses are left as they are
+        insertAddressesQuery.append(" ON DUPLICATE KEY UPDATE EMAILADDRESS = EMAILADDRESS");
+        try ( PreparedStatement ps = connection.prepareStatement(insertAddressesQuery.toString());) {
+            for (int i = 0; i < addresses.size(); i++) {
+                ps.setString(i + 1, addresses.get(i));
+            }
             int countInserted = ps.executeUpdate();
-            //If the count of rows inserted is 1, display what has been added.
-            if (countInserted == 1) {
-                LOG.info("The email address \"" + emailAddress + "\" has been added to the Addresses table.");
+            if (countInserted > 0) {
+                LOG.info(countInserted + " new email address(es) have been added to the Addresses table.");
+            }
+        }
+        String findAddressesQuery = buildInQuery("SELECT ADDRESSID,EMAILADDRESS FROM ADDRESSES WHERE EMAILADDRESS IN ", "", addresses.size());
+        try ( PreparedStatement ps = connection.prepareStatement(findAddressesQuery);) {
+            for (int i = 0; i < addresses.size(); i++) {
+                ps.setString(i + 1, addresses.get(i));
+            }
+            try ( ResultSet rs = ps.executeQuery();) {
+                while (rs.next()) {
+                    addressIds.put(rs.getString("EMAILADDRESS"), rs.getInt("ADDRESSID"));
+                }
             }
         }
+        return addressIds;
     }
 
     /**
-     * Goes through all the Email's recipients in their lists and makes an
-     * insert into the bridging table. Uses a helper method that creates a
-     * PreparedStatement and executes the insert.
+     * Loads the ids of the most frequent correspondents into the address id
+     * cache the first time a recipient is resolved. The least frequent ones
+     * are put first so they are the first to be evicted.
      *
-     * @param recordNum The primary key of the row in the Email table
-     * @param email The Email object which has recipients which must be added to
-     * the EmailToAddresses Table
+     * @param connection
      * @throws SQLException
      */
-    private void insertEmailToAddress(EmailBean emailBean) throws SQLException {
-
-        EmailAddress[] toList = emailBean.email.to();
-        EmailAddress[] ccList = emailBean.email.cc();
-        EmailAddress[] bccList = emailBean.email.bcc();
-        if (toList.length >= 1) {
-            for (EmailAddress address : toList) {
-                int emailIndex = getEmailAddressIndex(address);
-                executeEmailToAddressQuery(emailBean.getId(), emailIndex, "TO");
-            }
+    private void warmUpAddressCache(Connection connection) throws SQLException {
+        int warmUpSize = Math.min(mailConfigBean.getAddressCacheWarmUpSize(), addressIdCache.getMaxSize());
+        if (warmUpSize <= 0 || !addressCacheWarmedUp.compareAndSet(false, true)) {
+            return;
         }
-        if (ccList.length >= 1) {
-            for (EmailAddress address : ccList) {
-                int emailIndex = getEmailAddressIndex(address);
-                executeEmailToAddressQuery(emailBean.getId(), emailIndex, "CC");
+        String findFrequentAddressesQuery = "SELECT ADDRESSES.ADDRESSID, ADDRESSES.EMAILADDRESS FROM ADDRESSES "
+                + "INNER JOIN EMAILTOADDRESS ON ADDRESSES.ADDRESSID = EMAILTOADDRESS.ADDRESSID "
+                + "GROUP BY ADDRESSES.ADDRESSID, ADDRESSES.EMAILADDRESS ORDER BY COUNT(*) DESC LIMIT ?";
+        Map<String, Integer> frequentAddresses = new LinkedHashMap<>();
+        try ( PreparedStatement ps = connection.prepareStatement(findFrequentAddressesQuery);) {
+            ps.setInt(1, warmUpSize);
+            try ( ResultSet rs = ps.executeQuery();) {
+                while (rs.next()) {
+                    frequentAddresses.put(rs.getString("EMAILADDRESS"), rs.getInt("ADDRESSID"));
+                }
             }
         }
-        if (bccList.length >= 1) {
-            for (EmailAddress address : bccList) {
-                int emailIndex = getEmailAddressIndex(address);
-                executeEmailToAddressQuery(emailBean.getId(), emailIndex, "BCC");
-            }
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(frequentAddresses.entrySet());
+        Collections.reverse(entries);
+        for (Map.Entry<String, Integer> entry : entries) {
+            addressIdCache.put(entry.getKey(), entry.getValue());
         }
-        LOG.info("Email recipients for record #" + emailBean.getId() + " have been added in EmailToAddress");
-
+        LOG.info("Address id cache warmed up with " + entries.size() + " address(es)");
     }
 
     /**
-     * Helper method that executes the inserts for every recipient into the
-     * EmailToAddress table.
+     * Goes through all the Email's recipients in their lists and adds an
+     * insert into the bridging table to a single batch.
      *
-     * @param recordNum Primary key of a row in the Email table.
-     * @param emailIndex Primary key of a row in the Addresses table.
-     * @param category A string representing the recipient Category (TO,CC,BCC)
+     * @param connection The connection of the surrounding transaction
+     * @param emailBean The Email which has recipients which must be added to
+     * the EmailToAddresses Table
+     * @param addressIds The AddressID of every recipient
      * @throws SQLException
      */
-    private void executeEmailToAddressQuery(int emailId, int addressId, String recipientCategory) throws SQLException {
+    private void insertEmailToAddress(Connection connection, EmailBean emailBean, Map<String, Integer> addressIds) throws SQLException {
         String insertEmailToAddressQuery = "INSERT INTO EmailToAddress (EmailID,AddressID,RecipientCategory) values (?,?,?)";
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword()); // Using a prepared statement to handle the conversion
-                // of special characters in the SQL statement and guard against
-                // SQL Injection
-                  PreparedStatement ps = connection.prepareStatement(insertEmailToAddressQuery);) {
-            ps.setInt(1, emailId);
-            ps.setInt(2, addressId);
-            ps.setString(3, recipientCategory);
-            int queryResult = ps.executeUpdate();
-            if (queryResult == 1) {
-                LOG.info("The address ID: \"" + addressId + "\" has been inserted as a \"" + recipientCategory + "\" for the email with ID: \"" + emailId + "\".");
-            }
+        // Using a prepared statement to handle the conversion
+        // of special characters in the SQL statement and guard against
+        // SQL Injection
+        try ( PreparedStatement ps = connection.prepareStatement(insertEmailToAddressQuery);) {
+            addEmailToAddressBatch(ps, emailBean.getId(), emailBean.email.to(), "TO", addressIds);
+            addEmailToAddressBatch(ps, emailBean.getId(), emailBean.email.cc(), "CC", addressIds);
+            addEmailToAddressBatch(ps, emailBean.getId(), emailBean.email.bcc(), "BCC", addressIds);
+            ps.executeBatch();
         }
+        LOG.info("Email recipients for record #" + emailBean.getId() + " have been added in EmailToAddress");
     }
 
     /**
-     * Query and return the index of an email address in the addresses table to
-     * insert it into the EmailToAddress table
+     * Adds a row to the EmailToAddress batch for every recipient of a
+     * category.
      *
-     * @param emailAddress The EmailAddress object that we need to retrieve its
-     * AddressID (primary key index)
-     * @return An int representing the email's primary key index in the
-     * Addresses table
+     * @param ps The batched insert into EmailToAddress
+     * @param emailId Primary key of a row in the Email table.
+     * @param recipients
+     * @param recipientCategory A string representing the recipient Category
+     * (TO,CC,BCC)
+     * @param addressIds The AddressID of every recipient
      * @throws SQLException
      */
-    private int getEmailAddressIndex(EmailAddress emailAddress) throws SQLException {
-        int resultAddress = 0;
-        String getEmailAddressQuery = "SELECT Addresses.AddressID FROM Addresses WHERE Addresses.EmailAddress = ?";
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(getEmailAddressQuery);) {
-            ps.setString(1, emailAddress.getEmail());
-            ResultSet rs = ps.executeQuery();
-            if (rs.next()) {
-                resultAddress = rs.getInt(1);
+    private void addEmailToAddressBatch(PreparedStatement ps, int emailId, EmailAddress[] recipients, String recipientCategory, Map<String, Integer> addressIds) throws SQLException {
+        for (EmailAddress recipient : recipients) {
+            Integer addressId = addressIds.get(recipient.getEmail());
+            if (addressId == null) {
+                throw new SQLException("The email address \"" + recipient.getEmail() + "\" is not in the Addresses table.");
             }
+            ps.setInt(1, emailId);
+            ps.setInt(2, addressId);
+            ps.setString(3, recipientCategory);
+            ps.addBatch();
         }
-        //return the primary key of the email address
-        return resultAddress;
     }
 
     /**
@@ -290,12 +551,13 @@ public class EmailDAOImpl implements EmailDAO {
             if (messages.get(0).getMimeType().equals("text/plain")) {
                 plainText = messages.get(0).getContent();
             } else {
-                htmlText = messages.get(1).getContent();
+                htmlText = messages.get(0).getContent();
             }
         }
         ps.setString(3, plainText);
-        ps.setString(4, htmlText);
+        setHtmlMessage(ps, 4, 6, htmlText);
         ps.setInt(5, emailBean.getFolderKey());
+        ps.setString(7, SearchText.of(plainText, htmlText, SearchText.recipients(email)));
         LOG.info("PreparedStatement for inserting a row in Email table has been setup.");
     }
 
@@ -325,312 +587,1063 @@ public class EmailDAOImpl implements EmailDAO {
             if (messages.get(0).getMimeType().equals("text/plain")) {
                 plainText = messages.get(0).getContent();
             } else {
-                htmlText = messages.get(1).getContent();
+                htmlText = messages.get(0).getContent();
             }
         }
         ps.setString(3, plainText);
-        ps.setString(4, htmlText);
+        setHtmlMessage(ps, 4, 11, htmlText);
 
         //Set the sent date as the current date since an Email object's default sentDate is null
         email.currentSentDate();
         ps.setTimestamp(5, new Timestamp(email.sentDate().getTime()));
         ps.setTimestamp(6, emailBean.getReceivedDate());
         ps.setInt(7, emailBean.getFolderKey());
+        //Received emails remember where they are on the server so their body can be fetched later
+        if (emailBean.getImapUid() > 0) {
+            ps.setLong(8, emailBean.getImapUid());
+            ps.setLong(9, emailBean.getImapUidValidity());
+        } else {
+            ps.setNull(8, Types.BIGINT);
+            ps.setNull(9, Types.BIGINT);
+        }
+        ps.setInt(10, emailBean.isBodyLoaded() ? 1 : 0);
+        ps.setString(12, emailBean.getMessageId());
+        ps.setString(13, SearchText.of(plainText, htmlText, SearchText.recipients(email)));
         LOG.info("PreparedStatement for inserting a row in Email table has been setup.");
     }
 
     /**
-     * Insert a row in EmailToAttachments for every attachment in the list of
-     * attachments.
+     * Sets the placeholders of the HTMLMESSAGE and HTMLBODY columns. An HTML
+     * message of at least bodyCompressionMinLength characters is stored
+     * compressed in HTMLBODY when that makes it smaller, any other is stored
+     * as text in HTMLMESSAGE. The column that is not used is set to NULL.
      *
-     * @param recordNum The Email row's primary key
-     * @param email The email object which contains attachments that must be
-     * inserted into the db
+     * @param ps
+     * @param htmlIndex The index of the HTMLMESSAGE placeholder
+     * @param bodyIndex The index of the HTMLBODY placeholder
+     * @param htmlText
      * @throws SQLException
      */
-    private void insertAttachments(EmailBean emailBean) throws SQLException, IOException {
-        Email email = emailBean.email;
-        int queryResult = 0;
-        String insertAttachmentQuery = "INSERT INTO ATTACHMENTS (EMAILID,FILENAME,CID,ATTACHMENT,IS_EMBEDDED) VALUES (?,?,?,?,?)";
-        List<EmailAttachment<? extends DataSource>> attachments = email.attachments();
-        if (attachments.size() >= 1) {
-            for (EmailAttachment attachment : attachments) {
-                try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(insertAttachmentQuery);) {
-                    ps.setInt(1, emailBean.getId());
-                    ps.setString(2, attachment.getName());
-                    ps.setString(3, attachment.getContentId());
-                    ps.setBytes(4, attachment.toByteArray());
-                    if (attachment.isEmbedded()) {
-                        ps.setInt(5, 1);
-                    } else {
-                        ps.setInt(5, 0);
-                    }
-                    queryResult = ps.executeUpdate();
-                }
-            }
-        }
-        if (queryResult > 0) {
-            LOG.info("The attachments for the record #" + emailBean.getId() + " have been added in EmailToAttachments");
+    private void setHtmlMessage(PreparedStatement ps, int htmlIndex, int bodyIndex, String htmlText) throws SQLException {
+        byte[] htmlBody = BodyCodec.compress(htmlText, mailConfigBean.getBodyCompressionMinLength());
+        if (htmlBody != null) {
+            ps.setNull(htmlIndex, Types.LONGVARCHAR);
+            ps.setBytes(bodyIndex, htmlBody);
+        } else {
+            ps.setString(htmlIndex, htmlText);
+            ps.setNull(bodyIndex, Types.LONGVARBINARY);
         }
     }
 
     /**
-     * Create and return all the emails in the form of an Email bean.
+     * Insert a row in Attachments for every attachment in the list of
+     * attachments. The bytes are stored once per distinct content, the rows
+     * only reference the content by its SHA-256 hash and are inserted in a
+     * single batch.
      *
-     * @return All the emailBeans in the db
+     * @param connection The connection of the surrounding transaction
+     * @param emailBean The emailBean whose email contains attachments that must
+     * be inserted into the db
      * @throws SQLException
-     * @throws FileNotFoundException
      * @throws IOException
      */
-    @Override
-    public ObservableList<EmailBean> findAll() throws SQLException, FileNotFoundException, IOException {
-        //List<EmailBean> rows = new ArrayList<>();
-        ObservableList<EmailBean> rows = FXCollections
-                .observableArrayList();
-
-        String selectQuery = "SELECT EMAILID,FROMADDRESS,SUBJECT,TEXTMESSAGE,HTMLMESSAGE,SENTDATE,RECEIVEDATE,FOLDERID FROM EMAIL";
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement pStatement = connection.prepareStatement(selectQuery);  ResultSet resultSet = pStatement.executeQuery()) {
-            while (resultSet.next()) {
-                //create an email bean object and add it to the List
-                rows.add(createEmailBean(resultSet));
+    private void insertAttachments(Connection connection, EmailBean emailBean) throws SQLException, IOException {
+        List<EmailAttachment<? extends DataSource>> attachments = emailBean.email.attachments();
+        if (attachments.isEmpty()) {
+            return;
+        }
+        String insertAttachmentQuery = "INSERT INTO ATTACHMENTS (EMAILID,FILENAME,CID,CONTENTHASH,IS_EMBEDDED) VALUES (?,?,?,?,?)";
+        try ( PreparedStatement ps = connection.prepareStatement(insertAttachmentQuery);) {
+            for (EmailAttachment<? extends DataSource> attachment : attachments) {
+                ps.setInt(1, emailBean.getId());
+                ps.setString(2, attachment.getName());
+                ps.setString(3, attachment.getContentId());
+                ps.setString(4, addContentReference(connection, attachment.getDataSource()));
+                if (attachment.isEmbedded()) {
+                    ps.setInt(5, 1);
+                } else {
+                    ps.setInt(5, 0);
+                }
+                ps.addBatch();
             }
+            ps.executeBatch();
         }
-        LOG.info("# of records found : " + rows.size());
-        return rows;
+        LOG.info("The attachments for the record #" + emailBean.getId() + " have been added in Attachments");
     }
 
     /**
-     * Create an EmailBean object with the help of helper methods that retrieve
-     * all the fields relating to an email from the database.
+     * Adds a reference to the content of an attachment. Attachments backed by
+     * a file, like the ones spooled while receiving, are hashed and stored
+     * from their file with a fixed size buffer instead of being read into the
+     * heap.
      *
-     * @param resultSet
-     * @return An EmailBean corresponding to a specific Email table row.
+     * @param connection
+     * @param dataSource
+     * @return The SHA-256 hash of the content
      * @throws SQLException
-     * @throws FileNotFoundException
      * @throws IOException
      */
-    private EmailBean createEmailBean(ResultSet resultSet) throws SQLException, FileNotFoundException, IOException {
-        LOG.info("Creating an EmailBean");
-        EmailBean emailBean = new EmailBean();
-        emailBean.setId(resultSet.getInt("EMAILID"));
-        emailBean.setFolderKey(resultSet.getInt("FOLDERID"));
-        emailBean.setReceivedDate(resultSet.getTimestamp("RECEIVEDATE"));
-        emailBean.email.sentDate(resultSet.getTimestamp("SENTDATE"));
-        emailBean.email = queryEmailTableFields(resultSet, emailBean.email);
-        emailBean.email = queryEmailToAddressTableFields(resultSet, emailBean.email);
-        emailBean.email = queryAttachmentsFields(resultSet, emailBean.email);
-        LOG.info("EmailBean successfully created.");
-        return emailBean;
+    private String addContentReference(Connection connection, DataSource dataSource) throws SQLException, IOException {
+        if (dataSource instanceof FileDataSource) {
+            try ( AttachmentSpool spool = AttachmentSpool.of(((FileDataSource) dataSource).getFile().toPath())) {
+                return addContentReference(connection, spool);
+            }
+        }
+        if (dataSource instanceof ByteArrayDataSource) {
+            try ( InputStream in = dataSource.getInputStream()) {
+                return addContentReference(connection, in.readAllBytes());
+            }
+        }
+        try ( InputStream in = dataSource.getInputStream();  AttachmentSpool spool = AttachmentSpool.spool(in, AttachmentSpool.getDirectory(mailConfigBean))) {
+            return addContentReference(connection, spool);
+        }
     }
 
     /**
-     * Execute a query and assign the needed fields for a email object with
-     * everything related to the Email table.
+     * Adds a reference to the content with the hash of the given bytes. The
+     * bytes are only handed to the attachment store when no other attachment
+     * has the same content. Must run inside a transaction so a failure rolls
+     * the reference back.
      *
-     * @param resultSet
-     * @return An email object which has been set with fields relating to an
-     * Email object
+     * @param connection
+     * @param content
+     * @return The SHA-256 hash of the content
      * @throws SQLException
+     * @throws IOException
      */
-    private Email queryEmailTableFields(ResultSet resultSet, Email email) throws SQLException {
-        String emailTableQuery = "SELECT EMAILID,FROMADDRESS,SUBJECT,TEXTMESSAGE,HTMLMESSAGE FROM EMAIL WHERE EMAIL.EMAILID = ?";
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(emailTableQuery);) {
-            ps.setInt(1, resultSet.getInt("EMAILID"));
-            ResultSet emailTableResultSet = ps.executeQuery();
-            if (emailTableResultSet.next()) {
-                email.from(emailTableResultSet.getString("FROMADDRESS"));
-                email.subject(emailTableResultSet.getString("SUBJECT"));
-                email.textMessage(emailTableResultSet.getString("TEXTMESSAGE"));
-                email.htmlMessage(emailTableResultSet.getString("HTMLMESSAGE"));
-                LOG.info("Email object has set the From, subject, textMessage and HtmlMessage");
-            }
+    private String addContentReference(Connection connection, byte[] content) throws SQLException, IOException {
+        String contentHash = hashContent(content);
+        if (insertContentReference(connection, contentHash, content.length)) {
+            attachmentStore.write(connection, contentHash, content);
+            LOG.info("Stored new attachment content " + contentHash);
         }
-        return email;
+        return contentHash;
     }
 
     /**
-     * Set the email object with the addresses in the ResultSet and place them
-     * in the appropriate recipient category (to,cc,bcc).
+     * Adds a reference to a spooled content, which is streamed to the
+     * attachment store when no other attachment has the same content.
      *
-     * @param resultSet
-     * @param email
-     * @return An email object with recipients added in the to,cc,bcc fields
-     * @throws SQLException
-     */
-    private Email queryEmailToAddressTableFields(ResultSet resultSet, Email email) throws SQLException {
-        String emailToAddressQuery = "SELECT ADDRESSES.EMAILADDRESS, EMAILTOADDRESS.RECIPIENTCATEGORY FROM ADDRESSES INNER JOIN EMAILTOADDRESS ON ADDRESSES.ADDRESSID = EMAILTOADDRESS.ADDRESSID WHERE EMAILTOADDRESS.EMAILID = ?";
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(emailToAddressQuery);) {
-            ps.setInt(1, resultSet.getInt("EMAILID"));
-            ResultSet emailToAddressResultSet = ps.executeQuery();
-            while (emailToAddressResultSet.next()) {
-                if (emailToAddressResultSet.getString("RECIPIENTCATEGORY").equals("TO")) {
-                    email.to(emailToAddressResultSet.getString("EMAILADDRESS"));
-                } else if (emailToAddressResultSet.getString("RECIPIENTCATEGORY").equals("CC")) {
-                    email.cc(emailToAddressResultSet.getString("EMAILADDRESS"));
-                } else if (emailToAddressResultSet.getString("RECIPIENTCATEGORY").equals("BCC")) {
-                    email.bcc(emailToAddressResultSet.getString("EMAILADDRESS"));
-                }
+     * @param connection
+     * @param spool
+     * @return The SHA-256 hash of the content
+     * @throws SQLException
+     * @throws IOException
+     */
+    private String addContentReference(Connection connection, AttachmentSpool spool) throws SQLException, IOException {
+        String contentHash = spool.getContentHash();
+        if (insertContentReference(connection, contentHash, spool.getSize())) {
+            try ( InputStream in = spool.openStream()) {
+                attachmentStore.write(connection, contentHash, in, spool.getSize());
             }
+            LOG.info("Stored new attachment content " + contentHash + " of " + spool.getSize() + " bytes");
         }
-        LOG.info("Email object has set the recipient email addresses");
-        return email;
+        return contentHash;
     }
 
     /**
-     * Adds the attachments from the result Set into the email. Retrieves the
-     * filename, attachments and checks if it is embedded then sets it.
-     *
-     * @param resultSet
-     * @param email
-     * @return An email object with the attachments from the resultSet object.
+     * @param connection
+     * @param contentHash
+     * @param size
+     * @return true if the content is new and must be written to the store
      * @throws SQLException
-     * @throws FileNotFoundException
-     * @throws IOException
      */
-    private Email queryAttachmentsFields(ResultSet resultSet, Email email) throws SQLException, FileNotFoundException, IOException {
-        List<File> regularAttachments = new ArrayList<>();
-        List<File> embeddedAttachments = new ArrayList<>();
-        String attachmentsQuery = "SELECT FILENAME,ATTACHMENT,IS_EMBEDDED FROM ATTACHMENTS WHERE EMAILID = ?";
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(attachmentsQuery);) {
-            ps.setInt(1, resultSet.getInt("EMAILID"));
-            ResultSet emailAttachmentsResult = ps.executeQuery();
-            while (emailAttachmentsResult.next()) {
-                //Set the File object's name
-                File image = new File(emailAttachmentsResult.getString("FILENAME"));
-                FileOutputStream fos = new FileOutputStream(image);
-                byte[] buffer = new byte[1];
-                InputStream is = emailAttachmentsResult.getBinaryStream("ATTACHMENT");
-                //The mock data has a null attachments, so only read from the InputStream if it isn't null.
-                if (is != null) {
-                    //As long as there are bytes to read, keep writing to the FileOutputStream
-                    while (is.read(buffer) > 0) {
-
-                        fos.write(buffer);
-                    }
-                }
-                fos.close();
-                //Add the File to the appropriate list depending on if the image is embedded or not
-                if (emailAttachmentsResult.getInt("IS_EMBEDDED") == 1) {
-                    LOG.info("THE ATTACHMENT IS EMBEDDED : " + emailAttachmentsResult.getString("FILENAME"));
-                    embeddedAttachments.add(image);
-                } else {
-                    LOG.info("THE ATTACHMENT IS REGULAR : " + emailAttachmentsResult.getString("FILENAME"));
-                    regularAttachments.add(image);
-                }
-            }
+    private boolean insertContentReference(Connection connection, String contentHash, long size) throws SQLException {
+        String addReferenceQuery = "INSERT INTO ATTACHMENTCONTENT (CONTENTHASH,CONTENTSIZE,REFCOUNT) VALUES (?,?,1) ON DUPLICATE KEY UPDATE REFCOUNT = REFCOUNT + 1";
+        try ( PreparedStatement ps = connection.prepareStatement(addReferenceQuery);) {
+            ps.setString(1, contentHash);
+            ps.setLong(2, size);
+            //MySQL reports 1 row for a new content and 2 when the reference count of an existing one was incremented
+            return ps.executeUpdate() == 1;
         }
-        //Setting the files to the Email object's attachments
-        regularAttachments.forEach(attachment -> {
-            email.attachment(EmailAttachment.with().content(attachment.getName()));
-        });
-        embeddedAttachments.forEach(attachment -> {
-            email.embeddedAttachment(EmailAttachment.with().content(new File(attachment.getName())));
-        });
-        return email;
     }
 
     /**
-     * Creates an emailBean based on the input EmailId. The createEmailBean
-     * method will attach all the fields, addresses and attachments to the
-     * emailBean
+     * Removes a reference to a content. Once nothing references the content
+     * its row is deleted, the attachment store drops the bytes once the
+     * transaction has committed.
      *
-     * @param id
-     * @return An emailBean representing the Email with a specific id.
+     * @param connection
+     * @param contentHash
+     * @param releasedContents The contents whose row was deleted, added to
      * @throws SQLException
-     * @throws FileNotFoundException
-     * @throws IOException
      */
-    @Override
-    public EmailBean findID(int id) throws SQLException, FileNotFoundException, IOException {
-        EmailBean emailBean = new EmailBean();
-        String findEmailById = "SELECT EMAILID,FROMADDRESS,SUBJECT,TEXTMESSAGE,HTMLMESSAGE,SENTDATE,RECEIVEDATE,FOLDERID FROM EMAIL WHERE EMAILID = ?";
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(findEmailById);) {
-            ps.setInt(1, id);
-            ResultSet emailRowResult = ps.executeQuery();
-            if (emailRowResult.next()) {
-                emailBean = createEmailBean(emailRowResult);
+    private void releaseContentReference(Connection connection, String contentHash, List<String> releasedContents) throws SQLException {
+        String releaseReferenceQuery = "UPDATE ATTACHMENTCONTENT SET REFCOUNT = REFCOUNT - 1 WHERE CONTENTHASH = ?";
+        try ( PreparedStatement ps = connection.prepareStatement(releaseReferenceQuery);) {
+            ps.setString(1, contentHash);
+            ps.executeUpdate();
+        }
+        //A reference added between the two statements keeps the content alive
+        String deleteUnusedQuery = "DELETE FROM ATTACHMENTCONTENT WHERE CONTENTHASH = ? AND REFCOUNT <= 0";
+        try ( PreparedStatement ps = connection.prepareStatement(deleteUnusedQuery);) {
+            ps.setString(1, contentHash);
+            if (ps.executeUpdate() > 0) {
+                releasedContents.add(contentHash);
             }
         }
-        return emailBean;
     }
 
     /**
-     * Finds and returns a List of EmailBean of all emails that are in a
-     * specified folder.
+     * Drops the bytes of the contents whose rows were deleted by a committed
+     * transaction. A content referenced again since then has a row, it is
+     * kept. Looking the rows up with a lock makes a transaction adding one of
+     * these contents wait, so its new bytes are never deleted. If the bytes
+     * cannot be dropped they are only left unreachable.
      *
-     * @param folderName Folder name
-     * @return List of EmailBean of all emails that are in a specified folder.
-     * @throws SQLException
-     * @throws java.io.FileNotFoundException
+     * @param releasedContents
      */
-    @Override
-    public ObservableList<EmailBean> findAllInFolder(String folderName) throws SQLException, FileNotFoundException, IOException {
-        ObservableList<EmailBean> emailsInFolder = FXCollections.observableArrayList();
+    private void deleteReleasedContents(List<String> releasedContents) {
+        if (releasedContents.isEmpty()) {
+            return;
+        }
+        try ( Connection connection = connectionPool.getConnection();) {
+            connection.setAutoCommit(false);
+            try {
+                for (int from = 0; from < releasedContents.size(); from += IN_BATCH_SIZE) {
+                    Set<String> unusedContents = new TreeSet<>(releasedContents.subList(from, Math.min(from + IN_BATCH_SIZE, releasedContents.size())));
+                    try ( PreparedStatement ps = connection.prepareStatement(buildInQuery("SELECT CONTENTHASH FROM ATTACHMENTCONTENT WHERE CONTENTHASH IN ", " FOR UPDATE", unusedContents.size()));) {
+                        int index = 1;
+                        for (String contentHash : unusedContents) {
+                            ps.setString(index++, contentHash);
+                        }
+                        try ( ResultSet resultSet = ps.executeQuery();) {
+                            while (resultSet.next()) {
+                                unusedContents.remove(resultSet.getString("CONTENTHASH"));
+                            }
+                        }
+                    }
+                    for (String contentHash : unusedContents) {
+                        attachmentStore.delete(connection, contentHash);
+                        LOG.info("Deleted unreferenced attachment content " + contentHash);
+                    }
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            }
+        } catch (SQLException ex) {
+            LOG.error("Could not delete the unreferenced attachment contents " + releasedContents, ex);
+        }
+    }
 
-        String queryEmailsInFolder = "SELECT EMAIL.EMAILID,EMAIL.FROMADDRESS,EMAIL.SUBJECT,EMAIL.TEXTMESSAGE,EMAIL.HTMLMESSAGE,EMAIL.SENTDATE,EMAIL.RECEIVEDATE,EMAIL.FOLDERID FROM EMAIL INNER JOIN FOLDERS ON EMAIL.FOLDERID = FOLDERS.FOLDERID WHERE FOLDERNAME = ?";
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(queryEmailsInFolder);) {
-            ps.setString(1, folderName);
-            ResultSet allEmailsInFolder = ps.executeQuery();
-            while (allEmailsInFolder.next()) {
-                //Add the EmailBean to the list
-                emailsInFolder.add(createEmailBean(allEmailsInFolder));
+    /**
+     * @param content
+     * @return The lower case hex SHA-256 hash of the content
+     */
+    private String hashContent(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
             }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            //Every Java platform is required to support SHA-256
+            throw new IllegalStateException(ex);
         }
-        return emailsInFolder;
     }
 
     /**
-     * Finds all the Emails that were sent to a specific recipient and returns
-     * them as EmailBeans
+     * Create and return all the emails in the form of an Email bean.
      *
-     * @param recipientEmailAddress
-     * @return List of EmailBean objects
+     * @return All the emailBeans in the db
      * @throws SQLException
      * @throws FileNotFoundException
      * @throws IOException
      */
     @Override
-    public List<EmailBean> findEmailsByRecipient(String recipientEmailAddress) throws SQLException, FileNotFoundException, IOException {
-        List<EmailBean> emailsByRecipient = new ArrayList<>();
-        String queryEmailsByRecipient = "SELECT EMAIL.EMAILID,EMAIL.FROMADDRESS,EMAIL.SUBJECT,EMAIL.TEXTMESSAGE,EMAIL.HTMLMESSAGE,EMAIL.SENTDATE,EMAIL.RECEIVEDATE,EMAIL.FOLDERID FROM EMAIL INNER JOIN EMAILTOADDRESS ON EMAIL.EMAILID = EMAILTOADDRESS.EMAILID INNER JOIN ADDRESSES ON EMAILTOADDRESS.ADDRESSID = ADDRESSES.ADDRESSID WHERE ADDRESSES.EMAILADDRESS = ?";
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(queryEmailsByRecipient);) {
-            ps.setString(1, recipientEmailAddress);
-            ResultSet resultEmails = ps.executeQuery();
-            while (resultEmails.next()) {
-                //Add the EmailBean to the list
-                emailsByRecipient.add(createEmailBean(resultEmails));
-            }
+    public ObservableList<EmailBean> findAll() throws SQLException, FileNotFoundException, IOException {
+        ObservableList<EmailBean> rows = FXCollections
+                .observableArrayList();
+
+        String selectQuery = "SELECT EMAILID,FROMADDRESS,SUBJECT,TEXTMESSAGE,HTMLMESSAGE,HTMLBODY,SENTDATE,RECEIVEDATE,FOLDERID,IMAPUID,IMAPUIDVALIDITY,BODYLOADED FROM EMAIL";
+        try ( Connection connection = connectionPool.getConnection();  PreparedStatement pStatement = connection.prepareStatement(selectQuery);  ResultSet resultSet = pStatement.executeQuery()) {
+            rows.addAll(createEmailBeans(connection, resultSet));
         }
-        return emailsByRecipient;
+        LOG.info("# of records found : " + rows.size());
+        return rows;
     }
 
     /**
-     * Finds all the Emails with a specific subject and returns a List of
-     * EmailBean
+     * Create the EmailBean objects for every row of an Email table query. The
+     * rows already hold every Email table field, so the recipients and the
+     * attachments of the whole result set are then loaded with a fixed number
+     * of IN (...) queries instead of three queries per email.
      *
-     * @param subject
-     * @return List of EmailBean with the selected subject
+     * @param connection The connection the row query was run on
+     * @param resultSet Rows selected from the Email table
+     * @return The EmailBeans in the order of the result set
      * @throws SQLException
      * @throws FileNotFoundException
      * @throws IOException
      */
-    @Override
-    public List<EmailBean> findEmailsBySubject(String subject) throws SQLException, FileNotFoundException, IOException {
-        List<EmailBean> emailsBySubject = new ArrayList<>();
-        String queryEmailsBySubject = "SELECT EMAILID,FROMADDRESS,SUBJECT,TEXTMESSAGE,HTMLMESSAGE,SENTDATE,RECEIVEDATE,FOLDERID FROM EMAIL WHERE SUBJECT = ?";
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(queryEmailsBySubject);) {
-            ps.setString(1, subject);
-            ResultSet resultEmails = ps.executeQuery();
-            while (resultEmails.next()) {
-                //Add the EmailBean to the list
-                emailsBySubject.add(createEmailBean(resultEmails));
+    private List<EmailBean> createEmailBeans(Connection connection, ResultSet resultSet) throws SQLException, FileNotFoundException, IOException {
+        Map<Integer, EmailBean> emailBeans = new LinkedHashMap<>();
+        while (resultSet.next()) {
+            EmailBean emailBean = createEmailBean(resultSet);
+            emailBeans.put(emailBean.getId(), emailBean);
+        }
+        if (!emailBeans.isEmpty()) {
+            List<Integer> emailIds = new ArrayList<>(emailBeans.keySet());
+            queryEmailToAddressTableFields(connection, emailIds, emailBeans);
+            queryAttachmentsFields(connection, emailIds, emailBeans);
+        }
+        LOG.info(emailBeans.size() + " EmailBean(s) successfully created.");
+        return new ArrayList<>(emailBeans.values());
+    }
+
+    /**
+     * Create an EmailBean object from the Email table fields of the current
+     * row. The recipients and attachments are added by createEmailBeans.
+     *
+     * @param resultSet
+     * @return An EmailBean corresponding to a specific Email table row.
+     * @throws SQLException
+     */
+    private EmailBean createEmailBean(ResultSet resultSet) throws SQLException {
+        EmailBean emailBean = new EmailBean();
+        emailBean.setId(resultSet.getInt("EMAILID"));
+        emailBean.setFolderKey(resultSet.getInt("FOLDERID"));
+        emailBean.setReceivedDate(resultSet.getTimestamp("RECEIVEDATE"));
+        emailBean.email.sentDate(resultSet.getTimestamp("SENTDATE"));
+        emailBean.email.from(resultSet.getString("FROMADDRESS"));
+        emailBean.email.subject(resultSet.getString("SUBJECT"));
+        emailBean.email.textMessage(resultSet.getString("TEXTMESSAGE"));
+        //A compressed HTML message is only inflated when its content is read
+        byte[] htmlBody = resultSet.getBytes("HTMLBODY");
+        if (htmlBody != null) {
+            emailBean.email.message(new CompressedEmailMessage(htmlBody));
+        } else {
+            emailBean.email.htmlMessage(resultSet.getString("HTMLMESSAGE"));
+        }
+        emailBean.setImapUid(resultSet.getLong("IMAPUID"));
+        emailBean.setImapUidValidity(resultSet.getLong("IMAPUIDVALIDITY"));
+        emailBean.setBodyLoaded(resultSet.getInt("BODYLOADED") == 1);
+        return emailBean;
+    }
+
+    /**
+     * Builds a query ending with an IN list of as many placeholders as there
+     * are ids in the batch.
+     *
+     * @param queryPrefix The query up to and including "IN "
+     * @param querySuffix Anything that follows the IN list
+     * @param batchSize The number of ids in the batch
+     * @return The full query string
+     */
+    private String buildInQuery(String queryPrefix, String querySuffix, int batchSize) {
+        StringBuilder sb = new StringBuilder(queryPrefix).append('(');
+        for (int i = 0; i < batchSize; i++) {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        return sb.append(')').append(querySuffix).toString();
+    }
+
+    /**
+     * Set the emails with the addresses of every email in the list and place
+     * them in the appropriate recipient category (to,cc,bcc). The addresses are
+     * read in batches of IN_BATCH_SIZE emails, in the order they were inserted.
+     *
+     * @param connection
+     * @param emailIds The ids of the emails being loaded
+     * @param emailBeans The emails being loaded keyed by their id
+     * @throws SQLException
+     */
+    private void queryEmailToAddressTableFields(Connection connection, List<Integer> emailIds, Map<Integer, EmailBean> emailBeans) throws SQLException {
+        for (int from = 0; from < emailIds.size(); from += IN_BATCH_SIZE) {
+            List<Integer> batch = emailIds.subList(from, Math.min(from + IN_BATCH_SIZE, emailIds.size()));
+            String emailToAddressQuery = buildInQuery("SELECT EMAILTOADDRESS.EMAILID, ADDRESSES.EMAILADDRESS, EMAILTOADDRESS.RECIPIENTCATEGORY FROM ADDRESSES INNER JOIN EMAILTOADDRESS ON ADDRESSES.ADDRESSID = EMAILTOADDRESS.ADDRESSID WHERE EMAILTOADDRESS.EMAILID IN ", " ORDER BY EMAILTOADDRESS.EMAILTOADDRESSKEY", batch.size());
+            try ( PreparedStatement ps = connection.prepareStatement(emailToAddressQuery);) {
+                for (int i = 0; i < batch.size(); i++) {
+                    ps.setInt(i + 1, batch.get(i));
+                }
+                try ( ResultSet emailToAddressResultSet = ps.executeQuery();) {
+                    while (emailToAddressResultSet.next()) {
+                        Email email = emailBeans.get(emailToAddressResultSet.getInt("EMAILID")).email;
+                        String category = emailToAddressResultSet.getString("RECIPIENTCATEGORY");
+                        if (category.equals("TO")) {
+                            email.to(emailToAddressResultSet.getString("EMAILADDRESS"));
+                        } else if (category.equals("CC")) {
+                            email.cc(emailToAddressResultSet.getString("EMAILADDRESS"));
+                        } else if (category.equals("BCC")) {
+                            email.bcc(emailToAddressResultSet.getString("EMAILADDRESS"));
+                        }
+                    }
+                }
+            }
+        }
+        LOG.info("Email objects have set the recipient email addresses");
+    }
+
+    /**
+     * Adds the attachments of every email in the list. Only the descriptors are
+     * read, each attachment gets a LazyAttachmentDataSource that streams its
+     * content into the attachment cache when it is first opened. The
+     * attachments are read in batches of IN_BATCH_SIZE emails.
+     *
+     * @param connection
+     * @param emailIds The ids of the emails being loaded
+     * @param emailBeans The emails being loaded keyed by their id
+     * @throws SQLException
+     */
+    private void queryAttachmentsFields(Connection connection, List<Integer> emailIds, Map<Integer, EmailBean> emailBeans) throws SQLException {
+        for (int from = 0; from < emailIds.size(); from += IN_BATCH_SIZE) {
+            List<Integer> batch = emailIds.subList(from, Math.min(from + IN_BATCH_SIZE, emailIds.size()));
+            String attachmentsQuery = buildInQuery("SELECT ATTACHMENTS.ATTACHMENTID,ATTACHMENTS.EMAILID,ATTACHMENTS.FILENAME,ATTACHMENTS.CID,ATTACHMENTS.IS_EMBEDDED,ATTACHMENTS.CONTENTHASH,ATTACHMENTS.IMAPPART,COALESCE(ATTACHMENTCONTENT.CONTENTSIZE, ATTACHMENTS.PARTSIZE) AS CONTENTSIZE FROM ATTACHMENTS LEFT JOIN ATTACHMENTCONTENT ON ATTACHMENTS.CONTENTHASH = ATTACHMENTCONTENT.CONTENTHASH WHERE ATTACHMENTS.EMAILID IN ", " ORDER BY ATTACHMENTS.ATTACHMENTID", batch.size());
+            try ( PreparedStatement ps = connection.prepareStatement(attachmentsQuery);) {
+                for (int i = 0; i < batch.size(); i++) {
+                    ps.setInt(i + 1, batch.get(i));
+                }
+                try ( ResultSet emailAttachmentsResult = ps.executeQuery();) {
+                    while (emailAttachmentsResult.next()) {
+                        AttachmentBean attachment = createAttachmentBean(emailAttachmentsResult);
+                        Email email = emailBeans.get(attachment.getEmailId()).email;
+                        //Add the attachment to the email depending on if the image is embedded or not
+                        if (attachment.isEmbedded()) {
+                            email.embeddedAttachment(createLazyAttachment(attachment));
+                        } else {
+                            email.attachment(createLazyAttachment(attachment));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Create an AttachmentBean from the current row of an attachment
+     * descriptor query.
+     *
+     * @param resultSet
+     * @return The AttachmentBean of the row
+     * @throws SQLException
+     */
+    private AttachmentBean createAttachmentBean(ResultSet resultSet) throws SQLException {
+        AttachmentBean attachment = new AttachmentBean(resultSet.getInt("ATTACHMENTID"), resultSet.getInt("EMAILID"), resultSet.getString("FILENAME"), resultSet.getString("CID"), resultSet.getInt("IS_EMBEDDED") == 1, resultSet.getLong("CONTENTSIZE"), resultSet.getString("CONTENTHASH"));
+        attachment.setImapPart(resultSet.getString("IMAPPART"));
+        return attachment;
+    }
+
+    /**
+     * Wraps an attachment descriptor in an EmailAttachment whose content is
+     * only read when it is needed. Embedded attachments without a content id
+     * use their file name, like jodd does when embedding a file.
+     *
+     * @param attachment
+     * @return the EmailAttachment to add to the email
+     */
+    private EmailAttachment<LazyAttachmentDataSource> createLazyAttachment(AttachmentBean attachment) {
+        LazyAttachmentDataSource dataSource = new LazyAttachmentDataSource(attachment, attachmentCache.getFile(attachment), this);
+        String contentId = attachment.getContentId();
+        if (attachment.isEmbedded() && (contentId == null || contentId.isEmpty())) {
+            contentId = dataSource.getName();
+        }
+        return new EmailAttachment<LazyAttachmentDataSource>(dataSource.getName(), contentId, attachment.isEmbedded(), dataSource) {
+            {
+                setSize((int) attachment.getSize());
+            }
+        };
+    }
+
+    /**
+     * Returns the descriptors of the attachments of an email, without their
+     * content.
+     *
+     * @param emailId
+     * @return The attachments of the email ordered by their id
+     * @throws SQLException
+     */
+    @Override
+    public List<AttachmentBean> findAttachments(int emailId) throws SQLException {
+        List<AttachmentBean> attachments = new ArrayList<>();
+        String findAttachmentsQuery = "SELECT ATTACHMENTS.ATTACHMENTID,ATTACHMENTS.EMAILID,ATTACHMENTS.FILENAME,ATTACHMENTS.CID,ATTACHMENTS.IS_EMBEDDED,ATTACHMENTS.CONTENTHASH,ATTACHMENTS.IMAPPART,COALESCE(ATTACHMENTCONTENT.CONTENTSIZE, ATTACHMENTS.PARTSIZE) AS CONTENTSIZE FROM ATTACHMENTS LEFT JOIN ATTACHMENTCONTENT ON ATTACHMENTS.CONTENTHASH = ATTACHMENTCONTENT.CONTENTHASH WHERE ATTACHMENTS.EMAILID = ? ORDER BY ATTACHMENTS.ATTACHMENTID";
+        try ( Connection connection = connectionPool.getConnection();  PreparedStatement ps = connection.prepareStatement(findAttachmentsQuery);) {
+            ps.setInt(1, emailId);
+            try ( ResultSet resultSet = ps.executeQuery();) {
+                while (resultSet.next()) {
+                    attachments.add(createAttachmentBean(resultSet));
+                }
+            }
+        }
+        return attachments;
+    }
+
+    /**
+     * Makes sure the content of an attachment is in the attachment cache and
+     * returns the cached file. The content is only read from the attachment
+     * store the first time, later reads of the same content reuse the cache.
+     *
+     * @param attachment
+     * @return The cached file holding the attachment's content
+     * @throws SQLException
+     * @throws IOException
+     */
+    @Override
+    public File loadAttachment(AttachmentBean attachment) throws SQLException, IOException {
+        if (attachmentCache.isCached(attachment)) {
+            return attachmentCache.getFile(attachment);
+        }
+        if (attachment.isDeferred()) {
+            //Only the MessageBodyFetcher can download it from the IMAP server
+            throw new FileNotFoundException("The attachment " + attachment.getFileName() + " has not been downloaded yet");
+        }
+        if (attachment.getContentHash() == null) {
+            //The mock data has null attachments, they are cached as empty files
+            return attachmentCache.store(attachment, InputStream.nullInputStream());
+        }
+        File cachedCopy = attachmentCache.copyCachedContent(attachment);
+        if (cachedCopy != null) {
+            return cachedCopy;
+        }
+        Path contentFile = attachmentStore.getContentFile(attachment.getContentHash());
+        if (contentFile != null) {
+            return attachmentCache.store(attachment, contentFile);
+        }
+        try ( Connection connection = connectionPool.getConnection();  InputStream content = attachmentStore.read(connection, attachment.getContentHash());) {
+            LOG.info("Caching the attachment " + attachment.getFileName());
+            return attachmentCache.store(attachment, content);
+        }
+    }
+
+    /**
+     * Saves the body of a received email whose headers were saved first. The
+     * messages and the downloaded attachments are written in one transaction
+     * with the attachments that stay on the IMAP server until they are asked
+     * for. Nothing is written if the body was already saved.
+     *
+     * @param emailId
+     * @param body The messages and the downloaded attachments of the email
+     * @param deferred The attachments to fetch later, their imapPart and size
+     * must be set. Their ids are set by this method
+     * @return The number of email rows updated, 0 if the body was already
+     * saved
+     * @throws SQLException
+     * @throws IOException
+     */
+    @Override
+    public int saveEmailBody(int emailId, Email body, List<AttachmentBean> deferred) throws SQLException, IOException {
+        int result;
+        EmailBean emailBean = new EmailBean();
+        emailBean.setId(emailId);
+        emailBean.email = body;
+        String plainText = "";
+        String htmlText = "";
+        for (EmailMessage message : body.messages()) {
+            if (message.getMimeType().equals("text/html")) {
+                htmlText = message.getContent();
+            } else {
+                plainText = message.getContent();
+            }
+        }
+        String updateBodyQuery = "UPDATE EMAIL SET TEXTMESSAGE = ?, HTMLMESSAGE = ?, HTMLBODY = ?, SEARCHTEXT = ?, BODYLOADED = 1 WHERE EMAILID = ? AND BODYLOADED <> 1";
+        try ( Connection connection = connectionPool.getConnection();) {
+            connection.setAutoCommit(false);
+            try {
+                try ( PreparedStatement ps = connection.prepareStatement(updateBodyQuery);) {
+                    ps.setString(1, plainText);
+                    setHtmlMessage(ps, 2, 3, htmlText);
+                    //The recipients were saved with the headers
+                    ps.setString(4, SearchText.of(plainText, htmlText, SearchText.findRecipients(connection, emailId)));
+                    ps.setInt(5, emailId);
+                    result = ps.executeUpdate();
+                }
+                //Another thread saved the body first
+                if (result == 0) {
+                    connection.rollback();
+                    return 0;
+                }
+                insertAttachments(connection, emailBean);
+                insertDeferredAttachments(connection, emailId, deferred);
+                connection.commit();
+            } catch (SQLException | IOException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            }
+        }
+        emailCache.invalidate(emailId);
+        LOG.info("The body of the email #" + emailId + " has been saved");
+        return result;
+    }
+
+    /**
+     * Insert a row without content in Attachments for every attachment left
+     * on the IMAP server.
+     *
+     * @param connection The connection of the surrounding transaction
+     * @param emailId
+     * @param deferred
+     * @throws SQLException
+     */
+    private void insertDeferredAttachments(Connection connection, int emailId, List<AttachmentBean> deferred) throws SQLException {
+        if (deferred.isEmpty()) {
+            return;
+        }
+        String insertDeferredQuery = "INSERT INTO ATTACHMENTS (EMAILID,FILENAME,CID,IS_EMBEDDED,IMAPPART,PARTSIZE) VALUES (?,?,?,?,?,?)";
+        try ( PreparedStatement ps = connection.prepareStatement(insertDeferredQuery, Statement.RETURN_GENERATED_KEYS);) {
+            for (AttachmentBean attachment : deferred) {
+                ps.setInt(1, emailId);
+                ps.setString(2, attachment.getFileName());
+                ps.setString(3, attachment.getContentId());
+                ps.setInt(4, attachment.isEmbedded() ? 1 : 0);
+                ps.setString(5, attachment.getImapPart());
+                ps.setLong(6, attachment.getSize());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            try ( ResultSet rs = ps.getGeneratedKeys();) {
+                for (AttachmentBean attachment : deferred) {
+                    if (rs.next()) {
+                        attachment.setAttachmentId(rs.getInt(1));
+                    }
+                    attachment.setEmailId(emailId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores the content of an attachment that was left on the IMAP server
+     * once it has been downloaded.
+     *
+     * @param attachment The deferred attachment, its content hash is set by
+     * this method
+     * @param content
+     * @throws SQLException
+     * @throws IOException
+     */
+    @Override
+    public void storeAttachmentContent(AttachmentBean attachment, byte[] content) throws SQLException, IOException {
+        storeAttachmentContent(attachment, new ByteArrayInputStream(content));
+    }
+
+    /**
+     * Stores the content of an attachment that was left on the IMAP server
+     * while it is downloaded. The stream is spooled to a temporary file so
+     * that the content is never held in the heap.
+     *
+     * @param attachment The deferred attachment, its content hash is set by
+     * this method
+     * @param content Read to its end, not closed
+     * @throws SQLException
+     * @throws IOException
+     */
+    @Override
+    public void storeAttachmentContent(AttachmentBean attachment, InputStream content) throws SQLException, IOException {
+        String storeContentQuery = "UPDATE ATTACHMENTS SET CONTENTHASH = ?, IMAPPART = NULL, PARTSIZE = NULL WHERE ATTACHMENTID = ? AND CONTENTHASH IS NULL";
+        //The download finishes before a connection is borrowed
+        try ( AttachmentSpool spool = AttachmentSpool.spool(content, AttachmentSpool.getDirectory(mailConfigBean));  Connection connection = connectionPool.getConnection();) {
+            connection.setAutoCommit(false);
+            List<String> releasedContents = new ArrayList<>();
+            try {
+                String contentHash = addContentReference(connection, spool);
+                try ( PreparedStatement ps = connection.prepareStatement(storeContentQuery);) {
+                    ps.setString(1, contentHash);
+                    ps.setInt(2, attachment.getAttachmentId());
+                    //Another thread stored it first, drop the extra reference
+                    if (ps.executeUpdate() == 0) {
+                        releaseContentReference(connection, contentHash, releasedContents);
+                    }
+                }
+                connection.commit();
+                deleteReleasedContents(releasedContents);
+                attachment.setContentHash(contentHash);
+                attachment.setImapPart(null);
+                attachment.setSize(spool.getSize());
+                emailCache.invalidate(attachment.getEmailId());
+            } catch (SQLException | IOException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Finds received emails whose body has not been fetched yet, newest
+     * first, for the background prefetcher.
+     *
+     * @param limit The most ids to return
+     * @return The ids of the emails
+     * @throws SQLException
+     */
+    @Override
+    public List<Integer> findEmailIdsWithoutBody(int limit) throws SQLException {
+        return findEmailIdsWithoutBody(Integer.MAX_VALUE, limit);
+    }
+
+    /**
+     * Finds received emails whose body has not been fetched yet, newest
+     * first, below an id. The prefetcher pages through them with the last id
+     * of the previous page, so the emails it could not load are not asked for
+     * again. The emails whose message is no longer on the server are left out.
+     *
+     * @param beforeEmailId Only the emails with a lower id are returned
+     * @param limit The most ids to return
+     * @return The ids of the emails
+     * @throws SQLException
+     */
+    @Override
+    public List<Integer> findEmailIdsWithoutBody(int beforeEmailId, int limit) throws SQLException {
+        List<Integer> emailIds = new ArrayList<>();
+        String findWithoutBodyQuery = "SELECT EMAILID FROM EMAIL WHERE BODYLOADED = 0 AND EMAILID < ? ORDER BY EMAILID DESC LIMIT ?";
+        try ( Connection connection = connectionPool.getConnection();  PreparedStatement ps = connection.prepareStatement(findWithoutBodyQuery);) {
+            ps.setInt(1, beforeEmailId);
+            ps.setInt(2, limit);
+            try ( ResultSet resultSet = ps.executeQuery();) {
+                while (resultSet.next()) {
+                    emailIds.add(resultSet.getInt("EMAILID"));
+                }
+            }
+        }
+        return emailIds;
+    }
+
+    /**
+     * Records that the body of an email cannot be downloaded because its
+     * message was deleted from the server or the UIDVALIDITY of its folder
+     * changed. BODYLOADED is set to -1 so the prefetcher stops asking for
+     * it, the body can still be saved if the user opens the email.
+     *
+     * @param emailId
+     * @return The number of email rows updated
+     * @throws SQLException
+     */
+    @Override
+    public int markBodyUnavailable(int emailId) throws SQLException {
+        String markUnavailableQuery = "UPDATE EMAIL SET BODYLOADED = -1 WHERE EMAILID = ? AND BODYLOADED = 0";
+        try ( Connection connection = connectionPool.getConnection();  PreparedStatement ps = connection.prepareStatement(markUnavailableQuery);) {
+            ps.setInt(1, emailId);
+            int result = ps.executeUpdate();
+            emailCache.invalidate(emailId);
+            return result;
+        }
+    }
+
+    /**
+     * Creates an emailBean based on the input EmailId. The createEmailBeans
+     * method will attach all the fields, addresses and attachments to the
+     * emailBean
+     *
+     * @param id
+     * @return An emailBean representing the Email with a specific id.
+     * @throws SQLException
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    @Override
+    public EmailBean findID(int id) throws SQLException, FileNotFoundException, IOException {
+        EmailBean cached = emailCache.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        //Taken before reading so a change committed meanwhile is not cached
+        long cacheVersion = emailCache.getVersion();
+        EmailBean emailBean = new EmailBean();
+        String findEmailById = "SELECT EMAILID,FROMADDRESS,SUBJECT,TEXTMESSAGE,HTMLMESSAGE,HTMLBODY,SENTDATE,RECEIVEDATE,FOLDERID,IMAPUID,IMAPUIDVALIDITY,BODYLOADED FROM EMAIL WHERE EMAILID = ?";
+        try ( Connection connection = connectionPool.getConnection();  PreparedStatement ps = connection.prepareStatement(findEmailById);) {
+            ps.setInt(1, id);
+            try ( ResultSet emailRowResult = ps.executeQuery();) {
+                List<EmailBean> found = createEmailBeans(connection, emailRowResult);
+                if (!found.isEmpty()) {
+                    emailBean = found.get(0);
+                }
+            }
+        }
+        emailCache.put(emailBean, cacheVersion);
+        return emailBean;
+    }
+
+    /**
+     * Finds and returns a List of EmailBean of all emails that are in a
+     * specified folder.
+     *
+     * @param folderName Folder name
+     * @return List of EmailBean of all emails that are in a specified folder.
+     * @throws SQLException
+     * @throws java.io.FileNotFoundException
+     */
+    @Override
+    public ObservableList<EmailBean> findAllInFolder(String folderName) throws SQLException, FileNotFoundException, IOException {
+        ObservableList<EmailBean> emailsInFolder = FXCollections.observableArrayList();
+
+        String queryEmailsInFolder = "SELECT EMAIL.EMAILID,EMAIL.FROMADDRESS,EMAIL.SUBJECT,EMAIL.TEXTMESSAGE,EMAIL.HTMLMESSAGE,EMAIL.HTMLBODY,EMAIL.SENTDATE,EMAIL.RECEIVEDATE,EMAIL.FOLDERID,EMAIL.IMAPUID,EMAIL.IMAPUIDVALIDITY,EMAIL.BODYLOADED FROM EMAIL INNER JOIN FOLDERS ON EMAIL.FOLDERID = FOLDERS.FOLDERID WHERE FOLDERNAME = ?";
+        try ( Connection connection = connectionPool.getConnection();  PreparedStatement ps = connection.prepareStatement(queryEmailsInFolder);) {
+            ps.setString(1, folderName);
+            try ( ResultSet allEmailsInFolder = ps.executeQuery();) {
+                emailsInFolder.addAll(createEmailBeans(connection, allEmailsInFolder));
+            }
+        }
+        return emailsInFolder;
+    }
+
+    /**
+     * Finds the header fields of every email in a folder. Only the columns the
+     * email table displays are selected, the message bodies and attachment
+     * BLOBs are left in the database until findID is called.
+     *
+     * @param folderName Folder name
+     * @return List of EmailHeaderBean of all emails in the folder.
+     * @throws SQLException
+     */
+    @Override
+    public ObservableList<EmailHeaderBean> findHeadersInFolder(String folderName) throws SQLException {
+        ObservableList<EmailHeaderBean> headersInFolder = FXCollections.observableArrayList();
+
+        String queryHeadersInFolder = "SELECT EMAIL.EMAILID,EMAIL.FROMADDRESS,EMAIL.SUBJECT,EMAIL.SENTDATE,EMAIL.RECEIVEDATE,EMAIL.FOLDERID,(SELECT COUNT(*) FROM ATTACHMENTS WHERE ATTACHMENTS.EMAILID = EMAIL.EMAILID) AS ATTACHMENTCOUNT FROM EMAIL INNER JOIN FOLDERS ON EMAIL.FOLDERID = FOLDERS.FOLDERID WHERE FOLDERNAME = ?";
+        try ( Connection connection = connectionPool.getConnection();  PreparedStatement ps = connection.prepareStatement(queryHeadersInFolder);) {
+            ps.setString(1, folderName);
+            try ( ResultSet headerRows = ps.executeQuery();) {
+                while (headerRows.next()) {
+                    headersInFolder.add(createEmailHeaderBean(headerRows));
+                }
+            }
+        }
+        LOG.info("# of headers found in " + folderName + " : " + headersInFolder.size());
+        return headersInFolder;
+    }
+
+    /**
+     * Returns the next page of headers in a folder, newest first. Uses keyset
+     * pagination on (SENTDATE, EMAILID) so the cost of a page does not grow
+     * with how far into the folder it is. Drafts have no sent date and come
+     * after every dated email.
+     *
+     * @param folderName Folder name
+     * @param after The last header of the previous page, null for the first
+     * page
+     * @param pageSize The maximum number of headers to return
+     * @return Up to pageSize headers that follow the given header
+     * @throws SQLException
+     */
+    @Override
+    public List<EmailHeaderBean> findHeadersAfter(String folderName, EmailHeaderBean after, int pageSize) throws SQLException {
+        String keysetCondition;
+        if (after == null) {
+            keysetCondition = "";
+        } else if (after.getSentDate() == null) {
+            keysetCondition = " AND EMAIL.SENTDATE IS NULL AND EMAIL.EMAILID < ?";
+        } else {
+            keysetCondition = " AND (EMAIL.SENTDATE < ? OR (EMAIL.SENTDATE = ? AND EMAIL.EMAILID < ?) OR EMAIL.SENTDATE IS NULL)";
+        }
+        return queryHeaderPage(folderName, after, pageSize, keysetCondition, " ORDER BY EMAIL.SENTDATE DESC, EMAIL.EMAILID DESC");
+    }
+
+    /**
+     * Returns the page of headers that comes just before a header in a folder,
+     * newest first. This is findHeadersAfter read in the opposite direction and
+     * lets the email table scroll back up after dropping earlier pages.
+     *
+     * @param folderName Folder name
+     * @param before The first header of the page that was loaded after the one
+     * wanted, null for the last page of the folder
+     * @param pageSize The maximum number of headers to return
+     * @return Up to pageSize headers that precede the given header
+     * @throws SQLException
+     */
+    @Override
+    public List<EmailHeaderBean> findHeadersBefore(String folderName, EmailHeaderBean before, int pageSize) throws SQLException {
+        String keysetCondition;
+        if (before == null) {
+            keysetCondition = "";
+        } else if (before.getSentDate() == null) {
+            keysetCondition = " AND (EMAIL.SENTDATE IS NOT NULL OR EMAIL.EMAILID > ?)";
+        } else {
+            keysetCondition = " AND (EMAIL.SENTDATE > ? OR (EMAIL.SENTDATE = ? AND EMAIL.EMAILID > ?))";
+        }
+        //MySQL sorts NULL first in ascending order, the exact reverse of the descending page order
+        List<EmailHeaderBean> page = queryHeaderPage(folderName, before, pageSize, keysetCondition, " ORDER BY EMAIL.SENTDATE ASC, EMAIL.EMAILID ASC");
+        Collections.reverse(page);
+        return page;
+    }
+
+    /**
+     * Runs a page query of headers in a folder. The keyset condition takes
+     * either the cursor's id, or its sent date twice followed by its id.
+     *
+     * @param folderName
+     * @param cursor The header the page starts from, may be null
+     * @param pageSize
+     * @param keysetCondition
+     * @param orderBy
+     * @return The headers in the order of the query
+     * @throws SQLException
+     */
+    private List<EmailHeaderBean> queryHeaderPage(String folderName, EmailHeaderBean cursor, int pageSize, String keysetCondition, String orderBy) throws SQLException {
+        List<EmailHeaderBean> page = new ArrayList<>();
+        String queryHeaderPage = "SELECT EMAIL.EMAILID,EMAIL.FROMADDRESS,EMAIL.SUBJECT,EMAIL.SENTDATE,EMAIL.RECEIVEDATE,EMAIL.FOLDERID,(SELECT COUNT(*) FROM ATTACHMENTS WHERE ATTACHMENTS.EMAILID = EMAIL.EMAILID) AS ATTACHMENTCOUNT FROM EMAIL INNER JOIN FOLDERS ON EMAIL.FOLDERID = FOLDERS.FOLDERID WHERE FOLDERS.FOLDERNAME = ?" + keysetCondition + orderBy + " LIMIT ?";
+        try ( Connection connection = connectionPool.getConnection();  PreparedStatement ps = connection.prepareStatement(queryHeaderPage);) {
+            int index = 1;
+            ps.setString(index++, folderName);
+            if (cursor != null) {
+                if (cursor.getSentDate() != null) {
+                    ps.setTimestamp(index++, cursor.getSentDate());
+                    ps.setTimestamp(index++, cursor.getSentDate());
+                }
+                ps.setInt(index++, cursor.getId());
+            }
+            ps.setInt(index, pageSize);
+            try ( ResultSet headerRows = ps.executeQuery();) {
+                while (headerRows.next()) {
+                    page.add(createEmailHeaderBean(headerRows));
+                }
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Create an EmailHeaderBean from the current row of a header query.
+     *
+     * @param resultSet
+     * @return An EmailHeaderBean for the row
+     * @throws SQLException
+     */
+    private EmailHeaderBean createEmailHeaderBean(ResultSet resultSet) throws SQLException {
+        return new EmailHeaderBean(resultSet.getInt("EMAILID"), resultSet.getString("FROMADDRESS"), resultSet.getString("SUBJECT"), resultSet.getTimestamp("SENTDATE"), resultSet.getTimestamp("RECEIVEDATE"), resultSet.getInt("FOLDERID"), resultSet.getInt("ATTACHMENTCOUNT"));
+    }
+
+    /**
+     * Finds all the Emails that were sent to a specific recipient and returns
+     * them as EmailBeans
+     *
+     * @param recipientEmailAddress
+     * @return List of EmailBean objects
+     * @throws SQLException
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    @Override
+    public List<EmailBean> findEmailsByRecipient(String recipientEmailAddress) throws SQLException, FileNotFoundException, IOException {
+        List<EmailBean> emailsByRecipient;
+        String queryEmailsByRecipient = "SELECT EMAIL.EMAILID,EMAIL.FROMADDRESS,EMAIL.SUBJECT,EMAIL.TEXTMESSAGE,EMAIL.HTMLMESSAGE,EMAIL.HTMLBODY,EMAIL.SENTDATE,EMAIL.RECEIVEDATE,EMAIL.FOLDERID,EMAIL.IMAPUID,EMAIL.IMAPUIDVALIDITY,EMAIL.BODYLOADED FROM EMAIL INNER JOIN EMAILTOADDRESS ON EMAIL.EMAILID = EMAILTOADDRESS.EMAILID INNER JOIN ADDRESSES ON EMAILTOADDRESS.ADDRESSID = ADDRESSES.ADDRESSID WHERE ADDRESSES.EMAILADDRESS = ?";
+        try ( Connection connection = connectionPool.getConnection();  PreparedStatement ps = connection.prepareStatement(queryEmailsByRecipient);) {
+            ps.setString(1, recipientEmailAddress);
+            try ( ResultSet resultEmails = ps.executeQuery();) {
+                emailsByRecipient = createEmailBeans(connection, resultEmails);
+            }
+        }
+        return emailsByRecipient;
+    }
+
+    /**
+     * Finds all the Emails with a specific subject and returns a List of
+     * EmailBean
+     *
+     * @param subject
+     * @return List of EmailBean with the selected subject
+     * @throws SQLException
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    @Override
+    public List<EmailBean> findEmailsBySubject(String subject) throws SQLException, FileNotFoundException, IOException {
+        List<EmailBean> emailsBySubject;
+        String queryEmailsBySubject = "SELECT EMAILID,FROMADDRESS,SUBJECT,TEXTMESSAGE,HTMLMESSAGE,HTMLBODY,SENTDATE,RECEIVEDATE,FOLDERID,IMAPUID,IMAPUIDVALIDITY,BODYLOADED FROM EMAIL WHERE SUBJECT = ?";
+        try ( Connection connection = connectionPool.getConnection();  PreparedStatement ps = connection.prepareStatement(queryEmailsBySubject);) {
+            ps.setString(1, subject);
+            try ( ResultSet resultEmails = ps.executeQuery();) {
+                emailsBySubject = createEmailBeans(connection, resultEmails);
             }
         }
         return emailsBySubject;
     }
 
     /**
-     * Update any field for a draft Email including addresses and attachments
+     * Searches the emails whose sender, subject, message or recipients
+     * contain every word of the query, through the FULLTEXT index on
+     * EMAIL(FROMADDRESS, SUBJECT, SEARCHTEXT). A word may be found in any of
+     * them, and also matches the words it is the start of. The message of an
+     * email is its plain text, or its HTML without the markup. Results are ranked
+     * by relevance, newest first for the same relevance, and only their header
+     * fields are read.
+     *
+     * @param query The words typed by the user
+     * @param folderName The folder to search, null for every folder
+     * @param from The earliest sent date, null for no lower bound
+     * @param to The latest sent date, null for no upper bound
+     * @param limit The most results to return
+     * @return The headers of the matching emails, best match first
+     * @throws SQLException
+     */
+    @Override
+    public List<EmailHeaderBean> search(String query, String folderName, Timestamp from, Timestamp to, int limit) throws SQLException {
+        List<EmailHeaderBean> results = new ArrayList<>();
+        String booleanQuery = toBooleanQuery(query);
+        if (booleanQuery.isEmpty()) {
+            return results;
+        }
+        StringBuilder searchQuery = new StringBuilder("SELECT EMAIL.EMAILID,EMAIL.FROMADDRESS,EMAIL.SUBJECT,EMAIL.SENTDATE,EMAIL.RECEIVEDATE,EMAIL.FOLDERID,(SELECT COUNT(*) FROM ATTACHMENTS WHERE ATTACHMENTS.EMAILID = EMAIL.EMAILID) AS ATTACHMENTCOUNT,")
+                .append("MATCH(EMAIL.FROMADDRESS,EMAIL.SUBJECT,EMAIL.SEARCHTEXT) AGAINST (? IN BOOLEAN MODE) AS SCORE FROM EMAIL");
+        if (folderName != null) {
+            searchQuery.append(" INNER JOIN FOLDERS ON EMAIL.FOLDERID = FOLDERS.FOLDERID");
+        }
+        searchQuery.append(" WHERE MATCH(EMAIL.FROMADDRESS,EMAIL.SUBJECT,EMAIL.SEARCHTEXT) AGAINST (? IN BOOLEAN MODE)");
+        if (folderName != null) {
+            searchQuery.append(" AND FOLDERS.FOLDERNAME = ?");
+        }
+        if (from != null) {
+            searchQuery.append(" AND EMAIL.SENTDATE >= ?");
+        }
+        if (to != null) {
+            searchQuery.append(" AND EMAIL.SENTDATE <= ?");
+        }
+        searchQuery.append(" ORDER BY SCORE DESC, EMAIL.SENTDATE DESC, EMAIL.EMAILID DESC LIMIT ?");
+        try ( Connection connection = connectionPool.getConnection();  PreparedStatement ps = connection.prepareStatement(searchQuery.toString());) {
+            int index = 1;
+            ps.setString(index++, booleanQuery);
+            ps.setString(index++, booleanQuery);
+            if (folderName != null) {
+                ps.setString(index++, folderName);
+            }
+            if (from != null) {
+                ps.setTimestamp(index++, from);
+            }
+            if (to != null) {
+                ps.setTimestamp(index++, to);
+            }
+            ps.setInt(index, limit);
+            try ( ResultSet headerRows = ps.executeQuery();) {
+                while (headerRows.next()) {
+                    results.add(createEmailHeaderBean(headerRows));
+                }
+            }
+        }
+        LOG.info("# of emails found for \"" + query + "\" : " + results.size());
+        return results;
+    }
+
+    /**
+     * Turns the words typed by the user into a boolean mode FULLTEXT query in
+     * which every word is required and may be the start of a longer word. The
+     * operators of the boolean syntax are dropped, as are the words the
+     * InnoDB index never contains: the ones shorter than its minimum token
+     * size and its stopwords.
+     *
+     * @param query
+     * @return The boolean mode query, empty if no word can be searched
+     */
+    private static String toBooleanQuery(String query) {
+        StringBuilder booleanQuery = new StringBuilder();
+        if (query == null) {
+            return "";
+        }
+        for (String word : query.toLowerCase().split("[^\\p{L}\\p{N}_]+")) {
+            if (word.length() >= FULLTEXT_MIN_TOKEN_SIZE && !FULLTEXT_STOPWORDS.contains(word)) {
+                if (booleanQuery.length() > 0) {
+                    booleanQuery.append(' ');
+                }
+                booleanQuery.append('+').append(word).append('*');
+            }
+        }
+        return booleanQuery.toString();
+    }
+
+    /**
+     * Update any field for a draft Email including addresses and attachments.
+     * The draft is compared with the stored one so only the recipients and
+     * attachments that changed are written.
      *
      * @param emailBean
      * @return An int representing how many rows were affected in the Email
@@ -640,54 +1653,283 @@ public class EmailDAOImpl implements EmailDAO {
      */
     @Override
     public int updateDraft(EmailBean emailBean) throws IOException, SQLException, NotEnoughEmailRecipientsException, InvalidMailConfigBeanUsernameException, RecipientListNullException, RecipientEmailAddressNullException, RecipientInvalidFormatException, InvalidRecipientImapURLException {
-        //Update the fields in the Email table with the new EmailBean information
+        try {
+            return updateDraftRows(emailBean);
+        } finally {
+            emailCache.invalidate(emailBean.getId());
+        }
+    }
+
+    /**
+     * Updates the Email row of a draft, then the recipients and attachments
+     * that changed, in one transaction. A draft moved to the SENT folder is
+     * sent first.
+     *
+     * @param emailBean
+     * @return An int representing how many rows were affected in the Email
+     * table
+     */
+    private int updateDraftRows(EmailBean emailBean) throws IOException, SQLException, NotEnoughEmailRecipientsException, InvalidMailConfigBeanUsernameException, RecipientListNullException, RecipientEmailAddressNullException, RecipientInvalidFormatException, InvalidRecipientImapURLException {
+        //if the new folder is changing from draft to sent, send the email before its row is locked
+        boolean sending = emailBean.getFolderKey() == 2;
+        if (sending) {
+            try {
+                sendDraftEmail(emailBean.email);
+            } catch (NotEnoughEmailRecipientsException ex) {
+                throw new NotEnoughEmailRecipientsException("Not enough recipients");
+            } catch (InvalidMailConfigBeanUsernameException ex) {
+                throw new InvalidMailConfigBeanUsernameException("Invalid Mail Config Bean Username");
+            } catch (RecipientListNullException ex) {
+                throw new RecipientListNullException("Recipient list is null");
+            } catch (RecipientEmailAddressNullException ex) {
+                throw new RecipientEmailAddressNullException("A recipient's address is null");
+            } catch (RecipientInvalidFormatException ex) {
+                throw new RecipientInvalidFormatException("One or more of the recipients have an invalid email format");
+            } catch (InvalidRecipientImapURLException ex) {
+                throw new InvalidRecipientImapURLException("The imap url is invalid");
+            }
+            folderRegistry.load();
+        }
+
         int emailTableUpdateResult = -1;
+        int movedToSent = 0;
+        //The Email row and only the recipients and attachments that changed are written in one transaction
+        List<String> releasedContents = new ArrayList<>();
+        try ( Connection connection = connectionPool.getConnection();) {
+            connection.setAutoCommit(false);
+            try {
+                //Two saves of the same draft compare it with the stored one one after the other
+                lockEmailRow(connection, emailBean.getId());
+                //Update the fields in the Email table with the new EmailBean information
+                emailTableUpdateResult = updateEmailTableFields(connection, emailBean);
+                if (emailTableUpdateResult != 1) {
+                    connection.rollback();
+                    return -1;
+                }
+                if (sending) {
+                    movedToSent = updateSentEmail(connection, emailBean);
+                }
+                //First insert new email recipients into the Addresses table if the updated draft has new email recipients that are not in the table yet.
+                Map<String, Integer> addressIds = upsertAddresses(connection, emailBean.email);
+                updateDraftRecipients(connection, emailBean, addressIds);
+                updateDraftAttachments(connection, emailBean, releasedContents);
+                connection.commit();
+                //Only ids of committed rows are cached
+                addressIdCache.putAll(addressIds);
+            } catch (SQLException | IOException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            }
+        }
+        if (movedToSent > 0) {
+            folderRegistry.emailsMoved(3, 2, 1);
+        }
+        deleteReleasedContents(releasedContents);
+        return emailTableUpdateResult;
+    }
+
+    /**
+     * @param connection The connection of the surrounding transaction
+     * @param emailId
+     * @throws SQLException
+     */
+    private void lockEmailRow(Connection connection, int emailId) throws SQLException {
+        try ( PreparedStatement ps = connection.prepareStatement("SELECT EMAILID FROM EMAIL WHERE EMAILID = ? FOR UPDATE");) {
+            ps.setInt(1, emailId);
+            ps.executeQuery().close();
+        }
+    }
+
+    /**
+     * Compares the recipients of a draft with the stored ones. The rows of the
+     * recipients that were removed are deleted and only the new recipients
+     * are inserted, the others are left as they are.
+     *
+     * @param connection The connection of the surrounding transaction
+     * @param emailBean The draft
+     * @param addressIds The AddressID of every recipient
+     * @throws SQLException
+     */
+    private void updateDraftRecipients(Connection connection, EmailBean emailBean, Map<String, Integer> addressIds) throws SQLException {
+        //The stored rows keyed by address and category, a recipient can be listed twice
+        Map<String, Deque<Integer>> storedRows = new HashMap<>();
+        String findRecipientsQuery = "SELECT EMAILTOADDRESSKEY,ADDRESSID,RECIPIENTCATEGORY FROM EMAILTOADDRESS WHERE EMAILID = ? ORDER BY EMAILTOADDRESSKEY";
+        try ( PreparedStatement ps = connection.prepareStatement(findRecipientsQuery);) {
+            ps.setInt(1, emailBean.getId());
+            try ( ResultSet resultSet = ps.executeQuery();) {
+                while (resultSet.next()) {
+                    storedRows.computeIfAbsent(resultSet.getInt("ADDRESSID") + ":" + resultSet.getString("RECIPIENTCATEGORY"), key -> new ArrayDeque<>()).add(resultSet.getInt("EMAILTOADDRESSKEY"));
+                }
+            }
+        }
+        int added = 0;
+        String insertEmailToAddressQuery = "INSERT INTO EmailToAddress (EmailID,AddressID,RecipientCategory) values (?,?,?)";
+        try ( PreparedStatement ps = connection.prepareStatement(insertEmailToAddressQuery);) {
+            for (String recipientCategory : new String[]{"TO", "CC", "BCC"}) {
+                EmailAddress[] recipients = "TO".equals(recipientCategory) ? emailBean.email.to() : "CC".equals(recipientCategory) ? emailBean.email.cc() : emailBean.email.bcc();
+                List<EmailAddress> newRecipients = new ArrayList<>();
+                for (EmailAddress recipient : recipients) {
+                    Deque<Integer> rows = storedRows.get(addressIds.get(recipient.getEmail()) + ":" + recipientCategory);
+                    if (rows == null || rows.poll() == null) {
+                        newRecipients.add(recipient);
+                    }
+                }
+                addEmailToAddressBatch(ps, emailBean.getId(), newRecipients.toArray(new EmailAddress[0]), recipientCategory, addressIds);
+                added += newRecipients.size();
+            }
+            if (added > 0) {
+                ps.executeBatch();
+            }
+        }
+        List<Integer> removedRows = new ArrayList<>();
+        storedRows.values().forEach(removedRows::addAll);
+        if (!removedRows.isEmpty()) {
+            try ( PreparedStatement ps = connection.prepareStatement(buildInQuery("DELETE FROM EMAILTOADDRESS WHERE EMAILTOADDRESSKEY IN ", "", removedRows.size()));) {
+                for (int i = 0; i < removedRows.size(); i++) {
+                    ps.setInt(i + 1, removedRows.get(i));
+                }
+                ps.executeUpdate();
+            }
+        }
+        if (added > 0 || !removedRows.isEmpty()) {
+            LOG.info("The recipients of the draft #" + emailBean.getId() + " have been updated, " + added + " added and " + removedRows.size() + " removed");
+        }
+    }
+
+    /**
+     * Compares the attachments of a draft with the stored ones. An attachment
+     * loaded from the draft keeps its row, any other is matched with a stored
+     * one by its name, content id and content hash, so only the contents of
+     * the new attachments are hashed and the contents already stored are never
+     * written again. The rows of the attachments that were removed are deleted
+     * last, so a content that is still used is not dropped from the store.
+     *
+     * @param connection The connection of the surrounding transaction
+     * @param emailBean The draft
+     * @param releasedContents The contents nothing references anymore, added
+     * to
+     * @throws SQLException
+     * @throws IOException
+     */
+    private void updateDraftAttachments(Connection connection, EmailBean emailBean, List<String> releasedContents) throws SQLException, IOException {
+        //The stored rows keyed by what makes two attachments the same, with their content
+        Map<String, Deque<Integer>> storedRows = new HashMap<>();
+        Map<Integer, String> storedContents = new HashMap<>();
+        String findAttachmentsQuery = "SELECT ATTACHMENTID,FILENAME,CID,IS_EMBEDDED,CONTENTHASH FROM ATTACHMENTS WHERE EMAILID = ? ORDER BY ATTACHMENTID";
+        try ( PreparedStatement ps = connection.prepareStatement(findAttachmentsQuery);) {
+            ps.setInt(1, emailBean.getId());
+            try ( ResultSet resultSet = ps.executeQuery();) {
+                while (resultSet.next()) {
+                    int attachmentId = resultSet.getInt("ATTACHMENTID");
+                    String contentHash = resultSet.getString("CONTENTHASH");
+                    storedRows.computeIfAbsent(attachmentKey(resultSet.getString("FILENAME"), resultSet.getString("CID"), resultSet.getInt("IS_EMBEDDED") == 1, contentHash), key -> new ArrayDeque<>()).add(attachmentId);
+                    storedContents.put(attachmentId, contentHash);
+                }
+            }
+        }
+        int added = 0;
+        String insertAttachmentQuery = "INSERT INTO ATTACHMENTS (EMAILID,FILENAME,CID,CONTENTHASH,IS_EMBEDDED) VALUES (?,?,?,?,?)";
+        try ( PreparedStatement ps = connection.prepareStatement(insertAttachmentQuery);) {
+            for (EmailAttachment<? extends DataSource> attachment : emailBean.email.attachments()) {
+                DataSource dataSource = attachment.getDataSource();
+                if (dataSource instanceof LazyAttachmentDataSource) {
+                    AttachmentBean loaded = ((LazyAttachmentDataSource) dataSource).getAttachment();
+                    if (loaded.getEmailId() == emailBean.getId() && storedContents.containsKey(loaded.getAttachmentId())) {
+                        storedRows.values().forEach(rows -> rows.remove(loaded.getAttachmentId()));
+                        storedContents.remove(loaded.getAttachmentId());
+                        continue;
+                    }
+                }
+                try ( AttachmentSpool spool = spoolAttachment(dataSource)) {
+                    Deque<Integer> rows = storedRows.get(attachmentKey(attachment.getName(), attachment.getContentId(), attachment.isEmbedded(), spool.getContentHash()));
+                    Integer storedRow = rows == null ? null : rows.poll();
+                    if (storedRow != null) {
+                        storedContents.remove(storedRow);
+                        continue;
+                    }
+                    ps.setInt(1, emailBean.getId());
+                    ps.setString(2, attachment.getName());
+                    ps.setString(3, attachment.getContentId());
+                    ps.setString(4, addContentReference(connection, spool));
+                    ps.setInt(5, attachment.isEmbedded() ? 1 : 0);
+                    ps.addBatch();
+                    added++;
+                }
+            }
+            if (added > 0) {
+                ps.executeBatch();
+            }
+        }
+        if (!storedContents.isEmpty()) {
+            try ( PreparedStatement ps = connection.prepareStatement(buildInQuery("DELETE FROM ATTACHMENTS WHERE ATTACHMENTID IN ", "", storedContents.size()));) {
+                int index = 1;
+                for (int attachmentId : storedContents.keySet()) {
+                    ps.setInt(index++, attachmentId);
+                }
+                ps.executeUpdate();
+            }
+            for (String contentHash : storedContents.values()) {
+                if (contentHash != null) {
+                    releaseContentReference(connection, contentHash, releasedContents);
+                }
+            }
+        }
+        if (added > 0 || !storedContents.isEmpty()) {
+            LOG.info("The attachments of the draft #" + emailBean.getId() + " have been updated, " + added + " added and " + storedContents.size() + " removed");
+        }
+    }
+
+    /**
+     * Gives access to the content of an attachment with its hash. An
+     * attachment loaded from another email is read from the attachment cache.
+     *
+     * @param dataSource
+     * @return the content, a temporary copy if it is not backed by a file
+     * @throws SQLException
+     * @throws IOException
+     */
+    private AttachmentSpool spoolAttachment(DataSource dataSource) throws SQLException, IOException {
+        if (dataSource instanceof LazyAttachmentDataSource) {
+            return AttachmentSpool.of(loadAttachment(((LazyAttachmentDataSource) dataSource).getAttachment()).toPath());
+        }
+        if (dataSource instanceof FileDataSource) {
+            return AttachmentSpool.of(((FileDataSource) dataSource).getFile().toPath());
+        }
+        try ( InputStream in = dataSource.getInputStream()) {
+            return AttachmentSpool.spool(in, AttachmentSpool.getDirectory(mailConfigBean));
+        }
+    }
 
-        try {
-            emailTableUpdateResult = updateEmailTableFields(emailBean);
-        } catch (NotEnoughEmailRecipientsException ex) {
-            throw new NotEnoughEmailRecipientsException("Not enough recipients");
-        } catch (InvalidMailConfigBeanUsernameException ex) {
-            throw new InvalidMailConfigBeanUsernameException("Invalid Mail Config Bean Username");
-        } catch (RecipientListNullException ex) {
-            throw new RecipientListNullException("Recipient list is null");
-        } catch (RecipientEmailAddressNullException ex) {
-            throw new RecipientEmailAddressNullException("A recipient's address is null");
-        } catch (RecipientInvalidFormatException ex) {
-            throw new RecipientInvalidFormatException("One or more of the recipients have an invalid email format");
-        } catch (InvalidRecipientImapURLException ex) {
-            throw new InvalidRecipientImapURLException("The imap url is invalid");
-        }
-
-        if (emailTableUpdateResult != 1) {
-            return -1;
-        }
-        //First insert new email recipients into the Addresses table if the updated draft has new email recipients that are not in the table yet.
-        insertUnknownAddresses(emailBean.email);
-        //Delete all associated recipients of the old Email in the EmailToAddress table.
-        deleteEmailToAddressRow(emailBean.getId());
-        //Update the recipients of the updated email. first delete all EmailToAddress Entries for a specific Email id, then insert the new ones.
-        updateEmailRecipients(emailBean);
-        //Delete all associate attachments of the old Email in the attachments table.
-        deleteEmailAttachments(emailBean.getId());
-        //Update the files of the old email and insert new files if needed.
-        insertAttachments(emailBean);
-        return emailTableUpdateResult;
+    /**
+     * An embedded attachment stored without a content id is loaded with its
+     * name as content id, so both are the same attachment.
+     *
+     * @param fileName
+     * @param contentId
+     * @param embedded
+     * @param contentHash
+     * @return what an attachment is compared on
+     */
+    private static String attachmentKey(String fileName, String contentId, boolean embedded, String contentHash) {
+        if (contentId == null || (embedded && contentId.equals(fileName))) {
+            contentId = "";
+        }
+        return fileName + '\u0000' + contentId + '\u0000' + embedded + '\u0000' + contentHash;
     }
 
     /**
      * Updates the fields of an Email in the Email table. Uses the emailBean to
      * get the updated values
      *
+     * @param connection The connection of the surrounding transaction
      * @param emailBean
      * @return int representing the rows affected in the Email table
      * @throws SQLException
-     * @throws NotEnoughRecipientsException
      */
-    private int updateEmailTableFields(EmailBean emailBean) throws SQLException, NotEnoughEmailRecipientsException, InvalidMailConfigBeanUsernameException, RecipientListNullException, RecipientEmailAddressNullException, RecipientInvalidFormatException, InvalidRecipientImapURLException {
+    private int updateEmailTableFields(Connection connection, EmailBean emailBean) throws SQLException {
         int tableUpdatesResult = -1;
-        String emailTableUpdateQuery = "UPDATE EMAIL SET SUBJECT = ?, TEXTMESSAGE = ?, HTMLMESSAGE = ? WHERE EMAILID = ?";
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(emailTableUpdateQuery);) {
+        String emailTableUpdateQuery = "UPDATE EMAIL SET SUBJECT = ?, TEXTMESSAGE = ?, HTMLMESSAGE = ?, HTMLBODY = ?, SEARCHTEXT = ? WHERE EMAILID = ?";
+        try ( PreparedStatement ps = connection.prepareStatement(emailTableUpdateQuery);) {
             //ps.setString(1, emailBean.email.from().toString());
             ps.setString(1, emailBean.email.subject());
             List<EmailMessage> messages = emailBean.email.messages();
@@ -709,16 +1951,11 @@ public class EmailDAOImpl implements EmailDAO {
             }
 
             ps.setString(2, plainText);
-            ps.setString(3, htmlText);
+            setHtmlMessage(ps, 3, 4, htmlText);
+            ps.setString(5, SearchText.of(plainText, htmlText, SearchText.recipients(emailBean.email)));
 
-            //if the new folder is changing from draft to sent, send the email and update its folder in the Email table
-            if (emailBean.getFolderKey() == 2) {
-                //Send the email
-                sendDraftEmail(emailBean.email);
-                updateSentEmail(emailBean);
-            }
             //Set the emailId of the email we wish to update.
-            ps.setInt(4, emailBean.getId());
+            ps.setInt(6, emailBean.getId());
             tableUpdatesResult = ps.executeUpdate();
             //Should be 1 since only one row in the Email table was affected
             return tableUpdatesResult;
@@ -726,86 +1963,240 @@ public class EmailDAOImpl implements EmailDAO {
     }
 
     /**
-     * Helper method that sends an Email draft by calling the sendEmail method.
-     * Deconstructs the email so we can call the the method in SendAndReceive
+     * Helper method that sends an Email draft as it is. Its attachments loaded
+     * from the database are streamed from the attachment cache while it is
+     * sent.
      *
      * @param email
      * @throws NotEnoughRecipientsException
      */
     private void sendDraftEmail(Email email) throws NotEnoughEmailRecipientsException, InvalidMailConfigBeanUsernameException, RecipientListNullException, RecipientEmailAddressNullException, RecipientInvalidFormatException, InvalidRecipientImapURLException {
-        SendAndReceive runMail = new SendAndReceive(mailConfigBean);
-
-        List<String> toRecipients = getRecipientArray(email.to());
-        List<String> ccRecipients = getRecipientArray(email.cc());
-        List<String> bccRecipients = getRecipientArray(email.bcc());
+        new SendAndReceive(mailConfigBean).sendEmails(Collections.singletonList(email));
+        email.currentSentDate();
+    }
 
-        String textMsg = "";
-        String htmlMsg = "";
+    /**
+     * Updates the sent date and folderid of a draft email that was recently
+     * sent, on the connection of the caller's transaction.
+     *
+     * @param connection
+     * @param emailBean
+     * @return the number of rows updated in the email table
+     * @throws SQLException
+     */
+    private int updateSentEmail(Connection connection, EmailBean emailBean) throws SQLException {
+        int tableUpdatesResult = -1;
+        String updateSentDateQuery = "UPDATE EMAIL SET SENTDATE = ?, FOLDERID = ? WHERE EMAILID = ?";
+        try ( PreparedStatement ps = connection.prepareStatement(updateSentDateQuery);) {
+            ps.setTimestamp(1, new Timestamp(emailBean.email.sentDate().getTime()));
+            ps.setInt(2, emailBean.getFolderKey());
+            ps.setInt(3, emailBean.getId());
+            tableUpdatesResult = ps.executeUpdate();
+        }
+        if (tableUpdatesResult > 0) {
+            emailBean.setFolderKey(2);
+            LOG.info("THE SENT DATE OF THE DRAFT EMAIL IS : " + new Timestamp(emailBean.email.sentDate().getTime()));
+            LOG.info("The email with the ID: " + emailBean.getId() + " has set its sentDate in the Email table.");
+        }
+        return tableUpdatesResult;
+    }
 
-        List<EmailMessage> messages = email.messages();
-        //set the messages based on their mime type
-        for (EmailMessage message : messages) {
-            if (message.getMimeType().equals("text/plain")) {
-                textMsg = message.getContent();
-            } else {
-                htmlMsg = message.getContent();
+    /**
+     * Queues an email to be sent by the OutboxSender. A new email is saved in
+     * the DRAFT folder in the same transaction, where it stays until it is
+     * sent.
+     *
+     * @param emailBean The email to send, saved first if its id is not set
+     * @return The OutboxId of the queued email
+     * @throws SQLException
+     * @throws IOException
+     */
+    @Override
+    public int enqueueEmail(EmailBean emailBean) throws SQLException, IOException {
+        int outboxId = -1;
+        Map<String, Integer> addressIds = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        String enqueueQuery = "INSERT INTO OUTBOX (EMAILID,STATUS) VALUES (?,?)";
+        boolean isNewEmail = emailBean.getId() <= 0;
+        if (isNewEmail) {
+            folderRegistry.load();
+        }
+        try ( Connection connection = connectionPool.getConnection();) {
+            connection.setAutoCommit(false);
+            try {
+                if (isNewEmail) {
+                    emailBean.setFolderKey(3);
+                    insertEmailRecord(connection, emailBean, addressIds);
+                }
+                try ( PreparedStatement ps = connection.prepareStatement(enqueueQuery, Statement.RETURN_GENERATED_KEYS);) {
+                    ps.setInt(1, emailBean.getId());
+                    ps.setString(2, OutboxBean.PENDING);
+                    ps.executeUpdate();
+                    try ( ResultSet rs = ps.getGeneratedKeys();) {
+                        if (rs.next()) {
+                            outboxId = rs.getInt(1);
+                        }
+                    }
+                }
+                connection.commit();
+                //Only ids of committed rows are cached
+                addressIdCache.putAll(addressIds);
+            } catch (SQLException | IOException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
             }
         }
+        if (isNewEmail) {
+            folderRegistry.emailsAdded(3, 1);
+        }
+        LOG.info("The email #" + emailBean.getId() + " has been queued in the outbox as #" + outboxId);
+        return outboxId;
+    }
 
-        List<File> regularAttachments = new ArrayList<>();
-        List<File> embeddedAttachments = new ArrayList<>();
-
-        //add the attachments to the appropriate list depending on if it is embedded or not
-        for (EmailAttachment attachment : email.attachments()) {
-            if (attachment.isEmbedded()) {
-                embeddedAttachments.add(new File(attachment.getName()));
-            } else {
-                regularAttachments.add(new File(attachment.getName()));
+    /**
+     * Claims the queued emails that are due, marking them SENDING so that no
+     * other worker picks them up. Rows locked by another claim are skipped.
+     *
+     * @param limit The most emails to claim
+     * @return The claimed entries, oldest first
+     * @throws SQLException
+     */
+    @Override
+    public List<OutboxBean> claimOutboxEntries(int limit) throws SQLException {
+        List<OutboxBean> entries = new ArrayList<>();
+        String findDueQuery = "SELECT OUTBOXID,EMAILID,STATUS,ATTEMPTS,NEXTATTEMPT,LASTERROR FROM OUTBOX WHERE STATUS = ? AND NEXTATTEMPT <= NOW() ORDER BY OUTBOXID LIMIT ? FOR UPDATE SKIP LOCKED";
+        String claimQuery = "UPDATE OUTBOX SET STATUS = ? WHERE OUTBOXID = ?";
+        try ( Connection connection = connectionPool.getConnection();) {
+            connection.setAutoCommit(false);
+            try {
+                try ( PreparedStatement ps = connection.prepareStatement(findDueQuery);) {
+                    ps.setString(1, OutboxBean.PENDING);
+                    ps.setInt(2, limit);
+                    try ( ResultSet resultSet = ps.executeQuery();) {
+                        while (resultSet.next()) {
+                            entries.add(createOutboxBean(resultSet));
+                        }
+                    }
+                }
+                if (!entries.isEmpty()) {
+                    try ( PreparedStatement ps = connection.prepareStatement(claimQuery);) {
+                        for (OutboxBean entry : entries) {
+                            ps.setString(1, OutboxBean.SENDING);
+                            ps.setInt(2, entry.getOutboxId());
+                            ps.addBatch();
+                            entry.setStatus(OutboxBean.SENDING);
+                        }
+                        ps.executeBatch();
+                    }
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
             }
         }
+        return entries;
+    }
 
-        Email resultEmail = runMail.sendEmail(toRecipients, ccRecipients, bccRecipients, email.subject(), textMsg, htmlMsg, regularAttachments, embeddedAttachments);
-
-        email.currentSentDate();
+    /**
+     * @param resultSet
+     * @return The OutboxBean of the current row
+     * @throws SQLException
+     */
+    private OutboxBean createOutboxBean(ResultSet resultSet) throws SQLException {
+        return new OutboxBean(resultSet.getInt("OUTBOXID"), resultSet.getInt("EMAILID"), resultSet.getString("STATUS"), resultSet.getInt("ATTEMPTS"), resultSet.getTimestamp("NEXTATTEMPT"), resultSet.getString("LASTERROR"));
     }
 
     /**
-     * Helper method to convert an array of EmailAddress to a list of string
-     * representing recipients
+     * Moves a sent email to the SENT folder and removes it from the outbox in
+     * one transaction.
      *
-     * @param recipients
-     * @return A list of recipient strings
+     * @param entry
+     * @param emailBean The sent email with its sent date
+     * @throws SQLException
      */
-    private List<String> getRecipientArray(EmailAddress[] recipients) {
-        List<String> listRecipients = new ArrayList<>();
-        for (EmailAddress recipient : recipients) {
-            listRecipients.add(recipient.getEmail());
+    @Override
+    public void markOutboxSent(OutboxBean entry, EmailBean emailBean) throws SQLException {
+        String deleteEntryQuery = "DELETE FROM OUTBOX WHERE OUTBOXID = ?";
+        int movedToSent = 0;
+        folderRegistry.load();
+        try ( Connection connection = connectionPool.getConnection();) {
+            connection.setAutoCommit(false);
+            try {
+                emailBean.setFolderKey(2);
+                movedToSent = updateSentEmail(connection, emailBean);
+                try ( PreparedStatement ps = connection.prepareStatement(deleteEntryQuery);) {
+                    ps.setInt(1, entry.getOutboxId());
+                    ps.executeUpdate();
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            }
         }
+        emailCache.invalidate(entry.getEmailId());
+        if (movedToSent > 0) {
+            folderRegistry.emailsMoved(3, 2, 1);
+        }
+        entry.setStatus(OutboxBean.SENT);
+    }
 
-        return listRecipients;
+    /**
+     * Records a failed attempt. The entry goes back to PENDING until its next
+     * attempt, or to FAILED when nextAttempt is null.
+     *
+     * @param entry The entry with its attempts, next attempt and last error
+     * set
+     * @throws SQLException
+     */
+    @Override
+    public void markOutboxFailed(OutboxBean entry) throws SQLException {
+        String status = entry.getNextAttempt() == null ? OutboxBean.FAILED : OutboxBean.PENDING;
+        String failedQuery = "UPDATE OUTBOX SET STATUS = ?, ATTEMPTS = ?, NEXTATTEMPT = COALESCE(?, NEXTATTEMPT), LASTERROR = ? WHERE OUTBOXID = ?";
+        try ( Connection connection = connectionPool.getConnection();  PreparedStatement ps = connection.prepareStatement(failedQuery);) {
+            ps.setString(1, status);
+            ps.setInt(2, entry.getAttempts());
+            ps.setTimestamp(3, entry.getNextAttempt());
+            String lastError = entry.getLastError();
+            ps.setString(4, lastError != null && lastError.length() > 1000 ? lastError.substring(0, 1000) : lastError);
+            ps.setInt(5, entry.getOutboxId());
+            ps.executeUpdate();
+        }
+        entry.setStatus(status);
     }
 
     /**
-     * Updates the sent date and folderid of a draft email that was recently
-     * sent.
+     * Puts back the entries a stopped application left SENDING so they are
+     * sent again.
      *
-     * @param emailBean
+     * @return The number of entries released
      * @throws SQLException
      */
-    private void updateSentEmail(EmailBean emailBean) throws SQLException {
-        int tableUpdatesResult = -1;
-        String updateSentDateQuery = "UPDATE EMAIL SET SENTDATE = ?, FOLDERID = ? WHERE EMAILID = ?";
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(updateSentDateQuery);) {
-            ps.setTimestamp(1, new Timestamp(emailBean.email.sentDate().getTime()));
-            ps.setInt(2, emailBean.getFolderKey());
-            ps.setInt(3, emailBean.getId());
-            tableUpdatesResult = ps.executeUpdate();
+    @Override
+    public int releaseOutboxEntries() throws SQLException {
+        String releaseQuery = "UPDATE OUTBOX SET STATUS = ? WHERE STATUS = ?";
+        try ( Connection connection = connectionPool.getConnection();  PreparedStatement ps = connection.prepareStatement(releaseQuery);) {
+            ps.setString(1, OutboxBean.PENDING);
+            ps.setString(2, OutboxBean.SENDING);
+            return ps.executeUpdate();
         }
-        if (tableUpdatesResult > 0) {
-            emailBean.setFolderKey(2);
-            LOG.info("THE SENT DATE OF THE DRAFT EMAIL IS : " + new Timestamp(emailBean.email.sentDate().getTime()));
-            LOG.info("The email with the ID: " + emailBean.getId() + " has set its sentDate in the Email table.");
+    }
+
+    /**
+     * @return Every email waiting in the outbox or that failed to be sent,
+     * oldest first
+     * @throws SQLException
+     */
+    @Override
+    public List<OutboxBean> findOutboxEntries() throws SQLException {
+        List<OutboxBean> entries = new ArrayList<>();
+        String findEntriesQuery = "SELECT OUTBOXID,EMAILID,STATUS,ATTEMPTS,NEXTATTEMPT,LASTERROR FROM OUTBOX ORDER BY OUTBOXID";
+        try ( Connection connection = connectionPool.getConnection();  PreparedStatement ps = connection.prepareStatement(findEntriesQuery);  ResultSet resultSet = ps.executeQuery();) {
+            while (resultSet.next()) {
+                entries.add(createOutboxBean(resultSet));
+            }
         }
+        return entries;
     }
 
     /**
@@ -829,11 +2220,12 @@ public class EmailDAOImpl implements EmailDAO {
         }
         int updateResult = -1;
         String updateFolderNameQuery = "UPDATE FOLDERS SET FOLDERNAME = ? WHERE FOLDERNAME = ?";
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(updateFolderNameQuery);) {
+        try ( Connection connection = connectionPool.getConnection();  PreparedStatement ps = connection.prepareStatement(updateFolderNameQuery);) {
             ps.setString(1, newName);
             ps.setString(2, currentName);
             updateResult = ps.executeUpdate();
             if (updateResult > 0) {
+                folderRegistry.folderRenamed(currentName, newName);
                 LOG.info("The " + currentName + " folder was renamed to " + newName);
             }
         }
@@ -851,65 +2243,56 @@ public class EmailDAOImpl implements EmailDAO {
     @Override
     public int updateFolder(EmailBean emailBean) throws SQLException, CannotMoveToDraftsException {
         int updateResult = -1;
+        int previousFolderId = 0;
+        String findFolderQuery = "SELECT FOLDERID FROM EMAIL WHERE EMAILID = ? FOR UPDATE";
         String updateFolderQuery = "UPDATE EMAIL SET FOLDERID = ? WHERE EMAILID = ?";
         if (emailBean.getFolderKey() == 3) {
             throw new CannotMoveToDraftsException("Emails cannot be moved to the DRAFT folder.");
         }
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(updateFolderQuery);) {
-            ps.setInt(1, emailBean.getFolderKey());
-            ps.setInt(2, emailBean.getId());
-            updateResult = ps.executeUpdate();
+        folderRegistry.load();
+        //The folder the email leaves is read in the same transaction so the counts stay exact
+        try ( Connection connection = connectionPool.getConnection();) {
+            connection.setAutoCommit(false);
+            try {
+                try ( PreparedStatement ps = connection.prepareStatement(findFolderQuery);) {
+                    ps.setInt(1, emailBean.getId());
+                    try ( ResultSet resultSet = ps.executeQuery();) {
+                        if (resultSet.next()) {
+                            previousFolderId = resultSet.getInt("FOLDERID");
+                        }
+                    }
+                }
+                try ( PreparedStatement ps = connection.prepareStatement(updateFolderQuery);) {
+                    ps.setInt(1, emailBean.getFolderKey());
+                    ps.setInt(2, emailBean.getId());
+                    updateResult = ps.executeUpdate();
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            }
         }
+        emailCache.invalidate(emailBean.getId());
         if (updateResult > 0) {
+            folderRegistry.emailsMoved(previousFolderId, emailBean.getFolderKey(), updateResult);
             LOG.info("The email with ID: " + emailBean.getId() + " has updated its folder");
         }
         return updateResult;
     }
 
-    /**
-     * Helper method that updates the recipients for an Email. Used for updating
-     * a draft email. Calls helper method that executes a query inserting the
-     * row into the EmailToAddress table
-     *
-     * @param emailBean
-     * @throws SQLException
-     */
-    private void updateEmailRecipients(EmailBean emailBean) throws SQLException {
-        EmailAddress[] toList = emailBean.email.to();
-        EmailAddress[] ccList = emailBean.email.cc();
-        EmailAddress[] bccList = emailBean.email.bcc();
-
-        if (toList.length >= 1) {
-            for (EmailAddress address : toList) {
-                int emailIndex = getEmailAddressIndex(address);
-                executeEmailToAddressQuery(emailBean.getId(), emailIndex, "TO");
-            }
-        }
-        if (ccList.length >= 1) {
-            for (EmailAddress address : ccList) {
-                int emailIndex = getEmailAddressIndex(address);
-                executeEmailToAddressQuery(emailBean.getId(), emailIndex, "CC");
-            }
-        }
-        if (bccList.length >= 1) {
-            for (EmailAddress address : bccList) {
-                int emailIndex = getEmailAddressIndex(address);
-                executeEmailToAddressQuery(emailBean.getId(), emailIndex, "BCC");
-            }
-        }
-    }
-
     /**
      * Helper method that deletes all rows of recipients associated with an
      * Email. Makes it so that a draft email can have its recipients updated.
      *
+     * @param connection
      * @param emailId The Email row that will update its recipients (only Draft
      * emails can update the content)
      * @throws SQLException
      */
-    private void deleteEmailToAddressRow(int emailId) throws SQLException {
+    private void deleteEmailToAddressRow(Connection connection, int emailId) throws SQLException {
         String deleteRowsToBeUpdated = "DELETE FROM EMAILTOADDRESS WHERE EMAILID = ?";
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(deleteRowsToBeUpdated);) {
+        try ( PreparedStatement ps = connection.prepareStatement(deleteRowsToBeUpdated);) {
             ps.setInt(1, emailId);
             int resultDeletes = ps.executeUpdate();
             if (resultDeletes > 0) {
@@ -919,21 +2302,37 @@ public class EmailDAOImpl implements EmailDAO {
     }
 
     /**
-     * Helper that deletes all the rows of attachments associated with an Email.
-     * Used when trying to update an Email draft
+     * Helper that deletes all the rows of attachments associated with an Email
+     * and releases their contents. Used when deleting an email.
      *
+     * @param connection
      * @param emailId
+     * @param releasedContents The contents nothing references anymore, added
+     * to
      * @throws SQLException
      */
-    private void deleteEmailAttachments(int emailId) throws SQLException {
+    private void deleteEmailAttachments(Connection connection, int emailId, List<String> releasedContents) throws SQLException {
+        List<String> contentHashes = new ArrayList<>();
+        String findContentQuery = "SELECT CONTENTHASH FROM ATTACHMENTS WHERE EMAILID = ? AND CONTENTHASH IS NOT NULL";
         String deleteOldAttachments = "DELETE FROM ATTACHMENTS WHERE EMAILID = ?";
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(deleteOldAttachments);) {
+        try ( PreparedStatement ps = connection.prepareStatement(findContentQuery);) {
+            ps.setInt(1, emailId);
+            try ( ResultSet resultSet = ps.executeQuery();) {
+                while (resultSet.next()) {
+                    contentHashes.add(resultSet.getString("CONTENTHASH"));
+                }
+            }
+        }
+        try ( PreparedStatement ps = connection.prepareStatement(deleteOldAttachments);) {
             ps.setInt(1, emailId);
             int resultDeletes = ps.executeUpdate();
             if (resultDeletes > 0) {
                 LOG.info("The attachments for the email with ID: \"" + emailId + "\" have been deleted.");
             }
         }
+        for (String contentHash : contentHashes) {
+            releaseContentReference(connection, contentHash, releasedContents);
+        }
     }
 
     /**
@@ -948,105 +2347,157 @@ public class EmailDAOImpl implements EmailDAO {
     @Override
     public int createFolder(String folderName) throws SQLException, FolderAlreadyExistsException {
         //first check if this folder exists yet
-        if (checkFolderExists(folderName)) {
+        if (folderRegistry.exists(folderName)) {
             throw new FolderAlreadyExistsException("The folder \"" + folderName + "\" already exists.");
         }
         int resultInsert = -1;
         String insertNewFolder = "INSERT INTO FOLDERS (FOLDERNAME) VALUES (?)";
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(insertNewFolder);) {
+        try ( Connection connection = connectionPool.getConnection();  PreparedStatement ps = connection.prepareStatement(insertNewFolder, Statement.RETURN_GENERATED_KEYS);) {
             ps.setString(1, folderName);
             resultInsert = ps.executeUpdate();
+            try ( ResultSet rs = ps.getGeneratedKeys();) {
+                if (rs.next()) {
+                    folderRegistry.folderCreated(rs.getInt(1), folderName);
+                }
+            }
             if (resultInsert == 1) {
                 LOG.info("The folder \"" + folderName + "\" has been created.");
             }
+        } catch (SQLIntegrityConstraintViolationException ex) {
+            //Created by another application since the folders were loaded
+            folderRegistry.reload();
+            throw new FolderAlreadyExistsException("The folder \"" + folderName + "\" already exists.");
         }
         return resultInsert;
     }
 
     /**
-     * Helper method that determines if a folder exists already.
+     * Delete a folder by name. Cannot delete INBOX, SENT OR DRAFT.
      *
-     * @param folderName
-     * @return True if it exists, false otherwise.
+     * @param foldername
+     * @return int representing how many folders were deleted in the folder
+     * table
      * @throws SQLException
+     * @throws CannotDeleteFolderException
      */
-    private boolean checkFolderExists(String folderName) throws SQLException {
-        String checkExists = "SELECT FOLDERID,FOLDERNAME FROM FOLDERS WHERE FOLDERNAME = ?";
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(checkExists);) {
-            ps.setString(1, folderName);
-            ResultSet existingFolderQuery = ps.executeQuery();
-            //return false if it doesn't exists yet
-            if (!existingFolderQuery.next()) {
-                return false;
-            }
-        }
-        return true;
+    @Override
+    public int deleteFolder(String foldername) throws SQLException, CannotDeleteFolderException {
+        return deleteFolder(foldername, null);
     }
 
     /**
-     * Delete a folder by name. Cannot delete INBOX, SENT OR DRAFT.
+     * Delete a folder by name along with its emails. Cannot delete INBOX, SENT
+     * OR DRAFT. The emails are deleted in chunks of folderDeleteChunkSize, each
+     * chunk with a few set-based statements in its own transaction, so a large
+     * folder never holds its locks for long. The folder itself is deleted in
+     * the transaction of the last chunk. If a chunk fails, the emails deleted
+     * by the previous chunks stay deleted and the folder can be deleted again.
      *
      * @param foldername
+     * @param listener Told how many emails were deleted after every chunk,
+     * null if nobody listens
      * @return int representing how many folders were deleted in the folder
      * table
      * @throws SQLException
      * @throws CannotDeleteFolderException
      */
     @Override
-    public int deleteFolder(String foldername) throws SQLException, CannotDeleteFolderException {
+    public int deleteFolder(String foldername, DeleteProgressListener listener) throws SQLException, CannotDeleteFolderException {
         if (foldername.equals("INBOX") || foldername.equals("SENT") || foldername.equals("DRAFT")) {
             throw new CannotDeleteFolderException("The " + foldername + " folder cannot be deleted.");
         }
-        int folderDeletes = -1;
-        //Delete all associated rows in the EmailToAddresses and Attachments table.
-        deleteFolderEmails(foldername);
-        //Delete the emails in the Email table that are part of this folder
-        deleteEmailTableRowsInFolder(foldername);
-
-        String deleteFolderQuery = "DELETE FROM FOLDERS WHERE FOLDERNAME = ?";
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(deleteFolderQuery);) {
-            ps.setString(1, foldername);
-            folderDeletes = ps.executeUpdate();
+        int folderId = folderRegistry.getFolderId(foldername);
+        if (folderId == 0) {
+            return 0;
+        }
+        //The names are compared ignoring case, "inbox" is the INBOX as well
+        if (folderId <= 3) {
+            throw new CannotDeleteFolderException("The " + foldername + " folder cannot be deleted.");
         }
+        int totalCount = folderRegistry.getEmailCount(folderId);
+        int chunkSize = Math.max(1, Math.min(mailConfigBean.getFolderDeleteChunkSize(), BULK_BATCH_SIZE));
+        int deletedCount = 0;
+        int folderDeletes = 0;
+        boolean deleted = false;
+        try {
+            while (!deleted) {
+                int[] chunk;
+                int chunkDeletes;
+                List<String> releasedContents = new ArrayList<>();
+                try ( Connection connection = connectionPool.getConnection();) {
+                    connection.setAutoCommit(false);
+                    try {
+                        chunk = findEmailIdsInFolder(connection, folderId, chunkSize);
+                        chunkDeletes = chunk.length > 0 ? deleteEmailRows(connection, chunk, releasedContents) : 0;
+                        //The last chunk, the one smaller than the others, deletes the folder as well
+                        if (chunk.length < chunkSize) {
+                            folderDeletes = deleteFolderRow(connection, folderId);
+                            deleted = true;
+                        }
+                        connection.commit();
+                    } catch (SQLException | RuntimeException ex) {
+                        connection.rollback();
+                        throw ex;
+                    }
+                }
+                deleteReleasedContents(releasedContents);
+                for (int emailId : chunk) {
+                    emailCache.invalidate(emailId);
+                }
+                folderRegistry.emailsDeleted(folderId, chunkDeletes);
+                deletedCount += chunkDeletes;
+                if (listener != null) {
+                    listener.progress(deletedCount, Math.max(totalCount, deletedCount));
+                }
+            }
+        } catch (SQLException | RuntimeException ex) {
+            //The counts are read again from the emails that are left
+            folderRegistry.reload();
+            throw ex;
+        }
+        folderRegistry.folderDeleted(foldername);
         if (folderDeletes > 0) {
-            LOG.info("The folder \"" + foldername + "\" along with its emails has been deleted.");
+            LOG.info("The folder \"" + foldername + "\" along with its " + deletedCount + " emails has been deleted.");
         }
         return folderDeletes;
     }
 
     /**
-     * Helper method that queries all the Email Id's of the emails in the given
-     * folder. Call a helper to delete the addresses and rows related to this
-     * email.
+     * Finds the next chunk of emails of a folder and locks them until the
+     * transaction ends.
      *
-     * @param foldername
+     * @param connection
+     * @param folderId
+     * @param limit The most ids to return
+     * @return the ids of the emails
      * @throws SQLException
      */
-    private void deleteFolderEmails(String foldername) throws SQLException {
-        //first find out all the emailId's that are in this folder, then call other helpers to delete associated rows
-        String emailsInFolder = "SELECT EMAIL.EMAILID FROM EMAIL INNER JOIN FOLDERS ON EMAIL.FOLDERID = FOLDERS.FOLDERID WHERE FOLDERS.FOLDERNAME = ?";
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(emailsInFolder);) {
-            ps.setString(1, foldername);
-            ResultSet emailsToDelete = ps.executeQuery();
-            while (emailsToDelete.next()) {
-                deleteEmailToAddressRow(emailsToDelete.getInt("EMAILID"));
-                deleteEmailAttachments(emailsToDelete.getInt("EMAILID"));
+    private int[] findEmailIdsInFolder(Connection connection, int folderId, int limit) throws SQLException {
+        List<Integer> emailIds = new ArrayList<>();
+        String emailsInFolderQuery = "SELECT EMAILID FROM EMAIL WHERE FOLDERID = ? ORDER BY EMAILID LIMIT ? FOR UPDATE";
+        try ( PreparedStatement ps = connection.prepareStatement(emailsInFolderQuery);) {
+            ps.setInt(1, folderId);
+            ps.setInt(2, limit);
+            try ( ResultSet resultSet = ps.executeQuery();) {
+                while (resultSet.next()) {
+                    emailIds.add(resultSet.getInt("EMAILID"));
+                }
             }
         }
+        return emailIds.stream().mapToInt(Integer::intValue).toArray();
     }
 
     /**
-     * Deletes the row in Email table that has the folder we want to delete.
-     *
-     * @param foldername
+     * @param connection
+     * @param folderId
+     * @return the number of rows deleted in the folder table
      * @throws SQLException
      */
-    private void deleteEmailTableRowsInFolder(String foldername) throws SQLException {
-        //first find out all the emailId's that are in this folder, then call other helpers to delete associated rows
-        String emailsInFolder = "DELETE EMAIL FROM EMAIL INNER JOIN FOLDERS ON EMAIL.FOLDERID = FOLDERS.FOLDERID WHERE FOLDERS.FOLDERNAME = ?";
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(emailsInFolder);) {
-            ps.setString(1, foldername);
-            int deleteResults = ps.executeUpdate();
+    private int deleteFolderRow(Connection connection, int folderId) throws SQLException {
+        String deleteFolderQuery = "DELETE FROM FOLDERS WHERE FOLDERID = ?";
+        try ( PreparedStatement ps = connection.prepareStatement(deleteFolderQuery);) {
+            ps.setInt(1, folderId);
+            return ps.executeUpdate();
         }
     }
 
@@ -1061,38 +2512,268 @@ public class EmailDAOImpl implements EmailDAO {
     @Override
     public int deleteEmail(int emailId) throws SQLException {
         int queryResult = -1;
-        deleteEmailToAddressRow(emailId);
-        deleteEmailAttachments(emailId);
+        int folderId = 0;
+        String findFolderQuery = "SELECT FOLDERID FROM EMAIL WHERE EMAILID = ? FOR UPDATE";
         String deleteEmailRow = "DELETE FROM EMAIL WHERE EMAILID = ?";
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(deleteEmailRow);) {
-            ps.setInt(1, emailId);
-            queryResult = ps.executeUpdate();
-            if (queryResult == 1) {
-                LOG.info("The email with ID: \"" + emailId + "\" has been deleted from the Email table.");
+        List<String> releasedContents = new ArrayList<>();
+        folderRegistry.load();
+        try ( Connection connection = connectionPool.getConnection();) {
+            connection.setAutoCommit(false);
+            try {
+                try ( PreparedStatement ps = connection.prepareStatement(findFolderQuery);) {
+                    ps.setInt(1, emailId);
+                    try ( ResultSet resultSet = ps.executeQuery();) {
+                        if (resultSet.next()) {
+                            folderId = resultSet.getInt("FOLDERID");
+                        }
+                    }
+                }
+                deleteEmailToAddressRow(connection, emailId);
+                deleteEmailAttachments(connection, emailId, releasedContents);
+                try ( PreparedStatement ps = connection.prepareStatement(deleteEmailRow);) {
+                    ps.setInt(1, emailId);
+                    queryResult = ps.executeUpdate();
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
             }
         }
+        deleteReleasedContents(releasedContents);
+        emailCache.invalidate(emailId);
+        if (queryResult == 1) {
+            folderRegistry.emailsDeleted(folderId, 1);
+            LOG.info("The email with ID: \"" + emailId + "\" has been deleted from the Email table.");
+        }
         return queryResult;
     }
 
+    /**
+     * Moves several emails to a folder in one transaction. Each batch of up to
+     * BULK_BATCH_SIZE emails is moved by a single UPDATE, the emails are never
+     * loaded. Drafts cannot leave the DRAFT folder, they are skipped.
+     *
+     * @param emailIds The ids of the emails to move
+     * @param folderId The folder the emails are moved to
+     * @return The number of emails moved
+     * @throws SQLException
+     * @throws CannotMoveToDraftsException
+     */
+    @Override
+    public int moveEmails(int[] emailIds, int folderId) throws SQLException, CannotMoveToDraftsException {
+        if (folderId == 3) {
+            throw new CannotMoveToDraftsException("Emails cannot be moved to the DRAFT folder.");
+        }
+        int moved = 0;
+        Map<Integer, Integer> movedPerFolder = new HashMap<>();
+        String condition = " AND FOLDERID NOT IN (3,?)";
+        folderRegistry.load();
+        try ( Connection connection = connectionPool.getConnection();) {
+            connection.setAutoCommit(false);
+            try {
+                for (int from = 0; from < emailIds.length; from += BULK_BATCH_SIZE) {
+                    int[] batch = Arrays.copyOfRange(emailIds, from, Math.min(from + BULK_BATCH_SIZE, emailIds.length));
+                    //The folders the emails leave are counted under the same locks as the update
+                    countEmailsPerFolder(connection, batch, condition, folderId, movedPerFolder);
+                    String moveEmailsQuery = buildInQuery("UPDATE EMAIL SET FOLDERID = ? WHERE EMAILID IN ", condition, batch.length);
+                    try ( PreparedStatement ps = connection.prepareStatement(moveEmailsQuery);) {
+                        ps.setInt(1, folderId);
+                        setIds(ps, 2, batch);
+                        ps.setInt(batch.length + 2, folderId);
+                        moved += ps.executeUpdate();
+                    }
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            }
+        }
+        for (int emailId : emailIds) {
+            emailCache.invalidate(emailId);
+        }
+        movedPerFolder.forEach((previousFolderId, count) -> folderRegistry.emailsMoved(previousFolderId, folderId, count));
+        LOG.info(moved + " emails have been moved to the folder with ID: " + folderId);
+        return moved;
+    }
+
+    /**
+     * Deletes several emails with their recipients and attachments in one
+     * transaction. Each batch of up to BULK_BATCH_SIZE emails takes a fixed
+     * number of statements however many emails and attachments it has.
+     *
+     * @param emailIds The ids of the emails to delete
+     * @return The number of emails deleted
+     * @throws SQLException
+     */
+    @Override
+    public int deleteEmails(int[] emailIds) throws SQLException {
+        int deleted = 0;
+        Map<Integer, Integer> deletedPerFolder = new HashMap<>();
+        List<String> releasedContents = new ArrayList<>();
+        folderRegistry.load();
+        try ( Connection connection = connectionPool.getConnection();) {
+            connection.setAutoCommit(false);
+            try {
+                for (int from = 0; from < emailIds.length; from += BULK_BATCH_SIZE) {
+                    int[] batch = Arrays.copyOfRange(emailIds, from, Math.min(from + BULK_BATCH_SIZE, emailIds.length));
+                    countEmailsPerFolder(connection, batch, "", 0, deletedPerFolder);
+                    deleted += deleteEmailRows(connection, batch, releasedContents);
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            }
+        }
+        deleteReleasedContents(releasedContents);
+        for (int emailId : emailIds) {
+            emailCache.invalidate(emailId);
+        }
+        deletedPerFolder.forEach(folderRegistry::emailsDeleted);
+        LOG.info(deleted + " emails have been deleted from the Email table.");
+        return deleted;
+    }
+
+    /**
+     * Deletes a batch of emails with their recipients and attachments using
+     * the same statements however many emails and attachments there are.
+     *
+     * @param connection
+     * @param emailIds At most BULK_BATCH_SIZE ids
+     * @param releasedContents The contents nothing references anymore, added
+     * to
+     * @return The number of emails deleted
+     * @throws SQLException
+     */
+    private int deleteEmailRows(Connection connection, int[] emailIds, List<String> releasedContents) throws SQLException {
+        List<String> unusedContents = releaseAttachmentContents(connection, emailIds);
+        deleteByEmailIds(connection, "DELETE FROM EMAILTOADDRESS WHERE EMAILID IN ", emailIds);
+        deleteByEmailIds(connection, "DELETE FROM ATTACHMENTS WHERE EMAILID IN ", emailIds);
+        int deleted = deleteByEmailIds(connection, "DELETE FROM EMAIL WHERE EMAILID IN ", emailIds);
+        deleteUnusedContents(connection, unusedContents);
+        releasedContents.addAll(unusedContents);
+        return deleted;
+    }
+
+    /**
+     * Counts a batch of emails per folder and locks their rows until the
+     * transaction ends.
+     *
+     * @param connection
+     * @param emailIds
+     * @param condition Added to the WHERE clause, may use the folder id once
+     * @param folderId The folder id of the condition
+     * @param counts The counts per folder id, added to
+     * @throws SQLException
+     */
+    private void countEmailsPerFolder(Connection connection, int[] emailIds, String condition, int folderId, Map<Integer, Integer> counts) throws SQLException {
+        String countQuery = buildInQuery("SELECT FOLDERID, COUNT(*) AS EMAILCOUNT FROM EMAIL WHERE EMAILID IN ", condition + " GROUP BY FOLDERID FOR UPDATE", emailIds.length);
+        try ( PreparedStatement ps = connection.prepareStatement(countQuery);) {
+            setIds(ps, 1, emailIds);
+            if (condition.contains("?")) {
+                ps.setInt(emailIds.length + 1, folderId);
+            }
+            try ( ResultSet resultSet = ps.executeQuery();) {
+                while (resultSet.next()) {
+                    counts.merge(resultSet.getInt("FOLDERID"), resultSet.getInt("EMAILCOUNT"), Integer::sum);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the references of a batch of emails to their attachment
+     * contents with one UPDATE, before their attachments are deleted.
+     *
+     * @param connection
+     * @param emailIds
+     * @return The contents nothing references anymore
+     * @throws SQLException
+     */
+    private List<String> releaseAttachmentContents(Connection connection, int[] emailIds) throws SQLException {
+        String releaseQuery = buildInQuery("UPDATE ATTACHMENTCONTENT INNER JOIN (SELECT CONTENTHASH, COUNT(*) AS RELEASED FROM ATTACHMENTS WHERE CONTENTHASH IS NOT NULL AND EMAILID IN ",
+                " GROUP BY CONTENTHASH) RELEASES ON ATTACHMENTCONTENT.CONTENTHASH = RELEASES.CONTENTHASH SET ATTACHMENTCONTENT.REFCOUNT = ATTACHMENTCONTENT.REFCOUNT - RELEASES.RELEASED", emailIds.length);
+        try ( PreparedStatement ps = connection.prepareStatement(releaseQuery);) {
+            setIds(ps, 1, emailIds);
+            ps.executeUpdate();
+        }
+        List<String> unusedContents = new ArrayList<>();
+        String findUnusedQuery = buildInQuery("SELECT DISTINCT ATTACHMENTCONTENT.CONTENTHASH FROM ATTACHMENTCONTENT INNER JOIN ATTACHMENTS ON ATTACHMENTCONTENT.CONTENTHASH = ATTACHMENTS.CONTENTHASH WHERE ATTACHMENTCONTENT.REFCOUNT <= 0 AND ATTACHMENTS.EMAILID IN ", "", emailIds.length);
+        try ( PreparedStatement ps = connection.prepareStatement(findUnusedQuery);) {
+            setIds(ps, 1, emailIds);
+            try ( ResultSet resultSet = ps.executeQuery();) {
+                while (resultSet.next()) {
+                    unusedContents.add(resultSet.getString("CONTENTHASH"));
+                }
+            }
+        }
+        return unusedContents;
+    }
+
+    /**
+     * Deletes the rows of the contents that nothing references once their
+     * attachments are deleted. The UPDATE that released them still locks their
+     * rows, so no reference can be added in between. Their bytes are dropped
+     * once the transaction has committed.
+     *
+     * @param connection
+     * @param contentHashes
+     * @throws SQLException
+     */
+    private void deleteUnusedContents(Connection connection, List<String> contentHashes) throws SQLException {
+        for (int from = 0; from < contentHashes.size(); from += IN_BATCH_SIZE) {
+            List<String> batch = contentHashes.subList(from, Math.min(from + IN_BATCH_SIZE, contentHashes.size()));
+            String deleteUnusedQuery = buildInQuery("DELETE FROM ATTACHMENTCONTENT WHERE REFCOUNT <= 0 AND CONTENTHASH IN ", "", batch.size());
+            try ( PreparedStatement ps = connection.prepareStatement(deleteUnusedQuery);) {
+                for (int i = 0; i < batch.size(); i++) {
+                    ps.setString(i + 1, batch.get(i));
+                }
+                ps.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * @param connection
+     * @param queryPrefix A DELETE up to and including "IN "
+     * @param emailIds
+     * @return The number of rows deleted
+     * @throws SQLException
+     */
+    private int deleteByEmailIds(Connection connection, String queryPrefix, int[] emailIds) throws SQLException {
+        try ( PreparedStatement ps = connection.prepareStatement(buildInQuery(queryPrefix, "", emailIds.length));) {
+            setIds(ps, 1, emailIds);
+            return ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Sets the placeholders of an IN list to the ids.
+     *
+     * @param ps
+     * @param firstIndex The index of the first placeholder of the list
+     * @param ids
+     * @throws SQLException
+     */
+    private void setIds(PreparedStatement ps, int firstIndex, int[] ids) throws SQLException {
+        for (int i = 0; i < ids.length; i++) {
+            ps.setInt(firstIndex + i, ids[i]);
+        }
+    }
+
     /**
      * Used in the Presentation layer where we must display all the folder names
      * inside of the Tree View.
      *
-     * @return A list of String representing the folder names.
+     * @return The folders with the number of emails in each, from the folder
+     * registry.
      * @throws SQLException
      */
     @Override
     public ObservableList<FolderFXBean> getAllFolders() throws SQLException {
-        ObservableList<FolderFXBean> allFolders = FXCollections.observableArrayList();
-        String findAllFoldersQuery = "SELECT FOLDERID,FOLDERNAME FROM FOLDERS";
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(findAllFoldersQuery);) {
-            ResultSet queryResult = ps.executeQuery();
-            while (queryResult.next()) {
-                FolderFXBean folder = new FolderFXBean(queryResult.getInt("FOLDERID"), queryResult.getString("FOLDERNAME"));
-                allFolders.add(folder);
-            }
-        }
-        return allFolders;
+        return FXCollections.observableArrayList(folderRegistry.getFolders());
     }
 
     /**
@@ -1104,16 +2785,7 @@ public class EmailDAOImpl implements EmailDAO {
      */
     @Override
     public String getFolderName(int id) throws SQLException {
-        String folderName = "";
-
-        String findFolderQuery = "SELECT FOLDERNAME FROM FOLDERS WHERE FOLDERID = ?";
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(findFolderQuery);) {
-            ps.setInt(1, id);
-            ResultSet queryResult = ps.executeQuery();
-            if (queryResult.next()) {
-                folderName = queryResult.getString("FOLDERNAME");
-            }
-        }
+        String folderName = folderRegistry.getFolderName(id);
         LOG.info("THE FOLDER FOUND IN THE DAO IS  : " + folderName);
         return folderName;
     }
@@ -1128,16 +2800,7 @@ public class EmailDAOImpl implements EmailDAO {
      */
     @Override
     public int getFolderID(String folderName) throws SQLException {
-        int folderID = 0;
-
-        String findFolderID = "SELECT FOLDERID FROM FOLDERS WHERE FOLDERNAME = ?";
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(findFolderID);) {
-            ps.setString(1, folderName);
-            ResultSet queryResult = ps.executeQuery();
-            if (queryResult.next()) {
-                folderID = queryResult.getInt("FOLDERID");
-            }
-        }
+        int folderID = folderRegistry.getFolderId(folderName);
         LOG.info("THE FOLDER ID FOUND : " + folderID);
         return folderID;
     }
@@ -1145,36 +2808,23 @@ public class EmailDAOImpl implements EmailDAO {
     /**
      * When the save attachments button is clicked, we take all the attachments
      * related to that email and save it to disk. In the root folder. If the
-     * file already exists, then we overwrite it,
+     * file already exists, then we overwrite it. The content is copied from
+     * the attachment cache.
      *
      * @param emailID
      * @throws SQLException
      */
     @Override
     public void saveBlobToDisk(int emailID) throws SQLException {
-        String getBlobsQuery = "SELECT FILENAME, ATTACHMENT FROM ATTACHMENTS WHERE EMAILID = ?";
-        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(getBlobsQuery);) {
-            ps.setInt(1, emailID);
-            ResultSet queryResult = ps.executeQuery();
-            while (queryResult.next()) {
-                String fileName = queryResult.getString("FILENAME");
-
-                File image = new File(fileName);
-                FileOutputStream fos;
-                try {
-                    fos = new FileOutputStream(image);
-                    byte[] buffer = new byte[1];
-                    InputStream is = queryResult.getBinaryStream("ATTACHMENT");
-                    while (is.read(buffer) > 0) {
-                        fos.write(buffer);
-                    }
-                    fos.close();
-                    LOG.info("THE FILE WAS SAVED");
-                } catch (FileNotFoundException ex) {
-                    LOG.info("The file could not be found : " + fileName);
-                } catch (IOException ex) {
-                    LOG.info("Caught IOException when writing to the file.");
-                }
+        for (AttachmentBean attachment : findAttachments(emailID)) {
+            try {
+                File cachedFile = loadAttachment(attachment);
+                AttachmentFiles.copy(cachedFile.toPath(), new File(cachedFile.getName()).toPath());
+                LOG.info("THE FILE WAS SAVED");
+            } catch (FileNotFoundException ex) {
+                LOG.info("The file could not be found : " + attachment.getFileName());
+            } catch (IOException ex) {
+                LOG.info("Caught IOException when writing to the file.");
             }
         }
     }
@@ -0,0 +1,189 @@
+package com.danielsimonchin.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the bytes of attachments as files in a directory, only the hash, size
+ * and reference count stay in the ATTACHMENTCONTENT table. Files are sharded
+ * into two levels of sub directories taken from the start of the hash so no
+ * directory grows too large. Contents that have not been moved out of the
+ * database yet by the AttachmentStoreMigration are still read from it.
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public class FileSystemAttachmentStore implements AttachmentStore {
+
+    private final static Logger LOG = LoggerFactory.getLogger(FileSystemAttachmentStore.class);
+
+    private final Path directory;
+    private final DatabaseAttachmentStore databaseStore = new DatabaseAttachmentStore();
+
+    /**
+     * @param directory The root directory of the store, created when the first
+     * content is written
+     */
+    public FileSystemAttachmentStore(File directory) {
+        this.directory = directory.toPath().toAbsolutePath();
+    }
+
+    /**
+     * Writes the content to its file through a temporary file in the same
+     * shard.
+     *
+     * @param connection
+     * @param contentHash
+     * @param content
+     * @throws IOException
+     */
+    @Override
+    public void write(Connection connection, String contentHash, byte[] content) throws IOException {
+        Path target = getContentPath(contentHash);
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), contentHash, ".tmp");
+        try {
+            try ( FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(content);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            AttachmentFiles.moveIntoPlace(temp, target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Copies the stream to its file through a temporary file in the same
+     * shard.
+     *
+     * @param connection
+     * @param contentHash
+     * @param content
+     * @param size
+     * @throws IOException
+     */
+    @Override
+    public void write(Connection connection, String contentHash, InputStream content, long size) throws IOException {
+        Path target = getContentPath(contentHash);
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), contentHash, ".tmp");
+        try {
+            Files.copy(content, temp, StandardCopyOption.REPLACE_EXISTING);
+            try ( FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            AttachmentFiles.moveIntoPlace(temp, target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Reads the content through a memory mapping of its file.
+     *
+     * @param connection
+     * @param contentHash
+     * @return a stream over the content
+     * @throws SQLException
+     * @throws IOException
+     */
+    @Override
+    public InputStream read(Connection connection, String contentHash) throws SQLException, IOException {
+        Path path = getContentPath(contentHash);
+        if (!Files.exists(path)) {
+            return databaseStore.read(connection, contentHash);
+        }
+        try ( FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            //The mapping stays valid once the channel is closed
+            return new MappedContentInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Deletes the file of a content that is no longer referenced. A file that
+     * cannot be deleted is only logged, it is unreachable once its row is gone.
+     *
+     * @param connection
+     * @param contentHash
+     */
+    @Override
+    public void delete(Connection connection, String contentHash) {
+        try {
+            Files.deleteIfExists(getContentPath(contentHash));
+        } catch (IOException ex) {
+            LOG.info("Could not delete the attachment content " + contentHash);
+        }
+    }
+
+    /**
+     * @param contentHash
+     * @return the file of the content, null if it is not in the store
+     */
+    @Override
+    public Path getContentFile(String contentHash) {
+        Path path = getContentPath(contentHash);
+        return Files.isRegularFile(path) ? path : null;
+    }
+
+    /**
+     * @return the root directory of the store
+     */
+    public File getDirectory() {
+        return directory.toFile();
+    }
+
+    private Path getContentPath(String contentHash) {
+        return directory.resolve(contentHash.substring(0, 2)).resolve(contentHash.substring(2, 4)).resolve(contentHash);
+    }
+
+    /**
+     * An InputStream over a memory mapped content.
+     */
+    private static class MappedContentInputStream extends InputStream {
+
+        private final MappedByteBuffer buffer;
+
+        MappedContentInputStream(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
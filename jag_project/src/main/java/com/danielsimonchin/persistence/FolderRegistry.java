@@ -0,0 +1,234 @@
+package com.danielsimonchin.persistence;
+
+import com.danielsimonchin.fxbeans.FolderFXBean;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The folders of the database with the number of emails in each, loaded with a
+ * single query the first time a folder is looked up. The EmailDAO keeps the
+ * registry up to date as it creates, renames and deletes folders and as it
+ * adds, moves and deletes emails, so looking up a folder or its count never
+ * queries the database afterwards. Folder names are compared ignoring case,
+ * like the FOLDERNAME column.
+ *
+ * Changes made to the Folders table by another application are only seen once
+ * the registry is reloaded.
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public class FolderRegistry {
+
+    private final ConnectionPool connectionPool;
+
+    //Ordered by FOLDERID, the order the folders are shown in
+    private final TreeMap<Integer, Folder> foldersById = new TreeMap<>();
+    private final Map<String, Folder> foldersByName = new HashMap<>();
+    private boolean loaded = false;
+
+    /**
+     * @param connectionPool The database the folders are read from
+     */
+    public FolderRegistry(ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    /**
+     * @param folderName
+     * @return the FOLDERID of the folder, 0 if it does not exist
+     * @throws SQLException if the folders could not be loaded
+     */
+    public synchronized int getFolderId(String folderName) throws SQLException {
+        load();
+        Folder folder = foldersByName.get(key(folderName));
+        return folder == null ? 0 : folder.id;
+    }
+
+    /**
+     * @param folderId
+     * @return the name of the folder, an empty string if it does not exist
+     * @throws SQLException if the folders could not be loaded
+     */
+    public synchronized String getFolderName(int folderId) throws SQLException {
+        load();
+        Folder folder = foldersById.get(folderId);
+        return folder == null ? "" : folder.name;
+    }
+
+    /**
+     * @param folderName
+     * @return true if a folder has this name, ignoring case
+     * @throws SQLException if the folders could not be loaded
+     */
+    public synchronized boolean exists(String folderName) throws SQLException {
+        return getFolderId(folderName) > 0;
+    }
+
+    /**
+     * @param folderId
+     * @return the number of emails in the folder
+     * @throws SQLException if the folders could not be loaded
+     */
+    public synchronized int getEmailCount(int folderId) throws SQLException {
+        load();
+        Folder folder = foldersById.get(folderId);
+        return folder == null ? 0 : folder.emailCount;
+    }
+
+    /**
+     * @return every folder with its number of emails, ordered by id
+     * @throws SQLException if the folders could not be loaded
+     */
+    public synchronized List<FolderFXBean> getFolders() throws SQLException {
+        load();
+        List<FolderFXBean> folders = new ArrayList<>(foldersById.size());
+        for (Folder folder : foldersById.values()) {
+            folders.add(new FolderFXBean(folder.id, folder.name, folder.emailCount));
+        }
+        return folders;
+    }
+
+    /**
+     * Records a folder created by the EmailDAO.
+     *
+     * @param folderId
+     * @param folderName
+     */
+    public synchronized void folderCreated(int folderId, String folderName) {
+        if (loaded) {
+            Folder folder = new Folder(folderId, folderName);
+            foldersById.put(folderId, folder);
+            foldersByName.put(key(folderName), folder);
+        }
+    }
+
+    /**
+     * Records a folder renamed by the EmailDAO.
+     *
+     * @param currentName
+     * @param newName
+     */
+    public synchronized void folderRenamed(String currentName, String newName) {
+        Folder folder = foldersByName.remove(key(currentName));
+        if (folder != null) {
+            folder.name = newName;
+            foldersByName.put(key(newName), folder);
+        }
+    }
+
+    /**
+     * Records a folder deleted by the EmailDAO along with its emails.
+     *
+     * @param folderName
+     */
+    public synchronized void folderDeleted(String folderName) {
+        Folder folder = foldersByName.remove(key(folderName));
+        if (folder != null) {
+            foldersById.remove(folder.id);
+        }
+    }
+
+    /**
+     * Records emails added to a folder.
+     *
+     * @param folderId
+     * @param count
+     */
+    public synchronized void emailsAdded(int folderId, int count) {
+        Folder folder = foldersById.get(folderId);
+        if (folder != null) {
+            folder.emailCount += count;
+        }
+    }
+
+    /**
+     * Records emails deleted from a folder.
+     *
+     * @param folderId
+     * @param count
+     */
+    public synchronized void emailsDeleted(int folderId, int count) {
+        Folder folder = foldersById.get(folderId);
+        if (folder != null) {
+            folder.emailCount = Math.max(0, folder.emailCount - count);
+        }
+    }
+
+    /**
+     * Records emails moved from one folder to another.
+     *
+     * @param fromFolderId
+     * @param toFolderId
+     * @param count
+     */
+    public synchronized void emailsMoved(int fromFolderId, int toFolderId, int count) {
+        if (fromFolderId != toFolderId) {
+            emailsDeleted(fromFolderId, count);
+            emailsAdded(toFolderId, count);
+        }
+    }
+
+    /**
+     * Forget the folders so they are loaded again by the next lookup. Used
+     * when a change could not be recorded, such as a folder delete that failed
+     * half way.
+     */
+    public synchronized void reload() {
+        loaded = false;
+        foldersById.clear();
+        foldersByName.clear();
+    }
+
+    /**
+     * Loads every folder with its number of emails the first time it is
+     * called. The EmailDAO calls it before changing the emails of a folder, so
+     * a change committed while the folders load is not counted twice.
+     *
+     * @throws SQLException
+     */
+    public synchronized void load() throws SQLException {
+        if (loaded) {
+            return;
+        }
+        foldersById.clear();
+        foldersByName.clear();
+        String loadFoldersQuery = "SELECT FOLDERS.FOLDERID, FOLDERS.FOLDERNAME, COUNT(EMAIL.EMAILID) AS EMAILCOUNT FROM FOLDERS LEFT JOIN EMAIL ON EMAIL.FOLDERID = FOLDERS.FOLDERID GROUP BY FOLDERS.FOLDERID, FOLDERS.FOLDERNAME";
+        try ( Connection connection = connectionPool.getConnection();  PreparedStatement ps = connection.prepareStatement(loadFoldersQuery);  ResultSet resultSet = ps.executeQuery();) {
+            while (resultSet.next()) {
+                Folder folder = new Folder(resultSet.getInt("FOLDERID"), resultSet.getString("FOLDERNAME"));
+                folder.emailCount = resultSet.getInt("EMAILCOUNT");
+                foldersById.put(folder.id, folder);
+                foldersByName.put(key(folder.name), folder);
+            }
+        }
+        loaded = true;
+    }
+
+    private static String key(String folderName) {
+        return folderName.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * One row of the Folders table with its number of emails.
+     */
+    private static class Folder {
+
+        private final int id;
+        private String name;
+        private int emailCount;
+
+        Folder(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.danielsimonchin.persistence;
+
+import com.danielsimonchin.properties.AttachmentBean;
+import com.danielsimonchin.properties.EmailBean;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
+import javax.activation.FileDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The DataSource of an attachment loaded by the EmailDAO. Only the descriptor
+ * is known when the email is read, the content is streamed into the attachment
+ * cache the first time the file or its bytes are asked for. The JavaFX thread
+ * only uses getCachedFile, the attachments are loaded by loadAttachments on the
+ * thread that read the email.
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public class LazyAttachmentDataSource extends FileDataSource {
+
+    private final static Logger LOG = LoggerFactory.getLogger(LazyAttachmentDataSource.class);
+
+    private final AttachmentBean attachment;
+    private final EmailDAO emailDAO;
+
+    /**
+     * @param attachment The descriptor of the attachment
+     * @param cachedFile The file the attachment is cached in
+     * @param emailDAO The DAO that loads the content into the cache
+     */
+    public LazyAttachmentDataSource(AttachmentBean attachment, File cachedFile, EmailDAO emailDAO) {
+        super(cachedFile);
+        this.attachment = attachment;
+        this.emailDAO = emailDAO;
+    }
+
+    /**
+     * Loads the attachments of an email into the attachment cache, except the
+     * ones still on the IMAP server. Called on the thread that read the email.
+     *
+     * @param emailBean
+     * @return the same emailBean
+     */
+    public static EmailBean loadAttachments(EmailBean emailBean) {
+        emailBean.email.attachments().forEach(attachment -> {
+            if (attachment.getDataSource() instanceof LazyAttachmentDataSource) {
+                LazyAttachmentDataSource dataSource = (LazyAttachmentDataSource) attachment.getDataSource();
+                if (!dataSource.getAttachment().isDeferred()) {
+                    dataSource.getFile();
+                }
+            }
+        });
+        return emailBean;
+    }
+
+    /**
+     * @return the descriptor of the attachment
+     */
+    public AttachmentBean getAttachment() {
+        return attachment;
+    }
+
+    /**
+     * Loads the attachment into the cache if needed and opens the cached file.
+     *
+     * @return a stream of the attachment's bytes
+     * @throws IOException
+     */
+    @Override
+    public InputStream getInputStream() throws IOException {
+        load();
+        return super.getInputStream();
+    }
+
+    /**
+     * Loads the attachment into the cache if needed. If it could not be loaded
+     * the returned file does not exist.
+     *
+     * @return the cached file of the attachment
+     */
+    @Override
+    public File getFile() {
+        try {
+            load();
+        } catch (IOException ex) {
+            LOG.error("Could not load the attachment " + attachment.getFileName(), ex);
+        }
+        return super.getFile();
+    }
+
+    /**
+     * @return the cache file of the attachment, without loading it
+     */
+    public File getCachedFile() {
+        return super.getFile();
+    }
+
+    private void load() throws IOException {
+        try {
+            emailDAO.loadAttachment(attachment);
+        } catch (SQLException ex) {
+            throw new IOException("Could not read the attachment " + attachment.getFileName() + " from the database", ex);
+        }
+    }
+}
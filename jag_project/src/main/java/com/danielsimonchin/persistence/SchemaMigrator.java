@@ -0,0 +1,244 @@
+package com.danielsimonchin.persistence;
+
+import com.danielsimonchin.properties.MailConfigBean;
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Brings the database schema up to date when the application starts. Each
+ * migration is a SQL script in the migrations resource folder named
+ * V&lt;version&gt;__&lt;description&gt;.sql, and the versions applied are
+ * recorded in the SCHEMAVERSION table. Only the migrations above the highest
+ * recorded version are run, in order.
+ *
+ * The first migrations bring a database created by the original schema
+ * scripts to the schema the application uses, moving the attachments stored
+ * in ATTACHMENTS.ATTACHMENT to ATTACHMENTCONTENT on the way.
+ *
+ * MySQL commits every DDL statement on its own, so a migration that failed
+ * half way cannot be rolled back. Running it again skips the tables, columns,
+ * indexes and foreign keys it had already created, and the indexes it had
+ * already dropped.
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public class SchemaMigrator {
+
+    private final static Logger LOG = LoggerFactory.getLogger(SchemaMigrator.class);
+
+    //Every migration, in the order they are applied. New migrations are added at the end.
+    private final static String[] MIGRATIONS = {
+        "V1__attachment_content_store.sql",
+        "V2__imap_sync.sql",
+        "V3__outbox.sql",
+        "V4__fulltext_search.sql",
+        "V5__add_access_path_indexes.sql",
+        "V6__unique_folder_name.sql",
+        "V7__compressed_html_body.sql",
+        "V8__email_message_id.sql",
+        "V9__search_text.sql"
+    };
+
+    private final static String MIGRATION_FOLDER = "/migrations/";
+    //Held while migrating so two instances of the application never migrate at the same time
+    private final static String MIGRATION_LOCK = "EMAILCLIENT_SCHEMA_MIGRATION";
+    private final static int MIGRATION_LOCK_TIMEOUT_SECONDS = 60;
+    //MySQL's ER_DUP_FIELDNAME and ER_DUP_KEYNAME, the column, index or unique constraint already exists
+    private final static int DUPLICATE_FIELD_NAME = 1060;
+    private final static int DUPLICATE_KEY_NAME = 1061;
+    //MySQL's ER_FK_DUP_NAME, the foreign key already exists
+    private final static int DUPLICATE_FOREIGN_KEY = 1826;
+    //MySQL's ER_CANT_DROP_FIELD_OR_KEY, the column or index was already dropped
+    private final static int MISSING_FIELD_OR_KEY = 1091;
+
+    private final ConnectionPool connectionPool;
+
+    /**
+     * @param mailConfigBean The database to migrate
+     */
+    public SchemaMigrator(MailConfigBean mailConfigBean) {
+        this.connectionPool = ConnectionPool.getPool(mailConfigBean);
+    }
+
+    /**
+     * Applies the migrations that have not been applied yet.
+     *
+     * @return the number of migrations applied
+     * @throws SQLException
+     * @throws IOException if a migration script cannot be read
+     */
+    public int migrate() throws SQLException, IOException {
+        int applied = 0;
+        try ( Connection connection = connectionPool.getConnection();) {
+            acquireLock(connection);
+            try {
+                createVersionTable(connection);
+                int currentVersion = findCurrentVersion(connection);
+                for (String migration : MIGRATIONS) {
+                    int version = parseVersion(migration);
+                    if (version > currentVersion) {
+                        applyMigration(connection, migration, version);
+                        applied++;
+                    }
+                }
+            } finally {
+                releaseLock(connection);
+            }
+        }
+        if (applied > 0) {
+            LOG.info(applied + " schema migration(s) applied, the schema is at version " + getLatestVersion());
+        }
+        return applied;
+    }
+
+    /**
+     * @return the highest version applied to the database, 0 if none
+     * @throws SQLException
+     */
+    public int getCurrentVersion() throws SQLException {
+        try ( Connection connection = connectionPool.getConnection();) {
+            createVersionTable(connection);
+            return findCurrentVersion(connection);
+        }
+    }
+
+    /**
+     * @return the version of the last migration known to the application
+     */
+    public static int getLatestVersion() {
+        return parseVersion(MIGRATIONS[MIGRATIONS.length - 1]);
+    }
+
+    private void createVersionTable(Connection connection) throws SQLException {
+        String createVersionTable = "CREATE TABLE IF NOT EXISTS SCHEMAVERSION (VERSION int(11) NOT NULL, DESCRIPTION varchar(255) NOT NULL, APPLIEDON TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, PRIMARY KEY (VERSION))";
+        try ( Statement statement = connection.createStatement();) {
+            statement.execute(createVersionTable);
+        }
+    }
+
+    private int findCurrentVersion(Connection connection) throws SQLException {
+        String findVersionQuery = "SELECT COALESCE(MAX(VERSION), 0) AS VERSION FROM SCHEMAVERSION";
+        try ( PreparedStatement ps = connection.prepareStatement(findVersionQuery);  ResultSet resultSet = ps.executeQuery();) {
+            resultSet.next();
+            return resultSet.getInt("VERSION");
+        }
+    }
+
+    /**
+     * Runs every statement of a migration then records its version.
+     *
+     * @param connection
+     * @param migration The file name of the migration
+     * @param version
+     * @throws SQLException
+     * @throws IOException
+     */
+    private void applyMigration(Connection connection, String migration, int version) throws SQLException, IOException {
+        LOG.info("Applying the schema migration " + migration);
+        for (String sql : readStatements(migration)) {
+            try ( Statement statement = connection.createStatement();) {
+                statement.execute(sql);
+            } catch (SQLException ex) {
+                if (!isAlreadyApplied(ex)) {
+                    throw ex;
+                }
+                LOG.info("Already applied, skipping: " + sql);
+            }
+        }
+        String recordVersionQuery = "INSERT INTO SCHEMAVERSION (VERSION,DESCRIPTION) VALUES (?,?)";
+        try ( PreparedStatement ps = connection.prepareStatement(recordVersionQuery);) {
+            ps.setInt(1, version);
+            ps.setString(2, migration);
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * @param ex
+     * @return true if the statement failed because what it creates already
+     * exists, or what it drops no longer exists
+     */
+    private static boolean isAlreadyApplied(SQLException ex) {
+        int errorCode = ex.getErrorCode();
+        return errorCode == DUPLICATE_FIELD_NAME || errorCode == DUPLICATE_KEY_NAME || errorCode == DUPLICATE_FOREIGN_KEY || errorCode == MISSING_FIELD_OR_KEY;
+    }
+
+    /**
+     * Splits a migration script into its statements. Statements end with a
+     * semicolon at the end of a line, lines starting with -- are comments.
+     *
+     * @param migration
+     * @return the statements of the script, in order
+     * @throws IOException
+     */
+    private List<String> readStatements(String migration) throws IOException {
+        List<String> statements = new ArrayList<>();
+        InputStream script = SchemaMigrator.class.getResourceAsStream(MIGRATION_FOLDER + migration);
+        if (script == null) {
+            throw new FileNotFoundException("The schema migration " + migration + " is missing");
+        }
+        try ( BufferedReader reader = new BufferedReader(new InputStreamReader(script, StandardCharsets.UTF_8))) {
+            StringBuilder sql = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("--")) {
+                    continue;
+                }
+                sql.append(line).append(' ');
+                if (line.endsWith(";")) {
+                    statements.add(sql.substring(0, sql.lastIndexOf(";")));
+                    sql.setLength(0);
+                }
+            }
+            if (sql.toString().trim().length() > 0) {
+                statements.add(sql.toString().trim());
+            }
+        }
+        return statements;
+    }
+
+    private void acquireLock(Connection connection) throws SQLException {
+        try ( PreparedStatement ps = connection.prepareStatement("SELECT GET_LOCK(?, ?)");) {
+            ps.setString(1, MIGRATION_LOCK);
+            ps.setInt(2, MIGRATION_LOCK_TIMEOUT_SECONDS);
+            try ( ResultSet resultSet = ps.executeQuery();) {
+                if (!resultSet.next() || resultSet.getInt(1) != 1) {
+                    throw new SQLException("Timed out waiting for another application to finish migrating the schema");
+                }
+            }
+        }
+    }
+
+    private void releaseLock(Connection connection) {
+        try ( PreparedStatement ps = connection.prepareStatement("SELECT RELEASE_LOCK(?)");) {
+            ps.setString(1, MIGRATION_LOCK);
+            ps.executeQuery().close();
+        } catch (SQLException ex) {
+            //The lock is released anyway when the session ends
+            LOG.info("Could not release the schema migration lock", ex);
+        }
+    }
+
+    /**
+     * @param migration A file name like V12__description.sql
+     * @return the version of the migration
+     */
+    private static int parseVersion(String migration) {
+        return Integer.parseInt(migration.substring(1, migration.indexOf("__")));
+    }
+}
@@ -0,0 +1,102 @@
+package com.danielsimonchin.persistence;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import jodd.mail.Email;
+import jodd.mail.EmailAddress;
+
+/**
+ * Builds the content of the SEARCHTEXT column, the text searched along with
+ * the sender and the subject of an email: its plain text, or its HTML without
+ * the markup when it has no plain text, followed by the address of every
+ * recipient. Keeping the recipients in the same FULLTEXT index as the rest of
+ * the email lets a search require each of its words once, wherever it
+ * appears.
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public final class SearchText {
+
+    //Elements whose content is never displayed
+    private final static Pattern HIDDEN_ELEMENTS = Pattern.compile("(?is)<(script|style|head)\\b.*?</\\1\\s*>");
+    private final static Pattern COMMENTS = Pattern.compile("(?s)<!--.*?-->");
+    private final static Pattern TAGS = Pattern.compile("<[^>]*>");
+    private final static Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private SearchText() {
+    }
+
+    /**
+     * @param plainText The plain text message, may be null or empty
+     * @param htmlText The HTML message, only used without plain text
+     * @param recipients The addresses of the recipients
+     * @return the text to store in the SEARCHTEXT column
+     */
+    public static String of(String plainText, String htmlText, List<String> recipients) {
+        String body = plainText != null && !plainText.isBlank() ? plainText : stripTags(htmlText);
+        StringBuilder searchText = new StringBuilder(body.length() + recipients.size() * 32).append(body);
+        for (String recipient : recipients) {
+            searchText.append(' ').append(recipient);
+        }
+        return searchText.toString().trim();
+    }
+
+    /**
+     * @param email
+     * @return the addresses of the To, CC and BCC recipients of the email
+     */
+    public static List<String> recipients(Email email) {
+        List<String> recipients = new ArrayList<>();
+        for (EmailAddress[] addresses : new EmailAddress[][]{email.to(), email.cc(), email.bcc()}) {
+            for (EmailAddress address : addresses) {
+                recipients.add(address.getEmail());
+            }
+        }
+        return recipients;
+    }
+
+    /**
+     * @param connection
+     * @param emailId
+     * @return the addresses of the recipients stored for the email
+     * @throws SQLException
+     */
+    public static List<String> findRecipients(Connection connection, int emailId) throws SQLException {
+        List<String> recipients = new ArrayList<>();
+        String findRecipientsQuery = "SELECT ADDRESSES.EMAILADDRESS FROM EMAILTOADDRESS INNER JOIN ADDRESSES ON EMAILTOADDRESS.ADDRESSID = ADDRESSES.ADDRESSID WHERE EMAILTOADDRESS.EMAILID = ?";
+        try ( PreparedStatement ps = connection.prepareStatement(findRecipientsQuery);) {
+            ps.setInt(1, emailId);
+            try ( ResultSet resultSet = ps.executeQuery();) {
+                while (resultSet.next()) {
+                    recipients.add(resultSet.getString("EMAILADDRESS"));
+                }
+            }
+        }
+        return recipients;
+    }
+
+    /**
+     * Removes the markup of an HTML message and decodes the few entities that
+     * would otherwise split or hide words.
+     *
+     * @param html
+     * @return the text of the message, empty for a null message
+     */
+    public static String stripTags(String html) {
+        if (html == null || html.isEmpty()) {
+            return "";
+        }
+        String text = HIDDEN_ELEMENTS.matcher(html).replaceAll(" ");
+        text = COMMENTS.matcher(text).replaceAll(" ");
+        text = TAGS.matcher(text).replaceAll(" ");
+        text = text.replace("&nbsp;", " ").replace("&lt;", "<").replace("&gt;", ">")
+                .replace("&quot;", "\"").replace("&#39;", "'").replace("&amp;", "&");
+        return WHITESPACE.matcher(text).replaceAll(" ").trim();
+    }
+}
@@ -0,0 +1,144 @@
+package com.danielsimonchin.persistence;
+
+import com.danielsimonchin.properties.MailConfigBean;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fills the SEARCHTEXT column of the emails saved before it existed. Until
+ * then those emails are only found by their sender and subject. The emails
+ * are converted in batches, each in its own transaction, so the migration can
+ * be stopped and run again at any time.
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public class SearchTextMigration {
+
+    private final static Logger LOG = LoggerFactory.getLogger(SearchTextMigration.class);
+
+    //Number of emails converted per transaction
+    private final static int MIGRATION_BATCH_SIZE = 100;
+
+    private final ConnectionPool connectionPool;
+
+    /**
+     * @param mailConfigBean The database to migrate
+     */
+    public SearchTextMigration(MailConfigBean mailConfigBean) {
+        this.connectionPool = ConnectionPool.getPool(mailConfigBean);
+    }
+
+    /**
+     * Fills the search text of every email that has none. Stops between two
+     * batches if the thread is interrupted.
+     *
+     * @return the number of emails whose search text was filled
+     * @throws SQLException
+     * @throws IOException if a compressed HTML message cannot be read
+     */
+    public int migrate() throws SQLException, IOException {
+        int filled = 0;
+        int lastEmailId = 0;
+        List<Integer> batch;
+        do {
+            batch = findEmailsWithoutSearchText(lastEmailId);
+            if (!batch.isEmpty()) {
+                filled += fillSearchText(batch);
+                lastEmailId = batch.get(batch.size() - 1);
+            }
+        } while (batch.size() == MIGRATION_BATCH_SIZE && !Thread.currentThread().isInterrupted());
+        if (filled > 0) {
+            LOG.info("The search text of " + filled + " emails has been filled");
+        }
+        return filled;
+    }
+
+    /**
+     * Runs the migration on a daemon thread, failures are logged.
+     *
+     * @return the thread, interrupt it to stop the migration
+     */
+    public Thread migrateInBackground() {
+        Thread thread = new Thread(() -> {
+            try {
+                migrate();
+            } catch (SQLException | IOException ex) {
+                LOG.error("Could not fill the search text of the emails", ex);
+            }
+        }, "jag-search-text");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * @param afterEmailId Only emails with a greater id are returned
+     * @return the ids of the next emails without search text
+     * @throws SQLException
+     */
+    private List<Integer> findEmailsWithoutSearchText(int afterEmailId) throws SQLException {
+        List<Integer> emailIds = new ArrayList<>();
+        String findEmailsQuery = "SELECT EMAILID FROM EMAIL WHERE EMAILID > ? AND SEARCHTEXT IS NULL ORDER BY EMAILID LIMIT ?";
+        try ( Connection connection = connectionPool.getConnection();  PreparedStatement ps = connection.prepareStatement(findEmailsQuery);) {
+            ps.setInt(1, afterEmailId);
+            ps.setInt(2, MIGRATION_BATCH_SIZE);
+            try ( ResultSet resultSet = ps.executeQuery();) {
+                while (resultSet.next()) {
+                    emailIds.add(resultSet.getInt("EMAILID"));
+                }
+            }
+        }
+        return emailIds;
+    }
+
+    /**
+     * Fills the search text of a batch of emails in one transaction. The rows
+     * are read again under a lock so an email saved by the EmailDAO since the
+     * batch was found keeps the search text it was saved with.
+     *
+     * @param emailIds
+     * @return the number of emails whose search text was filled
+     * @throws SQLException
+     * @throws IOException
+     */
+    private int fillSearchText(List<Integer> emailIds) throws SQLException, IOException {
+        String readBodyQuery = "SELECT TEXTMESSAGE, HTMLMESSAGE, HTMLBODY FROM EMAIL WHERE EMAILID = ? AND SEARCHTEXT IS NULL FOR UPDATE";
+        String fillQuery = "UPDATE EMAIL SET SEARCHTEXT = ? WHERE EMAILID = ?";
+        int filled = 0;
+        try ( Connection connection = connectionPool.getConnection();) {
+            connection.setAutoCommit(false);
+            try ( PreparedStatement read = connection.prepareStatement(readBodyQuery);  PreparedStatement fill = connection.prepareStatement(fillQuery);) {
+                for (int emailId : emailIds) {
+                    read.setInt(1, emailId);
+                    try ( ResultSet resultSet = read.executeQuery();) {
+                        //An email deleted or saved again meanwhile is left alone
+                        if (resultSet.next()) {
+                            byte[] htmlBody = resultSet.getBytes("HTMLBODY");
+                            String htmlText = htmlBody != null ? BodyCodec.decode(htmlBody) : resultSet.getString("HTMLMESSAGE");
+                            fill.setString(1, SearchText.of(resultSet.getString("TEXTMESSAGE"), htmlText, SearchText.findRecipients(connection, emailId)));
+                            fill.setInt(2, emailId);
+                            fill.addBatch();
+                            filled++;
+                        }
+                    }
+                }
+                if (filled > 0) {
+                    fill.executeBatch();
+                }
+                connection.commit();
+            } catch (SQLException | IOException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            }
+        }
+        return filled;
+    }
+}
@@ -0,0 +1,216 @@
+package com.danielsimonchin.properties;
+
+import java.util.Objects;
+
+/**
+ * Describes one row of the Attachments table without its content. The DAO
+ * returns these so that the bytes of an attachment are only read from the
+ * database when the attachment is opened or saved.
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public class AttachmentBean {
+
+    private int attachmentId;
+    private int emailId;
+    private String fileName;
+    private String contentId;
+    private boolean embedded;
+    private long size;
+    private String contentHash;
+    //The IMAP part of a received attachment that was not downloaded yet
+    private String imapPart;
+
+    /**
+     * Default constructor, assign empty values to the fields.
+     */
+    public AttachmentBean() {
+        this(0, 0, "", null, false, 0, null);
+    }
+
+    /**
+     * Initialize all the fields of the descriptor
+     *
+     * @param attachmentId
+     * @param emailId
+     * @param fileName
+     * @param contentId
+     * @param embedded
+     * @param size
+     * @param contentHash
+     */
+    public AttachmentBean(int attachmentId, int emailId, String fileName, String contentId, boolean embedded, long size, String contentHash) {
+        this.attachmentId = attachmentId;
+        this.emailId = emailId;
+        this.fileName = fileName;
+        this.contentId = contentId;
+        this.embedded = embedded;
+        this.size = size;
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * @return The AttachmentId
+     */
+    public int getAttachmentId() {
+        return attachmentId;
+    }
+
+    /**
+     * @param attachmentId
+     */
+    public void setAttachmentId(int attachmentId) {
+        this.attachmentId = attachmentId;
+    }
+
+    /**
+     * @return The id of the email the attachment belongs to
+     */
+    public int getEmailId() {
+        return emailId;
+    }
+
+    /**
+     * @param emailId
+     */
+    public void setEmailId(int emailId) {
+        this.emailId = emailId;
+    }
+
+    /**
+     * @return The attachment's file name
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @param fileName
+     */
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * @return The content id of an embedded attachment, may be null
+     */
+    public String getContentId() {
+        return contentId;
+    }
+
+    /**
+     * @param contentId
+     */
+    public void setContentId(String contentId) {
+        this.contentId = contentId;
+    }
+
+    /**
+     * @return true if the attachment is embedded in the html message
+     */
+    public boolean isEmbedded() {
+        return embedded;
+    }
+
+    /**
+     * @param embedded
+     */
+    public void setEmbedded(boolean embedded) {
+        this.embedded = embedded;
+    }
+
+    /**
+     * @return The size of the content in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @param size
+     */
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    /**
+     * @return The SHA-256 hash of the content, null if the attachment has no
+     * content
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * @param contentHash
+     */
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * @return The part number of the attachment in its IMAP message, null
+     * once the content is stored in the database
+     */
+    public String getImapPart() {
+        return imapPart;
+    }
+
+    /**
+     * @param imapPart
+     */
+    public void setImapPart(String imapPart) {
+        this.imapPart = imapPart;
+    }
+
+    /**
+     * @return true if the content is still on the IMAP server
+     */
+    public boolean isDeferred() {
+        return contentHash == null && imapPart != null;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        AttachmentBean other = (AttachmentBean) obj;
+        return attachmentId == other.attachmentId
+                && emailId == other.emailId
+                && embedded == other.embedded
+                && size == other.size
+                && Objects.equals(fileName, other.fileName)
+                && Objects.equals(contentId, other.contentId)
+                && Objects.equals(contentHash, other.contentHash)
+                && Objects.equals(imapPart, other.imapPart);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 5;
+        hash = 37 * hash + this.attachmentId;
+        hash = 37 * hash + this.emailId;
+        hash = 37 * hash + Objects.hashCode(this.fileName);
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("AttachmentBean{attachmentId=").append(attachmentId);
+        sb.append(", emailId=").append(emailId);
+        sb.append(", fileName=").append(fileName);
+        sb.append(", contentId=").append(contentId);
+        sb.append(", embedded=").append(embedded);
+        sb.append(", size=").append(size);
+        sb.append(", contentHash=").append(contentHash);
+        sb.append(", imapPart=").append(imapPart);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -6,7 +6,6 @@
 package com.danielsimonchin.properties;
 
 import com.danielsimonchin.fxbeans.EmailTableFXBean;
-import java.io.File;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
@@ -36,6 +35,13 @@ public class EmailBean {
     private int folderKey;
     private Timestamp receivedDate;
     public Email email;
+    //Where a received email is on the IMAP server, 0 if it was not received
+    private long imapUid;
+    private long imapUidValidity;
+    //The Message-ID header of a received email, null if it has none
+    private String messageId;
+    //False while only the headers of a received email have been saved
+    private boolean bodyLoaded = true;
 
     /**
      * Default constructor, assign empty values to the fields.
@@ -73,7 +79,7 @@ public class EmailBean {
     public EmailBean(int id, int folderKey, ReceivedEmail receivedEmail) {
         this.id = id;
         this.folderKey = folderKey;
-        this.receivedDate = new Timestamp(receivedEmail.sentDate().getTime());
+        this.receivedDate = new Timestamp(receivedEmail.sentDate() != null ? receivedEmail.sentDate().getTime() : System.currentTimeMillis());
         this.email = convertReceivedEmail(receivedEmail);
     }
 
@@ -87,19 +93,24 @@ public class EmailBean {
     private Email convertReceivedEmail(ReceivedEmail email) {
         Email resultEmail = Email.create().from(email.from())
                 .subject(email.subject())
-                .textMessage(email.messages().get(0).getContent())
-                .htmlMessage(email.messages().get(1).getContent())
                 .to(email.to())
                 .cc(email.cc());
+        //An email received with its envelope only has no messages yet
+        for (EmailMessage message : email.messages()) {
+            if (message.getMimeType().equals("text/html")) {
+                resultEmail.htmlMessage(message.getContent());
+            } else {
+                resultEmail.textMessage(message.getContent());
+            }
+        }
 
+        //The received attachments already hold their content
         List<EmailAttachment<? extends DataSource>> attachments = email.attachments();
-        //resultEmail.attachments(attachments);
-        for(EmailAttachment attachment : attachments){
-            if(attachment.isEmbedded()){
-                resultEmail.embeddedAttachment(EmailAttachment.with().content(new File(attachment.getName())));
-            }
-            else{
-                resultEmail.attachment(EmailAttachment.with().content(attachment.getName()));
+        for (EmailAttachment<? extends DataSource> attachment : attachments) {
+            if (attachment.isEmbedded()) {
+                resultEmail.embeddedAttachment(attachment);
+            } else {
+                resultEmail.attachment(attachment);
             }
         }
 
@@ -148,6 +159,64 @@ public class EmailBean {
         this.receivedDate = receivedDate;
     }
 
+    /**
+     * @return The UID of the message on the IMAP server, 0 if the email was
+     * not received
+     */
+    public long getImapUid() {
+        return this.imapUid;
+    }
+
+    /**
+     * @param imapUid
+     */
+    public void setImapUid(long imapUid) {
+        this.imapUid = imapUid;
+    }
+
+    /**
+     * @return The UIDVALIDITY of the folder the message was received from
+     */
+    public long getImapUidValidity() {
+        return this.imapUidValidity;
+    }
+
+    /**
+     * @param imapUidValidity
+     */
+    public void setImapUidValidity(long imapUidValidity) {
+        this.imapUidValidity = imapUidValidity;
+    }
+
+    /**
+     * @return The Message-ID of a received email, null if it was not received
+     * or has none
+     */
+    public String getMessageId() {
+        return this.messageId;
+    }
+
+    /**
+     * @param messageId
+     */
+    public void setMessageId(String messageId) {
+        this.messageId = messageId;
+    }
+
+    /**
+     * @return false while only the headers of the email have been received
+     */
+    public boolean isBodyLoaded() {
+        return this.bodyLoaded;
+    }
+
+    /**
+     * @param bodyLoaded
+     */
+    public void setBodyLoaded(boolean bodyLoaded) {
+        this.bodyLoaded = bodyLoaded;
+    }
+
     /**
      * An override of the equals method to compare two EmailBean objects and
      * their Email fields.
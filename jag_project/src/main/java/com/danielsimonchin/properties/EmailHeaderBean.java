@@ -0,0 +1,212 @@
+package com.danielsimonchin.properties;
+
+import com.danielsimonchin.fxbeans.EmailTableFXBean;
+import java.sql.Timestamp;
+import java.util.Objects;
+import jodd.mail.EmailAddress;
+
+/**
+ * A lightweight bean holding only the header fields of an email. It is what
+ * the email table needs to display a row, so the message bodies and the
+ * attachments are not loaded until an email is selected.
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public class EmailHeaderBean {
+
+    private int id;
+    private String fromAddress;
+    private String subject;
+    private Timestamp sentDate;
+    private Timestamp receivedDate;
+    private int folderKey;
+    private int attachmentCount;
+
+    /**
+     * Default constructor, assign empty values to the fields.
+     */
+    public EmailHeaderBean() {
+        this(0, "", "", null, null, 0, 0);
+    }
+
+    /**
+     * Initialize all the header fields
+     *
+     * @param id
+     * @param fromAddress
+     * @param subject
+     * @param sentDate
+     * @param receivedDate
+     * @param folderKey
+     * @param attachmentCount
+     */
+    public EmailHeaderBean(int id, String fromAddress, String subject, Timestamp sentDate, Timestamp receivedDate, int folderKey, int attachmentCount) {
+        this.id = id;
+        this.fromAddress = fromAddress;
+        this.subject = subject;
+        this.sentDate = sentDate;
+        this.receivedDate = receivedDate;
+        this.folderKey = folderKey;
+        this.attachmentCount = attachmentCount;
+    }
+
+    /**
+     * @return The email's id
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @param id
+     */
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    /**
+     * @return The from address as it is stored in the Email table
+     */
+    public String getFromAddress() {
+        return fromAddress;
+    }
+
+    /**
+     * @param fromAddress
+     */
+    public void setFromAddress(String fromAddress) {
+        this.fromAddress = fromAddress;
+    }
+
+    /**
+     * @return The email's subject
+     */
+    public String getSubject() {
+        return subject;
+    }
+
+    /**
+     * @param subject
+     */
+    public void setSubject(String subject) {
+        this.subject = subject;
+    }
+
+    /**
+     * @return The date the email was sent, null for drafts
+     */
+    public Timestamp getSentDate() {
+        return sentDate;
+    }
+
+    /**
+     * @param sentDate
+     */
+    public void setSentDate(Timestamp sentDate) {
+        this.sentDate = sentDate;
+    }
+
+    /**
+     * @return The date the email was received, null for drafts
+     */
+    public Timestamp getReceivedDate() {
+        return receivedDate;
+    }
+
+    /**
+     * @param receivedDate
+     */
+    public void setReceivedDate(Timestamp receivedDate) {
+        this.receivedDate = receivedDate;
+    }
+
+    /**
+     * @return The FolderId
+     */
+    public int getFolderKey() {
+        return folderKey;
+    }
+
+    /**
+     * @param folderKey
+     */
+    public void setFolderKey(int folderKey) {
+        this.folderKey = folderKey;
+    }
+
+    /**
+     * @return The number of attachments the email has
+     */
+    public int getAttachmentCount() {
+        return attachmentCount;
+    }
+
+    /**
+     * @param attachmentCount
+     */
+    public void setAttachmentCount(int attachmentCount) {
+        this.attachmentCount = attachmentCount;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        EmailHeaderBean other = (EmailHeaderBean) obj;
+        return id == other.id
+                && folderKey == other.folderKey
+                && attachmentCount == other.attachmentCount
+                && Objects.equals(fromAddress, other.fromAddress)
+                && Objects.equals(subject, other.subject)
+                && Objects.equals(sentDate, other.sentDate)
+                && Objects.equals(receivedDate, other.receivedDate);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 7;
+        hash = 41 * hash + this.id;
+        hash = 41 * hash + this.folderKey;
+        hash = 41 * hash + Objects.hashCode(this.subject);
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("EmailHeaderBean{id=").append(id);
+        sb.append(", fromAddress=").append(fromAddress);
+        sb.append(", subject=").append(subject);
+        sb.append(", sentDate=").append(sentDate);
+        sb.append(", receivedDate=").append(receivedDate);
+        sb.append(", folderKey=").append(folderKey);
+        sb.append(", attachmentCount=").append(attachmentCount);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /**
+     * A conversion method from EmailHeaderBean to EmailTableFXBean. Uses the
+     * same date rules as EmailBean: the received date, otherwise the sent
+     * date, and no date for drafts.
+     *
+     * @return the resulting EmailTableFXBean
+     */
+    public EmailTableFXBean convertToEmailTableFXBean() {
+        String from = fromAddress == null || fromAddress.isEmpty() ? "" : EmailAddress.of(fromAddress).getEmail();
+        if (this.receivedDate == null) {
+            //if there is no received or sent date, it is a draft email.
+            if (this.sentDate == null) {
+                return new EmailTableFXBean(id, from, subject, null);
+            }
+            //returning a sent email
+            return new EmailTableFXBean(id, from, subject, sentDate.toLocalDateTime());
+        }
+        return new EmailTableFXBean(id, from, subject, receivedDate.toLocalDateTime());
+    }
+}
@@ -1,5 +1,7 @@
 package com.danielsimonchin.properties;
 
+import java.io.File;
+
 /**
  * Class which contains fields relating to a email server connection and a
  * database connection. This bean will be used in both the SendAndReceive
@@ -11,6 +13,10 @@ package com.danielsimonchin.properties;
  */
 public class MailConfigBean {
 
+    //The values accepted for the attachmentStore setting
+    public final static String DATABASE_ATTACHMENT_STORE = "database";
+    public final static String FILESYSTEM_ATTACHMENT_STORE = "filesystem";
+
     private String name;
     private String userEmailAddress;
     private String password;
@@ -23,6 +29,30 @@ public class MailConfigBean {
     private String databasePort;
     private String databaseUserName;
     private String databasePassword;
+    private int databasePoolSize;
+    private int databasePoolBorrowTimeout;
+    private int databasePoolValidationTimeout;
+    private int databasePoolIdleTimeout;
+    private String attachmentCacheDirectory;
+    private String attachmentStoreType;
+    private String attachmentStoreDirectory;
+    private int addressCacheSize;
+    private int addressCacheWarmUpSize;
+    private int receiveBatchSize;
+    private int receiveQueueCapacity;
+    private int imapPollInterval;
+    private boolean receiveHeadersFirst;
+    private int attachmentPrefetchLimit;
+    private int smtpPoolSize;
+    private int smtpIdleTimeout;
+    private int outboxWorkers;
+    private int outboxMaxAttempts;
+    private int smtpRateLimit;
+    private int databaseWorkers;
+    private int emailCacheMaxBytes;
+    private int folderDeleteChunkSize;
+    private int bodyCompressionMinLength;
+    private int draftAutosaveDelayMillis;
 
     /**
      * Default Constructor, sets everything as an empty string
@@ -40,6 +70,7 @@ public class MailConfigBean {
         this.databasePort = "";
         this.databaseUserName = "";
         this.databasePassword = "";
+        setDefaultTuningSettings();
     }
 
     /**
@@ -72,6 +103,38 @@ public class MailConfigBean {
         this.databasePort = databasePort;
         this.databaseUserName = databaseUserName;
         this.databasePassword = databasePassword;
+        setDefaultTuningSettings();
+    }
+
+    /**
+     * The connection pool and attachment settings are optional in the
+     * properties file, so both constructors start from these defaults.
+     */
+    private void setDefaultTuningSettings() {
+        this.databasePoolSize = 10;
+        this.databasePoolBorrowTimeout = 30;
+        this.databasePoolValidationTimeout = 2;
+        this.databasePoolIdleTimeout = 300;
+        this.attachmentCacheDirectory = System.getProperty("java.io.tmpdir") + File.separator + "jag-attachment-cache";
+        this.attachmentStoreType = DATABASE_ATTACHMENT_STORE;
+        this.attachmentStoreDirectory = System.getProperty("user.home") + File.separator + "jag-attachments";
+        this.addressCacheSize = 10000;
+        this.addressCacheWarmUpSize = 500;
+        this.receiveBatchSize = 50;
+        this.receiveQueueCapacity = 100;
+        this.imapPollInterval = 30;
+        this.receiveHeadersFirst = true;
+        this.attachmentPrefetchLimit = 1024 * 1024;
+        this.smtpPoolSize = 2;
+        this.smtpIdleTimeout = 60;
+        this.outboxWorkers = 2;
+        this.outboxMaxAttempts = 8;
+        this.smtpRateLimit = 60;
+        this.databaseWorkers = 4;
+        this.emailCacheMaxBytes = 16 * 1024 * 1024;
+        this.folderDeleteChunkSize = 1000;
+        this.bodyCompressionMinLength = 1024;
+        this.draftAutosaveDelayMillis = 2000;
     }
 
     /**
@@ -242,6 +305,353 @@ public class MailConfigBean {
         this.databasePassword = databasePassword;
     }
 
+    /**
+     * @return the maximum number of pooled database connections
+     */
+    public final int getDatabasePoolSize() {
+        return this.databasePoolSize;
+    }
+
+    /**
+     * @param databasePoolSize
+     */
+    public final void setDatabasePoolSize(final int databasePoolSize) {
+        this.databasePoolSize = databasePoolSize;
+    }
+
+    /**
+     * @return how many seconds to wait for a free pooled connection
+     */
+    public final int getDatabasePoolBorrowTimeout() {
+        return this.databasePoolBorrowTimeout;
+    }
+
+    /**
+     * @param databasePoolBorrowTimeout
+     */
+    public final void setDatabasePoolBorrowTimeout(final int databasePoolBorrowTimeout) {
+        this.databasePoolBorrowTimeout = databasePoolBorrowTimeout;
+    }
+
+    /**
+     * @return how many seconds to wait when validating an idle connection
+     */
+    public final int getDatabasePoolValidationTimeout() {
+        return this.databasePoolValidationTimeout;
+    }
+
+    /**
+     * @param databasePoolValidationTimeout
+     */
+    public final void setDatabasePoolValidationTimeout(final int databasePoolValidationTimeout) {
+        this.databasePoolValidationTimeout = databasePoolValidationTimeout;
+    }
+
+    /**
+     * @return how many seconds an idle connection is kept before being closed
+     */
+    public final int getDatabasePoolIdleTimeout() {
+        return this.databasePoolIdleTimeout;
+    }
+
+    /**
+     * @param databasePoolIdleTimeout
+     */
+    public final void setDatabasePoolIdleTimeout(final int databasePoolIdleTimeout) {
+        this.databasePoolIdleTimeout = databasePoolIdleTimeout;
+    }
+
+    /**
+     * @return the directory where attachment contents are cached once read
+     * from the database
+     */
+    public final String getAttachmentCacheDirectory() {
+        return this.attachmentCacheDirectory;
+    }
+
+    /**
+     * @param attachmentCacheDirectory
+     */
+    public final void setAttachmentCacheDirectory(final String attachmentCacheDirectory) {
+        this.attachmentCacheDirectory = attachmentCacheDirectory;
+    }
+
+    /**
+     * @return where attachment contents are stored, DATABASE_ATTACHMENT_STORE
+     * or FILESYSTEM_ATTACHMENT_STORE
+     */
+    public final String getAttachmentStoreType() {
+        return this.attachmentStoreType;
+    }
+
+    /**
+     * @param attachmentStoreType
+     */
+    public final void setAttachmentStoreType(final String attachmentStoreType) {
+        this.attachmentStoreType = attachmentStoreType;
+    }
+
+    /**
+     * @return the directory of the file system attachment store
+     */
+    public final String getAttachmentStoreDirectory() {
+        return this.attachmentStoreDirectory;
+    }
+
+    /**
+     * @param attachmentStoreDirectory
+     */
+    public final void setAttachmentStoreDirectory(final String attachmentStoreDirectory) {
+        this.attachmentStoreDirectory = attachmentStoreDirectory;
+    }
+
+    /**
+     * @return the most email addresses kept in the address id cache
+     */
+    public final int getAddressCacheSize() {
+        return this.addressCacheSize;
+    }
+
+    /**
+     * @param addressCacheSize
+     */
+    public final void setAddressCacheSize(final int addressCacheSize) {
+        this.addressCacheSize = addressCacheSize;
+    }
+
+    /**
+     * @return the number of most frequent correspondents loaded into the
+     * address id cache before its first use
+     */
+    public final int getAddressCacheWarmUpSize() {
+        return this.addressCacheWarmUpSize;
+    }
+
+    /**
+     * @param addressCacheWarmUpSize
+     */
+    public final void setAddressCacheWarmUpSize(final int addressCacheWarmUpSize) {
+        this.addressCacheWarmUpSize = addressCacheWarmUpSize;
+    }
+
+    /**
+     * @return the number of received emails committed per transaction
+     */
+    public final int getReceiveBatchSize() {
+        return this.receiveBatchSize;
+    }
+
+    /**
+     * @param receiveBatchSize
+     */
+    public final void setReceiveBatchSize(final int receiveBatchSize) {
+        this.receiveBatchSize = receiveBatchSize;
+    }
+
+    /**
+     * @return the most messages waiting between two stages of the inbox sync
+     */
+    public final int getReceiveQueueCapacity() {
+        return this.receiveQueueCapacity;
+    }
+
+    /**
+     * @param receiveQueueCapacity
+     */
+    public final void setReceiveQueueCapacity(final int receiveQueueCapacity) {
+        this.receiveQueueCapacity = receiveQueueCapacity;
+    }
+
+    /**
+     * @return the seconds between two checks for new mail when the IMAP
+     * server does not support IDLE
+     */
+    public final int getImapPollInterval() {
+        return this.imapPollInterval;
+    }
+
+    /**
+     * @param imapPollInterval
+     */
+    public final void setImapPollInterval(final int imapPollInterval) {
+        this.imapPollInterval = imapPollInterval;
+    }
+
+    /**
+     * @return true if received emails are saved with their headers only and
+     * their bodies are fetched when they are opened or in the background
+     */
+    public final boolean isReceiveHeadersFirst() {
+        return this.receiveHeadersFirst;
+    }
+
+    /**
+     * @param receiveHeadersFirst
+     */
+    public final void setReceiveHeadersFirst(final boolean receiveHeadersFirst) {
+        this.receiveHeadersFirst = receiveHeadersFirst;
+    }
+
+    /**
+     * @return the size in bytes above which an attachment is only downloaded
+     * when it is opened or saved
+     */
+    public final int getAttachmentPrefetchLimit() {
+        return this.attachmentPrefetchLimit;
+    }
+
+    /**
+     * @param attachmentPrefetchLimit
+     */
+    public final void setAttachmentPrefetchLimit(final int attachmentPrefetchLimit) {
+        this.attachmentPrefetchLimit = attachmentPrefetchLimit;
+    }
+
+    /**
+     * @return the maximum number of SMTP sessions kept open for the account
+     */
+    public final int getSmtpPoolSize() {
+        return this.smtpPoolSize;
+    }
+
+    /**
+     * @param smtpPoolSize
+     */
+    public final void setSmtpPoolSize(final int smtpPoolSize) {
+        this.smtpPoolSize = smtpPoolSize;
+    }
+
+    /**
+     * @return the seconds an SMTP session may stay unused before it is closed
+     */
+    public final int getSmtpIdleTimeout() {
+        return this.smtpIdleTimeout;
+    }
+
+    /**
+     * @param smtpIdleTimeout
+     */
+    public final void setSmtpIdleTimeout(final int smtpIdleTimeout) {
+        this.smtpIdleTimeout = smtpIdleTimeout;
+    }
+
+    /**
+     * @return the number of threads sending the emails of the outbox
+     */
+    public final int getOutboxWorkers() {
+        return this.outboxWorkers;
+    }
+
+    /**
+     * @param outboxWorkers
+     */
+    public final void setOutboxWorkers(final int outboxWorkers) {
+        this.outboxWorkers = outboxWorkers;
+    }
+
+    /**
+     * @return the number of times an email of the outbox is tried before it
+     * is marked as failed
+     */
+    public final int getOutboxMaxAttempts() {
+        return this.outboxMaxAttempts;
+    }
+
+    /**
+     * @param outboxMaxAttempts
+     */
+    public final void setOutboxMaxAttempts(final int outboxMaxAttempts) {
+        this.outboxMaxAttempts = outboxMaxAttempts;
+    }
+
+    /**
+     * @return the most emails sent to the SMTP server per minute
+     */
+    public final int getSmtpRateLimit() {
+        return this.smtpRateLimit;
+    }
+
+    /**
+     * @param smtpRateLimit
+     */
+    public final void setSmtpRateLimit(final int smtpRateLimit) {
+        this.smtpRateLimit = smtpRateLimit;
+    }
+
+    /**
+     * @return the number of threads running the database calls of the UI
+     */
+    public final int getDatabaseWorkers() {
+        return this.databaseWorkers;
+    }
+
+    /**
+     * @param databaseWorkers
+     */
+    public final void setDatabaseWorkers(final int databaseWorkers) {
+        this.databaseWorkers = databaseWorkers;
+    }
+
+    /**
+     * @return the most memory used by the emails cached by the EmailDAO, 0 to
+     * disable the cache
+     */
+    public final int getEmailCacheMaxBytes() {
+        return this.emailCacheMaxBytes;
+    }
+
+    /**
+     * @param emailCacheMaxBytes
+     */
+    public final void setEmailCacheMaxBytes(final int emailCacheMaxBytes) {
+        this.emailCacheMaxBytes = emailCacheMaxBytes;
+    }
+
+    /**
+     * @return the number of emails deleted per transaction when a folder is
+     * deleted
+     */
+    public final int getFolderDeleteChunkSize() {
+        return this.folderDeleteChunkSize;
+    }
+
+    /**
+     * @param folderDeleteChunkSize
+     */
+    public final void setFolderDeleteChunkSize(final int folderDeleteChunkSize) {
+        this.folderDeleteChunkSize = folderDeleteChunkSize;
+    }
+
+    /**
+     * @return the fewest characters an HTML message must have to be stored
+     * compressed, 0 to store every message as text
+     */
+    public final int getBodyCompressionMinLength() {
+        return this.bodyCompressionMinLength;
+    }
+
+    /**
+     * @param bodyCompressionMinLength
+     */
+    public final void setBodyCompressionMinLength(final int bodyCompressionMinLength) {
+        this.bodyCompressionMinLength = bodyCompressionMinLength;
+    }
+
+    /**
+     * @return how long the edits of a draft are collected before it is saved,
+     * in milliseconds
+     */
+    public final int getDraftAutosaveDelayMillis() {
+        return this.draftAutosaveDelayMillis;
+    }
+
+    /**
+     * @param draftAutosaveDelayMillis
+     */
+    public final void setDraftAutosaveDelayMillis(final int draftAutosaveDelayMillis) {
+        this.draftAutosaveDelayMillis = draftAutosaveDelayMillis;
+    }
+
     /**
      * Override of the toString which displays all the fields of the
      * MailConfigBean
@@ -263,6 +673,30 @@ public class MailConfigBean {
         sb.append(", databasePort=").append(databasePort);
         sb.append(", databaseUserName=").append(databaseUserName);
         sb.append(", databasePassword=").append(databasePassword);
+        sb.append(", databasePoolSize=").append(databasePoolSize);
+        sb.append(", databasePoolBorrowTimeout=").append(databasePoolBorrowTimeout);
+        sb.append(", databasePoolValidationTimeout=").append(databasePoolValidationTimeout);
+        sb.append(", databasePoolIdleTimeout=").append(databasePoolIdleTimeout);
+        sb.append(", attachmentCacheDirectory=").append(attachmentCacheDirectory);
+        sb.append(", attachmentStoreType=").append(attachmentStoreType);
+        sb.append(", attachmentStoreDirectory=").append(attachmentStoreDirectory);
+        sb.append(", addressCacheSize=").append(addressCacheSize);
+        sb.append(", addressCacheWarmUpSize=").append(addressCacheWarmUpSize);
+        sb.append(", receiveBatchSize=").append(receiveBatchSize);
+        sb.append(", receiveQueueCapacity=").append(receiveQueueCapacity);
+        sb.append(", imapPollInterval=").append(imapPollInterval);
+        sb.append(", receiveHeadersFirst=").append(receiveHeadersFirst);
+        sb.append(", attachmentPrefetchLimit=").append(attachmentPrefetchLimit);
+        sb.append(", smtpPoolSize=").append(smtpPoolSize);
+        sb.append(", smtpIdleTimeout=").append(smtpIdleTimeout);
+        sb.append(", outboxWorkers=").append(outboxWorkers);
+        sb.append(", outboxMaxAttempts=").append(outboxMaxAttempts);
+        sb.append(", smtpRateLimit=").append(smtpRateLimit);
+        sb.append(", databaseWorkers=").append(databaseWorkers);
+        sb.append(", emailCacheMaxBytes=").append(emailCacheMaxBytes);
+        sb.append(", folderDeleteChunkSize=").append(folderDeleteChunkSize);
+        sb.append(", bodyCompressionMinLength=").append(bodyCompressionMinLength);
+        sb.append(", draftAutosaveDelayMillis=").append(draftAutosaveDelayMillis);
         sb.append('}');
         return sb.toString();
     }
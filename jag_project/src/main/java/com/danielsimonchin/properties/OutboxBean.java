@@ -0,0 +1,178 @@
+package com.danielsimonchin.properties;
+
+import java.sql.Timestamp;
+import java.util.Objects;
+
+/**
+ * One email waiting to be sent, a row of the Outbox table. The email itself
+ * stays in the DRAFT folder until the OutboxSender has sent it.
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public class OutboxBean {
+
+    //Waiting for its next attempt
+    public final static String PENDING = "PENDING";
+    //Claimed by a send worker
+    public final static String SENDING = "SENDING";
+    //Sent and moved to the SENT folder, the row no longer exists
+    public final static String SENT = "SENT";
+    //Gave up after too many attempts or because the email cannot be sent
+    public final static String FAILED = "FAILED";
+
+    private int outboxId;
+    private int emailId;
+    private String status;
+    private int attempts;
+    private Timestamp nextAttempt;
+    private String lastError;
+
+    /**
+     * Default constructor, assign empty values to the fields.
+     */
+    public OutboxBean() {
+        this(0, 0, PENDING, 0, null, null);
+    }
+
+    /**
+     * Initialize all the fields of the outbox entry
+     *
+     * @param outboxId
+     * @param emailId The email to send
+     * @param status
+     * @param attempts The number of failed attempts
+     * @param nextAttempt
+     * @param lastError
+     */
+    public OutboxBean(int outboxId, int emailId, String status, int attempts, Timestamp nextAttempt, String lastError) {
+        this.outboxId = outboxId;
+        this.emailId = emailId;
+        this.status = status;
+        this.attempts = attempts;
+        this.nextAttempt = nextAttempt;
+        this.lastError = lastError;
+    }
+
+    /**
+     * @return The OutboxId
+     */
+    public int getOutboxId() {
+        return outboxId;
+    }
+
+    /**
+     * @param outboxId
+     */
+    public void setOutboxId(int outboxId) {
+        this.outboxId = outboxId;
+    }
+
+    /**
+     * @return The id of the email to send
+     */
+    public int getEmailId() {
+        return emailId;
+    }
+
+    /**
+     * @param emailId
+     */
+    public void setEmailId(int emailId) {
+        this.emailId = emailId;
+    }
+
+    /**
+     * @return One of PENDING, SENDING, SENT or FAILED
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * @param status
+     */
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    /**
+     * @return The number of failed attempts
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @param attempts
+     */
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    /**
+     * @return When the email may be sent again
+     */
+    public Timestamp getNextAttempt() {
+        return nextAttempt;
+    }
+
+    /**
+     * @param nextAttempt
+     */
+    public void setNextAttempt(Timestamp nextAttempt) {
+        this.nextAttempt = nextAttempt;
+    }
+
+    /**
+     * @return The error of the last failed attempt, null if there was none
+     */
+    public String getLastError() {
+        return lastError;
+    }
+
+    /**
+     * @param lastError
+     */
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        OutboxBean other = (OutboxBean) obj;
+        return outboxId == other.outboxId
+                && emailId == other.emailId
+                && attempts == other.attempts
+                && Objects.equals(status, other.status)
+                && Objects.equals(nextAttempt, other.nextAttempt)
+                && Objects.equals(lastError, other.lastError);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 3;
+        hash = 59 * hash + this.outboxId;
+        hash = 59 * hash + this.emailId;
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("OutboxBean{outboxId=").append(outboxId);
+        sb.append(", emailId=").append(emailId);
+        sb.append(", status=").append(status);
+        sb.append(", attempts=").append(attempts);
+        sb.append(", nextAttempt=").append(nextAttempt);
+        sb.append(", lastError=").append(lastError);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,132 @@
+package com.danielsimonchin.properties;
+
+import java.util.Objects;
+
+/**
+ * How far a folder of an IMAP account has been received, one row of the
+ * SyncState table. UIDs are only meaningful together with the UIDVALIDITY of
+ * the folder they were read from, when the server changes the UIDVALIDITY the
+ * saved last UID no longer applies.
+ *
+ * @author Daniel Simon Chin
+ * @version Oct 17, 2026
+ */
+public class SyncStateBean {
+
+    private String account;
+    private String mailbox;
+    private long uidValidity;
+    private long lastUid;
+
+    /**
+     * Default constructor, assign empty values to the fields.
+     */
+    public SyncStateBean() {
+        this("", "", 0, 0);
+    }
+
+    /**
+     * Initialize all the fields of the sync state
+     *
+     * @param account The email address of the account
+     * @param mailbox The name of the folder on the IMAP server
+     * @param uidValidity
+     * @param lastUid The highest UID received
+     */
+    public SyncStateBean(String account, String mailbox, long uidValidity, long lastUid) {
+        this.account = account;
+        this.mailbox = mailbox;
+        this.uidValidity = uidValidity;
+        this.lastUid = lastUid;
+    }
+
+    /**
+     * @return The email address of the account
+     */
+    public String getAccount() {
+        return account;
+    }
+
+    /**
+     * @param account
+     */
+    public void setAccount(String account) {
+        this.account = account;
+    }
+
+    /**
+     * @return The name of the folder on the IMAP server
+     */
+    public String getMailbox() {
+        return mailbox;
+    }
+
+    /**
+     * @param mailbox
+     */
+    public void setMailbox(String mailbox) {
+        this.mailbox = mailbox;
+    }
+
+    /**
+     * @return The UIDVALIDITY of the folder when it was last received
+     */
+    public long getUidValidity() {
+        return uidValidity;
+    }
+
+    /**
+     * @param uidValidity
+     */
+    public void setUidValidity(long uidValidity) {
+        this.uidValidity = uidValidity;
+    }
+
+    /**
+     * @return The highest UID received
+     */
+    public long getLastUid() {
+        return lastUid;
+    }
+
+    /**
+     * @param lastUid
+     */
+    public void setLastUid(long lastUid) {
+        this.lastUid = lastUid;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        SyncStateBean other = (SyncStateBean) obj;
+        return uidValidity == other.uidValidity
+                && lastUid == other.lastUid
+                && Objects.equals(account, other.account)
+                && Objects.equals(mailbox, other.mailbox);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 7;
+        hash = 41 * hash + Objects.hashCode(this.account);
+        hash = 41 * hash + Objects.hashCode(this.mailbox);
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("SyncStateBean{account=").append(account);
+        sb.append(", mailbox=").append(mailbox);
+        sb.append(", uidValidity=").append(uidValidity);
+        sb.append(", lastUid=").append(lastUid);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -1,6 +1,7 @@
 package com.danielsimonchin.propertiesmanager;
 
 import com.danielsimonchin.fxbeans.MailConfigFXBean;
+import com.danielsimonchin.properties.MailConfigBean;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -57,6 +58,78 @@ public class PropertiesManager {
         return found;
     }
 
+    /**
+     * Updates the optional tuning settings of a MailConfigBean, such as the
+     * database connection pool, with the contents of the properties file.
+     * Settings that are missing or not numbers keep the bean's defaults.
+     *
+     * @param mailConfigBean
+     * @param path
+     * @param propFileName
+     * @return true if the file's properties have been loaded, false otherwise.
+     * @throws IOException
+     */
+    public final boolean loadTuningProperties(final MailConfigBean mailConfigBean, final String path, final String propFileName) throws IOException {
+
+        boolean found = false;
+        Properties prop = new Properties();
+
+        Path txtFile = get(path, propFileName + ".properties");
+
+        if (Files.exists(txtFile)) {
+            try ( InputStream propFileStream = newInputStream(txtFile);) {
+                prop.load(propFileStream);
+            }
+            mailConfigBean.setDatabasePoolSize(getIntProperty(prop, "mysqlPoolSize", mailConfigBean.getDatabasePoolSize()));
+            mailConfigBean.setDatabasePoolBorrowTimeout(getIntProperty(prop, "mysqlPoolBorrowTimeout", mailConfigBean.getDatabasePoolBorrowTimeout()));
+            mailConfigBean.setDatabasePoolValidationTimeout(getIntProperty(prop, "mysqlPoolValidationTimeout", mailConfigBean.getDatabasePoolValidationTimeout()));
+            mailConfigBean.setDatabasePoolIdleTimeout(getIntProperty(prop, "mysqlPoolIdleTimeout", mailConfigBean.getDatabasePoolIdleTimeout()));
+            mailConfigBean.setAttachmentCacheDirectory(prop.getProperty("attachmentCacheDirectory", mailConfigBean.getAttachmentCacheDirectory()));
+            mailConfigBean.setAttachmentStoreType(prop.getProperty("attachmentStore", mailConfigBean.getAttachmentStoreType()));
+            mailConfigBean.setAttachmentStoreDirectory(prop.getProperty("attachmentStoreDirectory", mailConfigBean.getAttachmentStoreDirectory()));
+            mailConfigBean.setAddressCacheSize(getIntProperty(prop, "addressCacheSize", mailConfigBean.getAddressCacheSize()));
+            mailConfigBean.setAddressCacheWarmUpSize(getIntProperty(prop, "addressCacheWarmUpSize", mailConfigBean.getAddressCacheWarmUpSize()));
+            mailConfigBean.setReceiveBatchSize(getIntProperty(prop, "receiveBatchSize", mailConfigBean.getReceiveBatchSize()));
+            mailConfigBean.setReceiveQueueCapacity(getIntProperty(prop, "receiveQueueCapacity", mailConfigBean.getReceiveQueueCapacity()));
+            mailConfigBean.setImapPollInterval(getIntProperty(prop, "imapPollInterval", mailConfigBean.getImapPollInterval()));
+            mailConfigBean.setReceiveHeadersFirst(Boolean.parseBoolean(prop.getProperty("receiveHeadersFirst", String.valueOf(mailConfigBean.isReceiveHeadersFirst())).trim()));
+            mailConfigBean.setAttachmentPrefetchLimit(getIntProperty(prop, "attachmentPrefetchLimit", mailConfigBean.getAttachmentPrefetchLimit()));
+            mailConfigBean.setSmtpPoolSize(getIntProperty(prop, "smtpPoolSize", mailConfigBean.getSmtpPoolSize()));
+            mailConfigBean.setSmtpIdleTimeout(getIntProperty(prop, "smtpIdleTimeout", mailConfigBean.getSmtpIdleTimeout()));
+            mailConfigBean.setOutboxWorkers(getIntProperty(prop, "outboxWorkers", mailConfigBean.getOutboxWorkers()));
+            mailConfigBean.setOutboxMaxAttempts(getIntProperty(prop, "outboxMaxAttempts", mailConfigBean.getOutboxMaxAttempts()));
+            mailConfigBean.setSmtpRateLimit(getIntProperty(prop, "smtpRateLimit", mailConfigBean.getSmtpRateLimit()));
+            mailConfigBean.setDatabaseWorkers(getIntProperty(prop, "databaseWorkers", mailConfigBean.getDatabaseWorkers()));
+            mailConfigBean.setEmailCacheMaxBytes(getIntProperty(prop, "emailCacheMaxBytes", mailConfigBean.getEmailCacheMaxBytes()));
+            mailConfigBean.setFolderDeleteChunkSize(getIntProperty(prop, "folderDeleteChunkSize", mailConfigBean.getFolderDeleteChunkSize()));
+            mailConfigBean.setBodyCompressionMinLength(getIntProperty(prop, "bodyCompressionMinLength", mailConfigBean.getBodyCompressionMinLength()));
+            mailConfigBean.setDraftAutosaveDelayMillis(getIntProperty(prop, "draftAutosaveDelayMillis", mailConfigBean.getDraftAutosaveDelayMillis()));
+            found = true;
+        }
+        return found;
+    }
+
+    /**
+     * Read an int property, falling back to a default value when the property
+     * is missing or is not a number.
+     *
+     * @param prop
+     * @param key
+     * @param defaultValue
+     * @return the int value of the property
+     */
+    private int getIntProperty(final Properties prop, final String key, final int defaultValue) {
+        String value = prop.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            return defaultValue;
+        }
+    }
+
     /**
      * Creates a plain text properties file based on the parameters
      *
@@ -69,6 +142,15 @@ public class PropertiesManager {
 
         Properties prop = new Properties();
 
+        Path txtFile = get(path, propFileName + ".properties");
+
+        // Keep the settings that are not part of the form, such as the pool settings
+        if (Files.exists(txtFile)) {
+            try ( InputStream propFileStream = newInputStream(txtFile);) {
+                prop.load(propFileStream);
+            }
+        }
+
         prop.setProperty("userName", propertyBean.getUserName());
         prop.setProperty("emailAddress", propertyBean.getEmailAddress());
         prop.setProperty("emailPassword", propertyBean.getEmailPassword());
@@ -82,8 +164,6 @@ public class PropertiesManager {
         prop.setProperty("mysqlUsername", propertyBean.getmysqlUsername());
         prop.setProperty("mysqlPassword", propertyBean.getmysqlPassword());
 
-        Path txtFile = get(path, propFileName + ".properties");
-
         // Creates the file or if file exists it is truncated to length of zero
         // before writing
         try ( OutputStream propFileStream = newOutputStream(txtFile)) {
@@ -1,5 +1,11 @@
 package com.danielsimonchin.runjag;
 
+import com.danielsimonchin.business.ImapIdleListener;
+import com.danielsimonchin.business.OutboxSender;
+import com.danielsimonchin.business.SmtpSessionPool;
+import com.danielsimonchin.persistence.AsyncEmailDAO;
+import com.danielsimonchin.persistence.ConnectionPool;
+import com.danielsimonchin.persistence.DraftAutosaver;
 import com.danielsimonchin.view.MailConfigFXMLController;
 import com.danielsimonchin.propertiesmanager.PropertiesManager;
 import com.danielsimonchin.fxbeans.MailConfigFXBean;
@@ -141,11 +147,18 @@ public class RunApp extends Application {
     }
 
     /**
-     * When the platform is exited, the last thing that happens is logging that
-     * the stage is closing
+     * When the platform is exited, close the IMAP sessions and the pooled
+     * database connections and log that the stage is closing
      */
     @Override
     public void stop() {
+        ImapIdleListener.stopAll();
+        OutboxSender.stopAll();
+        SmtpSessionPool.shutdownAll();
+        //The drafts waiting to be autosaved are written before the connections are closed
+        DraftAutosaver.shutdownAll();
+        AsyncEmailDAO.shutdownAll();
+        ConnectionPool.shutdownAll();
         LOG.info("Stage is closing");
     }
 
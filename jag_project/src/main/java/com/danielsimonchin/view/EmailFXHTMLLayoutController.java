@@ -1,5 +1,7 @@
 package com.danielsimonchin.view;
 
+import com.danielsimonchin.business.MessageBodyFetcher;
+import com.danielsimonchin.business.OutboxSender;
 import com.danielsimonchin.business.SendAndReceive;
 import com.danielsimonchin.exceptions.InvalidMailConfigBeanUsernameException;
 import com.danielsimonchin.exceptions.InvalidRecipientImapURLException;
@@ -10,18 +12,24 @@ import com.danielsimonchin.exceptions.RecipientInvalidFormatException;
 import com.danielsimonchin.exceptions.RecipientListNullException;
 import com.danielsimonchin.fxbeans.FormFXBean;
 import com.danielsimonchin.fxbeans.HTMLEditorFXBean;
+import com.danielsimonchin.persistence.AsyncEmailDAO;
+import com.danielsimonchin.persistence.DraftAutosaver;
 import com.danielsimonchin.persistence.EmailDAO;
+import com.danielsimonchin.persistence.LazyAttachmentDataSource;
+import com.danielsimonchin.properties.AttachmentBean;
 import com.danielsimonchin.properties.EmailBean;
 import com.danielsimonchin.properties.MailConfigBean;
+import com.danielsimonchin.properties.OutboxBean;
 import java.io.File;
-import java.io.IOException;
+import javax.activation.DataSource;
+import javax.activation.FileDataSource;
 import java.net.URL;
-import java.sql.SQLException;
-import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
+import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -29,6 +37,7 @@ import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.control.Alert;
 import javafx.scene.control.TextField;
+import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.web.HTMLEditor;
 import jodd.mail.Email;
@@ -54,6 +63,12 @@ public class EmailFXHTMLLayoutController {
     private MailConfigBean mailConfigBean;
 
     private EmailDAO emailDAO;
+
+    private AsyncEmailDAO asyncEmailDAO;
+
+    private DraftAutosaver draftAutosaver;
+
+    private MessageBodyFetcher bodyFetcher;
     @FXML
     private ResourceBundle resources;
 
@@ -84,6 +99,9 @@ public class EmailFXHTMLLayoutController {
     //the email that is selected will be passed to this controller.
     private EmailBean currentlySelectedEmail;
 
+    //Attachments of the selected email that are still on the IMAP server
+    private final List<AttachmentBean> deferredAttachments = new ArrayList<>();
+
     @FXML
     void initialize() {
         formFXBean = new FormFXBean();
@@ -93,11 +111,14 @@ public class EmailFXHTMLLayoutController {
         Bindings.bindBidirectional(ccRecipientField.textProperty(), formFXBean.getCcFieldProperty());
         Bindings.bindBidirectional(bccRecipientField.textProperty(), formFXBean.getBccFieldProperty());
         Bindings.bindBidirectional(subjectField.textProperty(), formFXBean.getSubjectFieldProperty());
+        //Typing in the form or the html editor of a draft schedules its autosave
+        emailFXHTMLLayout.addEventFilter(KeyEvent.KEY_RELEASED, event -> scheduleDraftAutosave());
     }
 
     /**
      * When the user clicks on an email, we must display its content in the form
-     * and html section of the app.
+     * and html section of the app. An email received with its headers only is
+     * displayed right away and again once its body has been downloaded.
      *
      * @param emailBean
      */
@@ -109,9 +130,15 @@ public class EmailFXHTMLLayoutController {
 
         currentlySelectedEmail = emailBean;
 
+        //The attachments were loaded into the attachment cache on the thread that read the email
         ObservableList<File> attachments = FXCollections.observableArrayList();
         emailBean.email.attachments().forEach(attachment -> {
-            attachments.add(new File(attachment.getName()));
+            //Large received attachments are only downloaded when they are saved
+            if (attachment.getDataSource() instanceof LazyAttachmentDataSource && ((LazyAttachmentDataSource) attachment.getDataSource()).getAttachment().isDeferred()) {
+                deferredAttachments.add(((LazyAttachmentDataSource) attachment.getDataSource()).getAttachment());
+            } else {
+                attachments.add(getAttachmentFile(attachment));
+            }
         });
 
         //set the formFXBean's attachments with the emailBean's attachments
@@ -139,10 +166,40 @@ public class EmailFXHTMLLayoutController {
         htmlEditorFXBean.setHtmlMessage(htmlWithoutImages);
 
         //For every image, display it in the html editor
-        emailBean.email.attachments().forEach(attachment -> {
-            displayImagesInHtml(new File(attachment.getName()));
+        attachments.forEach(attachment -> {
+            displayImagesInHtml(attachment);
         });
 
+        if (!emailBean.isBodyLoaded() && bodyFetcher != null) {
+            bodyFetcher.loadBodyAsync(emailBean, loadedEmail -> {
+                LazyAttachmentDataSource.loadAttachments(loadedEmail);
+                Platform.runLater(() -> {
+                    //The user may have selected another email in the meantime
+                    if (currentlySelectedEmail.getId() == loadedEmail.getId()) {
+                        clearFormAndHtmlEditor();
+                        displaySelectedEmail(loadedEmail);
+                    }
+                });
+            });
+        }
+    }
+
+    /**
+     * Returns the file holding an attachment's content. Attachments loaded by
+     * the EmailDAO are backed by a file in the attachment cache, others are
+     * looked up by their name. Nothing is read from the database here.
+     *
+     * @param attachment
+     * @return the attachment's file
+     */
+    private File getAttachmentFile(EmailAttachment<? extends DataSource> attachment) {
+        if (attachment.getDataSource() instanceof LazyAttachmentDataSource) {
+            return ((LazyAttachmentDataSource) attachment.getDataSource()).getCachedFile();
+        }
+        if (attachment.getDataSource() instanceof FileDataSource) {
+            return ((FileDataSource) attachment.getDataSource()).getFile();
+        }
+        return new File(attachment.getName());
     }
 
     /**
@@ -176,6 +233,27 @@ public class EmailFXHTMLLayoutController {
         this.emailDAO = emailDAO;
     }
 
+    /**
+     * The RootLayoutController calls this method to provide a reference to the
+     * AsyncEmailDAO object, emails are saved and deleted on its background
+     * threads.
+     *
+     * @param asyncEmailDAO
+     */
+    public void setAsyncEmailDAO(AsyncEmailDAO asyncEmailDAO) {
+        this.asyncEmailDAO = asyncEmailDAO;
+    }
+
+    /**
+     * The RootLayoutController calls this method to provide the DraftAutosaver
+     * that saves the draft being edited in the background.
+     *
+     * @param draftAutosaver
+     */
+    public void setDraftAutosaver(DraftAutosaver draftAutosaver) {
+        this.draftAutosaver = draftAutosaver;
+    }
+
     /**
      * The EmailFXTableLayoutController will be passed from the root controller
      * so we can update the table whenever an email is sent, updated or deleted
@@ -197,28 +275,58 @@ public class EmailFXHTMLLayoutController {
     }
 
     /**
-     * Event handler for deleting the currently displayed email in the html
-     * editor. Removing it from the database. Gives a visual pop up confirming
-     * if an email was removed.
+     * Pass the MessageBodyFetcher that downloads the body of an email received
+     * with its headers only when it is displayed
+     *
+     * @param bodyFetcher
+     */
+    public void setBodyFetcher(MessageBodyFetcher bodyFetcher) {
+        this.bodyFetcher = bodyFetcher;
+    }
+
+    /**
+     * Event handler for deleting the emails selected in the table, or the
+     * currently displayed email in the html editor when none are selected.
+     * Removing them from the database together. Gives a visual pop up
+     * confirming if emails were removed.
      *
      * @param event
      */
     @FXML
-    void onDeleteEmail(ActionEvent event) throws SQLException, IOException {
-        if (this.currentlySelectedEmail != null) {
-            if (this.emailDAO.deleteEmail(this.currentlySelectedEmail.getId()) == 1) {
-                //We want to refresh the draft folder to display what changes were made to the drafts
-                String folderName = this.emailDAO.getFolderName(this.currentlySelectedEmail.getFolderKey());
-
-                this.tableController.displaySelectedFolder(folderName);
-
-                clearFormAndHtmlEditor();
-
-                popupAlert("deletedEmailTitle", "deletedEmailHeader", "deletedEmailMessage");
-
-                resetSelectedEmailBean();
-            }
+    void onDeleteEmail(ActionEvent event) {
+        int[] emailIds = this.tableController.getSelectedEmailIds();
+        if (emailIds.length == 0 && this.currentlySelectedEmail != null && this.currentlySelectedEmail.getId() > 0) {
+            emailIds = new int[]{this.currentlySelectedEmail.getId()};
+        }
+        if (emailIds.length == 0) {
+            return;
+        }
+        int[] emailsToDelete = emailIds;
+        //A deleted draft must not be autosaved afterwards
+        for (int emailId : emailsToDelete) {
+            draftAutosaver.cancel(emailId);
         }
+        EmailBean displayedEmail = this.currentlySelectedEmail;
+        String folderName = this.tableController.getCurrentFolder();
+        AsyncEmailDAO.whenDone(asyncEmailDAO.submit(dao -> dao.deleteEmails(emailsToDelete)),
+                deleted -> {
+                    if (deleted == 0) {
+                        return;
+                    }
+                    //We want to refresh the folder to display what changes were made to it
+                    if (folderName != null) {
+                        this.tableController.displaySelectedFolder(folderName);
+                    }
+
+                    //The user may have selected another email in the meantime
+                    if (this.currentlySelectedEmail == displayedEmail) {
+                        clearFormAndHtmlEditor();
+                        resetSelectedEmailBean();
+                    }
+
+                    popupAlert("deletedEmailTitle", "deletedEmailHeader", "deletedEmailMessage");
+                },
+                ex -> LOG.error("Could not delete the emails with IDs: " + Arrays.toString(emailsToDelete), ex));
     }
 
     /**
@@ -229,28 +337,23 @@ public class EmailFXHTMLLayoutController {
      * @param event
      */
     @FXML
-    void onSaveDraft(ActionEvent event) throws SQLException, IOException, NotEnoughEmailRecipientsException, InvalidMailConfigBeanUsernameException, RecipientListNullException, RecipientEmailAddressNullException, RecipientInvalidFormatException, InvalidRecipientImapURLException {
+    void onSaveDraft(ActionEvent event) throws NotEnoughEmailRecipientsException, InvalidMailConfigBeanUsernameException, RecipientListNullException, RecipientEmailAddressNullException, RecipientInvalidFormatException, InvalidRecipientImapURLException {
         //if the user selected a existing draft email and clicked on save, then we do not create a new entry. We simply update the existing draft.
         if (this.currentlySelectedEmail != null && this.currentlySelectedEmail.getFolderKey() == 3) {
-            List<File> regularAttachments = new ArrayList<>(this.formFXBean.getAttachments());
-            List<File> embeddedAttachments = new ArrayList<>();
-
-            //Construct an email object which will be used to create an EmailBean
-            Email draftEmail = createEmail(convertRecipientTextFieldToList(formFXBean.getToField()), convertRecipientTextFieldToList(formFXBean.getCcField()), convertRecipientTextFieldToList(formFXBean.getBccField()), formFXBean.getSubjectField(), "", emailFXHTMLEditor.getHtmlText(), regularAttachments, embeddedAttachments);
-
-            EmailBean emailBean = new EmailBean(this.currentlySelectedEmail.getId(), this.currentlySelectedEmail.getFolderKey(), null, draftEmail);
-
-            //update the existing draft email
-            this.emailDAO.updateDraft(emailBean);
-
-            //We want to refresh the draft folder to display what changes were made to the drafts
-            this.tableController.displaySelectedFolder("DRAFT");
-
-            LOG.info("The DRAFT Email with ID: " + this.currentlySelectedEmail.getId() + " has been updated.");
+            EmailBean emailBean = createDraftFromForm();
 
             clearFormAndHtmlEditor();
             resetSelectedEmailBean();
 
+            //update the existing draft email, after the autosave it replaces
+            AsyncEmailDAO.whenDone(draftAutosaver.saveNow(emailBean),
+                    updated -> {
+                        //We want to refresh the draft folder to display what changes were made to the drafts
+                        this.tableController.displaySelectedFolder("DRAFT");
+                        LOG.info("The DRAFT Email with ID: " + emailBean.getId() + " has been updated.");
+                    },
+                    ex -> LOG.error("Could not update the DRAFT Email with ID: " + emailBean.getId(), ex));
+
             return;
         }
 
@@ -263,16 +366,44 @@ public class EmailFXHTMLLayoutController {
         //The email's id will be set in the DAOImpl method, 3 is the the folder key for drafts
         EmailBean emailBean = new EmailBean(-1, 3, null, draftEmail);
 
+        clearFormAndHtmlEditor();
+        resetSelectedEmailBean();
+
         //add the draft email into the draft folder
-        this.emailDAO.createEmailRecord(emailBean);
+        AsyncEmailDAO.whenDone(asyncEmailDAO.submit(dao -> dao.createEmailRecord(emailBean)),
+                created -> {
+                    //We want to refresh the draft folder to display what changes were made to the draft
+                    this.tableController.displaySelectedFolder("DRAFT");
+                    LOG.info("The DRAFT Email with ID: " + emailBean.getId() + " has been added to the DRAFT folder.");
+                },
+                ex -> LOG.error("Could not add the email to the DRAFT folder", ex));
+    }
 
-        //We want to refresh the draft folder to display what changes were made to the draft
-        this.tableController.displaySelectedFolder("DRAFT");
+    /**
+     * Schedules the autosave of the displayed draft with the content of the
+     * form and html editor. Only drafts already in the database are
+     * autosaved.
+     */
+    private void scheduleDraftAutosave() {
+        if (this.draftAutosaver != null && this.currentlySelectedEmail != null && this.currentlySelectedEmail.getFolderKey() == 3 && this.currentlySelectedEmail.getId() > 0) {
+            draftAutosaver.schedule(createDraftFromForm());
+        }
+    }
 
-        clearFormAndHtmlEditor();
-        resetSelectedEmailBean();
+    /**
+     * Helper method that creates the displayed draft with the content of the
+     * form and html editor
+     *
+     * @return An EmailBean with the id and folder of the displayed draft
+     */
+    private EmailBean createDraftFromForm() {
+        List<File> regularAttachments = new ArrayList<>(this.formFXBean.getAttachments());
+        List<File> embeddedAttachments = new ArrayList<>();
+
+        //Construct an email object which will be used to create an EmailBean
+        Email draftEmail = createEmail(convertRecipientTextFieldToList(formFXBean.getToField()), convertRecipientTextFieldToList(formFXBean.getCcField()), convertRecipientTextFieldToList(formFXBean.getBccField()), formFXBean.getSubjectField(), "", emailFXHTMLEditor.getHtmlText(), regularAttachments, embeddedAttachments);
 
-        LOG.info("The DRAFT Email with ID: " + emailBean.getId() + " has been added to the DRAFT folder.");
+        return new EmailBean(this.currentlySelectedEmail.getId(), this.currentlySelectedEmail.getFolderKey(), null, draftEmail);
     }
 
     /**
@@ -305,10 +436,10 @@ public class EmailFXHTMLLayoutController {
             email.bcc(emailAddress);
         });
         regularAttachments.forEach(attachment -> {
-            email.attachment(EmailAttachment.with().content(attachment.getName()));
+            email.attachment(EmailAttachment.with().content(attachment));
         });
         embeddedAttachments.forEach(attachment -> {
-            email.embeddedAttachment(EmailAttachment.with().content(new File(attachment.getName())));
+            email.embeddedAttachment(EmailAttachment.with().content(attachment));
         });
 
         return email;
@@ -316,66 +447,32 @@ public class EmailFXHTMLLayoutController {
 
     /**
      * Event handler to send the email constructed in the html editor given that
-     * the email has at the minimum a TO recipient. The sent email is then added
-     * to the database into the sent folder.
+     * the email has at the minimum a TO recipient. The email is saved in the
+     * outbox and sent in the background by the OutboxSender, which moves it to
+     * the sent folder.
      *
      * @param event
      */
     @FXML
-    void onSendEmail(ActionEvent event) throws SQLException, IOException, NotEnoughRecipientsException {
-        if (this.currentlySelectedEmail != null && this.currentlySelectedEmail.getFolderKey() == 3) {
-            try {
+    void onSendEmail(ActionEvent event) throws NotEnoughRecipientsException {
+        try {
+            if (this.currentlySelectedEmail != null && this.currentlySelectedEmail.getFolderKey() == 3) {
                 sendDraftEmail();
-            } catch (NotEnoughEmailRecipientsException ex) {
-                LOG.info("The email must have at least 1 recipient.");
-                popupAlert("noRecipientsTitle", "noRecipientsHeader", "noRecipientsErrorMessage");
-            } catch (InvalidMailConfigBeanUsernameException ex) {
-                LOG.info("The username is invalid");
-            } catch (RecipientListNullException ex) {
-                LOG.info("The recipient list is null");
-            } catch (RecipientEmailAddressNullException ex) {
-                LOG.info("One of the email recipients is null");
-            } catch (RecipientInvalidFormatException ex) {
-                LOG.info("One or more of the email recipients has an invalid format");
-                popupAlert("invalidRecipientTitle", "invalidRecipientHeader", "invalidRecipientMessage");
-            } catch (InvalidRecipientImapURLException ex) {
-                LOG.info("The Imap URL is invalid");
+                this.currentlySelectedEmail = new EmailBean();
+                return;
             }
-            this.currentlySelectedEmail = new EmailBean();
-            return;
-        }
-
-        //send the email using the sendEmail method and store the email in the database.
-        SendAndReceive sendAndReceive = new SendAndReceive(this.mailConfigBean);
-
-        List<String> toRecipients = convertRecipientTextFieldToList(formFXBean.getToField());
-        List<String> ccRecipients = convertRecipientTextFieldToList(formFXBean.getCcField());
-        List<String> bccRecipients = convertRecipientTextFieldToList(formFXBean.getBccField());
-
-        String plainText = "";
-        String htmlMessage = emailFXHTMLEditor.getHtmlText();
-
-        List<File> regularAttachments = new ArrayList<>(this.formFXBean.getAttachments());
-        List<File> embeddedAttachments = new ArrayList<>();
-
-        Email resultEmail;
-        try {
-            resultEmail = sendAndReceive.sendEmail(toRecipients, ccRecipients, bccRecipients, formFXBean.getSubjectField(), plainText, htmlMessage, regularAttachments, embeddedAttachments);
 
-            if (resultEmail != null) {
-                //if the email was sent, clear the form and html section 
-                clearFormAndHtmlEditor();
-
-                //add the email to the sent folder for this user. The email id is set to -1 since the EmailDAO will set it in the createEmailRecord()
-                EmailBean emailBean = new EmailBean(-1, 2, new Timestamp(resultEmail.currentSentDate().sentDate().getTime()), resultEmail);
-                this.emailDAO.createEmailRecord(emailBean);
+            List<File> regularAttachments = new ArrayList<>(this.formFXBean.getAttachments());
+            List<File> embeddedAttachments = new ArrayList<>();
 
-                //We want to refresh the draft folder to display what changes were made to the drafts
-                this.tableController.displaySelectedFolder("SENT");
-
-                LOG.info("The email with ID: " + emailBean.getId() + " has been added to the SENT folder.");
-            }
+            Email email = createEmail(convertRecipientTextFieldToList(formFXBean.getToField()), convertRecipientTextFieldToList(formFXBean.getCcField()), convertRecipientTextFieldToList(formFXBean.getBccField()), formFXBean.getSubjectField(), "", emailFXHTMLEditor.getHtmlText(), regularAttachments, embeddedAttachments);
+            //Only what can be checked without the server is checked before the email is queued
+            new SendAndReceive(this.mailConfigBean).validateEmail(email);
 
+            //The email id is set to -1 since the EmailDAO will set it, the email waits in the draft folder until it is sent
+            EmailBean emailBean = new EmailBean(-1, 3, null, email);
+            clearFormAndHtmlEditor();
+            enqueueEmail(emailBean, false);
         } catch (NotEnoughEmailRecipientsException ex) {
             LOG.info("The email must have at least 1 recipient.");
             popupAlert("noRecipientsTitle", "noRecipientsHeader", "noRecipientsErrorMessage");
@@ -388,16 +485,16 @@ public class EmailFXHTMLLayoutController {
         } catch (RecipientInvalidFormatException ex) {
             LOG.info("One or more of the email recipients has an invalid format");
             popupAlert("invalidRecipientTitle", "invalidRecipientHeader", "invalidRecipientMessage");
+        } catch (InvalidRecipientImapURLException ex) {
+            LOG.info("The Imap URL is invalid");
         }
     }
 
     /**
      *
-     * A draft email will call the updateDraft which will change its folder to
-     * the SENT and send the email.
+     * A draft email is saved with the content of the form then queued in the
+     * outbox. It stays in the draft folder until the OutboxSender has sent it.
      *
-     * @throws SQLException
-     * @throws IOException
      * @throws NotEnoughEmailRecipientsException
      * @throws InvalidMailConfigBeanUsernameException
      * @throws RecipientListNullException
@@ -405,22 +502,52 @@ public class EmailFXHTMLLayoutController {
      * @throws RecipientInvalidFormatException
      * @throws InvalidRecipientImapURLException
      */
-    private void sendDraftEmail() throws SQLException, IOException, NotEnoughEmailRecipientsException, InvalidMailConfigBeanUsernameException, RecipientListNullException, RecipientEmailAddressNullException, RecipientInvalidFormatException, InvalidRecipientImapURLException {
+    private void sendDraftEmail() throws NotEnoughEmailRecipientsException, InvalidMailConfigBeanUsernameException, RecipientListNullException, RecipientEmailAddressNullException, RecipientInvalidFormatException, InvalidRecipientImapURLException {
         List<File> regularAttachments = new ArrayList<>(this.formFXBean.getAttachments());
         List<File> embeddedAttachments = new ArrayList<>();
         //Construct an email object which will be used to create an EmailBean
         Email draftEmail = createEmail(convertRecipientTextFieldToList(formFXBean.getToField()), convertRecipientTextFieldToList(formFXBean.getCcField()), convertRecipientTextFieldToList(formFXBean.getBccField()), formFXBean.getSubjectField(), "", emailFXHTMLEditor.getHtmlText(), regularAttachments, embeddedAttachments);
+        new SendAndReceive(this.mailConfigBean).validateEmail(draftEmail);
 
-        //giving the folder id 2 since we wish to send this draft email. The email will be moved to the sent folder
-        EmailBean emailBean = new EmailBean(this.currentlySelectedEmail.getId(), 2, null, draftEmail);
-
-        //add the draft email into the draft folder
-        this.emailDAO.updateDraft(emailBean);
+        //The draft keeps its folder, the OutboxSender moves it to the sent folder once it is sent
+        EmailBean emailBean = new EmailBean(this.currentlySelectedEmail.getId(), 3, null, draftEmail);
+        clearFormAndHtmlEditor();
+        enqueueEmail(emailBean, true);
+    }
 
-        //Since we moved the email to the sent folder, the draft folder will no longer have it
-        this.tableController.displaySelectedFolder("SENT");
+    /**
+     * Saves the email in the outbox in the background then wakes up the
+     * OutboxSender.
+     *
+     * @param emailBean
+     * @param isDraft true to save the content of an existing draft first
+     */
+    private void enqueueEmail(EmailBean emailBean, boolean isDraft) {
+        //A draft is saved by the draft writer first, so a pending autosave cannot overwrite it once queued
+        CompletableFuture<Integer> saved = isDraft ? draftAutosaver.saveNow(emailBean) : CompletableFuture.completedFuture(0);
+        AsyncEmailDAO.whenDone(saved.thenCompose(result -> asyncEmailDAO.submit(dao -> dao.enqueueEmail(emailBean))),
+                outboxId -> {
+                    OutboxSender.wakeUpAll();
+                    LOG.info("The email with ID: " + emailBean.getId() + " has been queued to be sent.");
+                },
+                ex -> LOG.error("Could not queue the email to be sent", ex));
+    }
 
-        clearFormAndHtmlEditor();
+    /**
+     * Starts the OutboxSender of the account. The displayed folder is refreshed
+     * when a queued email was sent, and the user is told when one could not be
+     * sent.
+     */
+    public void startOutboxSender() {
+        OutboxSender.start(mailConfigBean, emailDAO, entry -> Platform.runLater(() -> {
+            if (OutboxBean.FAILED.equals(entry.getStatus())) {
+                popupAlert("sendFailedTitle", "sendFailedHeader", "sendFailedMessage");
+            }
+            String folderName = this.tableController.getCurrentFolder();
+            if ("SENT".equals(folderName) || "DRAFT".equals(folderName)) {
+                this.tableController.displaySelectedFolder(folderName);
+            }
+        }));
     }
 
     /**
@@ -532,6 +659,15 @@ public class EmailFXHTMLLayoutController {
     public void resetSelectedEmailBean() {
         this.currentlySelectedEmail = new EmailBean();
         this.formFXBean.setAttachments(FXCollections.observableArrayList());
+        this.deferredAttachments.clear();
+    }
+
+    /**
+     * @return The attachments of the selected email that have not been
+     * downloaded from the IMAP server
+     */
+    public List<AttachmentBean> getDeferredAttachments() {
+        return this.deferredAttachments;
     }
 
     /**
@@ -1,19 +1,29 @@
 package com.danielsimonchin.view;
 
 import com.danielsimonchin.fxbeans.EmailTableFXBean;
-import com.danielsimonchin.persistence.EmailDAO;
-import com.danielsimonchin.properties.EmailBean;
+import com.danielsimonchin.persistence.AsyncEmailDAO;
+import com.danielsimonchin.persistence.LazyAttachmentDataSource;
+import com.danielsimonchin.properties.EmailHeaderBean;
 import javafx.scene.input.MouseEvent;
-import java.io.IOException;
 import java.net.URL;
-import java.sql.SQLException;
 import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Objects;
 import java.util.ResourceBundle;
+import java.util.stream.Collectors;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
+import javafx.scene.control.IndexedCell;
+import javafx.scene.control.SelectionMode;
 import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableRow;
 import javafx.scene.control.TableView;
+import javafx.scene.control.TextField;
+import javafx.scene.control.skin.VirtualFlow;
 import javafx.scene.input.ClipboardContent;
 import javafx.scene.input.Dragboard;
 import javafx.scene.input.TransferMode;
@@ -34,9 +44,30 @@ public class EmailFXTableLayoutController {
 
     private final static Logger LOG = LoggerFactory.getLogger(EmailFXTableLayoutController.class);
 
+    //Number of headers fetched per page and how many pages the table keeps in memory
+    private final static int PAGE_SIZE = 100;
+    private final static int MAX_PAGES_IN_MEMORY = 5;
+    //A page is fetched when a row this close to either end of the window is shown
+    private final static int PREFETCH_ROWS = 20;
+    //The most search results shown, the best matches come first
+    private final static int SEARCH_LIMIT = 200;
+    //Loading a folder, a page or search results supersedes what the table was loading
+    private final static String TABLE_CALL = "table";
+    private final static String DETAILS_CALL = "details";
+
     private EmailFXHTMLLayoutController htmlController;
+    private FolderFXTreeLayoutController treeController;
+
+    private AsyncEmailDAO asyncEmailDAO;
+
+    //The window of pages currently in the table, oldest page last
+    private final LinkedList<List<EmailHeaderBean>> loadedPages = new LinkedList<>();
+    private final ObservableList<EmailTableFXBean> tableItems = FXCollections.observableArrayList();
+    private String currentFolder;
+    private boolean hasOlderPages = false;
+    private boolean hasNewerPages = false;
+    private boolean pageRequested = false;
 
-    private EmailDAO emailDAO;
     @FXML
     private ResourceBundle resources;
 
@@ -46,6 +77,9 @@ public class EmailFXTableLayoutController {
     @FXML
     private AnchorPane emailFXTable;
 
+    @FXML
+    private TextField searchField;
+
     @FXML
     private TableView<EmailTableFXBean> emailDataTable;
 
@@ -70,53 +104,72 @@ public class EmailFXTableLayoutController {
 
         adjustColumnWidths();
 
+        emailDataTable.setItems(tableItems);
+        //Several emails can be selected to be moved or deleted together
+        emailDataTable.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        //Every row that gets laid out tells us how far the user has scrolled
+        emailDataTable.setRowFactory(table -> new TableRow<EmailTableFXBean>() {
+            @Override
+            public void updateIndex(int index) {
+                super.updateIndex(index);
+                if (index >= 0) {
+                    requestPageNear(index);
+                }
+            }
+        });
+
         emailDataTable
                 .getSelectionModel()
                 .selectedItemProperty()
                 .addListener(
                         (observable, oldValue, newValue) -> {
-                            try {
-                                if (newValue != null) {
-                                    showEmailDetails(newValue);
-                                }
-                            } catch (SQLException ex) {
-                                LOG.info("Caught SQLException when trying to display an email's details");
-                            } catch (IOException ex) {
-                                LOG.info("Caught IOException when trying to display an email's details");
+                            if (newValue != null) {
+                                showEmailDetails(newValue);
                             }
                         });
     }
 
     /**
      * Rows in the table can be drag and dropped to another folder. We insert
-     * the email's ID into the DragBoard which will be used in the onDragDropped
-     * for the Tree.
+     * the IDs of the selected emails, separated by commas, into the DragBoard
+     * which will be used in the onDragDropped for the Tree.
      *
      * @param event
      */
     @FXML
     void dragDetected(MouseEvent event) {
-        String selectedRow = "" + emailDataTable.getSelectionModel().getSelectedItem().getEmailId();
-        LOG.debug("Selected row ID: " + selectedRow);
-        if (selectedRow != null) {
+        int[] selectedIds = getSelectedEmailIds();
+        if (selectedIds.length > 0) {
+            String selectedRows = Arrays.stream(selectedIds).mapToObj(String::valueOf).collect(Collectors.joining(","));
+            LOG.debug("Selected row IDs: " + selectedRows);
             Dragboard db = emailDataTable.startDragAndDrop(TransferMode.ANY);
             ClipboardContent content = new ClipboardContent();
 
-            //pass the ID of the email
-            content.putString(selectedRow);
+            //pass the IDs of the emails
+            content.putString(selectedRows);
             db.setContent(content);
             event.consume();
         }
     }
 
+    /**
+     * @return the IDs of the emails selected in the table, empty if none are
+     */
+    public int[] getSelectedEmailIds() {
+        return emailDataTable.getSelectionModel().getSelectedItems().stream()
+                .filter(Objects::nonNull)
+                .mapToInt(EmailTableFXBean::getEmailId)
+                .toArray();
+    }
+
     /**
      * The RootLayoutController calls this method to provide a reference to the
-     * EmailDAO object.
+     * AsyncEmailDAO object, the table is loaded on its background threads.
      *
-     * @param emailDAO
+     * @param asyncEmailDAO
      */
-    public void setEmailDAO(EmailDAO emailDAO) {
-        this.emailDAO = emailDAO;
+    public void setAsyncEmailDAO(AsyncEmailDAO asyncEmailDAO) {
+        this.asyncEmailDAO = asyncEmailDAO;
     }
 
     public void setHtmlController(EmailFXHTMLLayoutController emailFXHTMLController) {
@@ -124,24 +177,30 @@ public class EmailFXTableLayoutController {
     }
 
     /**
-     * When program first starts, the default folder is INBOX
+     * The tree controller refreshes the email counts of the folders whenever
+     * a folder is displayed again after a change.
      *
-     * @throws SQLException
-     * @throws IOException
+     * @param folderFXTreeController
      */
-    public void displayTable() throws SQLException, IOException {
-        ObservableList<EmailBean> allEmails = this.emailDAO.findAllInFolder("Inbox");
-        emailDataTable.setItems(convertToTableBean(allEmails));
+    public void setTreeController(FolderFXTreeLayoutController folderFXTreeController) {
+        this.treeController = folderFXTreeController;
     }
 
     /**
-     * Helper method that takes a observableList of EmailBean converts them into
-     * EmailTableFXBean so we can set the items of the table
+     * When program first starts, the default folder is INBOX
+     */
+    public void displayTable() {
+        displaySelectedFolder("Inbox");
+    }
+
+    /**
+     * Helper method that takes a list of EmailHeaderBean converts them into
+     * EmailTableFXBean so we can add them to the items of the table
      *
      * @param allEmails
      * @return ObservableList of EmailTableFXBean
      */
-    private ObservableList<EmailTableFXBean> convertToTableBean(ObservableList<EmailBean> allEmails) {
+    private ObservableList<EmailTableFXBean> convertToTableBean(List<EmailHeaderBean> allEmails) {
         ObservableList<EmailTableFXBean> tableFXBeans = FXCollections
                 .observableArrayList();
         for (int i = 0; i < allEmails.size(); i++) {
@@ -152,16 +211,170 @@ public class EmailFXTableLayoutController {
 
     /**
      * This is called from the Tree controller whenever a folder is clicked, we
-     * update the table view with all the emails in that folder.
+     * update the table view with the first page of emails in that folder. The
+     * following pages are fetched as the table scrolls. Only the headers are
+     * loaded, the full email is loaded when a row is selected. The page is
+     * fetched in the background, a folder clicked before it arrives replaces
+     * it.
      *
      * @param folderName
-     * @throws SQLException
-     * @throws IOException
      */
-    public void displaySelectedFolder(String folderName) throws SQLException, IOException {
-        emailDataTable.getItems().clear();
-        ObservableList<EmailBean> allEmails = this.emailDAO.findAllInFolder(folderName);
-        emailDataTable.setItems(convertToTableBean(allEmails));
+    public void displaySelectedFolder(String folderName) {
+        //The rows of the previous folder must not fetch its pages meanwhile
+        pageRequested = true;
+        AsyncEmailDAO.whenDone(asyncEmailDAO.submitLatest(TABLE_CALL, dao -> dao.findHeadersAfter(folderName, null, PAGE_SIZE)),
+                firstPage -> {
+                    currentFolder = folderName;
+                    searchField.clear();
+                    loadedPages.clear();
+                    tableItems.clear();
+                    hasNewerPages = false;
+                    hasOlderPages = firstPage.size() == PAGE_SIZE;
+                    pageRequested = false;
+                    if (!firstPage.isEmpty()) {
+                        loadedPages.add(firstPage);
+                        tableItems.addAll(convertToTableBean(firstPage));
+                    }
+                    emailDataTable.scrollTo(0);
+                    if (treeController != null) {
+                        treeController.refreshFolderCounts();
+                    }
+                },
+                ex -> {
+                    pageRequested = false;
+                    LOG.error("Could not display the folder " + folderName, ex);
+                });
+    }
+
+    /**
+     * Searches the displayed folder for the words typed in the search field
+     * when the user presses enter. The results are ranked by relevance and are
+     * not paged. An empty search field shows the folder again.
+     *
+     * @param event
+     */
+    @FXML
+    void onSearch(ActionEvent event) {
+        if (currentFolder == null) {
+            return;
+        }
+        String query = searchField.getText();
+        if (query == null || query.isBlank()) {
+            displaySelectedFolder(currentFolder);
+            return;
+        }
+        String folderName = currentFolder;
+        pageRequested = true;
+        AsyncEmailDAO.whenDone(asyncEmailDAO.submitLatest(TABLE_CALL, dao -> dao.search(query, folderName, null, null, SEARCH_LIMIT)),
+                results -> {
+                    loadedPages.clear();
+                    tableItems.clear();
+                    //Paging follows the date order of the folder, not the ranking
+                    hasNewerPages = false;
+                    hasOlderPages = false;
+                    pageRequested = false;
+                    tableItems.addAll(convertToTableBean(results));
+                    emailDataTable.scrollTo(0);
+                },
+                ex -> {
+                    pageRequested = false;
+                    LOG.error("Caught an exception when searching the emails", ex);
+                });
+    }
+
+    /**
+     * Called whenever a row is laid out. If the row is close to either end of
+     * the loaded window, the next page in that direction is fetched in the
+     * background.
+     *
+     * @param index The index of the row that was laid out
+     */
+    private void requestPageNear(int index) {
+        if (pageRequested || currentFolder == null || loadedPages.isEmpty()) {
+            return;
+        }
+        if (hasOlderPages && index >= tableItems.size() - PREFETCH_ROWS) {
+            pageRequested = true;
+            loadOlderPage();
+        } else if (hasNewerPages && index < PREFETCH_ROWS) {
+            pageRequested = true;
+            loadNewerPage();
+        }
+    }
+
+    /**
+     * Appends the page that follows the last loaded header. If the window is
+     * full, the first page is dropped and the scroll position is shifted so
+     * the visible rows do not move.
+     */
+    private void loadOlderPage() {
+        List<EmailHeaderBean> lastPage = loadedPages.getLast();
+        EmailHeaderBean lastHeader = lastPage.get(lastPage.size() - 1);
+        String folderName = currentFolder;
+        AsyncEmailDAO.whenDone(asyncEmailDAO.submitLatest(TABLE_CALL, dao -> dao.findHeadersAfter(folderName, lastHeader, PAGE_SIZE)),
+                page -> {
+                    pageRequested = false;
+                    hasOlderPages = page.size() == PAGE_SIZE;
+                    if (page.isEmpty()) {
+                        return;
+                    }
+                    loadedPages.addLast(page);
+                    tableItems.addAll(convertToTableBean(page));
+                    if (loadedPages.size() > MAX_PAGES_IN_MEMORY) {
+                        int firstVisible = getFirstVisibleIndex();
+                        List<EmailHeaderBean> dropped = loadedPages.removeFirst();
+                        tableItems.remove(0, dropped.size());
+                        hasNewerPages = true;
+                        emailDataTable.scrollTo(Math.max(0, firstVisible - dropped.size()));
+                    }
+                },
+                ex -> {
+                    pageRequested = false;
+                    LOG.error("Caught an exception when loading the next page of emails", ex);
+                });
+    }
+
+    /**
+     * Prepends the page that comes before the first loaded header. If the
+     * window is full, the last page is dropped.
+     */
+    private void loadNewerPage() {
+        EmailHeaderBean firstHeader = loadedPages.getFirst().get(0);
+        String folderName = currentFolder;
+        AsyncEmailDAO.whenDone(asyncEmailDAO.submitLatest(TABLE_CALL, dao -> dao.findHeadersBefore(folderName, firstHeader, PAGE_SIZE)),
+                page -> {
+                    pageRequested = false;
+                    hasNewerPages = page.size() == PAGE_SIZE;
+                    if (page.isEmpty()) {
+                        return;
+                    }
+                    int firstVisible = getFirstVisibleIndex();
+                    loadedPages.addFirst(page);
+                    tableItems.addAll(0, convertToTableBean(page));
+                    if (loadedPages.size() > MAX_PAGES_IN_MEMORY) {
+                        List<EmailHeaderBean> dropped = loadedPages.removeLast();
+                        tableItems.remove(tableItems.size() - dropped.size(), tableItems.size());
+                        hasOlderPages = true;
+                    }
+                    emailDataTable.scrollTo(firstVisible + page.size());
+                },
+                ex -> {
+                    pageRequested = false;
+                    LOG.error("Caught an exception when loading the previous page of emails", ex);
+                });
+    }
+
+    /**
+     * @return The index of the first row shown in the table, 0 if the table
+     * has not been laid out yet
+     */
+    private int getFirstVisibleIndex() {
+        VirtualFlow<?> flow = (VirtualFlow<?>) emailDataTable.lookup(".virtual-flow");
+        if (flow == null) {
+            return 0;
+        }
+        IndexedCell<?> firstCell = flow.getFirstVisibleCell();
+        return firstCell == null ? 0 : firstCell.getIndex();
     }
 
     /**
@@ -175,18 +388,30 @@ public class EmailFXTableLayoutController {
         return emailDataTable;
     }
 
+    /**
+     * @return the name of the folder shown in the table, null before the first
+     * folder is displayed
+     */
+    public String getCurrentFolder() {
+        return currentFolder;
+    }
+
     /**
      * The content of the email selected in the table will be shown in the html
-     * editor and the form.
+     * editor and the form. Selecting another email before this one is loaded
+     * shows the other one instead. Its attachments are loaded into the
+     * attachment cache with it, off the JavaFX thread.
      *
      * @param emailData
      */
-    private void showEmailDetails(EmailTableFXBean emailData) throws SQLException, IOException {
+    private void showEmailDetails(EmailTableFXBean emailData) {
         htmlController.clearFormAndHtmlEditor();
-        EmailBean selectedEmail = this.emailDAO.findID(emailData.getEmailId());
-
-        //The html controller will handle displaying the email in the form and html sections.
-        htmlController.displaySelectedEmail(selectedEmail);
+        AsyncEmailDAO.whenDone(asyncEmailDAO.submitLatest(DETAILS_CALL, dao -> LazyAttachmentDataSource.loadAttachments(dao.findID(emailData.getEmailId()))),
+                selectedEmail -> {
+                    //The html controller will handle displaying the email in the form and html sections.
+                    htmlController.displaySelectedEmail(selectedEmail);
+                },
+                ex -> LOG.info("Caught an exception when trying to display an email's details", ex));
     }
 
     /**
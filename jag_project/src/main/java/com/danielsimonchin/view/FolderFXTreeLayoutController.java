@@ -1,23 +1,24 @@
 package com.danielsimonchin.view;
 
-import com.danielsimonchin.business.SendAndReceive;
+import com.danielsimonchin.business.ImapIdleListener;
+import com.danielsimonchin.business.MessageBodyFetcher;
 import com.danielsimonchin.exceptions.CannotDeleteFolderException;
 import com.danielsimonchin.exceptions.CannotMoveToDraftsException;
 import com.danielsimonchin.exceptions.FolderAlreadyExistsException;
-import com.danielsimonchin.exceptions.InvalidRecipientImapURLException;
-import com.danielsimonchin.exceptions.RecipientInvalidFormatException;
 import com.danielsimonchin.fxbeans.FolderFXBean;
+import com.danielsimonchin.persistence.AsyncEmailDAO;
 import com.danielsimonchin.persistence.EmailDAO;
-import com.danielsimonchin.properties.EmailBean;
 import com.danielsimonchin.properties.MailConfigBean;
-import java.io.IOException;
 import java.net.URL;
-import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.ResourceBundle;
-import javafx.collections.ObservableList;
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.control.Alert;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.TextField;
 import javafx.scene.control.TreeCell;
 import javafx.scene.control.TreeItem;
@@ -27,7 +28,6 @@ import javafx.scene.input.DragEvent;
 import javafx.scene.input.Dragboard;
 import javafx.scene.input.TransferMode;
 import javafx.scene.layout.AnchorPane;
-import jodd.mail.ReceivedEmail;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,8 +51,12 @@ public class FolderFXTreeLayoutController {
 
     private MailConfigBean mailConfigBean;
 
+    private MessageBodyFetcher bodyFetcher;
+
     private EmailDAO emailDAO;
 
+    private AsyncEmailDAO asyncEmailDAO;
+
     @FXML
     private ResourceBundle resources;
 
@@ -68,6 +72,9 @@ public class FolderFXTreeLayoutController {
     @FXML
     private TreeView<FolderFXBean> folderFXTreeView;
 
+    @FXML
+    private ProgressBar deleteFolderProgress;
+
     /**
      * This method is called by the FXMLLoader when initialization is complete.
      * It sets up the TreeView of the folders by calling a helper method to
@@ -86,7 +93,8 @@ public class FolderFXTreeLayoutController {
             protected void updateItem(FolderFXBean item, boolean empty) {
                 super.updateItem(item, empty);
                 if (item != null) {
-                    setText(item.getFolderName());
+                    //The root folder has no name and shows no count
+                    setText(item.getFolderId() > 0 ? item.getFolderName() + " (" + item.getEmailCount() + ")" : item.getFolderName());
                     setGraphic(getTreeItem().getGraphic());
                 } else {
                     setText("");
@@ -107,39 +115,47 @@ public class FolderFXTreeLayoutController {
     }
 
     /**
-     * Get all the folder names of the database and add them to the TreeView.
+     * The RootLayoutController calls this method to provide a reference to the
+     * AsyncEmailDAO object, the folders are read and changed on its background
+     * threads.
      *
-     * @throws SQLException
+     * @param asyncEmailDAO
      */
-    public void displayTree() throws SQLException {
-        //clear all the children since we are re-displaying it
-        folderFXTreeView.getRoot().getChildren().clear();
-
-        ObservableList<FolderFXBean> folders = this.emailDAO.getAllFolders();
-
-        // Build an item for each email and add it to the root
-        if (folders != null) {
-            for (FolderFXBean folder : folders) {
-                TreeItem<FolderFXBean> item = new TreeItem<>(folder);
-                item.setGraphic(new ImageView(getClass().getResource("/images/foldericon.png").toExternalForm()));
-                folderFXTreeView.getRoot().getChildren().add(item);
-            }
-        }
+    public void setAsyncEmailDAO(AsyncEmailDAO asyncEmailDAO) {
+        this.asyncEmailDAO = asyncEmailDAO;
+    }
 
-        // Open the tree
-        folderFXTreeView.getRoot().setExpanded(true);
+    /**
+     * Get all the folder names of the database and add them to the TreeView
+     * once they are read.
+     */
+    public void displayTree() {
+        AsyncEmailDAO.whenDone(asyncEmailDAO.submitLatest("folders", dao -> dao.getAllFolders()),
+                folders -> {
+                    //clear all the children since we are re-displaying it
+                    folderFXTreeView.getRoot().getChildren().clear();
+
+                    // Build an item for each email and add it to the root
+                    if (folders != null) {
+                        for (FolderFXBean folder : folders) {
+                            TreeItem<FolderFXBean> item = new TreeItem<>(folder);
+                            item.setGraphic(new ImageView(getClass().getResource("/images/foldericon.png").toExternalForm()));
+                            folderFXTreeView.getRoot().getChildren().add(item);
+                        }
+                    }
+
+                    // Open the tree
+                    folderFXTreeView.getRoot().setExpanded(true);
+                },
+                ex -> LOG.error("Could not display the folders", ex));
 
         folderFXTreeView
                 .getSelectionModel()
                 .selectedItemProperty()
                 .addListener(
                         (observable, oldValue, newValue) -> {
-                            try {
+                            if (newValue != null) {
                                 showFolderContents(newValue);
-                            } catch (SQLException ex) {
-                                LOG.error("Could not display the folder contents ");
-                            } catch (IOException ex) {
-                                LOG.error("Got an IOExceptio when trying to display the folder contents");
                             }
                         });
     }
@@ -164,26 +180,27 @@ public class FolderFXTreeLayoutController {
     }
 
     /**
-     * When the email is dropped into a folder, take that email out of the table
-     * and place it into the new folder.
+     * When the emails are dropped into a folder, take them out of the table
+     * and place them into the new folder. The emails are moved together in the
+     * background, the folder they were moved to is displayed once it is done.
+     * If that folder was deleted or renamed meanwhile, nothing is moved and the
+     * tree is displayed again.
      *
      * @param event
      */
     @FXML
-    void handleDragDropped(DragEvent event) throws SQLException, IOException {
+    void handleDragDropped(DragEvent event) {
         Dragboard db = event.getDragboard();
         boolean success = false;
 
         if (event.getDragboard().hasString()) {
-            //The ID of the email which we drag and dropped
-            String tableID = db.getString();
-            LOG.debug("Table ID: " + tableID);
+            //The IDs of the emails which we drag and dropped
+            String tableIDs = db.getString();
+            LOG.debug("Table IDs: " + tableIDs);
+            int[] emailIds = Arrays.stream(tableIDs.split(",")).mapToInt(Integer::parseInt).toArray();
 
-            //Get the emailBean of the email we wish to move
-            EmailBean emailToMove = this.emailDAO.findID(Integer.parseInt(tableID));
-
-            //Emails cannot be moved out of the DRAFTS folder
-            if (emailToMove.getFolderKey() == 3) {
+            //Emails cannot be moved out of the DRAFTS folder, the dragged emails come from the displayed folder
+            if ("DRAFT".equals(emailFXTableController.getCurrentFolder())) {
                 errorAlert("folderChangeTitle", "folderChangeHeader", "folderChangeMessage");
                 return;
             }
@@ -193,19 +210,31 @@ public class FolderFXTreeLayoutController {
             String folderName = folderType.split("\"")[1];
             LOG.debug("FOLDER DROPPED ON :" + folderName);
 
-            //get the id of the new folder to be updated
-            emailToMove.setFolderKey(this.emailDAO.getFolderID(folderName));
-
-            try {
-                //the email we wish to move is updated to its new folder
-                this.emailDAO.updateFolder(emailToMove);
-                //Emails cannot be moved into the DRAFTS folder
-            } catch (CannotMoveToDraftsException ex) {
-                errorAlert("folderChangeTitle", "folderChangeHeader", "folderChangeMessage");
-                return;
-            }
-
-            emailFXTableController.displaySelectedFolder(folderName);
+            //The emails are moved with one statement, drafts among them stay in the DRAFT folder
+            AsyncEmailDAO.whenDone(asyncEmailDAO.submit(dao -> {
+                int folderId = dao.getFolderID(folderName);
+                //The folder was deleted or renamed since the tree was displayed
+                if (folderId <= 0) {
+                    return -1;
+                }
+                return dao.moveEmails(emailIds, folderId);
+            }),
+                    moved -> {
+                        if (moved < 0) {
+                            LOG.debug("The folder " + folderName + " no longer exists");
+                            displayTree();
+                        } else {
+                            emailFXTableController.displaySelectedFolder(folderName);
+                        }
+                    },
+                    ex -> {
+                        //Emails cannot be moved into the DRAFTS folder
+                        if (ex instanceof CannotMoveToDraftsException) {
+                            errorAlert("folderChangeTitle", "folderChangeHeader", "folderChangeMessage");
+                        } else {
+                            LOG.error("Could not move the emails to " + folderName, ex);
+                        }
+                    });
 
             success = true;
         }
@@ -219,11 +248,7 @@ public class FolderFXTreeLayoutController {
      *
      * @param folderData
      */
-    private void showFolderContents(TreeItem<FolderFXBean> folderBean) throws SQLException, IOException {
-        if (folderBean.getValue().getFolderName().equals("INBOX")) {
-            refreshInboxForReceivedEmails();
-        }
-
+    private void showFolderContents(TreeItem<FolderFXBean> folderBean) {
         //the user can only create emails or edit drafts when they select the draft folder
         if (folderBean.getValue().getFolderName().equals("DRAFT")) {
             htmlController.enableFormAndHTML();
@@ -239,33 +264,58 @@ public class FolderFXTreeLayoutController {
     }
 
     /**
-     * Whenever the folder INBOX is clicked, we receive emails that were sent to
-     * the current account.
-     *
-     * @throws SQLException
-     * @throws IOException
+     * Starts the ImapIdleListener of the account, which saves new emails as
+     * soon as the server reports them. The table is refreshed after every
+     * saved batch while the INBOX is displayed.
      */
-    private void refreshInboxForReceivedEmails() throws SQLException, IOException {
-        try {
-            SendAndReceive runMail = new SendAndReceive(mailConfigBean);
+    public void startInboxListener() {
+        ImapIdleListener.start(mailConfigBean, emailDAO, (receivedCount, totalCount) -> {
+            LOG.info("Received " + receivedCount + " of " + totalCount + " emails");
+            if (receivedCount > 0) {
+                Platform.runLater(() -> {
+                    refreshFolderCounts();
+                    refreshDisplayedInbox();
+                });
+            }
+            //Download the bodies of the emails received with their headers only
+            if (bodyFetcher != null && receivedCount == totalCount) {
+                bodyFetcher.schedulePrefetch();
+            }
+        });
+    }
 
-            //retreive all the emails sent to the current user
-            ReceivedEmail[] receivedEmails = runMail.receiveEmail(mailConfigBean);
+    /**
+     * Updates the number of emails shown next to each folder. The counts are
+     * kept by the EmailDAO, so no email is read from the database.
+     */
+    public void refreshFolderCounts() {
+        AsyncEmailDAO.whenDone(asyncEmailDAO.submitLatest("folderCounts", dao -> dao.getAllFolders()),
+                folders -> {
+                    Map<Integer, Integer> emailCounts = new HashMap<>();
+                    for (FolderFXBean folder : folders) {
+                        emailCounts.put(folder.getFolderId(), folder.getEmailCount());
+                    }
+                    for (TreeItem<FolderFXBean> item : folderFXTreeView.getRoot().getChildren()) {
+                        FolderFXBean folder = item.getValue();
+                        folder.setEmailCount(emailCounts.getOrDefault(folder.getFolderId(), folder.getEmailCount()));
+                    }
+                    folderFXTreeView.refresh();
+                },
+                ex -> LOG.error("Could not refresh the folder counts", ex));
+    }
 
-            for (ReceivedEmail email : receivedEmails) {
-                //The email id will be set in the method, the key for inbox is 1.
-                emailDAO.createEmailRecord(new EmailBean(-1, 1, email));
-            }
-        } catch (InvalidRecipientImapURLException ex) {
-            LOG.info("The recipient IMAP URL is invalid");
-        } catch (RecipientInvalidFormatException ex) {
-            LOG.info("The user's mailConfigBean username is invalid");
+    /**
+     * Shows the received emails if the INBOX is still the displayed folder.
+     */
+    private void refreshDisplayedInbox() {
+        if ("INBOX".equals(emailFXTableController.getCurrentFolder())) {
+            emailFXTableController.displaySelectedFolder("INBOX");
         }
     }
 
     /**
      * Pass the reference of the MailConfigBean to this controller so we can
-     * call the receiveEmails method in refreshInboxForReceivedEmails()
+     * start the ImapIdleListener of the account in startInboxListener()
      *
      * @param mcBean
      */
@@ -273,6 +323,16 @@ public class FolderFXTreeLayoutController {
         this.mailConfigBean = mcBean;
     }
 
+    /**
+     * Pass the MessageBodyFetcher that downloads the bodies of the received
+     * emails in the background
+     *
+     * @param bodyFetcher
+     */
+    public void setBodyFetcher(MessageBodyFetcher bodyFetcher) {
+        this.bodyFetcher = bodyFetcher;
+    }
+
     /**
      * The RootLayoutController calls this method to provide a reference to the
      * FishFXTableController from which it can request a reference to the
@@ -302,19 +362,24 @@ public class FolderFXTreeLayoutController {
      * @param event
      */
     @FXML
-    void handleAddFolder(ActionEvent event) throws SQLException, FolderAlreadyExistsException {
+    void handleAddFolder(ActionEvent event) {
         if (!newFolderInput.getText().isEmpty()) {
-            try {
-                //create the new folder
-                int foldersCreated = this.emailDAO.createFolder(newFolderInput.getText());
-
-                newFolderInput.clear();
-
-                //reload the folder tree with the updated folder added.
-                displayTree();
-            } catch (FolderAlreadyExistsException ex) {
-                errorAlert("addFolderTitle", "addFolderAlreadyExistsHeader", "addFolderAlreadyExists");
-            }
+            String folderName = newFolderInput.getText();
+            //create the new folder
+            AsyncEmailDAO.whenDone(asyncEmailDAO.submit(dao -> dao.createFolder(folderName)),
+                    foldersCreated -> {
+                        newFolderInput.clear();
+
+                        //reload the folder tree with the updated folder added.
+                        displayTree();
+                    },
+                    ex -> {
+                        if (ex instanceof FolderAlreadyExistsException) {
+                            errorAlert("addFolderTitle", "addFolderAlreadyExistsHeader", "addFolderAlreadyExists");
+                        } else {
+                            LOG.error("Could not create the folder " + folderName, ex);
+                        }
+                    });
         }
     }
 
@@ -332,15 +397,27 @@ public class FolderFXTreeLayoutController {
             return;
         }
 
-        try {
-            //remove the folder and redisplay the TreeView
-            this.emailDAO.deleteFolder(folderFXTreeView.getSelectionModel().selectedItemProperty().getValue().getValue().getFolderName());
-            displayTree();
-        } catch (SQLException ex) {
-            LOG.info("Caught an SQLException when trying to delete a folder");
-        } catch (CannotDeleteFolderException ex) {
-            errorAlert("deleteFolderTitle", "folderCannotBeDeletedHeader", "folderCannotBeDeleted");
-        }
+        String folderName = folderFXTreeView.getSelectionModel().selectedItemProperty().getValue().getValue().getFolderName();
+        //remove the folder and redisplay the TreeView, the progress bar follows its emails being deleted
+        deleteFolderProgress.setProgress(0);
+        deleteFolderProgress.setVisible(true);
+        EmailDAO.DeleteProgressListener progressListener = (deletedCount, totalCount) -> Platform.runLater(()
+                -> deleteFolderProgress.setProgress(totalCount == 0 ? 1 : deletedCount / (double) totalCount));
+        AsyncEmailDAO.whenDone(asyncEmailDAO.submit(dao -> dao.deleteFolder(folderName, progressListener)),
+                foldersDeleted -> {
+                    deleteFolderProgress.setVisible(false);
+                    displayTree();
+                },
+                ex -> {
+                    deleteFolderProgress.setVisible(false);
+                    //The emails deleted before the failure are no longer shown
+                    refreshFolderCounts();
+                    if (ex instanceof CannotDeleteFolderException) {
+                        errorAlert("deleteFolderTitle", "folderCannotBeDeletedHeader", "folderCannotBeDeleted");
+                    } else {
+                        LOG.info("Caught an exception when trying to delete a folder", ex);
+                    }
+                });
     }
 
     /**
@@ -1,17 +1,26 @@
 package com.danielsimonchin.view;
 
+import com.danielsimonchin.business.MessageBodyFetcher;
+import com.danielsimonchin.exceptions.InvalidRecipientImapURLException;
+import com.danielsimonchin.exceptions.RecipientInvalidFormatException;
 import com.danielsimonchin.fxbeans.MailConfigFXBean;
+import com.danielsimonchin.persistence.AsyncEmailDAO;
+import com.danielsimonchin.persistence.AttachmentFiles;
+import com.danielsimonchin.persistence.BodyCompressionMigration;
+import com.danielsimonchin.persistence.DraftAutosaver;
 import com.danielsimonchin.persistence.EmailDAO;
 import com.danielsimonchin.persistence.EmailDAOImpl;
+import com.danielsimonchin.persistence.SchemaMigrator;
+import com.danielsimonchin.persistence.SearchTextMigration;
+import com.danielsimonchin.properties.AttachmentBean;
 import com.danielsimonchin.properties.MailConfigBean;
 import com.danielsimonchin.propertiesmanager.PropertiesManager;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.URL;
-import java.nio.file.Files;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.ResourceBundle;
 import javafx.application.Platform;
 import javafx.event.ActionEvent;
@@ -65,6 +74,12 @@ public class RootLayoutController {
 
     private EmailDAO emailDAO;
 
+    private AsyncEmailDAO asyncEmailDAO;
+
+    private DraftAutosaver draftAutosaver;
+
+    private MessageBodyFetcher bodyFetcher;
+
     private FolderFXTreeLayoutController emailFXTreeController;
 
     private EmailFXTableLayoutController emailFXTableController;
@@ -88,7 +103,16 @@ public class RootLayoutController {
         propertiesManager.loadTextProperties(mcBean, "", "MailConfig");
 
         MailConfigBean mailConfigBean = generateMailConfigBean(mcBean);
+        //The connection pool settings are optional and are read straight into the MailConfigBean
+        propertiesManager.loadTuningProperties(mailConfigBean, "", "MailConfig");
         this.emailDAO = new EmailDAOImpl(mailConfigBean);
+        //The controllers call the database on these threads, the results come back on the JavaFX thread
+        this.asyncEmailDAO = new AsyncEmailDAO(emailDAO, mailConfigBean.getDatabaseWorkers(), Platform::runLater);
+        //The drafts being edited are saved on a background writer, at most once per autosave delay
+        this.draftAutosaver = new DraftAutosaver(emailDAO, mailConfigBean.getDraftAutosaveDelayMillis(), Platform::runLater,
+                draft -> LOG.info("The DRAFT Email with ID: " + draft.getId() + " has been autosaved."));
+        //Downloads the bodies of the emails received with their headers only
+        this.bodyFetcher = new MessageBodyFetcher(mailConfigBean, emailDAO);
 
         //Setup all the sections of the application 
         initLeftSplitLayout();
@@ -99,21 +123,37 @@ public class RootLayoutController {
         emailFXTreeController.setTableController(emailFXTableController);
         //The table controller needs a reference to the html controller.
         emailFXTableController.setHtmlController(emailFXHTMLController);
+        //The table controller refreshes the email counts of the tree.
+        emailFXTableController.setTreeController(emailFXTreeController);
         //The html controller needs a reference to the table controller whenever an email is sent, updated or deleted.
         emailFXHTMLController.setTableController(emailFXTableController);
         //The tree controller needs the reference to the html controller
         emailFXTreeController.setHTMLController(emailFXHTMLController);
         //Pass the mailConfigBean to the TreeController
         emailFXTreeController.setMailConfigBean(mailConfigBean);
-
-        try {
-            emailFXTreeController.displayTree();
-            emailFXTableController.displayTable();
-        } catch (SQLException ex) {
-            LOG.error("initialize error", ex);
-            errorAlert("initialize()");
-            Platform.exit();
-        }
+        //The tree and html controllers fetch the bodies that were not received yet
+        emailFXTreeController.setBodyFetcher(bodyFetcher);
+        emailFXHTMLController.setBodyFetcher(bodyFetcher);
+
+        //The schema is brought up to date before anything reads from it
+        AsyncEmailDAO.whenDone(asyncEmailDAO.submit(dao -> new SchemaMigrator(mailConfigBean).migrate()),
+                applied -> {
+                    emailFXTreeController.displayTree();
+                    emailFXTableController.displayTable();
+                    //New emails are received in the background from now on
+                    emailFXTreeController.startInboxListener();
+                    //Queued emails are sent in the background as well
+                    emailFXHTMLController.startOutboxSender();
+                    //HTML messages saved before they were compressed are compressed in the background
+                    new BodyCompressionMigration(mailConfigBean).migrateInBackground();
+                    //Emails saved before they had a search text are only found by their sender and subject until then
+                    new SearchTextMigration(mailConfigBean).migrateInBackground();
+                },
+                ex -> {
+                    LOG.error("initialize error", ex);
+                    errorAlert("initialize()");
+                    Platform.exit();
+                });
     }
 
     /**
@@ -144,6 +184,7 @@ public class RootLayoutController {
             // Give the controller the data object.
             emailFXTreeController = loader.getController();
             emailFXTreeController.setEmailDAO(emailDAO);
+            emailFXTreeController.setAsyncEmailDAO(asyncEmailDAO);
 
             leftSplit.getChildren().add(treeView);
         } catch (IOException ex) {
@@ -167,7 +208,7 @@ public class RootLayoutController {
 
             // Give the controller the data object.
             emailFXTableController = loader.getController();
-            emailFXTableController.setEmailDAO(emailDAO);
+            emailFXTableController.setAsyncEmailDAO(asyncEmailDAO);
 
             upperRightSplit.getChildren().add(tableView);
         } catch (IOException ex) {
@@ -192,6 +233,8 @@ public class RootLayoutController {
             // Give the controller the data object.
             emailFXHTMLController = loader.getController();
             emailFXHTMLController.setEmailDAO(emailDAO);
+            emailFXHTMLController.setAsyncEmailDAO(asyncEmailDAO);
+            emailFXHTMLController.setDraftAutosaver(draftAutosaver);
             emailFXHTMLController.setMailConfigBean(mailConfigBean);
 
             lowerRightSplit.getChildren().add(htmlView);
@@ -269,31 +312,45 @@ public class RootLayoutController {
             stage.initModality(Modality.APPLICATION_MODAL);
 
             File selectedDirectory = directoryChooser.showDialog(stage);
-
-            try {
-                saveToFolder(selectedDirectory);
-            } catch (IOException ex) {
-                LOG.info("The files could not be saved.");
+            if (selectedDirectory == null) {
+                return;
             }
+
+            //The attachments are read from the form now, they are copied in the background
+            List<File> attachments = new ArrayList<>(this.emailFXHTMLController.getFormFXBean().getAttachments());
+            List<AttachmentBean> deferredAttachments = new ArrayList<>(this.emailFXHTMLController.getDeferredAttachments());
+            AsyncEmailDAO.whenDone(asyncEmailDAO.submit(dao -> {
+                saveToFolder(selectedDirectory, attachments, deferredAttachments);
+                return null;
+            }),
+                    saved -> LOG.info("The files were saved in " + selectedDirectory),
+                    ex -> LOG.info("The files could not be saved.", ex));
         }
     }
 
     /**
-     * Writes the files of the email into the selected directory
+     * Writes the files of the email into the selected directory. Attachments
+     * that were left on the IMAP server are downloaded first.
      *
      * @param selectedDirectory
+     * @param attachments The files of the email
+     * @param deferredAttachments The attachments left on the IMAP server
      * @throws IOException
+     * @throws SQLException
+     * @throws InvalidRecipientImapURLException
+     * @throws RecipientInvalidFormatException
      */
-    private void saveToFolder(File selectedDirectory) throws IOException {
+    private void saveToFolder(File selectedDirectory, List<File> attachments, List<AttachmentBean> deferredAttachments) throws IOException, SQLException, InvalidRecipientImapURLException, RecipientInvalidFormatException {
         if (selectedDirectory != null) {
             if (selectedDirectory.isDirectory()) {
-                File file = null;
-                OutputStream out = null;
-
-                for (File attachment : this.emailFXHTMLController.getFormFXBean().getAttachments()) {
-                    file = new File(selectedDirectory.getAbsolutePath() + "/" + attachment.getName());
-                    out = new FileOutputStream(file);
-                    out.write(Files.readAllBytes(attachment.toPath()));
+                for (File attachment : attachments) {
+                    File file = new File(selectedDirectory, attachment.getName());
+                    AttachmentFiles.copy(attachment.toPath(), file.toPath());
+                }
+                for (AttachmentBean deferred : deferredAttachments) {
+                    File attachment = bodyFetcher.fetchAttachment(deferred);
+                    File file = new File(selectedDirectory, attachment.getName());
+                    AttachmentFiles.copy(attachment.toPath(), file.toPath());
                 }
             }
         }
@@ -0,0 +1,35 @@
+-- Attachment contents are stored once in ATTACHMENTCONTENT, keyed by their SHA-256, and referenced by
+-- every attachment with the same content. IMAPPART and PARTSIZE locate the contents left on the server.
+CREATE TABLE IF NOT EXISTS ATTACHMENTCONTENT (
+  CONTENTHASH CHAR(64) NOT NULL,
+  CONTENTSIZE BIGINT NOT NULL default 0,
+  REFCOUNT int(11) NOT NULL default 0,
+  CONTENT MEDIUMBLOB,
+  PRIMARY KEY (CONTENTHASH)
+);
+
+ALTER TABLE ATTACHMENTS ADD COLUMN CONTENTHASH CHAR(64) NULL;
+ALTER TABLE ATTACHMENTS ADD COLUMN IMAPPART varchar(64) NULL;
+ALTER TABLE ATTACHMENTS ADD COLUMN PARTSIZE BIGINT NULL;
+
+-- Moves the contents of the ATTACHMENT column, found only in databases created before the contents were shared.
+-- The statements are prepared so they are skipped once the column is gone. The reference counts are recounted,
+-- not added to, so running the migration again after a failure leaves them right.
+SET @LEGACY_ATTACHMENTS = (SELECT COUNT(*) FROM INFORMATION_SCHEMA.COLUMNS WHERE TABLE_SCHEMA = DATABASE() AND UPPER(TABLE_NAME) = 'ATTACHMENTS' AND UPPER(COLUMN_NAME) = 'ATTACHMENT');
+
+SET @SQL = IF(@LEGACY_ATTACHMENTS > 0, 'UPDATE ATTACHMENTS SET CONTENTHASH = SHA2(ATTACHMENT, 256) WHERE ATTACHMENT IS NOT NULL', 'DO 0');
+PREPARE LEGACY_STATEMENT FROM @SQL;
+EXECUTE LEGACY_STATEMENT;
+DEALLOCATE PREPARE LEGACY_STATEMENT;
+
+SET @SQL = IF(@LEGACY_ATTACHMENTS > 0, 'INSERT INTO ATTACHMENTCONTENT (CONTENTHASH, CONTENTSIZE, REFCOUNT, CONTENT) SELECT CONTENTHASH, MAX(LENGTH(ATTACHMENT)), COUNT(*), MAX(ATTACHMENT) FROM ATTACHMENTS WHERE ATTACHMENT IS NOT NULL GROUP BY CONTENTHASH ON DUPLICATE KEY UPDATE REFCOUNT = VALUES(REFCOUNT)', 'DO 0');
+PREPARE LEGACY_STATEMENT FROM @SQL;
+EXECUTE LEGACY_STATEMENT;
+DEALLOCATE PREPARE LEGACY_STATEMENT;
+
+SET @SQL = IF(@LEGACY_ATTACHMENTS > 0, 'ALTER TABLE ATTACHMENTS DROP COLUMN ATTACHMENT', 'DO 0');
+PREPARE LEGACY_STATEMENT FROM @SQL;
+EXECUTE LEGACY_STATEMENT;
+DEALLOCATE PREPARE LEGACY_STATEMENT;
+
+ALTER TABLE ATTACHMENTS ADD CONSTRAINT FK_ATTACHMENTS_CONTENT FOREIGN KEY (CONTENTHASH) REFERENCES ATTACHMENTCONTENT(CONTENTHASH);
\ No newline at end of file
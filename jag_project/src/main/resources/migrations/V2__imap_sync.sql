@@ -0,0 +1,13 @@
+-- The UID of a received email in its mailbox, and whether its body was downloaded or only its headers
+ALTER TABLE EMAIL ADD COLUMN IMAPUID bigint NULL;
+ALTER TABLE EMAIL ADD COLUMN IMAPUIDVALIDITY bigint NULL;
+ALTER TABLE EMAIL ADD COLUMN BODYLOADED tinyint(1) NOT NULL DEFAULT 1;
+
+-- The highest UID received from each mailbox, the next sync only fetches the UIDs above it
+CREATE TABLE IF NOT EXISTS SYNCSTATE (
+  ACCOUNT varchar(320) NOT NULL,
+  MAILBOX varchar(255) NOT NULL,
+  UIDVALIDITY bigint NOT NULL,
+  LASTUID bigint NOT NULL,
+  PRIMARY KEY (ACCOUNT, MAILBOX)
+);
\ No newline at end of file
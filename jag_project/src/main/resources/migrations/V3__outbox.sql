@@ -0,0 +1,11 @@
+-- Emails waiting to be sent by the OutboxSender, retried with a backoff until they are sent
+CREATE TABLE IF NOT EXISTS OUTBOX (
+  OUTBOXID int(11) NOT NULL auto_increment,
+  EMAILID int(11) NOT NULL,
+  STATUS varchar(16) NOT NULL DEFAULT 'PENDING',
+  ATTEMPTS int(11) NOT NULL DEFAULT 0,
+  NEXTATTEMPT TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  LASTERROR varchar(1000),
+  CONSTRAINT FK_OUTBOX_EMAIL FOREIGN KEY (EMAILID) REFERENCES EMAIL(EMAILID) ON DELETE CASCADE,
+  PRIMARY KEY (OUTBOXID)
+);
\ No newline at end of file
@@ -0,0 +1,3 @@
+-- Full-text indexes used by EmailDAOImpl.search
+ALTER TABLE EMAIL ADD FULLTEXT KEY FT_EMAIL_TEXT (FROMADDRESS, SUBJECT, TEXTMESSAGE);
+ALTER TABLE ADDRESSES ADD FULLTEXT KEY FT_ADDRESSES_EMAILADDRESS (EMAILADDRESS);
\ No newline at end of file
@@ -0,0 +1,19 @@
+-- Indexes matching the access paths of EmailDAOImpl
+
+-- Header pages of a folder, newest first: WHERE FOLDERID = ? ORDER BY SENTDATE DESC, EMAILID DESC
+CREATE INDEX IX_EMAIL_FOLDER_SENTDATE ON EMAIL (FOLDERID, SENTDATE, EMAILID);
+
+-- Emails received with their headers only, for the body prefetcher
+CREATE INDEX IX_EMAIL_BODYLOADED ON EMAIL (BODYLOADED, EMAILID);
+
+-- Recipients of a set of emails, read from the index alone
+CREATE INDEX IX_EMAILTOADDRESS_EMAIL ON EMAILTOADDRESS (EMAILID, ADDRESSID, RECIPIENTCATEGORY);
+
+-- Emails sent to an address
+CREATE INDEX IX_EMAILTOADDRESS_ADDRESS ON EMAILTOADDRESS (ADDRESSID, EMAILID);
+
+-- Attachments of a set of emails and the attachment counts of the header queries
+CREATE INDEX IX_ATTACHMENTS_EMAIL ON ATTACHMENTS (EMAILID, CONTENTHASH);
+
+-- Outbox entries that are due, oldest first
+CREATE INDEX IX_OUTBOX_DUE ON OUTBOX (STATUS, NEXTATTEMPT, OUTBOXID);
\ No newline at end of file
@@ -0,0 +1,2 @@
+-- Folders are looked up by name, a name may only be used once
+ALTER TABLE FOLDERS ADD CONSTRAINT UQ_FOLDERS_FOLDERNAME UNIQUE (FOLDERNAME);
\ No newline at end of file
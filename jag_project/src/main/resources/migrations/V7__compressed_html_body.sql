@@ -0,0 +1,3 @@
+-- HTML messages of at least bodyCompressionMinLength characters are stored compressed by the BodyCodec,
+-- HTMLMESSAGE is then NULL. TEXTMESSAGE stays as text for the full-text index.
+ALTER TABLE EMAIL ADD COLUMN HTMLBODY MEDIUMBLOB NULL;
\ No newline at end of file
@@ -0,0 +1,4 @@
+-- The Message-ID of a received email, so a message received again after the sync state of its folder was lost
+-- or its UIDVALIDITY changed is only saved once. Only the start of the rare longer ids is indexed.
+ALTER TABLE EMAIL ADD COLUMN MESSAGEID varchar(998) NULL;
+CREATE INDEX IX_EMAIL_MESSAGEID ON EMAIL (MESSAGEID(255));
\ No newline at end of file
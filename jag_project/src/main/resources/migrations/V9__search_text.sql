@@ -0,0 +1,7 @@
+-- The text searched along with the sender and the subject: the plain text of the email, or its HTML without the markup
+-- when it has none, followed by its recipients. Filled by the EmailDAO, and by the SearchTextMigration for the emails
+-- saved before. It replaces the FULLTEXT indexes on the plain text and on the addresses.
+ALTER TABLE EMAIL ADD COLUMN SEARCHTEXT MEDIUMTEXT NULL;
+ALTER TABLE EMAIL ADD FULLTEXT KEY FT_EMAIL_SEARCH (FROMADDRESS, SUBJECT, SEARCHTEXT);
+ALTER TABLE EMAIL DROP INDEX FT_EMAIL_TEXT;
+ALTER TABLE ADDRESSES DROP INDEX FT_ADDRESSES_EMAILADDRESS;
\ No newline at end of file
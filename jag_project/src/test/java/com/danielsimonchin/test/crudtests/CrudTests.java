@@ -12,32 +12,58 @@ import com.danielsimonchin.exceptions.NotEnoughRecipientsException;
 import com.danielsimonchin.exceptions.RecipientEmailAddressNullException;
 import com.danielsimonchin.exceptions.RecipientInvalidFormatException;
 import com.danielsimonchin.exceptions.RecipientListNullException;
+import com.danielsimonchin.fxbeans.FolderFXBean;
+import com.danielsimonchin.persistence.AsyncEmailDAO;
+import com.danielsimonchin.persistence.AttachmentStoreMigration;
+import com.danielsimonchin.persistence.BodyCompressionMigration;
+import com.danielsimonchin.persistence.CompressedEmailMessage;
+import com.danielsimonchin.persistence.DraftAutosaver;
+import com.danielsimonchin.persistence.ConnectionPool;
 import com.danielsimonchin.persistence.EmailDAO;
 import com.danielsimonchin.persistence.EmailDAOImpl;
+import com.danielsimonchin.persistence.FolderRegistry;
+import com.danielsimonchin.persistence.SchemaMigrator;
+import com.danielsimonchin.persistence.SearchTextMigration;
+import com.danielsimonchin.properties.AttachmentBean;
 import com.danielsimonchin.properties.EmailBean;
+import com.danielsimonchin.properties.EmailHeaderBean;
 import com.danielsimonchin.properties.MailConfigBean;
+import com.danielsimonchin.properties.OutboxBean;
+import com.danielsimonchin.properties.SyncStateBean;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
 import java.io.StringReader;
+import java.nio.file.Files;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Statement;
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import javax.mail.Flags;
 import jodd.mail.Email;
 import jodd.mail.EmailAttachment;
 import jodd.mail.EmailFilter;
 import jodd.mail.EmailMessage;
+import jodd.mail.MailException;
 import jodd.mail.MailServer;
 import jodd.mail.ReceiveMailSession;
 import jodd.mail.ReceivedEmail;
@@ -107,6 +133,10 @@ public class CrudTests {
         seedDatabase("03_createAddressesTable.sql");
         seedDatabase("04_createAttachmentsTable.sql");
         seedDatabase("05_createEmailToAddressTable.sql");
+        seedDatabase("06_createSyncStateTable.sql");
+        seedDatabase("07_createOutboxTable.sql");
+        seedDatabase("08_dropSchemaVersionTable.sql");
+        migrateSchema();
 
         allRecipients = new ArrayList<>();
         toList = new ArrayList<>();
@@ -267,6 +297,714 @@ public class CrudTests {
         assertEquals(emailBean, findByIdBean);
     }
 
+    /**
+     * The attachments of a created email are returned as descriptors and their
+     * content is streamed into the attachment cache when it is loaded. Loading
+     * the attachment again reuses the cached file.
+     *
+     * @throws SQLException
+     * @throws IOException
+     */
+    @Test
+    public void testLoadAttachmentIntoCache() throws SQLException, IOException {
+        EmailDAO crud = new EmailDAOImpl(mailConfigBean);
+        toList.add(recipient1.getUserEmailAddress());
+        regularAttachments.add(new File("WindsorKen180.jpg"));
+        Email email = createEmail(toList, ccList, bccList, subject, plainMsg, htmlMsg, regularAttachments, embeddedAttachments);
+        EmailBean emailBean = new EmailBean(-1, 3, null, email);
+        crud.createEmailRecord(emailBean);
+
+        List<AttachmentBean> attachments = crud.findAttachments(emailBean.getId());
+        assertEquals(1, attachments.size());
+        assertEquals("WindsorKen180.jpg", attachments.get(0).getFileName());
+        assertEquals(new File("WindsorKen180.jpg").length(), attachments.get(0).getSize());
+
+        File cachedFile = crud.loadAttachment(attachments.get(0));
+        assertArrayEquals(Files.readAllBytes(new File("WindsorKen180.jpg").toPath()), Files.readAllBytes(cachedFile.toPath()));
+        long lastModified = cachedFile.lastModified();
+        assertEquals(cachedFile, crud.loadAttachment(attachments.get(0)));
+        assertEquals(lastModified, cachedFile.lastModified());
+    }
+
+    /**
+     * Two emails with the same attachment share one stored content. Deleting
+     * the emails releases the references and the content is removed with the
+     * last one.
+     *
+     * @throws SQLException
+     * @throws IOException
+     */
+    @Test
+    public void testIdenticalAttachmentsShareContent() throws SQLException, IOException {
+        EmailDAO crud = new EmailDAOImpl(mailConfigBean);
+        toList.add(recipient1.getUserEmailAddress());
+        regularAttachments.add(new File("WindsorKen180.jpg"));
+        EmailBean firstEmail = new EmailBean(-1, 3, null, createEmail(toList, ccList, bccList, subject, plainMsg, htmlMsg, regularAttachments, embeddedAttachments));
+        EmailBean secondEmail = new EmailBean(-1, 3, null, createEmail(toList, ccList, bccList, subject, plainMsg, htmlMsg, regularAttachments, embeddedAttachments));
+        crud.createEmailRecord(firstEmail);
+        crud.createEmailRecord(secondEmail);
+
+        String contentHash = crud.findAttachments(firstEmail.getId()).get(0).getContentHash();
+        assertEquals(contentHash, crud.findAttachments(secondEmail.getId()).get(0).getContentHash());
+        assertEquals(2, checkContentReferenceCount(contentHash));
+
+        crud.deleteEmail(firstEmail.getId());
+        assertEquals(1, checkContentReferenceCount(contentHash));
+        crud.deleteEmail(secondEmail.getId());
+        assertEquals(-1, checkContentReferenceCount(contentHash));
+    }
+
+    /**
+     * Several emails are moved and deleted together. Drafts stay in the DRAFT
+     * folder and the attachment contents shared by the deleted emails are
+     * released.
+     *
+     * @throws SQLException
+     * @throws IOException
+     * @throws CannotMoveToDraftsException
+     */
+    @Test
+    public void testBulkMoveAndDelete() throws SQLException, IOException, CannotMoveToDraftsException {
+        EmailDAOImpl crud = new EmailDAOImpl(mailConfigBean);
+        //Emails 1 to 3 are in SENT, 4 and 5 are drafts
+        assertEquals(3, crud.moveEmails(new int[]{1, 2, 3, 4}, 1));
+        assertEquals(1, crud.findID(2).getFolderKey());
+        assertEquals(3, crud.findID(4).getFolderKey());
+        assertEquals(4, crud.getFolderRegistry().getEmailCount(1));
+        assertEquals(0, crud.getFolderRegistry().getEmailCount(2));
+
+        toList.add(recipient1.getUserEmailAddress());
+        regularAttachments.add(new File("WindsorKen180.jpg"));
+        EmailBean firstEmail = new EmailBean(-1, 3, null, createEmail(toList, ccList, bccList, subject, plainMsg, htmlMsg, regularAttachments, embeddedAttachments));
+        EmailBean secondEmail = new EmailBean(-1, 3, null, createEmail(toList, ccList, bccList, subject, plainMsg, htmlMsg, regularAttachments, embeddedAttachments));
+        crud.createEmailRecords(Arrays.asList(firstEmail, secondEmail));
+        String contentHash = crud.findAttachments(firstEmail.getId()).get(0).getContentHash();
+
+        assertEquals(3, crud.deleteEmails(new int[]{1, firstEmail.getId(), secondEmail.getId()}));
+        assertEquals(0, crud.findID(1).getId());
+        assertTrue(crud.findAttachments(secondEmail.getId()).isEmpty());
+        assertEquals(-1, checkContentReferenceCount(contentHash));
+        assertEquals(3, crud.getFolderRegistry().getEmailCount(1));
+        assertEquals(2, crud.getFolderRegistry().getEmailCount(3));
+    }
+
+    /**
+     * A recipient is read from the Addresses table once, the next email sent
+     * to it resolves its id from the address id cache.
+     *
+     * @throws SQLException
+     * @throws IOException
+     */
+    @Test
+    public void testRecipientIdResolvedFromCache() throws SQLException, IOException {
+        EmailDAOImpl crud = new EmailDAOImpl(mailConfigBean);
+        toList.add("cachedrecipient@gmail.com");
+        EmailBean firstEmail = new EmailBean(-1, 3, null, createEmail(toList, ccList, bccList, subject, plainMsg, htmlMsg, regularAttachments, embeddedAttachments));
+        crud.createEmailRecord(firstEmail);
+        long hitsBefore = crud.getAddressIdCache().getHitCount();
+        assertNotNull(crud.getAddressIdCache().get("CachedRecipient@gmail.com"));
+
+        EmailBean secondEmail = new EmailBean(-1, 3, null, createEmail(toList, ccList, bccList, subject, plainMsg, htmlMsg, regularAttachments, embeddedAttachments));
+        crud.createEmailRecord(secondEmail);
+        assertEquals(hitsBefore + 2, crud.getAddressIdCache().getHitCount());
+        assertEquals("cachedrecipient@gmail.com", crud.findID(secondEmail.getId()).email.to()[0].getEmail());
+    }
+
+    /**
+     * An email loaded by findID is read from the cache until it is moved or
+     * deleted, and the cache drops the least recently used emails to stay
+     * under its size.
+     *
+     * @throws SQLException
+     * @throws IOException
+     * @throws CannotMoveToDraftsException
+     */
+    @Test
+    public void testEmailBeanCacheInvalidated() throws SQLException, IOException, CannotMoveToDraftsException {
+        EmailDAOImpl crud = new EmailDAOImpl(mailConfigBean);
+        EmailBean loaded = crud.findID(1);
+        long hitsBefore = crud.getEmailCache().getHitCount();
+        EmailBean cached = crud.findID(1);
+        assertEquals(hitsBefore + 1, crud.getEmailCache().getHitCount());
+        assertEquals(loaded, cached);
+
+        //Changing the bean returned by the cache does not change the cached email
+        String subject = loaded.email.subject();
+        cached.email.subject("Changed by the caller");
+        cached.email.sentDate(Timestamp.valueOf("2001-01-01 00:00:00"));
+        assertEquals(subject, crud.findID(1).email.subject());
+        assertEquals(loaded.email.sentDate(), crud.findID(1).email.sentDate());
+        cached.setFolderKey(1);
+        assertEquals(2, crud.findID(1).getFolderKey());
+        crud.updateFolder(cached);
+        assertEquals(1, crud.findID(1).getFolderKey());
+
+        crud.deleteEmail(1);
+        assertEquals(0, crud.findID(1).getId());
+
+        mailConfigBean.setEmailCacheMaxBytes(3000);
+        EmailDAOImpl smallCache = new EmailDAOImpl(mailConfigBean);
+        for (int id = 2; id <= 6; id++) {
+            smallCache.findID(id);
+        }
+        assertTrue(smallCache.getEmailCache().getEvictionCount() > 0);
+        assertTrue(smallCache.getEmailCache().getWeightBytes() <= 3000);
+    }
+
+    /**
+     * The folder counts are loaded once and follow the emails as they are
+     * moved and deleted, and the folder lookups ignore case.
+     *
+     * @throws SQLException
+     * @throws IOException
+     * @throws FolderAlreadyExistsException
+     * @throws CannotMoveToDraftsException
+     */
+    @Test
+    public void testFolderRegistryCounts() throws SQLException, IOException, FolderAlreadyExistsException, CannotMoveToDraftsException {
+        EmailDAOImpl crud = new EmailDAOImpl(mailConfigBean);
+        FolderRegistry registry = crud.getFolderRegistry();
+        assertEquals(1, registry.getEmailCount(1));
+        assertEquals(3, registry.getEmailCount(2));
+        assertEquals(2, registry.getEmailCount(3));
+        assertEquals(1, crud.getFolderID("inbox"));
+
+        crud.createFolder("Counted");
+        int countedId = crud.getFolderID("Counted");
+        assertTrue(countedId > 3);
+        assertEquals(0, registry.getEmailCount(countedId));
+
+        EmailBean moved = crud.findID(1);
+        moved.setFolderKey(countedId);
+        crud.updateFolder(moved);
+        crud.deleteEmail(2);
+        assertEquals(1, registry.getEmailCount(countedId));
+        assertEquals(1, registry.getEmailCount(2));
+
+        //The counts kept up to date match the ones loaded from the database
+        for (FolderFXBean folder : crud.getAllFolders()) {
+            assertEquals(folder.getEmailCount(), new EmailDAOImpl(mailConfigBean).getFolderRegistry().getEmailCount(folder.getFolderId()));
+        }
+    }
+
+    /**
+     * A long HTML message is stored compressed and read back unchanged, and
+     * the migration compresses a message that was stored as text.
+     *
+     * @throws SQLException
+     * @throws IOException
+     */
+    @Test
+    public void testHtmlBodyCompressed() throws SQLException, IOException {
+        mailConfigBean.setBodyCompressionMinLength(100);
+        StringBuilder longHtml = new StringBuilder("<html><body>");
+        for (int i = 0; i < 200; i++) {
+            longHtml.append("<p>Line ").append(i).append(" of a long message</p>");
+        }
+        longHtml.append("</body></html>");
+        toList.add(recipient1.getUserEmailAddress());
+        EmailBean emailBean = new EmailBean(-1, 3, null, createEmail(toList, ccList, bccList, subject, plainMsg, longHtml.toString(), regularAttachments, embeddedAttachments));
+        EmailDAO crud = new EmailDAOImpl(mailConfigBean);
+        crud.createEmailRecord(emailBean);
+
+        EmailMessage htmlMessage = findHtmlMessage(new EmailDAOImpl(mailConfigBean).findID(emailBean.getId()));
+        assertTrue(htmlMessage instanceof CompressedEmailMessage);
+        assertEquals(longHtml.toString(), htmlMessage.getContent());
+
+        //A message saved as text is compressed by the migration, once
+        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement("UPDATE EMAIL SET HTMLMESSAGE = ?, HTMLBODY = NULL WHERE EMAILID = 1");) {
+            ps.setString(1, longHtml.toString());
+            ps.executeUpdate();
+        }
+        assertEquals(1, new BodyCompressionMigration(mailConfigBean).migrate());
+        assertEquals(0, new BodyCompressionMigration(mailConfigBean).migrate());
+        htmlMessage = findHtmlMessage(new EmailDAOImpl(mailConfigBean).findID(1));
+        assertTrue(htmlMessage instanceof CompressedEmailMessage);
+        assertEquals(longHtml.toString(), htmlMessage.getContent());
+    }
+
+    /**
+     * An attachment created while the contents are kept in the database is
+     * moved to the file system store by the migration and can still be loaded
+     * afterwards through the file system store.
+     *
+     * @throws SQLException
+     * @throws IOException
+     */
+    @Test
+    public void testMigrateAttachmentToFileSystemStore() throws SQLException, IOException {
+        mailConfigBean.setAttachmentStoreDirectory(Files.createTempDirectory("jag-attachments").toString());
+        mailConfigBean.setAttachmentCacheDirectory(Files.createTempDirectory("jag-attachment-cache").toString());
+        toList.add(recipient1.getUserEmailAddress());
+        regularAttachments.add(new File("WindsorKen180.jpg"));
+        EmailBean emailBean = new EmailBean(-1, 3, null, createEmail(toList, ccList, bccList, subject, plainMsg, htmlMsg, regularAttachments, embeddedAttachments));
+        new EmailDAOImpl(mailConfigBean).createEmailRecord(emailBean);
+
+        assertEquals(1, new AttachmentStoreMigration(mailConfigBean).migrate());
+        assertEquals(0, new AttachmentStoreMigration(mailConfigBean).migrate());
+
+        mailConfigBean.setAttachmentStoreType(MailConfigBean.FILESYSTEM_ATTACHMENT_STORE);
+        EmailDAO crud = new EmailDAOImpl(mailConfigBean);
+        AttachmentBean attachment = crud.findAttachments(emailBean.getId()).get(0);
+        String contentHash = attachment.getContentHash();
+        File storedFile = new File(mailConfigBean.getAttachmentStoreDirectory(), contentHash.substring(0, 2) + File.separator + contentHash.substring(2, 4) + File.separator + contentHash);
+        assertTrue(storedFile.isFile());
+        assertArrayEquals(Files.readAllBytes(new File("WindsorKen180.jpg").toPath()), Files.readAllBytes(crud.loadAttachment(attachment).toPath()));
+    }
+
+    /**
+     * Helper method that returns the HTML message of an email
+     *
+     * @param emailBean
+     * @return The message whose type is text/html, null if there is none
+     */
+    private EmailMessage findHtmlMessage(EmailBean emailBean) {
+        for (EmailMessage message : emailBean.email.messages()) {
+            if (message.getMimeType().equals("text/html")) {
+                return message;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Helper method that returns the reference count of a stored attachment
+     * content
+     *
+     * @param contentHash
+     * @return The reference count, -1 if the content is not stored
+     * @throws SQLException
+     */
+    private int checkContentReferenceCount(String contentHash) throws SQLException {
+        int referenceCount = -1;
+        String findReferenceCount = "SELECT REFCOUNT FROM ATTACHMENTCONTENT WHERE CONTENTHASH = ?";
+        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(findReferenceCount);) {
+            ps.setString(1, contentHash);
+            ResultSet countResult = ps.executeQuery();
+            if (countResult.next()) {
+                referenceCount = countResult.getInt("REFCOUNT");
+            }
+        }
+        return referenceCount;
+    }
+
+    /**
+     * An attachment that cannot be read makes createEmailRecord fail after the
+     * Email row and the recipients were written. The transaction is rolled
+     * back so none of those rows remain.
+     *
+     * @throws SQLException
+     * @throws IOException
+     */
+    @Test
+    public void testFailedCreateLeavesNoPartialRows() throws SQLException, IOException {
+        EmailDAO crud = new EmailDAOImpl(mailConfigBean);
+        String rollbackSubject = "Rolled back subject";
+        toList.add("rolledback@gmail.com");
+        Email email = createEmail(toList, ccList, bccList, rollbackSubject, plainMsg, htmlMsg, regularAttachments, embeddedAttachments);
+        //A file data source is only read when the attachment is inserted
+        email.attachment(EmailAttachment.with().content(new File("DoesNotExist.jpg")).buildFileDataSource("DoesNotExist.jpg", new File(".")));
+        EmailBean emailBean = new EmailBean(-1, 3, null, email);
+        try {
+            crud.createEmailRecord(emailBean);
+            fail("The attachment should not have been readable");
+        } catch (MailException | IOException ex) {
+            LOG.info("createEmailRecord failed as expected");
+        }
+        assertEquals(0, checkCountBySubject(rollbackSubject));
+        assertEquals(0, checkCountByRecipient("rolledback@gmail.com"));
+    }
+
+    /**
+     * A batch of emails is saved in one transaction, a failure on the last
+     * email leaves none of them in the database.
+     *
+     * @throws SQLException
+     * @throws IOException
+     */
+    @Test
+    public void testCreateEmailRecordsInOneTransaction() throws SQLException, IOException {
+        EmailDAO crud = new EmailDAOImpl(mailConfigBean);
+        String batchSubject = "Batched subject";
+        toList.add("batched@gmail.com");
+        List<EmailBean> batch = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            batch.add(new EmailBean(-1, 3, null, createEmail(toList, ccList, bccList, batchSubject, plainMsg, htmlMsg, regularAttachments, embeddedAttachments)));
+        }
+        batch.get(2).email.attachment(EmailAttachment.with().content(new File("DoesNotExist.jpg")).buildFileDataSource("DoesNotExist.jpg", new File(".")));
+        try {
+            crud.createEmailRecords(batch);
+            fail("The attachment should not have been readable");
+        } catch (MailException | IOException ex) {
+            LOG.info("createEmailRecords failed as expected");
+        }
+        assertEquals(0, checkCountBySubject(batchSubject));
+
+        assertEquals(2, crud.createEmailRecords(batch.subList(0, 2)));
+        assertEquals(2, checkCountBySubject(batchSubject));
+        assertEquals(batchSubject, crud.findID(batch.get(1).getId()).email.subject());
+    }
+
+    /**
+     * The sync state saved with a batch of received emails is rolled back with
+     * the batch, and saved when the batch is committed.
+     *
+     * @throws SQLException
+     * @throws IOException
+     */
+    @Test
+    public void testSyncStateSavedWithEmails() throws SQLException, IOException {
+        EmailDAO crud = new EmailDAOImpl(mailConfigBean);
+        String account = mailConfigBean.getUserEmailAddress();
+        assertNull(crud.findSyncState(account, "INBOX"));
+        crud.saveSyncState(new SyncStateBean(account, "INBOX", 7, 10));
+
+        toList.add(account);
+        EmailBean emailBean = new EmailBean(-1, 3, null, createEmail(toList, ccList, bccList, subject, plainMsg, htmlMsg, regularAttachments, embeddedAttachments));
+        Email failingEmail = createEmail(toList, ccList, bccList, subject, plainMsg, htmlMsg, regularAttachments, embeddedAttachments);
+        failingEmail.attachment(EmailAttachment.with().content(new File("DoesNotExist.jpg")).buildFileDataSource("DoesNotExist.jpg", new File(".")));
+        EmailBean failingBean = new EmailBean(-1, 3, null, failingEmail);
+        try {
+            crud.createEmailRecords(Arrays.asList(emailBean, failingBean), new SyncStateBean(account, "INBOX", 7, 12));
+            fail("The attachment should not have been readable");
+        } catch (MailException | IOException ex) {
+            LOG.info("createEmailRecords failed as expected");
+        }
+        assertEquals(new SyncStateBean(account, "INBOX", 7, 10), crud.findSyncState(account, "INBOX"));
+
+        crud.createEmailRecords(Arrays.asList(emailBean), new SyncStateBean(account, "INBOX", 7, 11));
+        assertEquals(new SyncStateBean(account, "INBOX", 7, 11), crud.findSyncState(account, "INBOX"));
+    }
+
+    /**
+     * After the server changed the UIDVALIDITY of the INBOX its unseen
+     * messages are received again under new UIDs, the ones already saved are
+     * skipped by their Message-ID while the sync state moves to the new
+     * UIDVALIDITY.
+     *
+     * @throws SQLException
+     * @throws IOException
+     */
+    @Test
+    public void testSyncResetSkipsSavedMessages() throws SQLException, IOException {
+        EmailDAO crud = new EmailDAOImpl(mailConfigBean);
+        String account = mailConfigBean.getUserEmailAddress();
+        String resetSubject = "Received before the reset";
+        toList.add(account);
+
+        EmailBean received = new EmailBean(-1, 1, new Timestamp(System.currentTimeMillis()), createEmail(toList, ccList, bccList, resetSubject, plainMsg, htmlMsg, new ArrayList<>(), new ArrayList<>()));
+        received.setImapUid(10);
+        received.setImapUidValidity(7);
+        received.setMessageId("<reset-test-1@example.com>");
+        assertEquals(1, crud.createEmailRecords(Arrays.asList(received), new SyncStateBean(account, "INBOX", 7, 10)));
+
+        //The same message under the new UIDVALIDITY, and a message that was never saved
+        EmailBean receivedAgain = new EmailBean(-1, 1, new Timestamp(System.currentTimeMillis()), createEmail(toList, ccList, bccList, resetSubject, plainMsg, htmlMsg, new ArrayList<>(), new ArrayList<>()));
+        receivedAgain.setImapUid(1);
+        receivedAgain.setImapUidValidity(8);
+        receivedAgain.setMessageId("<RESET-TEST-1@example.com>");
+        EmailBean newMessage = new EmailBean(-1, 1, new Timestamp(System.currentTimeMillis()), createEmail(toList, ccList, bccList, resetSubject, plainMsg, htmlMsg, new ArrayList<>(), new ArrayList<>()));
+        newMessage.setImapUid(2);
+        newMessage.setImapUidValidity(8);
+        newMessage.setMessageId("<reset-test-2@example.com>");
+        assertEquals(1, crud.createEmailRecords(Arrays.asList(receivedAgain, newMessage), new SyncStateBean(account, "INBOX", 8, 2)));
+
+        assertEquals(2, checkCountBySubject(resetSubject));
+        assertEquals(-1, receivedAgain.getId());
+        assertTrue(newMessage.getId() > 0);
+        assertEquals(new SyncStateBean(account, "INBOX", 8, 2), crud.findSyncState(account, "INBOX"));
+    }
+
+    /**
+     * An email received with its headers only has its body and attachments
+     * saved once, a large attachment stays on the server until its content is
+     * stored.
+     *
+     * @throws SQLException
+     * @throws IOException
+     */
+    @Test
+    public void testEmailBodySavedAfterHeaders() throws SQLException, IOException {
+        EmailDAO crud = new EmailDAOImpl(mailConfigBean);
+        toList.add(mailConfigBean.getUserEmailAddress());
+        EmailBean headers = new EmailBean(-1, 1, new Timestamp(System.currentTimeMillis()), createEmail(toList, ccList, bccList, subject, "", "", new ArrayList<>(), new ArrayList<>()));
+        headers.setImapUid(42);
+        headers.setImapUidValidity(7);
+        headers.setBodyLoaded(false);
+        crud.createEmailRecord(headers);
+        assertTrue(crud.findEmailIdsWithoutBody(10).contains(headers.getId()));
+
+        AttachmentBean large = new AttachmentBean(0, headers.getId(), "large.pdf", null, false, 5000, null);
+        large.setImapPart("2");
+        Email body = Email.create().textMessage(plainMsg).htmlMessage(htmlMsg);
+        assertEquals(1, crud.saveEmailBody(headers.getId(), body, Arrays.asList(large)));
+        assertEquals(0, crud.saveEmailBody(headers.getId(), body, Arrays.asList(large)));
+
+        EmailBean loaded = crud.findID(headers.getId());
+        assertTrue(loaded.isBodyLoaded());
+        assertEquals(42, loaded.getImapUid());
+        assertFalse(crud.findEmailIdsWithoutBody(10).contains(headers.getId()));
+        List<AttachmentBean> attachments = crud.findAttachments(headers.getId());
+        assertEquals(1, attachments.size());
+        assertTrue(attachments.get(0).isDeferred());
+        assertEquals(5000, attachments.get(0).getSize());
+
+        byte[] content = "large attachment".getBytes();
+        crud.storeAttachmentContent(attachments.get(0), content);
+        AttachmentBean stored = crud.findAttachments(headers.getId()).get(0);
+        assertFalse(stored.isDeferred());
+        assertEquals(content.length, crud.loadAttachment(stored).length());
+    }
+
+    /**
+     * The emails without a body are paged newest first below the last id of
+     * the previous page, and an email whose message left the server is no
+     * longer returned but can still get its body.
+     *
+     * @throws SQLException
+     * @throws IOException
+     */
+    @Test
+    public void testEmailsWithoutBodyPaged() throws SQLException, IOException {
+        EmailDAO crud = new EmailDAOImpl(mailConfigBean);
+        toList.add(mailConfigBean.getUserEmailAddress());
+        List<Integer> ids = new ArrayList<>();
+        for (int uid = 1; uid <= 3; uid++) {
+            EmailBean headers = new EmailBean(-1, 1, new Timestamp(System.currentTimeMillis()), createEmail(toList, ccList, bccList, subject, "", "", new ArrayList<>(), new ArrayList<>()));
+            headers.setImapUid(uid);
+            headers.setImapUidValidity(7);
+            headers.setBodyLoaded(false);
+            crud.createEmailRecord(headers);
+            ids.add(headers.getId());
+        }
+
+        assertEquals(Arrays.asList(ids.get(2), ids.get(1)), crud.findEmailIdsWithoutBody(Integer.MAX_VALUE, 2));
+        assertEquals(Arrays.asList(ids.get(0)), crud.findEmailIdsWithoutBody(ids.get(1), 2));
+
+        assertEquals(1, crud.markBodyUnavailable(ids.get(2)));
+        assertEquals(Arrays.asList(ids.get(1), ids.get(0)), crud.findEmailIdsWithoutBody(Integer.MAX_VALUE, 10));
+        assertFalse(crud.findID(ids.get(2)).isBodyLoaded());
+        assertEquals(1, crud.saveEmailBody(ids.get(2), Email.create().textMessage(plainMsg), new ArrayList<>()));
+        assertTrue(crud.findID(ids.get(2)).isBodyLoaded());
+    }
+
+    /**
+     * The seeded schema is migrated to the latest version once, and folder
+     * names are unique afterwards.
+     *
+     * @throws SQLException
+     * @throws IOException
+     */
+    @Test
+    public void testSchemaMigrated() throws SQLException, IOException {
+        SchemaMigrator migrator = new SchemaMigrator(mailConfigBean);
+        assertEquals(SchemaMigrator.getLatestVersion(), migrator.getCurrentVersion());
+        assertEquals(0, migrator.migrate());
+        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement("INSERT INTO FOLDERS (FOLDERNAME) VALUES ('INBOX')");) {
+            ps.executeUpdate();
+            fail("A second INBOX folder was created");
+        } catch (SQLIntegrityConstraintViolationException ex) {
+            //The unique index on FOLDERNAME rejected the duplicate
+        }
+    }
+
+    /**
+     * A database created by the original schema scripts is migrated, the
+     * contents of its ATTACHMENT column are moved to ATTACHMENTCONTENT and
+     * shared by the attachments with the same content.
+     *
+     * @throws SQLException
+     * @throws IOException
+     */
+    @Test
+    public void testSchemaMigratesLegacyAttachments() throws SQLException, IOException {
+        byte[] content = "legacy attachment".getBytes();
+        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  Statement statement = connection.createStatement();) {
+            statement.execute("DROP TABLE ATTACHMENTS");
+            statement.execute("DROP TABLE ATTACHMENTCONTENT");
+            statement.execute("CREATE TABLE ATTACHMENTS (ATTACHMENTID INT(11) NOT NULL auto_increment, EMAILID INT(11) NOT NULL, FILENAME varchar(100) NOT NULL default '', CID varchar(100), ATTACHMENT MEDIUMBLOB, IS_EMBEDDED int(1) NOT NULL default 0, PRIMARY KEY (ATTACHMENTID))");
+            statement.execute("DELETE FROM SCHEMAVERSION");
+            try ( PreparedStatement ps = connection.prepareStatement("INSERT INTO ATTACHMENTS (EMAILID, FILENAME, ATTACHMENT) VALUES (1, ?, ?)");) {
+                for (String fileName : new String[]{"first.txt", "second.txt"}) {
+                    ps.setString(1, fileName);
+                    ps.setBytes(2, content);
+                    ps.executeUpdate();
+                }
+            }
+        }
+
+        SchemaMigrator migrator = new SchemaMigrator(mailConfigBean);
+        assertEquals(SchemaMigrator.getLatestVersion(), migrator.migrate());
+
+        EmailDAO crud = new EmailDAOImpl(mailConfigBean);
+        List<AttachmentBean> attachments = crud.findAttachments(1);
+        assertEquals(2, attachments.size());
+        assertEquals(attachments.get(0).getContentHash(), attachments.get(1).getContentHash());
+        assertEquals(2, checkContentReferenceCount(attachments.get(0).getContentHash()));
+        assertArrayEquals(content, Files.readAllBytes(crud.loadAttachment(attachments.get(0)).toPath()));
+    }
+
+    /**
+     * Search matches the start of words in the subject and sender, within a
+     * folder or across every folder.
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void testSearch() throws SQLException {
+        EmailDAO crud = new EmailDAOImpl(mailConfigBean);
+        assertEquals(2, crud.search("jod", null, null, null, 10).size());
+        List<EmailHeaderBean> sent = crud.search("Jodd test", "SENT", null, null, 10);
+        assertEquals(1, sent.size());
+        assertEquals(3, sent.get(0).getId());
+        assertTrue(crud.search("danieldawsontest3", null, null, null, 10).stream().anyMatch(header -> header.getId() == 3));
+        assertEquals(1, crud.search("plain", "SENT", Timestamp.valueOf("2020-09-25 00:00:00"), null, 10).size());
+        assertTrue(crud.search("a is", null, null, null, 10).isEmpty());
+    }
+
+    /**
+     * Search finds the words of an HTML message without plain text, whether
+     * the email is saved whole or its body is saved after its headers, and a
+     * query may mix words of the recipients with words of the subject.
+     *
+     * @throws SQLException
+     * @throws IOException
+     */
+    @Test
+    public void testSearchHtmlMessagesAndRecipients() throws SQLException, IOException {
+        EmailDAO crud = new EmailDAOImpl(mailConfigBean);
+        toList.add("alicebookkeeper@example.com");
+        String html = "<html><head><style>.quarterly { color: red; }</style></head><body><p>The <b>quarterly</b>&nbsp;figures</p></body></html>";
+        EmailBean draft = new EmailBean(-1, 3, null, createEmail(toList, ccList, bccList, "Invoice reminder", "", html, new ArrayList<>(), new ArrayList<>()));
+        crud.createEmailRecord(draft);
+        EmailBean headers = new EmailBean(-1, 1, new Timestamp(System.currentTimeMillis()), createEmail(toList, ccList, bccList, "Newsletter", "", "", new ArrayList<>(), new ArrayList<>()));
+        headers.setImapUid(1);
+        headers.setImapUidValidity(7);
+        headers.setBodyLoaded(false);
+        crud.createEmailRecord(headers);
+        crud.saveEmailBody(headers.getId(), Email.create().htmlMessage("<div>Upcoming <i>webinars</i></div>"), new ArrayList<>());
+
+        List<EmailHeaderBean> figures = crud.search("quarterly figures", null, null, null, 10);
+        assertEquals(1, figures.size());
+        assertEquals(draft.getId(), figures.get(0).getId());
+        assertEquals(headers.getId(), crud.search("webinars", "INBOX", null, null, 10).get(0).getId());
+        assertTrue(crud.search("color red", null, null, null, 10).isEmpty());
+
+        List<EmailHeaderBean> mixed = crud.search("alicebookkeeper invoice", null, null, null, 10);
+        assertEquals(1, mixed.size());
+        assertEquals(draft.getId(), mixed.get(0).getId());
+        assertEquals(2, crud.search("alicebookkeeper", null, null, null, 10).size());
+        assertTrue(crud.search("alicebookkeeper jodd", null, null, null, 10).isEmpty());
+    }
+
+    /**
+     * A call submitted with the key of a call still running cancels it, only
+     * the result of the latest call is delivered. Failures are delivered as
+     * the exception thrown by the EmailDAO.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testAsyncEmailDAOSupersedesCalls() throws Exception {
+        AsyncEmailDAO asyncDAO = new AsyncEmailDAO(new EmailDAOImpl(mailConfigBean), 2, Runnable::run);
+        try {
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            CompletableFuture<EmailBean> superseded = asyncDAO.submitLatest("details", dao -> {
+                started.countDown();
+                release.await();
+                return dao.findID(1);
+            });
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            CompletableFuture<EmailBean> latest = asyncDAO.submitLatest("details", dao -> dao.findID(3));
+            release.countDown();
+            assertEquals(3, latest.get(10, TimeUnit.SECONDS).getId());
+            assertTrue(superseded.isCancelled());
+
+            try {
+                asyncDAO.submit(dao -> dao.createFolder("INBOX")).get(10, TimeUnit.SECONDS);
+                fail("The INBOX folder was created twice");
+            } catch (ExecutionException ex) {
+                assertTrue(ex.getCause() instanceof FolderAlreadyExistsException);
+            }
+        } finally {
+            asyncDAO.shutdown();
+        }
+    }
+
+    /**
+     * An attachment backed by a file is stored from the file, and a deferred
+     * attachment is stored while its stream is read, both with their content
+     * unchanged.
+     *
+     * @throws SQLException
+     * @throws IOException
+     */
+    @Test
+    public void testAttachmentContentStreamed() throws SQLException, IOException {
+        EmailDAO crud = new EmailDAOImpl(mailConfigBean);
+        byte[] content = new byte[3 * 1024 * 1024 + 17];
+        new Random(16).nextBytes(content);
+        File file = File.createTempFile("streamed", ".bin");
+        file.deleteOnExit();
+        Files.write(file.toPath(), content);
+
+        toList.add(mailConfigBean.getUserEmailAddress());
+        EmailBean emailBean = new EmailBean(-1, 1, new Timestamp(System.currentTimeMillis()), createEmail(toList, ccList, bccList, subject, plainMsg, htmlMsg, Arrays.asList(file), new ArrayList<>()));
+        crud.createEmailRecord(emailBean);
+        AttachmentBean stored = crud.findAttachments(emailBean.getId()).get(0);
+        assertEquals(content.length, stored.getSize());
+        assertArrayEquals(content, Files.readAllBytes(crud.loadAttachment(stored).toPath()));
+
+        EmailBean headers = new EmailBean(-1, 1, new Timestamp(System.currentTimeMillis()), createEmail(toList, ccList, bccList, subject, "", "", new ArrayList<>(), new ArrayList<>()));
+        headers.setBodyLoaded(false);
+        crud.createEmailRecord(headers);
+        AttachmentBean deferred = new AttachmentBean(0, headers.getId(), "deferred.bin", null, false, content.length, null);
+        deferred.setImapPart("2");
+        crud.saveEmailBody(headers.getId(), Email.create().textMessage(plainMsg), Arrays.asList(deferred));
+        AttachmentBean saved = crud.findAttachments(headers.getId()).get(0);
+        crud.storeAttachmentContent(saved, new ByteArrayInputStream(content));
+        assertEquals(stored.getContentHash(), saved.getContentHash());
+        assertArrayEquals(content, Files.readAllBytes(crud.loadAttachment(crud.findAttachments(headers.getId()).get(0)).toPath()));
+    }
+
+    /**
+     * A queued email waits in the draft folder, is claimed by one worker at a
+     * time, is claimed again after a failed attempt and is moved to the sent
+     * folder once it was sent.
+     *
+     * @throws SQLException
+     * @throws IOException
+     */
+    @Test
+    public void testOutboxEntryClaimedUntilSent() throws SQLException, IOException {
+        EmailDAO crud = new EmailDAOImpl(mailConfigBean);
+        toList.add(mailConfigBean.getUserEmailAddress());
+        EmailBean emailBean = new EmailBean(-1, 2, null, createEmail(toList, ccList, bccList, subject, plainMsg, htmlMsg, new ArrayList<>(), new ArrayList<>()));
+        int outboxId = crud.enqueueEmail(emailBean);
+        assertEquals(3, crud.findID(emailBean.getId()).getFolderKey());
+
+        List<OutboxBean> claimed = crud.claimOutboxEntries(10);
+        assertEquals(1, claimed.size());
+        assertEquals(outboxId, claimed.get(0).getOutboxId());
+        assertEquals(OutboxBean.SENDING, claimed.get(0).getStatus());
+        assertTrue(crud.claimOutboxEntries(10).isEmpty());
+
+        OutboxBean entry = claimed.get(0);
+        entry.setAttempts(1);
+        entry.setLastError("MailException: connection lost");
+        entry.setNextAttempt(new Timestamp(System.currentTimeMillis() - 3600000));
+        crud.markOutboxFailed(entry);
+        claimed = crud.claimOutboxEntries(10);
+        assertEquals(1, claimed.size());
+        assertEquals(1, claimed.get(0).getAttempts());
+
+        emailBean.email.currentSentDate();
+        crud.markOutboxSent(claimed.get(0), emailBean);
+        assertEquals(2, crud.findID(emailBean.getId()).getFolderKey());
+        assertTrue(crud.findOutboxEntries().isEmpty());
+    }
+
     /**
      * Helper method that constructs and fills an Email object for testing
      * purposes
@@ -429,6 +1167,23 @@ public class CrudTests {
         assertEquals(emailBeanList.size(), countValid);
     }
 
+    /**
+     * Loading every email borrows a connection for each query, but they are
+     * returned to the pool and reused instead of opening a new one each time.
+     *
+     * @throws SQLException
+     * @throws IOException
+     */
+    @Test
+    public void testConnectionPoolReusesConnections() throws SQLException, IOException {
+        EmailDAOImpl crud = new EmailDAOImpl(mailConfigBean);
+        ConnectionPool pool = crud.getConnectionPool();
+        long createdBefore = pool.getCreatedCount();
+        crud.findAll();
+        assertEquals("No connections should still be borrowed", 0, pool.getActiveCount());
+        assertTrue("At most two connections are open at the same time", pool.getCreatedCount() - createdBefore <= 2);
+    }
+
     /**
      * Insert a sent email into the db and retrieve it using FindID. Then
      * compare the two results using the equals method in EmailBean class.
@@ -509,6 +1264,51 @@ public class CrudTests {
         assertEquals(emailsInFolder.size(), checkCountEmailsInFolder("SENT"));
     }
 
+    /**
+     * The header projection of a folder must return one header per email in
+     * the folder, with the same id, subject and folder as the full EmailBean.
+     *
+     * @throws SQLException
+     * @throws IOException
+     */
+    @Test
+    public void testFindHeadersInSentFolder() throws SQLException, IOException {
+        EmailDAO crud = new EmailDAOImpl(mailConfigBean);
+        List<EmailHeaderBean> headers = crud.findHeadersInFolder("SENT");
+        List<EmailBean> emailsInFolder = crud.findAllInFolder("SENT");
+        assertEquals(emailsInFolder.size(), headers.size());
+        for (int i = 0; i < headers.size(); i++) {
+            assertEquals(emailsInFolder.get(i).getId(), headers.get(i).getId());
+            assertEquals(emailsInFolder.get(i).email.subject(), headers.get(i).getSubject());
+            assertEquals(emailsInFolder.get(i).getFolderKey(), headers.get(i).getFolderKey());
+        }
+    }
+
+    /**
+     * Walk the SENT folder two headers at a time with the keyset pagination
+     * methods. Every email is seen exactly once and paging back from the second
+     * page returns the first page.
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void testFindHeadersPagesThroughSentFolder() throws SQLException {
+        EmailDAO crud = new EmailDAOImpl(mailConfigBean);
+        List<EmailHeaderBean> firstPage = crud.findHeadersAfter("SENT", null, 2);
+        List<EmailHeaderBean> secondPage = crud.findHeadersAfter("SENT", firstPage.get(firstPage.size() - 1), 2);
+        assertEquals(2, firstPage.size());
+        assertEquals(1, secondPage.size());
+
+        List<Integer> pagedIds = new ArrayList<>();
+        firstPage.forEach(header -> pagedIds.add(header.getId()));
+        secondPage.forEach(header -> pagedIds.add(header.getId()));
+        List<Integer> folderIds = new ArrayList<>();
+        crud.findHeadersInFolder("SENT").forEach(header -> folderIds.add(header.getId()));
+        assertTrue(pagedIds.containsAll(folderIds) && folderIds.containsAll(pagedIds));
+
+        assertEquals(firstPage, crud.findHeadersBefore("SENT", secondPage.get(0), 2));
+    }
+
     /**
      * Check that the returned list of EmailBean object from the FindAllInFolder
      * method returns the correct amount of emails. Uses helper that returns
@@ -706,6 +1506,26 @@ public class CrudTests {
         assertEquals(0, emailsBySubject.size());
     }
 
+    /**
+     * Helper method that returns the primary keys of the rows of an email
+     *
+     * @param query A query selecting the keys as ROWKEY for an EMAILID
+     * @param emailId
+     * @return The keys in the order of the query
+     * @throws SQLException
+     */
+    private List<Integer> findRowKeys(String query, int emailId) throws SQLException {
+        List<Integer> rowKeys = new ArrayList<>();
+        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  PreparedStatement ps = connection.prepareStatement(query);) {
+            ps.setInt(1, emailId);
+            ResultSet resultSet = ps.executeQuery();
+            while (resultSet.next()) {
+                rowKeys.add(resultSet.getInt("ROWKEY"));
+            }
+        }
+        return rowKeys;
+    }
+
     /**
      * Check the amount of emails that have this subject
      *
@@ -764,6 +1584,78 @@ public class CrudTests {
         assertEquals(beforeUpdateBean, afterUpdateBean);
     }
 
+    /**
+     * Saving a draft only writes what changed. The rows of the recipients and
+     * attachments that are kept stay the same, a removed recipient is deleted
+     * and a new one is added.
+     *
+     * @throws SQLException
+     * @throws IOException
+     */
+    @Test
+    public void testUpdateDraftKeepsUnchangedRows() throws SQLException, IOException, NotEnoughEmailRecipientsException, InvalidMailConfigBeanUsernameException, RecipientListNullException, RecipientEmailAddressNullException, RecipientInvalidFormatException, InvalidRecipientImapURLException {
+        EmailDAO crud = new EmailDAOImpl(mailConfigBean);
+        toList.add(recipient1.getUserEmailAddress());
+        ccList.add(recipient2.getUserEmailAddress());
+        regularAttachments.add(new File("WindsorKen180.jpg"));
+        EmailBean draft = new EmailBean(-1, 3, null, createEmail(toList, ccList, bccList, subject, plainMsg, htmlMsg, regularAttachments, embeddedAttachments));
+        crud.createEmailRecord(draft);
+        List<Integer> recipientRows = findRowKeys("SELECT EMAILTOADDRESSKEY AS ROWKEY FROM EMAILTOADDRESS WHERE EMAILID = ? ORDER BY EMAILTOADDRESSKEY", draft.getId());
+        List<Integer> attachmentRows = findRowKeys("SELECT ATTACHMENTID AS ROWKEY FROM ATTACHMENTS WHERE EMAILID = ? ORDER BY ATTACHMENTID", draft.getId());
+
+        //Only the subject changes, the attachment is the same file read again
+        EmailBean edited = new EmailBean(draft.getId(), 3, null, createEmail(toList, ccList, bccList, "Only the subject changed", plainMsg, htmlMsg, regularAttachments, embeddedAttachments));
+        assertEquals(1, crud.updateDraft(edited));
+        assertEquals(recipientRows, findRowKeys("SELECT EMAILTOADDRESSKEY AS ROWKEY FROM EMAILTOADDRESS WHERE EMAILID = ? ORDER BY EMAILTOADDRESSKEY", draft.getId()));
+        assertEquals(attachmentRows, findRowKeys("SELECT ATTACHMENTID AS ROWKEY FROM ATTACHMENTS WHERE EMAILID = ? ORDER BY ATTACHMENTID", draft.getId()));
+        assertEquals("Only the subject changed", crud.findID(draft.getId()).email.subject());
+
+        //The draft loaded from the database keeps its attachment, the cc recipient is replaced
+        EmailBean loaded = crud.findID(draft.getId());
+        loaded.email.resetCc();
+        loaded.email.cc("newrecipient@gmail.com");
+        crud.updateDraft(loaded);
+        List<Integer> updatedRecipientRows = findRowKeys("SELECT EMAILTOADDRESSKEY AS ROWKEY FROM EMAILTOADDRESS WHERE EMAILID = ? ORDER BY EMAILTOADDRESSKEY", draft.getId());
+        assertEquals(2, updatedRecipientRows.size());
+        assertEquals(recipientRows.get(0), updatedRecipientRows.get(0));
+        assertFalse(recipientRows.contains(updatedRecipientRows.get(1)));
+        assertEquals(attachmentRows, findRowKeys("SELECT ATTACHMENTID AS ROWKEY FROM ATTACHMENTS WHERE EMAILID = ? ORDER BY ATTACHMENTID", draft.getId()));
+        assertEquals(loaded, crud.findID(draft.getId()));
+    }
+
+    /**
+     * The edits of a draft made within the autosave delay are saved once,
+     * with the latest edit.
+     *
+     * @throws SQLException
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testDraftAutosaveCoalescesEdits() throws SQLException, IOException, InterruptedException {
+        EmailDAO crud = new EmailDAOImpl(mailConfigBean);
+        EmailBean draft = crud.findID(4);
+        List<String> savedSubjects = new ArrayList<>();
+        CountDownLatch saved = new CountDownLatch(1);
+        DraftAutosaver autosaver = new DraftAutosaver(crud, 300, Runnable::run, savedDraft -> {
+            savedSubjects.add(savedDraft.email.subject());
+            saved.countDown();
+        });
+        try {
+            for (int i = 1; i <= 3; i++) {
+                EmailBean edit = crud.findID(4);
+                edit.email.subject("Autosaved edit " + i);
+                autosaver.schedule(edit);
+            }
+            assertEquals(1, autosaver.getPendingCount());
+            assertTrue(saved.await(10, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("Autosaved edit 3"), savedSubjects);
+            assertEquals("Autosaved edit 3", crud.findID(draft.getId()).email.subject());
+        } finally {
+            autosaver.shutdown();
+        }
+    }
+
     /**
      * Retrieves one of the mock email (4) and update it's folder to "sent" so
      * that the method will send the draft email.
@@ -911,6 +1803,92 @@ public class CrudTests {
         assertEquals(1, deleteFolderResult);
     }
 
+    /**
+     * A folder with more emails than a chunk is deleted a chunk at a time,
+     * reporting the progress after every chunk, and its shared attachment
+     * content is released.
+     *
+     * @throws SQLException
+     * @throws IOException
+     * @throws CannotDeleteFolderException
+     * @throws FolderAlreadyExistsException
+     */
+    @Test
+    public void deleteFolderInChunksTest() throws SQLException, IOException, CannotDeleteFolderException, FolderAlreadyExistsException {
+        mailConfigBean.setFolderDeleteChunkSize(2);
+        EmailDAOImpl crud = new EmailDAOImpl(mailConfigBean);
+        crud.createFolder("Archive");
+        int archiveId = crud.getFolderID("Archive");
+        toList.add(recipient1.getUserEmailAddress());
+        regularAttachments.add(new File("WindsorKen180.jpg"));
+        List<EmailBean> archived = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            archived.add(new EmailBean(-1, archiveId, null, createEmail(toList, ccList, bccList, subject, plainMsg, htmlMsg, regularAttachments, embeddedAttachments)));
+        }
+        crud.createEmailRecords(archived);
+        String contentHash = crud.findAttachments(archived.get(0).getId()).get(0).getContentHash();
+
+        List<Integer> progress = new ArrayList<>();
+        assertEquals(1, crud.deleteFolder("Archive", (deletedCount, totalCount) -> {
+            assertEquals(5, totalCount);
+            progress.add(deletedCount);
+        }));
+        assertEquals(Arrays.asList(2, 4, 5), progress);
+        assertEquals(0, crud.getFolderID("Archive"));
+        assertEquals(0, crud.findID(archived.get(4).getId()).getId());
+        assertEquals(-1, checkContentReferenceCount(contentHash));
+    }
+
+    /**
+     * A folder delete that fails when the folder row is deleted is rolled
+     * back, the attachment content its emails released is still in the file
+     * system store and can be read again.
+     *
+     * @throws SQLException
+     * @throws IOException
+     * @throws CannotDeleteFolderException
+     * @throws FolderAlreadyExistsException
+     */
+    @Test
+    public void testRolledBackDeleteKeepsAttachmentContent() throws SQLException, IOException, CannotDeleteFolderException, FolderAlreadyExistsException {
+        mailConfigBean.setAttachmentStoreType(MailConfigBean.FILESYSTEM_ATTACHMENT_STORE);
+        mailConfigBean.setAttachmentStoreDirectory(Files.createTempDirectory("jag-attachments").toString());
+        mailConfigBean.setAttachmentCacheDirectory(Files.createTempDirectory("jag-attachment-cache").toString());
+        //A content no other attachment references
+        byte[] content = new byte[4096];
+        new Random().nextBytes(content);
+        File attachmentFile = Files.createTempFile("rollback", ".bin").toFile();
+        Files.write(attachmentFile.toPath(), content);
+        regularAttachments.add(attachmentFile);
+        toList.add(recipient1.getUserEmailAddress());
+
+        EmailDAOImpl crud = new EmailDAOImpl(mailConfigBean);
+        crud.createFolder("Pinned");
+        EmailBean emailBean = new EmailBean(-1, crud.getFolderID("Pinned"), null, createEmail(toList, ccList, bccList, subject, plainMsg, htmlMsg, regularAttachments, embeddedAttachments));
+        crud.createEmailRecord(emailBean);
+
+        //A row referencing the folder makes deleting the folder row fail after its emails were deleted
+        try ( Connection connection = DriverManager.getConnection(mailConfigBean.getDatabaseUrl(), mailConfigBean.getDatabaseUserName(), mailConfigBean.getDatabasePassword());  Statement statement = connection.createStatement();) {
+            statement.execute("CREATE TABLE FOLDERPIN (FOLDERID INT(11) NOT NULL, CONSTRAINT FK_FOLDERPIN FOREIGN KEY (FOLDERID) REFERENCES FOLDERS(FOLDERID))");
+            statement.execute("INSERT INTO FOLDERPIN (FOLDERID) VALUES (" + crud.getFolderID("Pinned") + ")");
+            try {
+                crud.deleteFolder("Pinned");
+                fail("The folder row should not have been deleted");
+            } catch (SQLException ex) {
+                //Expected, the delete is rolled back
+            } finally {
+                statement.execute("DROP TABLE FOLDERPIN");
+            }
+        }
+
+        //Read through a new cache so the content comes from the store
+        mailConfigBean.setAttachmentCacheDirectory(Files.createTempDirectory("jag-attachment-cache").toString());
+        EmailDAO afterRollback = new EmailDAOImpl(mailConfigBean);
+        AttachmentBean attachment = afterRollback.findAttachments(emailBean.getId()).get(0);
+        assertEquals(1, checkContentReferenceCount(attachment.getContentHash()));
+        assertArrayEquals(content, Files.readAllBytes(afterRollback.loadAttachment(attachment).toPath()));
+    }
+
     /**
      * Expect an exception to be thrown when the folder that the user wants to
      * delete is either INBOX,SENT,DRAFT.
@@ -988,6 +1966,19 @@ public class CrudTests {
         int updateFolderNameResult = crud.updateFolderName("INBOX", "My Documents");
     }
 
+    /**
+     * Applies the schema migrations to the freshly seeded tables, as the
+     * application does when it starts.
+     */
+    private void migrateSchema() {
+        try {
+            new SchemaMigrator(mailConfigBean).migrate();
+            new SearchTextMigration(mailConfigBean).migrate();
+        } catch (SQLException | IOException e) {
+            throw new RuntimeException("Failed migrating the database", e);
+        }
+    }
+
     /**
      * This routine recreates the database before every test. This makes sure
      * that a destructive test will not interfere with any other test. Does not
@@ -9,10 +9,16 @@ import com.danielsimonchin.exceptions.RecipientInvalidFormatException;
 import com.danielsimonchin.exceptions.RecipientListNullException;
 import com.danielsimonchin.properties.MailConfigBean;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import javax.mail.Flags;
+import javax.mail.Folder;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.search.FlagTerm;
 import jodd.mail.Email;
 import jodd.mail.EmailAddress;
 import jodd.mail.EmailFilter;
@@ -535,6 +541,62 @@ public class MailTests {
         assertEquals(5, emailCount);
     }
 
+    /**
+     * Sends a batch of 5 emails over one SMTP session and verifies that they
+     * are all received.
+     *
+     * @throws NotEnoughEmailRecipientsException
+     * @throws InvalidMailConfigBeanUsernameException
+     * @throws RecipientListNullException
+     * @throws RecipientEmailAddressNullException
+     * @throws RecipientInvalidFormatException
+     * @throws InvalidRecipientImapURLException
+     */
+    @Test
+    public void testSendEmails() throws NotEnoughEmailRecipientsException, InvalidMailConfigBeanUsernameException, RecipientListNullException, RecipientEmailAddressNullException, RecipientInvalidFormatException, InvalidRecipientImapURLException {
+        List<Email> batch = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            batch.add(Email.create().from(mailConfigBean.getUserEmailAddress()).to(recipient1.getUserEmailAddress()).subject(subject).textMessage(plainMsg));
+        }
+        runMail = new SendAndReceive(mailConfigBean);
+        runMail.sendEmails(batch);
+        // Add a three second pause to allow the Gmail server to receive what has been sent
+        try {
+            Thread.sleep(3000);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        int emailCount = 0;
+        ReceivedEmail[] emails = runMail.receiveEmail(recipient1);
+        for (ReceivedEmail email : emails) {
+            if (email.from().toString().equals(mailConfigBean.getUserEmailAddress())) {
+                emailCount++;
+            }
+        }
+        assertEquals(5, emailCount);
+    }
+
+    /**
+     * Expects a RecipientInvalidFormatException before any email of the batch
+     * is sent when one of them has an invalid recipient.
+     *
+     * @throws NotEnoughEmailRecipientsException
+     * @throws InvalidMailConfigBeanUsernameException
+     * @throws RecipientListNullException
+     * @throws RecipientEmailAddressNullException
+     * @throws RecipientInvalidFormatException
+     */
+    @Test
+    public void testSendEmailsInvalidAddress() throws NotEnoughEmailRecipientsException, InvalidMailConfigBeanUsernameException, RecipientListNullException, RecipientEmailAddressNullException, RecipientInvalidFormatException {
+        thrown.expect(RecipientInvalidFormatException.class);
+
+        List<Email> batch = new ArrayList<>();
+        batch.add(Email.create().from(mailConfigBean.getUserEmailAddress()).to(recipient1.getUserEmailAddress()).subject(subject).textMessage(plainMsg));
+        batch.add(Email.create().from(mailConfigBean.getUserEmailAddress()).to("FakeEmailAddressString").subject(subject).textMessage(plainMsg));
+        runMail = new SendAndReceive(mailConfigBean);
+        runMail.sendEmails(batch);
+    }
+
     /**
      * Tests that the receiveEmail method returns an empty array when there are
      * no emails to receive.
@@ -550,6 +612,47 @@ public class MailTests {
         assertEquals(0, emails.length);
     }
 
+    /**
+     * Reading the whole content of a message through the IMAP session of the
+     * sync leaves it unseen on the server.
+     *
+     * @throws NotEnoughEmailRecipientsException
+     * @throws InvalidMailConfigBeanUsernameException
+     * @throws RecipientListNullException
+     * @throws RecipientEmailAddressNullException
+     * @throws RecipientInvalidFormatException
+     * @throws InvalidRecipientImapURLException
+     * @throws MessagingException
+     * @throws IOException
+     */
+    @Test
+    public void testImapSessionLeavesMessagesUnseen() throws NotEnoughEmailRecipientsException, InvalidMailConfigBeanUsernameException, RecipientListNullException, RecipientEmailAddressNullException, RecipientInvalidFormatException, InvalidRecipientImapURLException, MessagingException, IOException {
+        toList.add(recipient1.getUserEmailAddress());
+        runMail = new SendAndReceive(mailConfigBean);
+        runMail.sendEmail(toList, ccList, bccList, subject, plainMsg, htmlMsg, regularAttachments, embeddedAttachments);
+        // Add a three second pause to allow the Gmail server to receive what has been sent
+        try {
+            Thread.sleep(3000);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        try ( ReceiveMailSession session = runMail.openImapSession(recipient1)) {
+            assertEquals("true", session.getSession().getProperty(SendAndReceive.IMAP_PEEK_PROPERTY));
+            Folder inbox = session.getService().getFolder("INBOX");
+            inbox.open(Folder.READ_WRITE);
+            Message[] unseen = inbox.search(new FlagTerm(new Flags(Flags.Flag.SEEN), false));
+            assertTrue(unseen.length > 0);
+            for (Message message : unseen) {
+                message.writeTo(OutputStream.nullOutputStream());
+            }
+            inbox.close(false);
+
+            inbox.open(Folder.READ_ONLY);
+            assertEquals(unseen.length, inbox.search(new FlagTerm(new Flags(Flags.Flag.SEEN), false)).length);
+            inbox.close(false);
+        }
+    }
+
     /**
      * Tests that the to and cc lists of the receivedEmail[] are the same as the
      * intended recipients.
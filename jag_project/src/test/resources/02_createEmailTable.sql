@@ -12,7 +12,11 @@ CREATE TABLE EMAIL (
   SENTDATE TIMESTAMP,
   RECEIVEDATE TIMESTAMP,
   FOLDERID int(11) NOT NULL DEFAULT 1,
+  IMAPUID bigint,
+  IMAPUIDVALIDITY bigint,
+  BODYLOADED tinyint(1) NOT NULL DEFAULT 1,
   CONSTRAINT FK_EMAIL_FOLDER FOREIGN KEY (FOLDERID) REFERENCES FOLDERS(FOLDERID),
+  FULLTEXT KEY FT_EMAIL_TEXT (FROMADDRESS, SUBJECT, TEXTMESSAGE),
   PRIMARY KEY  (EMAILID)
 );
 
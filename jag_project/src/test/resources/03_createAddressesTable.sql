@@ -6,6 +6,7 @@ SET FOREIGN_KEY_CHECKS = 1;
 CREATE TABLE ADDRESSES (
   ADDRESSID int(11) NOT NULL auto_increment,
   EMAILADDRESS varchar(320) UNIQUE NOT NULL,
+  FULLTEXT KEY FT_ADDRESSES_EMAILADDRESS (EMAILADDRESS),
   PRIMARY KEY  (ADDRESSID)
 );
 
@@ -1,15 +1,27 @@
 USE EMAILCLIENT;
 SET FOREIGN_KEY_CHECKS = 0;
 DROP TABLE IF EXISTS Attachments;
+DROP TABLE IF EXISTS AttachmentContent;
 SET FOREIGN_KEY_CHECKS = 1;
 
+CREATE TABLE ATTACHMENTCONTENT (
+  CONTENTHASH CHAR(64) NOT NULL,
+  CONTENTSIZE BIGINT NOT NULL default 0,
+  REFCOUNT int(11) NOT NULL default 0,
+  CONTENT MEDIUMBLOB,
+  PRIMARY KEY (CONTENTHASH)
+);
+
 CREATE TABLE ATTACHMENTS (
   ATTACHMENTID INT(11) NOT NULL auto_increment,
   EMAILID INT(11) NOT NULL,
   FILENAME varchar(100) NOT NULL default '',
   CID varchar(100),
-  ATTACHMENT MEDIUMBLOB, 
+  CONTENTHASH CHAR(64), 
   IS_EMBEDDED int(1) NOT NULL default 0, 
+  IMAPPART varchar(64),
+  PARTSIZE BIGINT,
   CONSTRAINT IS_EMBEDDED_CONSTRAINT CHECK (IS_EMBEDDED IN (1,0)),  
+  CONSTRAINT FK_ATTACHMENTS_CONTENT FOREIGN KEY (CONTENTHASH) REFERENCES ATTACHMENTCONTENT(CONTENTHASH),
   PRIMARY KEY (ATTACHMENTID)
 );
\ No newline at end of file
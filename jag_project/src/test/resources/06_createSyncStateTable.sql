@@ -0,0 +1,12 @@
+USE EMAILCLIENT;
+SET FOREIGN_KEY_CHECKS = 0;
+DROP TABLE IF EXISTS SyncState;
+SET FOREIGN_KEY_CHECKS = 1;
+
+CREATE TABLE SYNCSTATE (
+  ACCOUNT varchar(320) NOT NULL,
+  MAILBOX varchar(255) NOT NULL,
+  UIDVALIDITY bigint NOT NULL,
+  LASTUID bigint NOT NULL,
+  PRIMARY KEY  (ACCOUNT, MAILBOX)
+);
\ No newline at end of file
@@ -0,0 +1,15 @@
+USE EMAILCLIENT;
+SET FOREIGN_KEY_CHECKS = 0;
+DROP TABLE IF EXISTS Outbox;
+SET FOREIGN_KEY_CHECKS = 1;
+
+CREATE TABLE OUTBOX (
+  OUTBOXID int(11) NOT NULL auto_increment,
+  EMAILID int(11) NOT NULL,
+  STATUS varchar(16) NOT NULL DEFAULT 'PENDING',
+  ATTEMPTS int(11) NOT NULL DEFAULT 0,
+  NEXTATTEMPT TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  LASTERROR varchar(1000),
+  CONSTRAINT FK_OUTBOX_EMAIL FOREIGN KEY (EMAILID) REFERENCES EMAIL(EMAILID) ON DELETE CASCADE,
+  PRIMARY KEY  (OUTBOXID)
+);
\ No newline at end of file
@@ -0,0 +1,2 @@
+USE EMAILCLIENT;
+DROP TABLE IF EXISTS SCHEMAVERSION;
\ No newline at end of file